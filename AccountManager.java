@@ -0,0 +1,462 @@
+package anudip2.com;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import anudip.util.AccountNumbers;
+import anudip.util.AsyncEventLog;
+import anudip.util.BalanceAggregates;
+import anudip.util.EventSink;
+import anudip.util.LongIndex;
+import anudip.util.Metrics;
+import anudip.util.Money;
+import anudip.util.OperationMetrics;
+import anudip.util.WithdrawalLimits;
+
+// AccountManager class
+class AccountManager implements AccountService {
+    // Batches smaller than this per lane are applied on the calling thread.
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    // Latency and outcome counts of each operation, by TransactionStatus.
+    private static final OperationMetrics CREATES = Metrics.register("AccountManager.createAccount",
+            TransactionStatus.class);
+    private static final OperationMetrics DEPOSITS = Metrics.register("AccountManager.deposit", TransactionStatus.class);
+    private static final OperationMetrics WITHDRAWALS = Metrics.register("AccountManager.withdraw",
+            TransactionStatus.class);
+    private static final OperationMetrics TRANSFERS = Metrics.register("AccountManager.transfer",
+            TransactionStatus.class);
+
+    // Optimistic reads of a set of accounts before totalBalance locks them instead.
+    private static final int OPTIMISTIC_ATTEMPTS = 8;
+
+    // Richest and poorest accounts the aggregates rank.
+    static final int RANKED_ACCOUNTS = 100;
+
+    // Mutable per-account cell so an update needs one map lookup. Writers hold
+    // its monitor and change the amount only between beginWrite and endWrite,
+    // while the version is odd, so readers can check it like a seqlock and
+    // never take the monitor.
+    static final class Balance {
+        private final long accountNumber;
+        private long amount;
+        private volatile long version;
+
+        Balance(long accountNumber, long amount) {
+            this.accountNumber = accountNumber;
+            this.amount = amount;
+        }
+
+        // Caller holds the monitor.
+        void beginWrite() {
+            version = version + 1;
+            VarHandle.storeStoreFence();
+        }
+
+        // Caller holds the monitor; the volatile write publishes the amount.
+        void endWrite() {
+            version = version + 1;
+        }
+
+        // Caller holds the monitor.
+        void set(long value) {
+            beginWrite();
+            amount = value;
+            endWrite();
+        }
+
+        // Reads the amount without the monitor, retrying while a writer is in set.
+        long read() {
+            for (int spins = 0;; spins++) {
+                long v = version;
+                long value = amount;
+                VarHandle.loadLoadFence();
+                if ((v & 1) == 0 && version == v) {
+                    return value;
+                }
+                backOff(spins);
+            }
+        }
+    }
+
+    // Event types published to the event sink. Amounts and balances are passed
+    // in cents, followed by the account number.
+    static final int EVENT_CREATED = 1;
+    static final int EVENT_DEPOSIT = 2;
+    static final int EVENT_WITHDRAW = 3;
+    static final int EVENT_TRANSFER_OUT = 4;
+    static final int EVENT_TRANSFER_IN = 5;
+
+    // Renders events with the wording the console used to print.
+    static final AsyncEventLog.Formatter EVENT_FORMATTER = (out, type, subject, a, b, c) -> {
+        switch (type) {
+            case EVENT_CREATED -> out.append("Account ").append(c).append(" created, Balance: ");
+            case EVENT_DEPOSIT -> Money.appendTo(out.append(c).append(" Deposited: "), a);
+            case EVENT_WITHDRAW -> Money.appendTo(out.append(c).append(" Withdrew: "), a);
+            case EVENT_TRANSFER_OUT -> Money.appendTo(out.append(c).append(" Transferred out: "), a);
+            case EVENT_TRANSFER_IN -> Money.appendTo(out.append(c).append(" Transferred in: "), a);
+            default -> {
+                out.append("Unknown event ").append(type).append(System.lineSeparator());
+                return;
+            }
+        }
+        if (type != EVENT_CREATED) {
+            out.append(", New Balance: ");
+        }
+        Money.appendTo(out, b).append(System.lineSeparator());
+    };
+
+    // Keyed by the packed account number, so a lookup neither hashes nor
+    // compares strings.
+    private final LongIndex<Balance> accounts = new LongIndex<>();
+    private volatile EventSink events = EventSink.NONE;
+    // Null when withdrawals are not limited.
+    private volatile WithdrawalLimits limits;
+
+    // Totals, distribution and ranking of the balances in cents, reported by
+    // every update while it holds the account's monitor.
+    private final BalanceAggregates aggregates = new BalanceAggregates(new BalanceAggregates.Source() {
+        @Override
+        public int size() {
+            return accounts.size();
+        }
+
+        @Override
+        public long keyAt(int slot) {
+            return accounts.at(slot).accountNumber;
+        }
+
+        @Override
+        public long balanceAt(int slot) {
+            return accounts.at(slot).read();
+        }
+
+        @Override
+        public long balanceOf(long key) {
+            return accounts.get(key).read();
+        }
+    }, RANKED_ACCOUNTS);
+
+    // Sets where successful operations are reported. Nothing on the update
+    // path prints; pass an AsyncEventLog built with EVENT_FORMATTER to log them.
+    // Events are published while the account's monitor is held, so the
+    // events of one account reach the sink in the order the changes were made.
+    @Override
+    public void setEventSink(EventSink sink) {
+        this.events = sink;
+    }
+
+    // Buckets start empty, so setting the rules again forgets what earlier
+    // withdrawals used up.
+    @Override
+    public void setWithdrawalLimits(WithdrawalLimits.Rule... rules) {
+        this.limits = rules.length == 0 ? null : new WithdrawalLimits(rules);
+    }
+
+    @Override
+    public TransactionStatus createAccount(long accountNumber, long initialBalance) {
+        long start = CREATES.start();
+        TransactionStatus status = create(accountNumber, initialBalance);
+        CREATES.record(start, status.ordinal());
+        return status;
+    }
+
+    // Balances never go below zero, which is what lets the updates check for
+    // overflow with a single comparison.
+    private TransactionStatus create(long accountNumber, long initialBalance) {
+        if (!AccountNumbers.isValid(accountNumber)) {
+            return TransactionStatus.INVALID_ACCOUNT;
+        }
+        if (initialBalance < 0) {
+            return TransactionStatus.NON_POSITIVE_AMOUNT;
+        }
+        Balance balance = new Balance(accountNumber, initialBalance);
+        // Held so that no update of the new account reaches the aggregates before it is counted.
+        synchronized (balance) {
+            if (accounts.putIfAbsent(accountNumber, balance) != null) {
+                return TransactionStatus.DUPLICATE_ACCOUNT;
+            }
+            aggregates.opened(accountNumber, initialBalance);
+            events.publish(EVENT_CREATED, null, 0, initialBalance, accountNumber);
+        }
+        return TransactionStatus.OK;
+    }
+
+    @Override
+    public TransactionStatus deposit(long accountNumber, long amount) {
+        long start = DEPOSITS.start();
+        TransactionStatus status = applyDeposit(accountNumber, amount);
+        DEPOSITS.record(start, status.ordinal());
+        return status;
+    }
+
+    private TransactionStatus applyDeposit(long accountNumber, long amount) {
+        if (amount <= 0) {
+            return TransactionStatus.NON_POSITIVE_AMOUNT;
+        }
+        Balance balance = accounts.get(accountNumber);
+        if (balance == null) {
+            return TransactionStatus.INVALID_ACCOUNT;
+        }
+        long newBalance;
+        synchronized (balance) {
+            if (amount > Long.MAX_VALUE - balance.amount) {
+                return TransactionStatus.BALANCE_OVERFLOW;
+            }
+            newBalance = balance.amount + amount;
+            balance.set(newBalance);
+            aggregates.deposited(accountNumber, amount, newBalance);
+            publish(EVENT_DEPOSIT, accountNumber, amount, newBalance);
+        }
+        return TransactionStatus.OK;
+    }
+
+    @Override
+    public TransactionStatus withdraw(long accountNumber, long amount) {
+        long start = WITHDRAWALS.start();
+        TransactionStatus status = applyWithdraw(accountNumber, amount);
+        WITHDRAWALS.record(start, status.ordinal());
+        return status;
+    }
+
+    private TransactionStatus applyWithdraw(long accountNumber, long amount) {
+        if (amount <= 0) {
+            return TransactionStatus.NON_POSITIVE_AMOUNT;
+        }
+        Balance balance = accounts.get(accountNumber);
+        if (balance == null) {
+            return TransactionStatus.INVALID_ACCOUNT;
+        }
+        WithdrawalLimits limits = this.limits;
+        long newBalance;
+        synchronized (balance) {
+            if (amount > balance.amount) {
+                return TransactionStatus.INSUFFICIENT_FUNDS;
+            }
+            // Counted under the monitor, once the withdrawal cannot fail for
+            // any other reason, so nothing has to be given back. The probe
+            // for the slot hits the lines the lookup just read.
+            if (limits != null && limits.tryAcquire(accounts.slotOf(accountNumber), amount) >= 0) {
+                return TransactionStatus.LIMIT_EXCEEDED;
+            }
+            newBalance = balance.amount - amount;
+            balance.set(newBalance);
+            aggregates.withdrew(accountNumber, amount, newBalance);
+            publish(EVENT_WITHDRAW, accountNumber, amount, newBalance);
+        }
+        return TransactionStatus.OK;
+    }
+
+    // Returns Money.INVALID if the account does not exist. Never takes the
+    // account's monitor, so balance checks do not hold up writers.
+    @Override
+    public long getBalance(long accountNumber) {
+        Balance balance = accounts.get(accountNumber);
+        return balance == null ? Money.INVALID : balance.read();
+    }
+
+    // Returns the sum of several accounts' balances as of a single moment, or
+    // Money.INVALID if one of them does not exist, and throws
+    // ArithmeticException if the sum overflows. The balances are read
+    // optimistically and kept only if no account's version moved while they
+    // were read; since versions only grow, comparing their sums before and
+    // after is enough, and the read allocates nothing. After OPTIMISTIC_ATTEMPTS failures the
+    // accounts are locked in account-number order, as a transfer locks them,
+    // which holds up writers of those accounts only.
+    long totalBalance(long... accountNumbers) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long total = 0;
+            long versions = 0;
+            boolean writing = false;
+            boolean overflow = false;
+            for (long accountNumber : accountNumbers) {
+                Balance cell = accounts.get(accountNumber);
+                if (cell == null) {
+                    return Money.INVALID;
+                }
+                long v = cell.version;
+                writing |= (v & 1) != 0;
+                versions += v;
+                // Wraps instead of throwing: a torn read is retried, and only
+                // a consistent total is checked for overflow.
+                total += cell.amount;
+                overflow |= total < 0;
+            }
+            VarHandle.loadLoadFence();
+            for (long accountNumber : accountNumbers) {
+                versions -= accounts.get(accountNumber).version;
+            }
+            if (!writing && versions == 0) {
+                if (overflow) {
+                    throw new ArithmeticException("Total balance overflow");
+                }
+                return total;
+            }
+            backOff(attempt);
+        }
+        long[] lockOrder = accountNumbers.clone();
+        Arrays.sort(lockOrder);
+        return lockedTotal(lockOrder, 0, accountNumbers);
+    }
+
+    // Holds the monitors of lockOrder[from..] in order, then sums every
+    // account. Monitors are reentrant, so a number listed twice is harmless.
+    private long lockedTotal(long[] lockOrder, int from, long[] accountNumbers) {
+        if (from == lockOrder.length) {
+            long total = 0;
+            for (long accountNumber : accountNumbers) {
+                total = Money.add(total, accounts.get(accountNumber).amount);
+            }
+            return total;
+        }
+        synchronized (accounts.get(lockOrder[from])) {
+            return lockedTotal(lockOrder, from + 1, accountNumbers);
+        }
+    }
+
+    // Aggregates of every account's balance in cents. Reading them does not
+    // visit the accounts; BalanceAggregates.scan recomputes them in one
+    // parallel sweep.
+    BalanceAggregates aggregates() {
+        return aggregates;
+    }
+
+    // Spins briefly, then yields, so a reader does not burn the core a
+    // descheduled writer needs to finish.
+    private static void backOff(int attempt) {
+        if (attempt < 16) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    // Moves money between two accounts atomically. Both cells are locked in
+    // account-number order so that opposing transfers cannot deadlock, and
+    // transfers between unrelated accounts never wait on each other.
+    @Override
+    public TransactionStatus transfer(long fromAccount, long toAccount, long amount) {
+        long start = TRANSFERS.start();
+        TransactionStatus status = applyTransfer(fromAccount, toAccount, amount);
+        TRANSFERS.record(start, status.ordinal());
+        return status;
+    }
+
+    private TransactionStatus applyTransfer(long fromAccount, long toAccount, long amount) {
+        if (fromAccount == toAccount) {
+            return TransactionStatus.MALFORMED;
+        }
+        if (amount <= 0) {
+            return TransactionStatus.NON_POSITIVE_AMOUNT;
+        }
+        Balance from = accounts.get(fromAccount);
+        Balance to = accounts.get(toAccount);
+        if (from == null || to == null) {
+            return TransactionStatus.INVALID_ACCOUNT;
+        }
+        Balance first = fromAccount < toAccount ? from : to;
+        Balance second = first == from ? to : from;
+        long fromBalance;
+        long toBalance;
+        synchronized (first) {
+            synchronized (second) {
+                if (amount > from.amount) {
+                    return TransactionStatus.INSUFFICIENT_FUNDS;
+                }
+                if (amount > Long.MAX_VALUE - to.amount) {
+                    return TransactionStatus.BALANCE_OVERFLOW;
+                }
+                fromBalance = from.amount - amount;
+                toBalance = to.amount + amount;
+                // Both versions stay odd until both amounts are written, so
+                // totalBalance never sees the money in neither or both accounts.
+                from.beginWrite();
+                to.beginWrite();
+                from.amount = fromBalance;
+                to.amount = toBalance;
+                from.endWrite();
+                to.endWrite();
+                aggregates.transferred(fromAccount, toAccount, amount, fromBalance, toBalance);
+                publish(EVENT_TRANSFER_OUT, fromAccount, amount, fromBalance);
+                publish(EVENT_TRANSFER_IN, toAccount, amount, toBalance);
+            }
+        }
+        return TransactionStatus.OK;
+    }
+
+    // Applies a batch of transactions without console output or exceptions and
+    // reports a status per row. Rows are split into lanes by account so that
+    // different accounts are processed in parallel while the rows of any one
+    // account keep their order. A batch that contains transfers touches two
+    // accounts per row, so it is applied in row order on the calling thread.
+    @Override
+    public BatchResult applyBatch(List<Transaction> transactions) {
+        int size = transactions.size();
+        TransactionStatus[] statuses = new TransactionStatus[size];
+        int lanes = Math.min(Runtime.getRuntime().availableProcessors(), Math.max(1, size / PARALLEL_THRESHOLD));
+        if (lanes > 1 && containsTransfer(transactions)) {
+            lanes = 1;
+        }
+        if (lanes <= 1) {
+            for (int row = 0; row < size; row++) {
+                statuses[row] = apply(transactions.get(row));
+            }
+            return new BatchResult(statuses);
+        }
+
+        // Counting sort of row numbers by lane, keeping the original order inside each lane.
+        int[] laneOf = new int[size];
+        int[] laneStart = new int[lanes + 1];
+        for (int row = 0; row < size; row++) {
+            Transaction transaction = transactions.get(row);
+            int lane = transaction == null ? 0 : Math.floorMod(LongIndex.mix(transaction.getAccountNumber()), lanes);
+            laneOf[row] = lane;
+            laneStart[lane + 1]++;
+        }
+        for (int lane = 0; lane < lanes; lane++) {
+            laneStart[lane + 1] += laneStart[lane];
+        }
+        int[] rows = new int[size];
+        int[] fill = Arrays.copyOf(laneStart, lanes);
+        for (int row = 0; row < size; row++) {
+            rows[fill[laneOf[row]]++] = row;
+        }
+
+        IntStream.range(0, lanes).parallel().forEach(lane -> {
+            for (int i = laneStart[lane]; i < laneStart[lane + 1]; i++) {
+                int row = rows[i];
+                statuses[row] = apply(transactions.get(row));
+            }
+        });
+        return new BatchResult(statuses);
+    }
+
+    private static boolean containsTransfer(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            if (transaction != null && transaction.getType() == Transaction.Type.TRANSFER) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Validation and update for one batch row.
+    private TransactionStatus apply(Transaction transaction) {
+        if (transaction == null || transaction.getType() == null) {
+            return TransactionStatus.MALFORMED;
+        }
+        if (transaction.getType() == Transaction.Type.TRANSFER) {
+            return transfer(transaction.getAccountNumber(), transaction.getTargetAccountNumber(),
+                    transaction.getAmount());
+        }
+        return transaction.getType() == Transaction.Type.DEPOSIT
+                ? deposit(transaction.getAccountNumber(), transaction.getAmount())
+                : withdraw(transaction.getAccountNumber(), transaction.getAmount());
+    }
+
+    private void publish(int type, long accountNumber, long amount, long balance) {
+        events.publish(type, null, amount, balance, accountNumber);
+    }
+}
@@ -0,0 +1,63 @@
+package anudip2.com;
+
+import java.util.List;
+
+import anudip.util.AccountNumbers;
+import anudip.util.EventSink;
+import anudip.util.WithdrawalLimits;
+
+// Account operations shared by the menu and the file ingester. AccountManager
+// applies them on the calling thread; PartitionedAccountManager hands them to
+// single-writer shards.
+//
+// Accounts are keyed by the packed 16-digit numbers of AccountNumbers, and
+// amounts and balances are whole cents, as in Money. The String overloads are
+// for typed input: they parse the number and report a malformed one as
+// INVALID_ACCOUNT.
+interface AccountService {
+    // Sets where successful operations are reported. Events carry the account
+    // number in their third value and no subject.
+    void setEventSink(EventSink sink);
+
+    // Sets the limits every withdrawal must pass, per account, or removes them
+    // when given no rules. Withdrawals they refuse report LIMIT_EXCEEDED;
+    // transfers are not limited.
+    void setWithdrawalLimits(WithdrawalLimits.Rule... rules);
+
+    TransactionStatus createAccount(long accountNumber, long initialBalance);
+
+    TransactionStatus deposit(long accountNumber, long amount);
+
+    TransactionStatus withdraw(long accountNumber, long amount);
+
+    // Returns Money.INVALID if the account does not exist.
+    long getBalance(long accountNumber);
+
+    TransactionStatus transfer(long fromAccount, long toAccount, long amount);
+
+    // Applies a batch of transactions and reports a status per row.
+    BatchResult applyBatch(List<Transaction> transactions);
+
+    default TransactionStatus createAccount(String accountNumber, long initialBalance) {
+        return createAccount(AccountNumbers.parse(accountNumber), initialBalance);
+    }
+
+    default TransactionStatus deposit(String accountNumber, long amount) {
+        return deposit(AccountNumbers.parse(accountNumber), amount);
+    }
+
+    default TransactionStatus withdraw(String accountNumber, long amount) {
+        return withdraw(AccountNumbers.parse(accountNumber), amount);
+    }
+
+    default long getBalance(String accountNumber) {
+        return getBalance(AccountNumbers.parse(accountNumber));
+    }
+
+    default TransactionStatus transfer(String fromAccount, String toAccount, long amount) {
+        if (fromAccount == null || toAccount == null) {
+            return TransactionStatus.MALFORMED;
+        }
+        return transfer(AccountNumbers.parse(fromAccount), AccountNumbers.parse(toAccount), amount);
+    }
+}
@@ -1,162 +1,235 @@
-package anudip2.com;
-
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
-
-// Define custom exceptions
-class NegativeDepositException extends Exception {
-    public NegativeDepositException(String message) {
-        super(message);
-    }
-}
-
-class InsufficientFundsException extends Exception {
-    public InsufficientFundsException(String message) {
-        super(message);
-    }
-}
-
-class InvalidAccountException extends Exception {
-    public InvalidAccountException(String message) {
-        super(message);
-    }
-}
-
-// AccountManager class
-class AccountManager {
-    private Map<String, Double> accounts = new HashMap<>();
-
-    public void createAccount(String accountNumber, double initialBalance) throws InvalidAccountException {
-        if (accountNumber == null || accountNumber.isEmpty()) {
-            throw new InvalidAccountException("Invalid account number.");
-        }
-        accounts.put(accountNumber, initialBalance);
-        System.out.println("Account created successfully.");
-    }
-
-    public void deposit(String accountNumber, double amount) throws NegativeDepositException, InvalidAccountException {
-        if (amount <= 0) {
-            throw new NegativeDepositException("Deposit amount must be positive.");
-        }
-        if (!accounts.containsKey(accountNumber)) {
-            throw new InvalidAccountException("Account not found.");
-        }
-        double newBalance = accounts.get(accountNumber) + amount;
-        accounts.put(accountNumber, newBalance);
-        System.out.println("Deposited: " + amount + ", New Balance: " + newBalance);
-    }
-
-    public void withdraw(String accountNumber, double amount) throws InsufficientFundsException, InvalidAccountException {
-        if (!accounts.containsKey(accountNumber)) {
-            throw new InvalidAccountException("Account not found.");
-        }
-        double currentBalance = accounts.get(accountNumber);
-        if (amount > currentBalance) {
-            throw new InsufficientFundsException("Insufficient funds. Available balance: " + currentBalance);
-        }
-        double newBalance = currentBalance - amount;
-        accounts.put(accountNumber, newBalance);
-        System.out.println("Withdrew: " + amount + ", New Balance: " + newBalance);
-    }
-
-    public double getBalance(String accountNumber) throws InvalidAccountException {
-        if (!accounts.containsKey(accountNumber)) {
-            throw new InvalidAccountException("Account not found.");
-        }
-        return accounts.get(accountNumber);
-    }
-}
-
-// Main class
-public class BankingApplication {
-    public static void main(String[] args) {
-        Scanner scanner = new Scanner(System.in);
-        AccountManager accountManager = new AccountManager();
-        boolean exit = false;
-
-        while (!exit) {
-            System.out.println("\nBanking Application Menu:");
-            System.out.println("1. Create Account");
-            System.out.println("2. Deposit Money");
-            System.out.println("3. Withdraw Money");
-            System.out.println("4. Check Balance");
-            System.out.println("5. Exit");
-            System.out.print("Enter your choice: ");
-            int choice = scanner.nextInt();
-            scanner.nextLine(); // Consume newline
-
-            switch (choice) {
-                case 1:
-                    createAccount(scanner, accountManager);
-                    break;
-                case 2:
-                    performDeposit(scanner, accountManager);
-                    break;
-                case 3:
-                    performWithdrawal(scanner, accountManager);
-                    break;
-                case 4:
-                    checkBalance(scanner, accountManager);
-                    break;
-                case 5:
-                    exit = true;
-                    break;
-                default:
-                    System.out.println("Invalid choice. Please try again.");
-            }
-        }
-        scanner.close();
-    }
-
-    private static void createAccount(Scanner scanner, AccountManager accountManager) {
-        try {
-            System.out.print("Enter account number: ");
-            String accountNumber = scanner.nextLine();
-            System.out.print("Enter initial balance: ");
-            double initialBalance = scanner.nextDouble();
-            scanner.nextLine(); // Consume newline
-            accountManager.createAccount(accountNumber, initialBalance);
-        } catch (InvalidAccountException e) {
-            System.out.println(e.getMessage());
-        }
-    }
-
-    private static void performDeposit(Scanner scanner, AccountManager accountManager) {
-        try {
-            System.out.print("Enter account number: ");
-            String accountNumber = scanner.nextLine();
-            System.out.print("Enter amount to deposit: ");
-            double amount = scanner.nextDouble();
-            scanner.nextLine(); // Consume newline
-            accountManager.deposit(accountNumber, amount);
-        } catch (InvalidAccountException | NegativeDepositException e) {
-            System.out.println(e.getMessage());
-        }
-    }
-
-    private static void performWithdrawal(Scanner scanner, AccountManager accountManager) {
-        try {
-            System.out.print("Enter account number: ");
-            String accountNumber = scanner.nextLine();
-            System.out.print("Enter amount to withdraw: ");
-            double amount = scanner.nextDouble();
-            scanner.nextLine(); // Consume newline
-            accountManager.withdraw(accountNumber, amount);
-        } catch (InvalidAccountException | InsufficientFundsException e) {
-            System.out.println(e.getMessage());
-        }
-    }
-
-    private static void checkBalance(Scanner scanner, AccountManager accountManager) {
-        try {
-            System.out.print("Enter account number: ");
-            String accountNumber = scanner.nextLine();
-            double balance = accountManager.getBalance(accountNumber);
-            System.out.println("Current Balance: " + balance);
-        } catch (InvalidAccountException e) {
-            System.out.println(e.getMessage());
-        }
-    }
-}
-
+package anudip2.com;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Scanner;
+
+import anudip.util.AsyncEventLog;
+import anudip.util.BalanceAggregates;
+import anudip.util.Metrics;
+import anudip.util.Money;
+import anudip.util.WithdrawalLimits;
+
+// Main class. The menus only read input and print the outcome; setting the
+// anudip.eventlog system property to a file path also logs every operation
+// there through an asynchronous event log, and anudip.metrics.file appends
+// operation metrics to a file periodically (see Metrics). Setting
+// anudip2.shards to a positive number partitions the accounts across that
+// many single-writer shards (see PartitionedAccountManager), and
+// anudip.limits.daily and anudip.limits.perMinute limit the withdrawals from
+// each account (see WithdrawalLimits).
+public class BankingApplication {
+    private static final int MAX_REJECTS_SHOWN = 20;
+
+    public static void main(String[] args) throws IOException {
+        Scanner scanner = new Scanner(System.in);
+        int shards = Integer.getInteger("anudip2.shards", 0);
+        AccountService accountManager = shards > 0 ? new PartitionedAccountManager(shards) : new AccountManager();
+        accountManager.setWithdrawalLimits(WithdrawalLimits.rulesFromProperties());
+        String eventLogPath = System.getProperty("anudip.eventlog");
+        Writer eventWriter = null;
+        AsyncEventLog eventLog = null;
+        if (eventLogPath != null) {
+            eventWriter = Files.newBufferedWriter(Path.of(eventLogPath), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+            eventLog = new AsyncEventLog(1 << 16, AccountManager.EVENT_FORMATTER, eventWriter);
+            accountManager.setEventSink(eventLog);
+        }
+        Closeable metricsDump = Metrics.dumpFromProperties();
+        boolean exit = false;
+
+        while (!exit) {
+            System.out.println("\nBanking Application Menu:");
+            System.out.println("1. Create Account");
+            System.out.println("2. Deposit Money");
+            System.out.println("3. Withdraw Money");
+            System.out.println("4. Check Balance");
+            System.out.println("5. Transfer Money");
+            System.out.println("6. Process Transaction File");
+            System.out.println("7. Show Account Statistics");
+            System.out.println("8. Exit");
+            System.out.print("Enter your choice: ");
+            int choice = scanner.nextInt();
+            scanner.nextLine(); // Consume newline
+
+            switch (choice) {
+                case 1:
+                    createAccount(scanner, accountManager);
+                    break;
+                case 2:
+                    performDeposit(scanner, accountManager);
+                    break;
+                case 3:
+                    performWithdrawal(scanner, accountManager);
+                    break;
+                case 4:
+                    checkBalance(scanner, accountManager);
+                    break;
+                case 5:
+                    performTransfer(scanner, accountManager);
+                    break;
+                case 6:
+                    processTransactionFile(scanner, accountManager);
+                    break;
+                case 7:
+                    showStatistics(accountManager);
+                    break;
+                case 8:
+                    exit = true;
+                    break;
+                default:
+                    System.out.println("Invalid choice. Please try again.");
+            }
+        }
+        scanner.close();
+        if (accountManager instanceof PartitionedAccountManager partitioned) {
+            partitioned.close();
+        }
+        if (eventLog != null) {
+            eventLog.close();
+            eventWriter.close();
+        }
+        metricsDump.close();
+    }
+
+    private static void createAccount(Scanner scanner, AccountService accountManager) {
+        System.out.print("Enter account number: ");
+        String accountNumber = scanner.nextLine();
+        System.out.print("Enter initial balance: ");
+        long initialBalance = readAmount(scanner);
+        if (initialBalance == Money.INVALID) {
+            return;
+        }
+        TransactionStatus status = accountManager.createAccount(accountNumber, initialBalance);
+        switch (status) {
+            case OK -> System.out.println("Account created successfully.");
+            case INVALID_ACCOUNT -> System.out.println("Invalid account number: it must have 16 digits.");
+            case NON_POSITIVE_AMOUNT -> System.out.println("Initial balance cannot be negative.");
+            default -> System.out.println(status.getMessage());
+        }
+    }
+
+    private static void performDeposit(Scanner scanner, AccountService accountManager) {
+        System.out.print("Enter account number: ");
+        String accountNumber = scanner.nextLine();
+        System.out.print("Enter amount to deposit: ");
+        long amount = readAmount(scanner);
+        if (amount == Money.INVALID) {
+            return;
+        }
+        TransactionStatus status = accountManager.deposit(accountNumber, amount);
+        switch (status) {
+            case OK -> System.out.println(
+                    "Deposited: " + Money.toString(amount) + ", New Balance: "
+                            + Money.toString(accountManager.getBalance(accountNumber)));
+            case NON_POSITIVE_AMOUNT -> System.out.println("Deposit amount must be positive.");
+            default -> System.out.println(status.getMessage());
+        }
+    }
+
+    private static void performWithdrawal(Scanner scanner, AccountService accountManager) {
+        System.out.print("Enter account number: ");
+        String accountNumber = scanner.nextLine();
+        System.out.print("Enter amount to withdraw: ");
+        long amount = readAmount(scanner);
+        if (amount == Money.INVALID) {
+            return;
+        }
+        TransactionStatus status = accountManager.withdraw(accountNumber, amount);
+        switch (status) {
+            case OK -> System.out.println(
+                    "Withdrew: " + Money.toString(amount) + ", New Balance: "
+                            + Money.toString(accountManager.getBalance(accountNumber)));
+            case INSUFFICIENT_FUNDS -> System.out.println(
+                    "Insufficient funds. Available balance: "
+                            + Money.toString(accountManager.getBalance(accountNumber)));
+            case NON_POSITIVE_AMOUNT -> System.out.println("Withdrawal amount must be positive.");
+            default -> System.out.println(status.getMessage());
+        }
+    }
+
+    private static void performTransfer(Scanner scanner, AccountService accountManager) {
+        System.out.print("Enter source account number: ");
+        String fromAccount = scanner.nextLine();
+        System.out.print("Enter destination account number: ");
+        String toAccount = scanner.nextLine();
+        System.out.print("Enter amount to transfer: ");
+        long amount = readAmount(scanner);
+        if (amount == Money.INVALID) {
+            return;
+        }
+        TransactionStatus status = accountManager.transfer(fromAccount, toAccount, amount);
+        if (status == TransactionStatus.OK) {
+            System.out.println("Transferred: " + Money.toString(amount) + " from " + fromAccount + " to " + toAccount);
+        } else {
+            System.out.println(status.getMessage());
+        }
+    }
+
+    private static void processTransactionFile(Scanner scanner, AccountService accountManager) {
+        System.out.print("Enter transaction file path (.csv or .bin): ");
+        Path file = Path.of(scanner.nextLine().trim());
+        int[] shown = {0};
+        TransactionFileReader.RejectListener listener = (row, status) -> {
+            if (shown[0]++ < MAX_REJECTS_SHOWN) {
+                System.out.println("Row " + row + " rejected: " + status.getMessage());
+            }
+        };
+        try {
+            TransactionFileReader.Report report = file.toString().endsWith(".bin")
+                    ? TransactionFileReader.ingestBinary(file, accountManager, listener)
+                    : TransactionFileReader.ingestCsv(file, accountManager, listener);
+            System.out.println(report);
+        } catch (IOException e) {
+            System.out.println("Could not read transaction file: " + e.getMessage());
+        }
+    }
+
+    // Reads totals and the richest accounts from the aggregates, without
+    // visiting every account. The shards keep no aggregates.
+    private static void showStatistics(AccountService accountManager) {
+        if (!(accountManager instanceof AccountManager manager)) {
+            System.out.println("Statistics are not kept when accounts are partitioned across shards.");
+            return;
+        }
+        BalanceAggregates aggregates = manager.aggregates();
+        System.out.println("Accounts: " + aggregates.accounts());
+        System.out.println("Total Balance: " + Money.toString(aggregates.totalBalance()));
+        System.out.println("Deposits: " + aggregates.deposits() + ", Total: "
+                + Money.toString(aggregates.totalDeposited()));
+        System.out.println("Withdrawals: " + aggregates.withdrawals() + ", Total: "
+                + Money.toString(aggregates.totalWithdrawn()));
+        System.out.println("Transfers: " + aggregates.transfers() + ", Total: "
+                + Money.toString(aggregates.totalTransferred()));
+        System.out.println("Highest Balance: " + Money.toString(aggregates.maxBalance()));
+        System.out.println("Lowest Balance: " + Money.toString(aggregates.minBalance()));
+        System.out.println("Richest Accounts:");
+        for (BalanceAggregates.Ranked ranked : aggregates.highest(5)) {
+            System.out.println("  " + ranked.key() + ": " + Money.toString(ranked.balance()));
+        }
+    }
+
+    // Reads a line as an amount in cents, or reports it and returns Money.INVALID.
+    private static long readAmount(Scanner scanner) {
+        long amount = Money.parse(scanner.nextLine());
+        if (amount == Money.INVALID) {
+            System.out.println("Invalid amount: enter a number with at most two decimal places.");
+        }
+        return amount;
+    }
+
+    private static void checkBalance(Scanner scanner, AccountService accountManager) {
+        System.out.print("Enter account number: ");
+        String accountNumber = scanner.nextLine();
+        long balance = accountManager.getBalance(accountNumber);
+        if (balance == Money.INVALID) {
+            System.out.println(TransactionStatus.INVALID_ACCOUNT.getMessage());
+        } else {
+            System.out.println("Current Balance: " + Money.toString(balance));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package anudip2.com;
+
+// Per-row outcome of a batch. Row numbers match the positions in the batch.
+final class BatchResult {
+    private final TransactionStatus[] statuses;
+    private final int applied;
+
+    BatchResult(TransactionStatus[] statuses) {
+        this.statuses = statuses;
+        int ok = 0;
+        for (TransactionStatus status : statuses) {
+            if (status == TransactionStatus.OK) {
+                ok++;
+            }
+        }
+        this.applied = ok;
+    }
+
+    int size() {
+        return statuses.length;
+    }
+
+    TransactionStatus status(int row) {
+        return statuses[row];
+    }
+
+    int applied() {
+        return applied;
+    }
+
+    int rejected() {
+        return statuses.length - applied;
+    }
+}
@@ -0,0 +1,159 @@
+package anudip3.com;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+import anudip.util.RecordCursor;
+import anudip.util.RecordPipeline;
+import anudip.util.RecordWriter;
+
+// Bulk import and export of customers, as CSV or in a compact binary format.
+//
+// A CSV file starts with an "id,name,email" header and holds one customer
+// per row, with names and emails quoted when they contain a comma, a quote
+// or a line break. A binary file starts with MAGIC and VERSION, followed by
+// one record per customer: a varint length, the ID as a big-endian int, and
+// the name and email as varint-length-prefixed UTF-8. Files whose name ends
+// in .csv are CSV; any other is binary.
+//
+// An import runs in a RecordPipeline: rows are parsed into customers on every
+// core, while the calling thread adds each batch in file order. Rows with a
+// bad ID, a blank name or a missing field are rejected.
+final class CustomerFiles {
+    static final int MAGIC = 0x41435553;
+    static final int VERSION = 1;
+
+    private static final byte[] CSV_HEADER = "id,name,email\n".getBytes(StandardCharsets.US_ASCII);
+
+    // Customers parsed from one chunk
+    static final class Batch {
+        final List<Customer> customers = new ArrayList<>();
+        int malformed;
+    }
+
+    // Writes customers, one per accept(); I/O errors surface as UncheckedIOException
+    static final class Exporter implements Consumer<Customer>, Closeable {
+        private final RecordWriter out;
+        private final boolean csv;
+        private long rows;
+
+        Exporter(Path file) throws IOException {
+            this.out = new RecordWriter(file);
+            this.csv = isCsv(file);
+            if (csv) {
+                for (byte b : CSV_HEADER) {
+                    out.writeByte(b);
+                }
+            } else {
+                out.writeInt(MAGIC).writeInt(VERSION);
+            }
+        }
+
+        @Override
+        public void accept(Customer customer) {
+            try {
+                if (csv) {
+                    out.writeDecimal(customer.getId()).writeByte(',').writeCsvField(customer.getName())
+                            .writeByte(',').writeCsvField(customer.getEmail()).writeByte('\n');
+                } else {
+                    int name = RecordWriter.utf8Length(customer.getName());
+                    int email = RecordWriter.utf8Length(customer.getEmail());
+                    int length = 4 + RecordWriter.varintSize(name) + name + RecordWriter.varintSize(email) + email;
+                    out.writeVarint(length).writeInt(customer.getId())
+                            .writeString(customer.getName()).writeString(customer.getEmail());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            rows++;
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private CustomerFiles() {
+    }
+
+    // Read every customer in a file and pass them to the loader in batches
+    static RecordPipeline.Report load(Path file, RecordPipeline.Loader<Batch> loader,
+            RecordPipeline.Progress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (isCsv(file)) {
+                skipHeader(channel);
+                return RecordPipeline.run(channel, RecordCursor.CSV_ROWS, CustomerFiles::parseCsv, loader, progress);
+            }
+            RecordPipeline.readHeader(channel, MAGIC, VERSION);
+            return RecordPipeline.run(channel, RecordCursor.BINARY_RECORDS, CustomerFiles::parseBinary, loader,
+                    progress);
+        }
+    }
+
+    private static boolean isCsv(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+
+    // Leave the channel after the header row, if the file has one
+    private static void skipHeader(FileChannel channel) throws IOException {
+        ByteBuffer start = ByteBuffer.allocate(CSV_HEADER.length + 1);
+        while (start.hasRemaining() && channel.read(start) >= 0) {
+            // Keep reading until the buffer is full or the file ends.
+        }
+        int end = 0;
+        while (end < start.position() && start.get(end) != '\n') {
+            end++;
+        }
+        String first = new String(start.array(), 0, end, StandardCharsets.US_ASCII).strip();
+        channel.position(first.equalsIgnoreCase("id,name,email") ? end + 1 : 0);
+    }
+
+    private static Batch parseCsv(byte[] bytes, int from, int to) {
+        Batch batch = new Batch();
+        RecordCursor cursor = new RecordCursor();
+        cursor.reset(bytes, from, to);
+        while (cursor.nextRow()) {
+            long id = cursor.nextField() ? cursor.intValue() : RecordCursor.NOT_AN_INT;
+            String name = cursor.nextField() && !cursor.isBlank() ? cursor.string() : null;
+            String email = cursor.nextField() ? cursor.string() : null;
+            if (id == RecordCursor.NOT_AN_INT || name == null || email == null || cursor.nextField()) {
+                batch.malformed++;
+            } else {
+                batch.customers.add(new Customer((int) id, name, email));
+            }
+        }
+        return batch;
+    }
+
+    private static Batch parseBinary(byte[] bytes, int from, int to) {
+        Batch batch = new Batch();
+        RecordCursor cursor = new RecordCursor();
+        cursor.reset(bytes, from, to);
+        while (cursor.nextRecord()) {
+            int id = cursor.readInt();
+            String name = cursor.readString();
+            String email = cursor.readString();
+            if (cursor.recordComplete() && !name.isBlank()) {
+                batch.customers.add(new Customer(id, name, email));
+            } else {
+                batch.malformed++;
+            }
+        }
+        return batch;
+    }
+}
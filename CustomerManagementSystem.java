@@ -23,21 +23,59 @@ operations:
 
 package anudip3.com;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.text.Collator;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Scanner;
 
+import anudip.util.Metrics;
+import anudip.util.OperationMetrics;
+import anudip.util.RecordPipeline;
+
 public class CustomerManagementSystem {
-    private List<Customer> customers;
+    // Latency and outcome counts of the operations, readable through Metrics
+    private static final OperationMetrics ADDS = Metrics.register("CustomerManagementSystem.addCustomer",
+            "ADDED", "DUPLICATE_ID", "DUPLICATE_EMAIL");
+    private static final OperationMetrics REMOVES = Metrics.register("CustomerManagementSystem.removeCustomer",
+            "REMOVED", "NOT_FOUND");
+    private static final OperationMetrics SEARCHES = Metrics.register("CustomerManagementSystem.searchCustomer",
+            "FOUND", "NOT_FOUND");
+    private static final OperationMetrics EMAIL_SEARCHES = Metrics.register(
+            "CustomerManagementSystem.searchCustomerByEmail", "FOUND", "NOT_FOUND");
+
+    // Outcomes of an add, in the order ADDS counts them
+    private static final int ADDED = 0;
+    private static final int DUPLICATE_ID = 1;
+    private static final int DUPLICATE_EMAIL = 2;
+
+    private CustomerRepository customers;
+    private CustomerStore store; // null when customers live only in memory
+    private boolean loaded = true; // whether customers holds every stored customer
+    private Comparator<Customer> listOrder;
+    private Collator nameCollator;
     private Scanner scanner;
 
     public CustomerManagementSystem() {
-        this.customers = new ArrayList<>();
+        this.customers = new CustomerRepository();
         this.scanner = new Scanner(System.in);
     }
 
+    // Open a system whose customers persist in a directory. Customers are
+    // read from the store on demand, so opening takes the same time however
+    // many there are; the store also finds them by ID and email, and the
+    // sorted and domain indexes are only filled on the first list or page.
+    public static CustomerManagementSystem open(Path directory) throws IOException {
+        CustomerManagementSystem cms = new CustomerManagementSystem();
+        cms.store = CustomerStore.open(directory);
+        cms.loaded = false;
+        return cms;
+    }
+
     // Add a new customer
     public void addCustomer() {
         System.out.println("Enter customer ID:");
@@ -49,8 +87,49 @@ public class CustomerManagementSystem {
         String email = scanner.nextLine();
 
         Customer newCustomer = new Customer(id, name, email);
-        customers.add(newCustomer);
-        System.out.println("Customer added successfully.");
+        int outcome = recordAdd(newCustomer);
+        if (outcome == ADDED) {
+            sync();
+            System.out.println("Customer added successfully.");
+        } else if (outcome == DUPLICATE_ID) {
+            System.out.println("Customer with ID " + id + " already exists.");
+        } else {
+            System.out.println("Customer with email " + email.strip() + " already exists.");
+        }
+    }
+
+    // Add a customer without prompting; returns false if the ID or the
+    // email, ignoring case and surrounding spaces, is taken
+    public boolean addCustomer(Customer customer) {
+        return recordAdd(customer) == ADDED;
+    }
+
+    private int recordAdd(Customer customer) {
+        long start = ADDS.start();
+        int outcome = add(customer);
+        ADDS.record(start, outcome);
+        return outcome;
+    }
+
+    // With a store, the store's own ID and email tables decide uniqueness,
+    // and the in-memory indexes are only kept up to date once filled.
+    private int add(Customer customer) {
+        if (store != null) {
+            if (store.findByEmail(customer.getEmail()) != null) {
+                return DUPLICATE_EMAIL;
+            }
+            if (!store.add(customer)) {
+                return DUPLICATE_ID;
+            }
+            if (loaded) {
+                customers.add(customer);
+            }
+            return ADDED;
+        }
+        if (customers.add(customer)) {
+            return ADDED;
+        }
+        return customers.find(customer.getId()) != null ? DUPLICATE_ID : DUPLICATE_EMAIL;
     }
 
     // Remove a customer by ID
@@ -58,14 +137,35 @@ public class CustomerManagementSystem {
         System.out.println("Enter customer ID to remove:");
         int id = scanner.nextInt();
 
-        boolean removed = customers.removeIf(customer -> customer.getId() == id);
-        if (removed) {
+        if (removeCustomer(id)) {
+            sync();
             System.out.println("Customer removed successfully.");
         } else {
             System.out.println("Customer with ID " + id + " not found.");
         }
     }
 
+    // Remove a customer by ID without prompting; returns false if not found
+    public boolean removeCustomer(int id) {
+        long start = REMOVES.start();
+        boolean removed = remove(id);
+        REMOVES.record(start, removed ? 0 : 1);
+        return removed;
+    }
+
+    private boolean remove(int id) {
+        if (store == null) {
+            return customers.remove(id) != null;
+        }
+        if (!store.remove(id)) {
+            return false;
+        }
+        if (loaded) {
+            customers.remove(id);
+        }
+        return true;
+    }
+
     // Search for a customer by ID
     public void searchCustomerById() {
         System.out.println("Enter customer ID to search:");
@@ -79,23 +179,94 @@ public class CustomerManagementSystem {
         }
     }
 
-    // Helper method to search for a customer
-    private Customer searchCustomer(int id) {
-        for (Customer customer : customers) {
-            if (customer.getId() == id) {
-                return customer;
+    // Search for a customer by ID without prompting; returns null if not found
+    public Customer searchCustomer(int id) {
+        long start = SEARCHES.start();
+        Customer customer = store != null ? store.find(id) : customers.find(id);
+        SEARCHES.record(start, customer != null ? 0 : 1);
+        return customer;
+    }
+
+    // Search for a customer by email
+    public void searchCustomerByEmail() {
+        System.out.println("Enter customer email to search:");
+        String email = scanner.nextLine();
+
+        Customer customer = searchCustomer(email);
+        if (customer != null) {
+            System.out.println("Customer found: " + customer);
+        } else {
+            System.out.println("Customer with email " + email.strip() + " not found.");
+        }
+    }
+
+    // Search for a customer by email, ignoring case and surrounding spaces,
+    // without prompting; returns null if not found
+    public Customer searchCustomer(String email) {
+        long start = EMAIL_SEARCHES.start();
+        Customer customer = store != null ? store.findByEmail(email) : customers.findByEmail(email);
+        EMAIL_SEARCHES.record(start, customer != null ? 0 : 1);
+        return customer;
+    }
+
+    // List the customers of an email domain
+    public void listCustomersByEmailDomain() {
+        System.out.println("Enter email domain (e.g. example.com):");
+        String domain = scanner.nextLine();
+
+        List<Customer> found = getCustomersByEmailDomain(domain, 0, Integer.MAX_VALUE);
+        if (found.isEmpty()) {
+            System.out.println("No customers with an email at " + domain.strip() + ".");
+        } else {
+            System.out.println(found.size() + " customers with an email at " + domain.strip() + ":");
+            for (Customer customer : found) {
+                System.out.println(customer);
             }
         }
-        return null;
+    }
+
+    // One page of the customers whose email is in a domain, given as
+    // "example.com" or "@example.com", in ID order; costs O(log n + limit)
+    public List<Customer> getCustomersByEmailDomain(String domain, int offset, int limit) {
+        return repository().pageByEmailDomain(domain, offset, limit);
+    }
+
+    // Customers in the order chosen by the last sort, or insertion order
+    public List<Customer> getCustomers() {
+        if (listOrder == CustomerRepository.BY_NAME && nameCollator != null) {
+            return repository().sortedByName(nameCollator);
+        }
+        if (listOrder == CustomerRepository.BY_NAME) {
+            return repository().sortedByName();
+        }
+        if (listOrder == CustomerRepository.BY_ID) {
+            return repository().sortedById();
+        }
+        return repository().inInsertionOrder();
+    }
+
+    // One page of customers in the order chosen by the last sort; sorted
+    // pages cost O(log n + limit), insertion-order pages O(n) and collated
+    // pages a full sort
+    public List<Customer> getCustomerPage(int offset, int limit) {
+        if (listOrder == CustomerRepository.BY_NAME && nameCollator == null) {
+            return repository().pageByName(offset, limit);
+        }
+        if (listOrder == CustomerRepository.BY_ID) {
+            return repository().pageById(offset, limit);
+        }
+        List<Customer> all = getCustomers();
+        int from = Math.min(Math.max(offset, 0), all.size());
+        return all.subList(from, (int) Math.min((long) from + Math.max(limit, 0), all.size()));
     }
 
     // List all customers
     public void listAllCustomers() {
-        if (customers.isEmpty()) {
+        if (store != null ? store.isEmpty() : customers.isEmpty()) {
             System.out.println("No customers available.");
         } else {
             System.out.println("All Customers:");
-            for (Customer customer : customers) {
+            for (Customer customer : getCustomers()) {
                 System.out.println(customer);
             }
         }
@@ -103,14 +274,82 @@ public class CustomerManagementSystem {
 
     // Sort customers by name
     public void sortCustomersByName() {
-        Collections.sort(customers, Comparator.comparing(Customer::getName));
-        System.out.println("Customers sorted by name.");
+        listOrder = CustomerRepository.BY_NAME;
+        nameCollator = null;
+    }
+
+    // Sort customers by name under a language's alphabetical rules
+    public void sortCustomersByName(Locale locale) {
+        listOrder = CustomerRepository.BY_NAME;
+        nameCollator = Collator.getInstance(locale);
     }
 
     // Sort customers by ID
     public void sortCustomersById() {
-        Collections.sort(customers, Comparator.comparingInt(Customer::getId));
-        System.out.println("Customers sorted by ID.");
+        listOrder = CustomerRepository.BY_ID;
+        nameCollator = null;
+    }
+
+    // Make the changes so far durable; a no-op without a store
+    public void sync() {
+        if (store != null) {
+            try {
+                store.sync();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // Sync and close the store, if any
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    // The in-memory indexes, filled from the store on first use
+    private CustomerRepository repository() {
+        if (!loaded) {
+            store.forEach(customers::restore);
+            loaded = true;
+        }
+        return customers;
+    }
+
+    // Add every customer in a file, in file order, and sync once at the end.
+    // Rows are parsed on every core while earlier ones are being added; rows
+    // that are malformed or whose ID or email is taken are counted as rejected. The
+    // file is CSV if its name ends in .csv, and a binary export otherwise.
+    public RecordPipeline.Report importCustomers(Path file, RecordPipeline.Progress progress) throws IOException {
+        RecordPipeline.Report result = CustomerFiles.load(file, (batch, report) -> {
+            int added = 0;
+            for (Customer customer : batch.customers) {
+                if (add(customer) == ADDED) {
+                    added++;
+                }
+            }
+            report.loaded(added);
+            report.rejected(batch.customers.size() - added + batch.malformed);
+        }, progress);
+        sync();
+        return result;
+    }
+
+    // Write every customer to a file, in the order chosen by the last sort;
+    // returns the number written. Unsorted customers are streamed straight
+    // from the store without filling the in-memory indexes.
+    public long exportCustomers(Path file) throws IOException {
+        try (CustomerFiles.Exporter exporter = new CustomerFiles.Exporter(file)) {
+            if (listOrder == null && store != null) {
+                store.forEach(exporter);
+            } else {
+                getCustomers().forEach(exporter);
+            }
+            return exporter.rows();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     // Display menu and handle user input
@@ -123,7 +362,11 @@ public class CustomerManagementSystem {
             System.out.println("4. List All Customers");
             System.out.println("5. Sort Customers by Name");
             System.out.println("6. Sort Customers by ID");
-            System.out.println("7. Exit");
+            System.out.println("7. Import Customers");
+            System.out.println("8. Export Customers");
+            System.out.println("9. Search Customer by Email");
+            System.out.println("10. List Customers by Email Domain");
+            System.out.println("11. Exit");
             System.out.print("Choose an option: ");
             
             int choice = scanner.nextInt();
@@ -144,13 +387,40 @@ public class CustomerManagementSystem {
                     break;
                 case 5:
                     sortCustomersByName();
+                    System.out.println("Customers sorted by name.");
                     listAllCustomers();
                     break;
                 case 6:
                     sortCustomersById();
+                    System.out.println("Customers sorted by ID.");
                     listAllCustomers();
                     break;
                 case 7:
+                    System.out.print("Enter the file to import (.csv or binary): ");
+                    try {
+                        RecordPipeline.Report report = importCustomers(Path.of(scanner.nextLine()),
+                                RecordPipeline.Progress.printTo(System.out));
+                        System.out.println();
+                        System.out.println(report);
+                    } catch (IOException e) {
+                        System.out.println("Error: " + e.getMessage());
+                    }
+                    break;
+                case 8:
+                    System.out.print("Enter the file to export to (.csv or binary): ");
+                    try {
+                        System.out.println(exportCustomers(Path.of(scanner.nextLine())) + " customers exported.");
+                    } catch (IOException e) {
+                        System.out.println("Error: " + e.getMessage());
+                    }
+                    break;
+                case 9:
+                    searchCustomerByEmail();
+                    break;
+                case 10:
+                    listCustomersByEmailDomain();
+                    break;
+                case 11:
                     System.out.println("Exiting...");
                     scanner.close();
                     return;
@@ -160,8 +430,12 @@ public class CustomerManagementSystem {
         }
     }
 
-    public static void main(String[] args) {
-        CustomerManagementSystem cms = new CustomerManagementSystem();
+    public static void main(String[] args) throws IOException {
+        Path dataDir = Path.of(System.getProperty("anudip3.data.dir", "customer-data"));
+        CustomerManagementSystem cms = CustomerManagementSystem.open(dataDir);
+        Closeable metricsDump = Metrics.dumpFromProperties();
         cms.displayMenu();
+        cms.close();
+        metricsDump.close();
     }
 }
@@ -0,0 +1,356 @@
+package anudip3.com;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import anudip.util.KeySorter;
+
+// Customer store indexed by ID. An open-addressing int[] table maps each ID to
+// the customer's position in an insertion-ordered array, so search and remove
+// are O(1) and never box the ID. Removing leaves a hole in the array that is
+// compacted away once holes outnumber customers. Two SortedIndex B+trees keep
+// the customers ordered by name and by ID as they change, so a sorted
+// page costs O(log n + page) and nothing is ever re-sorted. Orders that
+// depend on a locale's collator are sorted on request by KeySorter, which
+// computes each name's collation key once. An EmailIndex finds customers by
+// normalized email and by email domain, and keeps emails unique.
+//
+// Writers take the write lock. Searches read optimistically and only fall
+// back to the read lock when they race with a writer; sorted reads take the
+// read lock.
+public class CustomerRepository {
+    static final Comparator<Customer> BY_NAME = Comparator.comparing(Customer::getName)
+            .thenComparingInt(Customer::getId);
+    static final Comparator<Customer> BY_ID = Comparator.comparingInt(Customer::getId);
+
+    private static final int MIN_CAPACITY = 16;
+
+    // One generation of the hash table. positions[i] holds the array position
+    // plus one, so 0 marks an empty cell and every int is a usable ID.
+    private static final class Table {
+        final int[] ids;
+        final int[] positions;
+        final int mask;
+
+        Table(int capacity) {
+            this.ids = new int[capacity];
+            this.positions = new int[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private Table table = new Table(MIN_CAPACITY * 2);
+    private Customer[] customers = new Customer[MIN_CAPACITY];
+    private int end;
+    private volatile int size;
+    private final SortedIndex<Customer> byName = new SortedIndex<>(BY_NAME);
+    private final SortedIndex<Customer> byId = new SortedIndex<>(BY_ID);
+    private final EmailIndex byEmail = new EmailIndex();
+
+    // Adds a customer; returns false if a customer with the same ID or the
+    // same normalized email exists.
+    public boolean add(Customer customer) {
+        return insert(customer, true);
+    }
+
+    // Adds a customer read back from storage; returns false if a customer
+    // with the same ID exists. Emails are not checked, since customers
+    // stored before emails were unique may share one.
+    public boolean restore(Customer customer) {
+        return insert(customer, false);
+    }
+
+    private boolean insert(Customer customer, boolean uniqueEmail) {
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            int i = indexOf(t, customer.getId());
+            if (t.positions[i] != 0) {
+                return false;
+            }
+            if (uniqueEmail) {
+                if (!byEmail.add(customer)) {
+                    return false;
+                }
+            } else {
+                byEmail.addDuplicate(customer);
+            }
+            if (end == customers.length) {
+                if (end - size >= size) {
+                    compact(Math.max(MIN_CAPACITY, size * 2));
+                } else {
+                    customers = Arrays.copyOf(customers, end * 2);
+                }
+            }
+            if ((size + 1) * 2 > t.ids.length) {
+                t = rehash(t.ids.length * 2);
+                i = indexOf(t, customer.getId());
+            }
+            customers[end] = customer;
+            t.ids[i] = customer.getId();
+            t.positions[i] = ++end;
+            size++;
+            byName.add(customer);
+            byId.add(customer);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Removes and returns the customer with the given ID, or null if none.
+    public Customer remove(int id) {
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            int i = indexOf(t, id);
+            if (t.positions[i] == 0) {
+                return null;
+            }
+            int position = t.positions[i] - 1;
+            Customer removed = customers[position];
+            customers[position] = null;
+            delete(t, i);
+            size--;
+            byName.remove(removed);
+            byId.remove(removed);
+            byEmail.remove(removed);
+            if (end - size > size && end > MIN_CAPACITY) {
+                compact(Math.max(MIN_CAPACITY, customers.length / 2));
+            }
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Returns the customer with the given ID, or null if none.
+    public Customer find(int id) {
+        long stamp = lock.tryOptimisticRead();
+        Customer customer = probe(id);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                customer = probe(id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return customer;
+    }
+
+    // Returns the customer with the email, compared after normalizing, or
+    // null if none.
+    public Customer findByEmail(String email) {
+        long stamp = lock.readLock();
+        try {
+            return byEmail.find(email);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Up to limit customers with an email in the domain, given as
+    // "example.com" or "@example.com", in ID order, skipping the first offset.
+    public List<Customer> pageByEmailDomain(String domain, int offset, int limit) {
+        long stamp = lock.readLock();
+        try {
+            return Collections.unmodifiableList(byEmail.pageByDomain(domain, offset, limit));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // The number of customers with an email in the domain.
+    public int countByEmailDomain(String domain) {
+        long stamp = lock.readLock();
+        try {
+            return byEmail.countByDomain(domain);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Unmodifiable snapshot in the order the customers were added.
+    public List<Customer> inInsertionOrder() {
+        long stamp = lock.readLock();
+        try {
+            return Collections.unmodifiableList(collect());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Unmodifiable snapshot sorted by name, then ID.
+    public List<Customer> sortedByName() {
+        return pageByName(0, Integer.MAX_VALUE);
+    }
+
+    // Unmodifiable snapshot sorted by name under the collator's rules, then
+    // ID. The sort is stable, so starting from ID order breaks ties by ID.
+    public List<Customer> sortedByName(Collator collator) {
+        Customer[] snapshot;
+        long stamp = lock.readLock();
+        try {
+            snapshot = byId.page(0, Integer.MAX_VALUE).toArray(new Customer[0]);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        // Collators are not thread-safe and the keys are computed in parallel.
+        ThreadLocal<Collator> collators = ThreadLocal.withInitial(() -> (Collator) collator.clone());
+        KeySorter.sort(snapshot, customer -> collators.get().getCollationKey(customer.getName()).toByteArray());
+        return Collections.unmodifiableList(Arrays.asList(snapshot));
+    }
+
+    // Unmodifiable snapshot sorted by ID.
+    public List<Customer> sortedById() {
+        return pageById(0, Integer.MAX_VALUE);
+    }
+
+    // Up to limit customers in name order, skipping the first offset.
+    public List<Customer> pageByName(int offset, int limit) {
+        return page(byName, offset, limit);
+    }
+
+    // Up to limit customers in ID order, skipping the first offset.
+    public List<Customer> pageById(int offset, int limit) {
+        return page(byId, offset, limit);
+    }
+
+    // Up to limit customers in name order, starting at the first with this
+    // name or the next name after it.
+    public List<Customer> fromName(String name, int limit) {
+        return from(byName, new Customer(Integer.MIN_VALUE, name, null), limit);
+    }
+
+    // Up to limit customers in ID order, starting at this ID or the next one.
+    public List<Customer> fromId(int id, int limit) {
+        return from(byId, new Customer(id, null, null), limit);
+    }
+
+    private List<Customer> page(SortedIndex<Customer> index, int offset, int limit) {
+        long stamp = lock.readLock();
+        try {
+            return Collections.unmodifiableList(index.page(offset, limit));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private List<Customer> from(SortedIndex<Customer> index, Customer key, int limit) {
+        long stamp = lock.readLock();
+        try {
+            return Collections.unmodifiableList(index.from(key, limit));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private List<Customer> collect() {
+        List<Customer> list = new ArrayList<>(size);
+        for (int position = 0; position < end; position++) {
+            if (customers[position] != null) {
+                list.add(customers[position]);
+            }
+        }
+        return list;
+    }
+
+    // May run without a lock, so it must not fail or spin on a table that a
+    // writer is changing; the caller discards the result in that case.
+    private Customer probe(int id) {
+        Table t = table;
+        Customer[] all = customers;
+        int i = mix(id) & t.mask;
+        for (int n = 0; n <= t.mask; n++) {
+            int position = t.positions[i] - 1;
+            if (position < 0) {
+                return null;
+            }
+            if (t.ids[i] == id) {
+                return position < all.length ? all[position] : null;
+            }
+            i = (i + 1) & t.mask;
+        }
+        return null;
+    }
+
+    // Index of the cell holding the ID, or of the empty cell where it belongs.
+    private static int indexOf(Table t, int id) {
+        int i = mix(id) & t.mask;
+        while (t.positions[i] != 0 && t.ids[i] != id) {
+            i = (i + 1) & t.mask;
+        }
+        return i;
+    }
+
+    // Backward-shift deletion: moves later entries of the probe run into the
+    // gap so that lookups never need tombstones.
+    private static void delete(Table t, int gap) {
+        int j = gap;
+        while (true) {
+            j = (j + 1) & t.mask;
+            if (t.positions[j] == 0) {
+                break;
+            }
+            int home = mix(t.ids[j]) & t.mask;
+            boolean reachable = gap <= j ? gap < home && home <= j : gap < home || home <= j;
+            if (!reachable) {
+                t.ids[gap] = t.ids[j];
+                t.positions[gap] = t.positions[j];
+                gap = j;
+            }
+        }
+        t.positions[gap] = 0;
+    }
+
+    private Table rehash(int capacity) {
+        Table old = table;
+        Table t = new Table(capacity);
+        for (int j = 0; j < old.ids.length; j++) {
+            if (old.positions[j] != 0) {
+                int i = indexOf(t, old.ids[j]);
+                t.ids[i] = old.ids[j];
+                t.positions[i] = old.positions[j];
+            }
+        }
+        table = t;
+        return t;
+    }
+
+    // Closes the holes left by removals, keeping insertion order, and
+    // repoints the table at the new positions.
+    private void compact(int capacity) {
+        Customer[] packed = new Customer[Math.max(capacity, size)];
+        int count = 0;
+        Table t = table;
+        for (int position = 0; position < end; position++) {
+            Customer customer = customers[position];
+            if (customer != null) {
+                packed[count] = customer;
+                t.positions[indexOf(t, customer.getId())] = ++count;
+            }
+        }
+        customers = packed;
+        end = count;
+    }
+
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,714 @@
+package anudip3.com;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+// Persistent customer store in two memory-mapped files.
+//
+// customers.dat is a log of records, each [int length][int crc32c][payload]
+// padded to 8 bytes: an add carries the ID, name and email, a remove only
+// the ID. It is mapped in 64 MiB segments on first touch, and no record
+// crosses a segment: one that does not fit leaves a padding length of -1
+// and moves to the next segment, and a length of 0 ends the log.
+// customers.idx is an open-addressing table of [int id][int slot] cells,
+// where slot is the record offset / 8 + 1 and 0 marks an empty cell, behind
+// a header that records the data end, the customer count and whether the
+// table is clean. A second table of as many [int email hash][int slot] cells
+// follows it, holding every customer with an email under the hash of the
+// email as EmailIndex normalizes it, so an email can be checked for
+// uniqueness without reading the log.
+//
+// Opening reads the header and maps the files, so it takes the same time
+// however many customers there are. A search probes the mapped table and
+// decodes only the record it finds, or, by email, the records whose email
+// has the same hash. Adds and removes append a record and
+// update the table in place; sync() forces both files and marks the table
+// clean. The header is marked dirty, and forced, before the first change
+// after a sync, so a table that a crash left half-written is never trusted:
+// the next open rebuilds it by replaying records up to the first torn one.
+// Once dead records outweigh live ones the log is rewritten into a new file
+// that atomically replaces the old one.
+//
+// All methods are synchronized.
+public class CustomerStore implements Closeable {
+    private static final String DATA_FILE = "customers.dat";
+    private static final String INDEX_FILE = "customers.idx";
+    private static final int DATA_MAGIC = 0x43535444;
+    private static final int INDEX_MAGIC = 0x43535449;
+    private static final int VERSION = 1;
+
+    private static final int SEGMENT_BITS = 26;
+    private static final int SEGMENT = 1 << SEGMENT_BITS;
+    private static final int DATA_START = 64;
+    private static final int RECORD_HEADER = 8;
+    private static final int PADDING = -1;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final long COMPACT_THRESHOLD = 1 << 20;
+
+    // Index header fields, then the cells.
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int STATE_AT = 8;
+    private static final int CAPACITY_AT = 12;
+    private static final int COUNT_AT = 16;
+    private static final int DATA_END_AT = 24;
+    private static final int LIVE_BYTES_AT = 32;
+    private static final int INDEX_HEADER = 64;
+    private static final int CELL = 8;
+    private static final int CLEAN = 1;
+    private static final int DIRTY = 2;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    // A data file mapped one segment at a time, on first touch.
+    private static final class DataFile {
+        final FileChannel channel;
+        MappedByteBuffer[] segments = new MappedByteBuffer[4];
+
+        DataFile(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        MappedByteBuffer segment(int index) throws IOException {
+            if (index >= segments.length) {
+                segments = Arrays.copyOf(segments, Math.max(index + 1, segments.length * 2));
+            }
+            if (segments[index] == null) {
+                segments[index] = channel.map(FileChannel.MapMode.READ_WRITE, (long) index << SEGMENT_BITS, SEGMENT);
+            }
+            return segments[index];
+        }
+
+        // Forces the mapped segments that hold bytes [from, to).
+        void force(long from, long to) {
+            for (int s = segmentOf(from); s <= segmentOf(to - 1) && s < segments.length; s++) {
+                if (segments[s] != null) {
+                    segments[s].force();
+                }
+            }
+        }
+    }
+
+    private final Path directory;
+    private final FileChannel indexChannel;
+    private final CRC32C crc = new CRC32C();
+    private DataFile file;
+    private MappedByteBuffer index;
+    private MappedByteBuffer emails;
+    private int capacity;
+    private int mask;
+    private int count;
+    private long appendPos;
+    private long syncedEnd;
+    private long liveBytes;
+    private boolean dirty;
+
+    private CustomerStore(Path directory, DataFile file, FileChannel indexChannel) {
+        this.directory = directory;
+        this.file = file;
+        this.indexChannel = indexChannel;
+    }
+
+    // Opens the store in a directory, creating it if missing. Rebuilds the
+    // index first if the store was not synced before it was last closed.
+    public static CustomerStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel data = FileChannel.open(directory.resolve(DATA_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel indexChannel;
+        try {
+            indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        CustomerStore store = new CustomerStore(directory, new DataFile(data), indexChannel);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            data.close();
+            indexChannel.close();
+            throw e;
+        }
+        return store;
+    }
+
+    private void load() throws IOException {
+        if (file.channel.size() == 0) {
+            MappedByteBuffer first = file.segment(0);
+            first.putInt(0, DATA_MAGIC).putInt(4, VERSION);
+            first.force();
+            createIndex(MIN_CAPACITY);
+            appendPos = DATA_START;
+            sync();
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(8);
+        file.channel.read(header, 0);
+        if (header.getInt(0) != DATA_MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a customer store: " + directory.resolve(DATA_FILE));
+        }
+        long size = indexChannel.size();
+        if (size >= INDEX_HEADER) {
+            MappedByteBuffer fields = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, INDEX_HEADER);
+            capacity = fields.getInt(CAPACITY_AT);
+            // An index written before the email table was added is rebuilt.
+            if (fields.getInt(MAGIC_AT) == INDEX_MAGIC && fields.getInt(VERSION_AT) == VERSION
+                    && fields.getInt(STATE_AT) == CLEAN && size == INDEX_HEADER + (long) capacity * CELL * 2) {
+                index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) capacity * CELL);
+                emails = indexChannel.map(FileChannel.MapMode.READ_WRITE, INDEX_HEADER + (long) capacity * CELL,
+                        (long) capacity * CELL);
+                mask = capacity - 1;
+                count = index.getInt(COUNT_AT);
+                appendPos = index.getLong(DATA_END_AT);
+                syncedEnd = appendPos;
+                liveBytes = index.getLong(LIVE_BYTES_AT);
+                return;
+            }
+        }
+        recover();
+    }
+
+    // Adds a customer; returns false if a customer with the same ID exists.
+    // The add is durable once sync() returns.
+    public synchronized boolean add(Customer customer) {
+        try {
+            int cell = cellOf(customer.getId());
+            if (index.getInt(cell + 4) != 0) {
+                return false;
+            }
+            beginUpdate();
+            byte[] name = bytes(customer.getName());
+            byte[] email = bytes(customer.getEmail());
+            long position = append(ADD, customer.getId(), name, email);
+            liveBytes += appendPos - position;
+            if ((count + 1) * 2 > capacity) {
+                resize(capacity * 2);
+                cell = cellOf(customer.getId());
+            }
+            index.putInt(cell, customer.getId()).putInt(cell + 4, slotOf(position));
+            addEmail(customer.getEmail(), slotOf(position));
+            count++;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Removes the customer with the given ID; returns false if none. The
+    // removal is durable once sync() returns.
+    public synchronized boolean remove(int id) {
+        try {
+            int cell = cellOf(id);
+            int slot = index.getInt(cell + 4);
+            if (slot == 0) {
+                return false;
+            }
+            beginUpdate();
+            append(REMOVE, id, null, null);
+            liveBytes -= recordSize(positionOf(slot));
+            removeEmail(slot);
+            delete(index, INDEX_HEADER, cell);
+            count--;
+            if (appendPos > COMPACT_THRESHOLD && appendPos - DATA_START - liveBytes > liveBytes) {
+                compact();
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns the customer with the given ID, or null if none.
+    public synchronized Customer find(int id) {
+        int slot = index.getInt(cellOf(id) + 4);
+        try {
+            return slot == 0 ? null : decode(positionOf(slot));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns a customer with the given email, compared after normalizing,
+    // or null if none. Only records whose email has the same hash are read.
+    public synchronized Customer findByEmail(String email) {
+        String normalized = EmailIndex.normalize(email);
+        if (normalized == null) {
+            return null;
+        }
+        int hash = normalized.hashCode();
+        try {
+            for (int i = mix(hash) & mask;; i = (i + 1) & mask) {
+                int cell = i * CELL;
+                int slot = emails.getInt(cell + 4);
+                if (slot == 0) {
+                    return null;
+                }
+                if (emails.getInt(cell) == hash) {
+                    Customer customer = decode(positionOf(slot));
+                    if (normalized.equals(EmailIndex.normalize(customer.getEmail()))) {
+                        return customer;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    // Passes every customer to the action in the order they were added.
+    public synchronized void forEach(Consumer<? super Customer> action) {
+        try {
+            for (long position = DATA_START; position < appendPos;) {
+                ByteBuffer segment = file.segment(segmentOf(position));
+                int offset = offsetOf(position);
+                int length = segment.getInt(offset);
+                if (length == PADDING) {
+                    position = nextSegment(position);
+                    continue;
+                }
+                if (segment.get(offset + RECORD_HEADER) == ADD && isLive(segment, offset, position)) {
+                    action.accept(decode(position));
+                }
+                position += align(RECORD_HEADER + length);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Forces every change so far to disk and marks the index clean.
+    public synchronized void sync() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        file.force(syncedEnd, appendPos);
+        index.force();
+        emails.force();
+        index.putInt(COUNT_AT, count).putLong(DATA_END_AT, appendPos).putLong(LIVE_BYTES_AT, liveBytes)
+                .putInt(STATE_AT, CLEAN);
+        index.force(0, INDEX_HEADER);
+        syncedEnd = appendPos;
+        dirty = false;
+    }
+
+    // Syncs and closes the files.
+    @Override
+    public synchronized void close() throws IOException {
+        if (!file.channel.isOpen()) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            file.channel.close();
+            indexChannel.close();
+        }
+    }
+
+    // Marks the index dirty on disk before the first change after a sync.
+    private void beginUpdate() {
+        if (!dirty) {
+            index.putInt(STATE_AT, DIRTY);
+            index.force(0, INDEX_HEADER);
+            dirty = true;
+        }
+    }
+
+    // Writes a record at the end of the log and returns its position.
+    private long append(byte kind, int id, byte[] name, byte[] email) throws IOException {
+        int length = 1 + 4 + (kind == ADD ? 4 + length(name) + 4 + length(email) : 0);
+        int size = align(RECORD_HEADER + length);
+        if (size > SEGMENT) {
+            throw new IllegalArgumentException("Customer record too large.");
+        }
+        long position = offsetOf(appendPos) + size > SEGMENT ? nextSegment(appendPos) : appendPos;
+        if (slotOf(position) <= 0) {
+            throw new IllegalStateException("Customer store is full.");
+        }
+        if (position != appendPos) {
+            file.segment(segmentOf(appendPos)).putInt(offsetOf(appendPos), PADDING);
+        }
+        ByteBuffer segment = file.segment(segmentOf(position));
+        int offset = offsetOf(position);
+        int at = offset + RECORD_HEADER;
+        segment.put(at, kind).putInt(at + 1, id);
+        if (kind == ADD) {
+            at = putBytes(segment, at + 5, name);
+            putBytes(segment, at, email);
+        }
+        crc.reset();
+        crc.update(segment.slice(offset + RECORD_HEADER, length));
+        segment.putInt(offset, length).putInt(offset + 4, (int) crc.getValue());
+        appendPos = position + size;
+        return position;
+    }
+
+    private Customer decode(long position) throws IOException {
+        ByteBuffer segment = file.segment(segmentOf(position));
+        int at = offsetOf(position) + RECORD_HEADER;
+        int id = segment.getInt(at + 1);
+        int nameLength = segment.getInt(at + 5);
+        String name = string(segment, at + 9, nameLength);
+        at += 9 + Math.max(nameLength, 0);
+        return new Customer(id, name, string(segment, at + 4, segment.getInt(at)));
+    }
+
+    // Decodes only the email of the add record at this position.
+    private String emailOf(long position) throws IOException {
+        ByteBuffer segment = file.segment(segmentOf(position));
+        int at = offsetOf(position) + RECORD_HEADER;
+        at += 9 + Math.max(segment.getInt(at + 5), 0);
+        return string(segment, at + 4, segment.getInt(at));
+    }
+
+    private int recordSize(long position) throws IOException {
+        return align(RECORD_HEADER + file.segment(segmentOf(position)).getInt(offsetOf(position)));
+    }
+
+    // Whether the add record at this position is the one the index points to.
+    private boolean isLive(ByteBuffer segment, int offset, long position) {
+        int id = segment.getInt(offset + RECORD_HEADER + 1);
+        return index.getInt(cellOf(id) + 4) == slotOf(position);
+    }
+
+    // Rebuilds the index by replaying the log after a crash. Replay stops at
+    // the end of the log or the first torn record, and everything after it
+    // is cleared so that a stale record there can never be replayed by a
+    // later recovery.
+    private void recover() throws IOException {
+        createIndex(MIN_CAPACITY);
+        count = 0;
+        liveBytes = 0;
+        long end = file.channel.size();
+        long position = DATA_START;
+        while (position < end) {
+            ByteBuffer segment = file.segment(segmentOf(position));
+            int offset = offsetOf(position);
+            int length = segment.getInt(offset);
+            if (length == PADDING) {
+                position = nextSegment(position);
+                continue;
+            }
+            if (length < 5 || length > SEGMENT - offset - RECORD_HEADER) {
+                break;
+            }
+            crc.reset();
+            crc.update(segment.slice(offset + RECORD_HEADER, length));
+            if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+                break;
+            }
+            int id = segment.getInt(offset + RECORD_HEADER + 1);
+            int cell = cellOf(id);
+            int slot = index.getInt(cell + 4);
+            if (slot != 0) {
+                liveBytes -= recordSize(positionOf(slot));
+                removeEmail(slot);
+                delete(index, INDEX_HEADER, cell);
+                count--;
+            }
+            if (segment.get(offset + RECORD_HEADER) == ADD) {
+                if ((count + 1) * 2 > capacity) {
+                    resize(capacity * 2);
+                }
+                index.putInt(cellOf(id), id).putInt(cellOf(id) + 4, slotOf(position));
+                addEmail(emailOf(position), slotOf(position));
+                liveBytes += align(RECORD_HEADER + length);
+                count++;
+            }
+            position += align(RECORD_HEADER + length);
+        }
+        appendPos = Math.min(position, end);
+        int last = segmentOf(appendPos);
+        ByteBuffer segment = file.segment(last);
+        for (int offset = offsetOf(appendPos); offset < SEGMENT; offset += 8) {
+            segment.putLong(offset, 0);
+        }
+        Arrays.fill(file.segments, last + 1, file.segments.length, null);
+        file.channel.truncate((long) (last + 1) << SEGMENT_BITS);
+        file.force(DATA_START, (long) (last + 1) << SEGMENT_BITS);
+        syncedEnd = appendPos;
+        sync();
+    }
+
+    // Rewrites the live records, in order, into a new data file that then
+    // replaces the old one. The new slots are collected off to the side and
+    // written into the tables only once the rename is forced to disk, so a
+    // failed copy leaves the tables pointing into the old file. The index
+    // stays dirty until the new slots are synced, so a crash at any point
+    // recovers from whichever file is there.
+    private void compact() throws IOException {
+        Path temporary = directory.resolve(DATA_FILE + ".tmp");
+        Path data = directory.resolve(DATA_FILE);
+        DataFile target = new DataFile(FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        // Triples of [ID cell, email cell or -1, new slot].
+        int[] moved = new int[count * 3];
+        int movedCount = 0;
+        long to = DATA_START;
+        try {
+            target.segment(0).putInt(0, DATA_MAGIC).putInt(4, VERSION);
+            for (long position = DATA_START; position < appendPos;) {
+                ByteBuffer segment = file.segment(segmentOf(position));
+                int offset = offsetOf(position);
+                int length = segment.getInt(offset);
+                if (length == PADDING) {
+                    position = nextSegment(position);
+                    continue;
+                }
+                int size = align(RECORD_HEADER + length);
+                if (segment.get(offset + RECORD_HEADER) == ADD && isLive(segment, offset, position)) {
+                    if (offsetOf(to) + size > SEGMENT) {
+                        target.segment(segmentOf(to)).putInt(offsetOf(to), PADDING);
+                        to = nextSegment(to);
+                    }
+                    target.segment(segmentOf(to)).put(offsetOf(to), segment, offset, size);
+                    moved[movedCount++] = cellOf(segment.getInt(offset + RECORD_HEADER + 1));
+                    moved[movedCount++] = emailCellOf(position);
+                    moved[movedCount++] = slotOf(to);
+                    to += size;
+                }
+                position += size;
+            }
+            target.force(0, to);
+        } catch (IOException | RuntimeException e) {
+            target.channel.close();
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        // The old file is closed first, as Windows cannot replace an open one.
+        file.channel.close();
+        try {
+            Files.move(temporary, data, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            target.channel.close();
+            file = new DataFile(FileChannel.open(data, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            throw e;
+        }
+        file = target;
+        try {
+            syncDirectory();
+        } finally {
+            // The new file is the one open now, so the tables follow it even
+            // if the directory could not be forced; they then stay dirty.
+            for (int i = 0; i < movedCount; i += 3) {
+                index.putInt(moved[i] + 4, moved[i + 2]);
+                if (moved[i + 1] >= 0) {
+                    emails.putInt(moved[i + 1] + 4, moved[i + 2]);
+                }
+            }
+            appendPos = to;
+            syncedEnd = to;
+        }
+        sync();
+    }
+
+    // Forces the directory entries, so that a rename is on disk. Windows
+    // cannot open a directory as a channel and has no way to force one.
+    private void syncDirectory() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (AccessDeniedException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    // Recreates the index file with empty tables, marked dirty.
+    private void createIndex(int capacity) throws IOException {
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("Customer store is full.");
+        }
+        indexChannel.truncate(0);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, INDEX_HEADER + (long) capacity * CELL);
+        emails = indexChannel.map(FileChannel.MapMode.READ_WRITE, INDEX_HEADER + (long) capacity * CELL,
+                (long) capacity * CELL);
+        index.putInt(MAGIC_AT, INDEX_MAGIC).putInt(VERSION_AT, VERSION).putInt(STATE_AT, DIRTY)
+                .putInt(CAPACITY_AT, capacity);
+        index.force(0, INDEX_HEADER);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        dirty = true;
+    }
+
+    private void resize(int newCapacity) throws IOException {
+        int[] cells = new int[capacity * 2];
+        int[] emails = new int[capacity * 2];
+        index.slice(INDEX_HEADER, capacity * CELL).asIntBuffer().get(cells);
+        this.emails.slice(0, capacity * CELL).asIntBuffer().get(emails);
+        createIndex(newCapacity);
+        for (int j = 0; j < cells.length; j += 2) {
+            if (cells[j + 1] != 0) {
+                int cell = cellOf(cells[j]);
+                index.putInt(cell, cells[j]).putInt(cell + 4, cells[j + 1]);
+            }
+            if (emails[j + 1] != 0) {
+                int cell = emptyEmailCell(emails[j]);
+                this.emails.putInt(cell, emails[j]).putInt(cell + 4, emails[j + 1]);
+            }
+        }
+    }
+
+    // Indexes the record at the slot under its email, if it has one.
+    private void addEmail(String email, int slot) {
+        String normalized = EmailIndex.normalize(email);
+        if (normalized != null) {
+            int cell = emptyEmailCell(normalized.hashCode());
+            emails.putInt(cell, normalized.hashCode()).putInt(cell + 4, slot);
+        }
+    }
+
+    // Drops the email cell of the record at the slot, if it has one.
+    private void removeEmail(int slot) throws IOException {
+        int cell = emailCellOf(positionOf(slot));
+        if (cell >= 0) {
+            delete(emails, 0, cell);
+        }
+    }
+
+    // Byte offset of the email cell of the add record at this position, or
+    // -1 if it has no email.
+    private int emailCellOf(long position) throws IOException {
+        String normalized = EmailIndex.normalize(emailOf(position));
+        if (normalized == null) {
+            return -1;
+        }
+        int slot = slotOf(position);
+        for (int i = mix(normalized.hashCode()) & mask;; i = (i + 1) & mask) {
+            int cell = i * CELL;
+            int found = emails.getInt(cell + 4);
+            if (found == slot) {
+                return cell;
+            }
+            if (found == 0) {
+                return -1;
+            }
+        }
+    }
+
+    // Byte offset of the first empty email cell on the hash's probe path.
+    private int emptyEmailCell(int hash) {
+        int i = mix(hash) & mask;
+        while (emails.getInt(i * CELL + 4) != 0) {
+            i = (i + 1) & mask;
+        }
+        return i * CELL;
+    }
+
+    // Byte offset of the cell holding the ID, or of the empty cell where it
+    // belongs.
+    private int cellOf(int id) {
+        int i = mix(id) & mask;
+        while (true) {
+            int cell = INDEX_HEADER + i * CELL;
+            if (index.getInt(cell + 4) == 0 || index.getInt(cell) == id) {
+                return cell;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    // Backward-shift deletion, as in CustomerRepository, from a table whose
+    // cells start at base; both tables hash the first int of a cell.
+    private void delete(MappedByteBuffer table, int base, int cell) {
+        int gap = (cell - base) / CELL;
+        int j = gap;
+        while (true) {
+            j = (j + 1) & mask;
+            int at = base + j * CELL;
+            if (table.getInt(at + 4) == 0) {
+                break;
+            }
+            int home = mix(table.getInt(at)) & mask;
+            boolean reachable = gap <= j ? gap < home && home <= j : gap < home || home <= j;
+            if (!reachable) {
+                int to = base + gap * CELL;
+                table.putInt(to, table.getInt(at)).putInt(to + 4, table.getInt(at + 4));
+                gap = j;
+            }
+        }
+        table.putInt(base + gap * CELL + 4, 0);
+    }
+
+    private static int putBytes(ByteBuffer segment, int at, byte[] bytes) {
+        if (bytes == null) {
+            segment.putInt(at, -1);
+            return at + 4;
+        }
+        segment.putInt(at, bytes.length).put(at + 4, bytes);
+        return at + 4 + bytes.length;
+    }
+
+    private static String string(ByteBuffer segment, int at, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        segment.get(at, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String text) {
+        return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private static int segmentOf(long position) {
+        return (int) (position >>> SEGMENT_BITS);
+    }
+
+    private static int offsetOf(long position) {
+        return (int) (position & (SEGMENT - 1));
+    }
+
+    private static long nextSegment(long position) {
+        return (long) (segmentOf(position) + 1) << SEGMENT_BITS;
+    }
+
+    private static int slotOf(long position) {
+        long slot = (position >>> 3) + 1;
+        return slot > Integer.MAX_VALUE ? -1 : (int) slot;
+    }
+
+    private static long positionOf(int slot) {
+        return (long) (slot - 1) << 3;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,109 @@
+package anudip3.com;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Secondary index of customers by email. Emails are normalized by trimming
+// them and lower-casing them, so "Jo@Example.com " and "jo@example.com" are
+// the same address. A hash map finds the customer with an address in O(1),
+// and the customers of each domain, the part after the last '@', sit in a
+// SortedIndex of their own in ID order, so a page of one domain costs
+// O(log n + page) however many other domains there are. Customers without
+// an email are not indexed. Not thread-safe; CustomerRepository guards it
+// with its lock.
+final class EmailIndex {
+    private final Map<String, Customer> byEmail = new HashMap<>();
+    private final Map<String, SortedIndex<Customer>> byDomain = new HashMap<>();
+    // Customers that share an email with the one in byEmail; the first takes
+    // its place when it is removed.
+    private final Map<String, List<Customer>> shadowed = new HashMap<>();
+
+    // The form emails are compared in, or null for a missing or blank email.
+    static String normalize(String email) {
+        if (email == null || email.isBlank()) {
+            return null;
+        }
+        return email.strip().toLowerCase(Locale.ROOT);
+    }
+
+    // The domain of a normalized email, or of a domain typed as "@domain";
+    // empty if the email has no '@'.
+    static String domainOf(String email) {
+        return email.substring(email.lastIndexOf('@') + 1);
+    }
+
+    // Indexes a customer; returns false, and changes nothing, if another
+    // customer has the same email.
+    boolean add(Customer customer) {
+        String email = normalize(customer.getEmail());
+        if (email == null) {
+            return true;
+        }
+        if (byEmail.putIfAbsent(email, customer) != null) {
+            return false;
+        }
+        byDomain.computeIfAbsent(domainOf(email), domain -> new SortedIndex<>(CustomerRepository.BY_ID))
+                .add(customer);
+        return true;
+    }
+
+    // Indexes a customer even if another has the same email, as customers
+    // stored before emails were unique may. Lookups by email find the first
+    // still present.
+    void addDuplicate(Customer customer) {
+        String email = normalize(customer.getEmail());
+        if (email != null) {
+            if (byEmail.putIfAbsent(email, customer) != null) {
+                shadowed.computeIfAbsent(email, key -> new ArrayList<>()).add(customer);
+            }
+            byDomain.computeIfAbsent(domainOf(email), domain -> new SortedIndex<>(CustomerRepository.BY_ID))
+                    .add(customer);
+        }
+    }
+
+    void remove(Customer customer) {
+        String email = normalize(customer.getEmail());
+        if (email == null) {
+            return;
+        }
+        List<Customer> others = shadowed.get(email);
+        if (others != null) {
+            if (!others.remove(customer)) {
+                byEmail.put(email, others.remove(0));
+            }
+            if (others.isEmpty()) {
+                shadowed.remove(email);
+            }
+        } else {
+            byEmail.remove(email, customer);
+        }
+        String domain = domainOf(email);
+        SortedIndex<Customer> customers = byDomain.get(domain);
+        if (customers != null && customers.remove(customer) && customers.size() == 0) {
+            byDomain.remove(domain);
+        }
+    }
+
+    // The customer with this email, or null if none.
+    Customer find(String email) {
+        String key = normalize(email);
+        return key == null ? null : byEmail.get(key);
+    }
+
+    // Up to limit customers of a domain in ID order, skipping the first offset.
+    List<Customer> pageByDomain(String domain, int offset, int limit) {
+        String key = normalize(domain);
+        SortedIndex<Customer> customers = key == null ? null : byDomain.get(domainOf(key));
+        return customers == null ? new ArrayList<>() : customers.page(offset, limit);
+    }
+
+    // The number of customers with an email in the domain.
+    int countByDomain(String domain) {
+        String key = normalize(domain);
+        SortedIndex<Customer> customers = key == null ? null : byDomain.get(domainOf(key));
+        return customers == null ? 0 : customers.size();
+    }
+}
@@ -13,22 +13,44 @@ Each title is stored as a string in an array. The library wants to be able to do
 
 package anudip1.com;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.Collator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Scanner;
 
+import anudip.util.Metrics;
+import anudip.util.OperationMetrics;
+import anudip.util.RecordPipeline;
+
 /**
  * Utility class for managing a list of book titles in a library system.
+ * Titles are held in a compact {@link TitleStore} and indexed by a
+ * {@link TitleIndex} for word, phrase, prefix and fuzzy search. The latency
+ * and outcome of each operation are recorded in {@link Metrics}. Titles are
+ * imported and exported in bulk, as CSV or binary, by {@link TitleFiles}.
  */
 public class LibraryUtility {
-    private List<String> bookTitles;
+    private static final int SEARCH_RESULTS = 10;
+    private static final OperationMetrics ADDS = Metrics.register("LibraryUtility.addBookTitle", "ADDED", "INVALID");
+    private static final OperationMetrics REMOVES = Metrics.register("LibraryUtility.removeBookTitle",
+            "REMOVED", "NOT_FOUND");
+    private static final OperationMetrics SEARCHES = Metrics.register("LibraryUtility.searchBookTitle",
+            "FOUND", "NOT_FOUND");
+    private static final OperationMetrics FINDS = Metrics.register("LibraryUtility.findBookTitles",
+            "MATCHED", "NO_MATCH");
+
+    private TitleStore bookTitles;
+    private TitleIndex titleIndex;
 
     /**
      * Constructor initializes an empty list of book titles.
      */
     public LibraryUtility() {
-        this.bookTitles = new ArrayList<>();
+        this.bookTitles = new TitleStore();
+        this.titleIndex = new TitleIndex(bookTitles);
     }
 
     /**
@@ -38,10 +60,16 @@ public class LibraryUtility {
      * @throws IllegalArgumentException if the title is null or empty
      */
     public void addBookTitle(String title) {
+        long start = ADDS.start();
         if (title == null || title.trim().isEmpty()) {
+            ADDS.record(start, 1);
             throw new IllegalArgumentException("Invalid title. Cannot be null or empty.");
         }
-        bookTitles.add(title);
+        int id = bookTitles.add(title);
+        if (bookTitles.listedOnce(id)) {
+            titleIndex.add(id, title);
+        }
+        ADDS.record(start, 0);
     }
 
     /**
@@ -54,11 +82,21 @@ public class LibraryUtility {
         if (title == null) {
             throw new IllegalArgumentException("Title cannot be null.");
         }
-        if (bookTitles.contains(title)) {
-            bookTitles.remove(title);
-        } else {
+        long start = REMOVES.start();
+        int id = bookTitles.find(title);
+        if (id == TitleStore.NONE) {
+            REMOVES.record(start, 1);
             System.out.println("Title not found.");
+            return;
+        }
+        if (bookTitles.listedOnce(id)) {
+            titleIndex.remove(id, title);
+        }
+        bookTitles.removeFirst(id);
+        if (bookTitles.compact()) {
+            titleIndex.rebuild();
         }
+        REMOVES.record(start, 0);
     }
 
     /**
@@ -72,7 +110,78 @@ public class LibraryUtility {
         if (title == null) {
             throw new IllegalArgumentException("Title cannot be null.");
         }
-        return bookTitles.indexOf(title);
+        long start = SEARCHES.start();
+        int index = bookTitles.indexOf(title);
+        SEARCHES.record(start, index >= 0 ? 0 : 1);
+        return index;
+    }
+
+    /**
+     * Finds the titles that best match a query of words. A word must appear in
+     * the title; {@code "quoted words"} must appear together, {@code word*}
+     * matches any word with that prefix and {@code word~} tolerates typos.
+     * 
+     * @param query the words to search for
+     * @param limit the maximum number of titles to return
+     * @return the matching titles, best match first
+     * @throws IllegalArgumentException if the query is null
+     */
+    public List<String> findBookTitles(String query, int limit) {
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null.");
+        }
+        long start = FINDS.start();
+        List<String> titles = titleIndex.search(query, limit);
+        FINDS.record(start, titles.isEmpty() ? 1 : 0);
+        return titles;
+    }
+
+    /**
+     * Suggests words from the catalog that complete what has been typed.
+     * 
+     * @param prefix the start of a word
+     * @param limit the maximum number of words to return
+     * @return the most common matching words, most common first
+     * @throws IllegalArgumentException if the prefix is null
+     */
+    public List<String> suggestWords(String prefix, int limit) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Prefix cannot be null.");
+        }
+        return titleIndex.complete(prefix, limit);
+    }
+
+    /**
+     * Adds every title in a file, in file order. Titles are decoded and split
+     * into index terms on every core while earlier ones are being added.
+     * 
+     * @param file a CSV file, if its name ends in {@code .csv}, or a binary export
+     * @param progress receives progress after every batch of titles
+     * @return the rows read, added and rejected as blank or malformed
+     * @throws IOException if the file cannot be read or is not a title file
+     */
+    public RecordPipeline.Report importBookTitles(Path file, RecordPipeline.Progress progress) throws IOException {
+        return TitleFiles.load(file, (batch, report) -> {
+            report.rejected(batch.malformed);
+            for (int i = 0; i < batch.titles.size(); i++) {
+                int id = bookTitles.add(batch.titles.get(i));
+                if (bookTitles.listedOnce(id)) {
+                    titleIndex.add(id, batch.tokens.get(i));
+                }
+            }
+            report.loaded(batch.titles.size());
+        }, progress);
+    }
+
+    /**
+     * Writes every book title, in list order, to a file.
+     * 
+     * @param file the file to create: CSV if its name ends in {@code .csv}, binary otherwise
+     * @return the number of titles written
+     * @throws IOException if the file cannot be written
+     */
+    public long exportBookTitles(Path file) throws IOException {
+        return TitleFiles.export(file, bookTitles);
     }
 
     /**
@@ -83,9 +192,7 @@ public class LibraryUtility {
             System.out.println("No books available.");
         } else {
             System.out.println("Book Titles:");
-            for (String title : bookTitles) {
-                System.out.println(title);
-            }
+            bookTitles.forEach(System.out::println);
         }
     }
 
@@ -93,13 +200,27 @@ public class LibraryUtility {
      * Sorts the book titles alphabetically.
      */
     public void sortBookTitles() {
-        Collections.sort(bookTitles);
+        bookTitles.sort(null);
+    }
+
+    /**
+     * Sorts the book titles alphabetically by the rules of a language, so
+     * that accented and differently cased letters sort next to their base
+     * letters.
+     *
+     * @param locale the language whose alphabetical order to use
+     */
+    public void sortBookTitles(Locale locale) {
+        bookTitles.sort(Collator.getInstance(locale));
     }
 
     /**
      * Main method to demonstrate the functionality of the LibraryUtility class.
+     *
+     * @throws IOException if the metrics file cannot be opened
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        Closeable metricsDump = Metrics.dumpFromProperties();
         LibraryUtility library = new LibraryUtility();
         Scanner scanner = new Scanner(System.in);
         boolean exit = false;
@@ -111,7 +232,11 @@ public class LibraryUtility {
             System.out.println("3. Search for Book Title");
             System.out.println("4. List All Book Titles");
             System.out.println("5. Sort Book Titles");
-            System.out.println("6. Exit");
+            System.out.println("6. Find Titles by Words");
+            System.out.println("7. Suggest Words");
+            System.out.println("8. Import Book Titles");
+            System.out.println("9. Export Book Titles");
+            System.out.println("10. Exit");
             System.out.print("Choose an option: ");
             int choice = scanner.nextInt();
             scanner.nextLine(); // Consume newline
@@ -158,6 +283,41 @@ public class LibraryUtility {
                     System.out.println("Book titles have been sorted.");
                     break;
                 case 6:
+                    System.out.print("Enter words to search for: ");
+                    List<String> found = library.findBookTitles(scanner.nextLine(), SEARCH_RESULTS);
+                    if (found.isEmpty()) {
+                        System.out.println("No matching titles.");
+                    } else {
+                        for (String title : found) {
+                            System.out.println(title);
+                        }
+                    }
+                    break;
+                case 7:
+                    System.out.print("Enter the start of a word: ");
+                    List<String> words = library.suggestWords(scanner.nextLine(), SEARCH_RESULTS);
+                    System.out.println(words.isEmpty() ? "No suggestions." : String.join(", ", words));
+                    break;
+                case 8:
+                    System.out.print("Enter the file to import (.csv or binary): ");
+                    try {
+                        RecordPipeline.Report report = library.importBookTitles(Path.of(scanner.nextLine()),
+                                RecordPipeline.Progress.printTo(System.out));
+                        System.out.println();
+                        System.out.println(report);
+                    } catch (IOException e) {
+                        System.out.println("Error: " + e.getMessage());
+                    }
+                    break;
+                case 9:
+                    System.out.print("Enter the file to export to (.csv or binary): ");
+                    try {
+                        System.out.println(library.exportBookTitles(Path.of(scanner.nextLine())) + " titles exported.");
+                    } catch (IOException e) {
+                        System.out.println("Error: " + e.getMessage());
+                    }
+                    break;
+                case 10:
                     exit = true;
                     System.out.println("Exiting the program.");
                     break;
@@ -168,5 +328,6 @@ public class LibraryUtility {
         }
 
         scanner.close();
+        metricsDump.close();
     }
 }
@@ -0,0 +1,699 @@
+package anudip2.com;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import anudip.util.AccountNumbers;
+import anudip.util.EventSink;
+import anudip.util.LongIndex;
+import anudip.util.Metrics;
+import anudip.util.Money;
+import anudip.util.OperationMetrics;
+import anudip.util.WithdrawalLimits;
+
+// Account manager that partitions accounts across single-writer shards. Each
+// account belongs to one shard, chosen by hashing its number, and only that
+// shard's worker thread reads or writes its balance, so the account data has
+// no locks and no boxing. Callers hand an operation to the owning shard
+// through the shard's ring buffer and wait for its outcome; a worker drains
+// its ring in batches. A single call pays for a hand-off between threads, so
+// the mode pays off for batches and for many concurrent callers, whose
+// operations on different shards run in parallel.
+//
+// A transfer within one shard is applied in one step. Across shards, the
+// source shard debits the source and passes the credit to the destination
+// shard over a worker-to-worker ring; if the destination does not exist the
+// amount is passed back and refunded, and the transfer reports
+// INVALID_ACCOUNT, or BALANCE_OVERFLOW if the credit would not fit. While a
+// credit is in flight it appears in neither balance. Amounts and balances are
+// in cents, as in Money.
+//
+// Events are published by the owning worker right after it changes a
+// balance and before it applies the next operation, so the events of one
+// account reach the sink in the order its changes were made.
+final class PartitionedAccountManager implements AccountService, AutoCloseable {
+    // Ring slots per shard for callers and for transfers between shards.
+    private static final int RING_CAPACITY = 1 << 12;
+    // Most operations a worker applies from one ring before looking at the other.
+    private static final int DRAIN_BATCH = 256;
+    // Waits spin this often, then yield this often, then park.
+    private static final int SPINS = 128;
+    private static final int YIELDS = 16;
+    // A worker holding credits that did not fit in another shard's ring parks
+    // this long at most before retrying them: draining that ring does not
+    // wake it.
+    private static final long PENDING_PARK_NANOS = 50_000;
+
+    private static final byte CREATE = 0;
+    private static final byte DEPOSIT = 1;
+    private static final byte WITHDRAW = 2;
+    private static final byte BALANCE = 3;
+    private static final byte TRANSFER = 4;
+    private static final byte CREDIT = 5;
+    // Carries the transfer's status, by ordinal, in place of a target account.
+    private static final byte REFUND = 6;
+
+    private static final TransactionStatus[] STATUSES = TransactionStatus.values();
+
+    // Caller-side latency and outcome of the single-operation calls, by op code.
+    private static final OperationMetrics[] METRICS = {
+            Metrics.register("PartitionedAccountManager.createAccount", TransactionStatus.class),
+            Metrics.register("PartitionedAccountManager.deposit", TransactionStatus.class),
+            Metrics.register("PartitionedAccountManager.withdraw", TransactionStatus.class),
+            Metrics.register("PartitionedAccountManager.getBalance", TransactionStatus.class),
+            Metrics.register("PartitionedAccountManager.transfer", TransactionStatus.class)};
+
+    private final Shard[] shards;
+    private final ThreadLocal<Call> calls = ThreadLocal.withInitial(Call::new);
+    private volatile EventSink events = EventSink.NONE;
+
+    // Starts one worker thread per shard.
+    PartitionedAccountManager(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("At least one shard is needed.");
+        }
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+        for (int i = 0; i < shardCount; i++) {
+            shards[i].thread = new Thread(shards[i], "account-shard-" + i);
+            shards[i].thread.setDaemon(true);
+            shards[i].thread.start();
+        }
+    }
+
+    @Override
+    public void setEventSink(EventSink sink) {
+        this.events = sink;
+    }
+
+    // Each shard gets its own buckets, addressed by its accounts' ordinals,
+    // which only its worker updates. Buckets start empty, so setting the
+    // rules again forgets what earlier withdrawals used up.
+    @Override
+    public void setWithdrawalLimits(WithdrawalLimits.Rule... rules) {
+        for (Shard shard : shards) {
+            shard.limits = rules.length == 0 ? null : new WithdrawalLimits(rules);
+        }
+    }
+
+    @Override
+    public TransactionStatus createAccount(long accountNumber, long initialBalance) {
+        if (!AccountNumbers.isValid(accountNumber)) {
+            return TransactionStatus.INVALID_ACCOUNT;
+        }
+        // Balances never go below zero, so an update checks for overflow with one comparison.
+        if (initialBalance < 0) {
+            return TransactionStatus.NON_POSITIVE_AMOUNT;
+        }
+        return call(CREATE, accountNumber, AccountNumbers.INVALID, initialBalance).status;
+    }
+
+    @Override
+    public TransactionStatus deposit(long accountNumber, long amount) {
+        TransactionStatus rejected = check(accountNumber, amount);
+        return rejected != null ? rejected : call(DEPOSIT, accountNumber, AccountNumbers.INVALID, amount).status;
+    }
+
+    @Override
+    public TransactionStatus withdraw(long accountNumber, long amount) {
+        TransactionStatus rejected = check(accountNumber, amount);
+        return rejected != null ? rejected : call(WITHDRAW, accountNumber, AccountNumbers.INVALID, amount).status;
+    }
+
+    @Override
+    public long getBalance(long accountNumber) {
+        if (!AccountNumbers.isValid(accountNumber)) {
+            return Money.INVALID;
+        }
+        return call(BALANCE, accountNumber, AccountNumbers.INVALID, 0).balance;
+    }
+
+    @Override
+    public TransactionStatus transfer(long fromAccount, long toAccount, long amount) {
+        TransactionStatus rejected = checkTransfer(fromAccount, toAccount, amount);
+        return rejected != null ? rejected : call(TRANSFER, fromAccount, toAccount, amount).status;
+    }
+
+    // Hands every valid row to its shard and waits for all of them. Rows of
+    // one account keep their order; a transfer's credit may land after later
+    // rows of the destination account.
+    @Override
+    public BatchResult applyBatch(List<Transaction> transactions) {
+        int size = transactions.size();
+        TransactionStatus[] statuses = new TransactionStatus[size];
+        int submitted = 0;
+        for (int row = 0; row < size; row++) {
+            statuses[row] = validate(transactions.get(row));
+            if (statuses[row] == null) {
+                submitted++;
+            }
+        }
+        if (submitted > 0) {
+            BatchCall batch = new BatchCall(statuses, submitted);
+            for (int row = 0; row < size; row++) {
+                if (statuses[row] == null) {
+                    Transaction transaction = transactions.get(row);
+                    submit(transaction.getType() == Transaction.Type.TRANSFER ? TRANSFER
+                            : transaction.getType() == Transaction.Type.DEPOSIT ? DEPOSIT : WITHDRAW,
+                            transaction.getAccountNumber(), transaction.getTargetAccountNumber(),
+                            transaction.getAmount(), batch, row);
+                }
+            }
+            batch.await();
+        }
+        return new BatchResult(statuses);
+    }
+
+    // Stops the workers. Call it once no operation is waiting for an outcome.
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static TransactionStatus check(long accountNumber, long amount) {
+        if (amount <= 0) {
+            return TransactionStatus.NON_POSITIVE_AMOUNT;
+        }
+        return AccountNumbers.isValid(accountNumber) ? null : TransactionStatus.INVALID_ACCOUNT;
+    }
+
+    private static TransactionStatus checkTransfer(long fromAccount, long toAccount, long amount) {
+        if (fromAccount == toAccount) {
+            return TransactionStatus.MALFORMED;
+        }
+        if (amount <= 0) {
+            return TransactionStatus.NON_POSITIVE_AMOUNT;
+        }
+        if (!AccountNumbers.isValid(fromAccount) || !AccountNumbers.isValid(toAccount)) {
+            return TransactionStatus.INVALID_ACCOUNT;
+        }
+        return null;
+    }
+
+    // Returns the rejection of a batch row that can be decided without its
+    // shard, or null if the row has to be applied.
+    private static TransactionStatus validate(Transaction transaction) {
+        if (transaction == null || transaction.getType() == null) {
+            return TransactionStatus.MALFORMED;
+        }
+        if (transaction.getType() == Transaction.Type.TRANSFER) {
+            return checkTransfer(transaction.getAccountNumber(), transaction.getTargetAccountNumber(),
+                    transaction.getAmount());
+        }
+        return check(transaction.getAccountNumber(), transaction.getAmount());
+    }
+
+    // Submits one operation and waits for it with this thread's reusable Call.
+    private Call call(byte op, long account, long target, long amount) {
+        OperationMetrics metrics = METRICS[op];
+        long start = metrics.start();
+        Call call = calls.get();
+        call.status = null;
+        submit(op, account, target, amount, call, 0);
+        call.await();
+        metrics.record(start, call.status.ordinal());
+        return call;
+    }
+
+    private void submit(byte op, long account, long target, long amount, Completion completion, int row) {
+        Shard shard = shards[shardOf(account)];
+        Ring ring = shard.inbox;
+        long sequence = ring.claim();
+        ring.put(sequence, op, account, target, amount, completion, row);
+        ring.publish(sequence);
+        shard.wake();
+    }
+
+    // Uses the high bits of the hash, so the map inside a shard, which uses
+    // the low bits, still sees well-spread keys.
+    private int shardOf(long accountNumber) {
+        return (int) ((LongIndex.mix(accountNumber) & 0xFFFFFFFFL) * shards.length >>> 32);
+    }
+
+    private void publish(int type, long accountNumber, long amount, long balance) {
+        events.publish(type, null, amount, balance, accountNumber);
+    }
+
+    // Receives the outcome of a submitted operation on a worker thread.
+    private abstract static class Completion {
+        abstract void complete(int row, TransactionStatus status, long balance);
+    }
+
+    // Outcome of one operation. Each caller thread reuses its own, so a call
+    // allocates nothing.
+    private static final class Call extends Completion {
+        private final Thread waiter = Thread.currentThread();
+        private volatile TransactionStatus status;
+        private volatile boolean parked;
+        private long balance;
+
+        @Override
+        void complete(int row, TransactionStatus status, long balance) {
+            this.balance = balance;
+            this.status = status;
+            if (parked) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        void await() {
+            for (int spins = 0; status == null; spins++) {
+                if (spins < SPINS) {
+                    Thread.onSpinWait();
+                } else if (spins < SPINS + YIELDS) {
+                    Thread.yield();
+                } else {
+                    parked = true;
+                    if (status == null) {
+                        LockSupport.park(this);
+                    }
+                    parked = false;
+                }
+            }
+        }
+    }
+
+    // Outcomes of the rows of one batch, written by whichever shards own them.
+    private static final class BatchCall extends Completion {
+        private final Thread waiter = Thread.currentThread();
+        private final TransactionStatus[] statuses;
+        private final AtomicInteger remaining;
+
+        BatchCall(TransactionStatus[] statuses, int count) {
+            this.statuses = statuses;
+            this.remaining = new AtomicInteger(count);
+        }
+
+        @Override
+        void complete(int row, TransactionStatus status, long balance) {
+            statuses[row] = status;
+            if (remaining.decrementAndGet() == 0) {
+                LockSupport.unpark(waiter);
+            }
+        }
+
+        void await() {
+            for (int spins = 0; remaining.get() != 0; spins++) {
+                if (spins < SPINS) {
+                    Thread.onSpinWait();
+                } else if (spins < SPINS + YIELDS) {
+                    Thread.yield();
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+    }
+
+    // Bounded multi-producer, single-consumer ring in the style of the
+    // Disruptor: producers claim a sequence with a compare-and-set, fill the
+    // slot's fields and mark the slot published; the consumer applies
+    // published slots in sequence order and frees them in bulk.
+    private static final class Ring {
+        private static final VarHandle PUBLISHED = MethodHandles.arrayElementVarHandle(long[].class);
+
+        private final int mask;
+        private final long[] published;
+        private final byte[] ops;
+        private final long[] accounts;
+        private final long[] targets;
+        private final long[] amounts;
+        private final Completion[] completions;
+        private final int[] rows;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        Ring(int capacity) {
+            mask = capacity - 1;
+            published = new long[capacity];
+            Arrays.fill(published, -1);
+            ops = new byte[capacity];
+            accounts = new long[capacity];
+            targets = new long[capacity];
+            amounts = new long[capacity];
+            completions = new Completion[capacity];
+            rows = new int[capacity];
+        }
+
+        // Returns a claimed sequence, or -1 if the ring is full.
+        long tryClaim() {
+            while (true) {
+                long sequence = tail.get();
+                if (sequence - head.get() > mask) {
+                    return -1;
+                }
+                if (tail.compareAndSet(sequence, sequence + 1)) {
+                    return sequence;
+                }
+            }
+        }
+
+        // Waits for a free slot; this is the backpressure on callers.
+        long claim() {
+            for (int spins = 0;; spins++) {
+                long sequence = tryClaim();
+                if (sequence >= 0) {
+                    return sequence;
+                }
+                if (spins < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+
+        void put(long sequence, byte op, long account, long target, long amount, Completion completion,
+                int row) {
+            int slot = (int) sequence & mask;
+            ops[slot] = op;
+            accounts[slot] = account;
+            targets[slot] = target;
+            amounts[slot] = amount;
+            completions[slot] = completion;
+            rows[slot] = row;
+        }
+
+        // A volatile write, so that a producer's later check of the
+        // consumer's sleeping flag cannot be reordered before it.
+        void publish(long sequence) {
+            PUBLISHED.setVolatile(published, (int) sequence & mask, sequence);
+        }
+
+        boolean hasWork() {
+            long sequence = head.get();
+            return (long) PUBLISHED.getVolatile(published, (int) sequence & mask) == sequence;
+        }
+
+        // Applies up to max published operations and returns how many.
+        int drain(Shard shard, int max) {
+            long sequence = head.get();
+            int count = 0;
+            while (count < max && (long) PUBLISHED.getAcquire(published, (int) sequence & mask) == sequence) {
+                int slot = (int) sequence & mask;
+                Completion completion = completions[slot];
+                completions[slot] = null;
+                shard.apply(ops[slot], accounts[slot], targets[slot], amounts[slot], completion, rows[slot]);
+                sequence++;
+                count++;
+            }
+            if (count > 0) {
+                head.lazySet(sequence);
+            }
+            return count;
+        }
+    }
+
+    // Open-addressing map from packed account number to balance, owned by one
+    // shard's worker. Accounts are never removed, and 0, never a valid
+    // account number, marks an empty cell. Each account also gets a dense
+    // ordinal, in the order it was created, that survives growing.
+    private static final class BalanceMap {
+        private long[] keys = new long[1024];
+        private long[] balances = new long[1024];
+        private int[] ordinals = new int[1024];
+        private int size;
+
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = LongIndex.mix(key) & mask;; slot = (slot + 1) & mask) {
+                long existing = keys[slot];
+                if (existing == key) {
+                    return slot;
+                }
+                if (existing == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        // Returns false if the key is already present.
+        boolean insert(long key, long balance) {
+            if (find(key) >= 0) {
+                return false;
+            }
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = LongIndex.mix(key) & mask;
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            balances[slot] = balance;
+            ordinals[slot] = size - 1;
+            return true;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldBalances = balances;
+            int[] oldOrdinals = ordinals;
+            keys = new long[oldKeys.length * 2];
+            balances = new long[oldKeys.length * 2];
+            ordinals = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = LongIndex.mix(oldKeys[i]) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    balances[slot] = oldBalances[i];
+                    ordinals[slot] = oldOrdinals[i];
+                }
+            }
+        }
+    }
+
+    // One partition: its accounts, its rings and the worker that owns both.
+    private final class Shard implements Runnable {
+        private final BalanceMap balances = new BalanceMap();
+        private final Ring inbox = new Ring(RING_CAPACITY);
+        private final Ring transfers = new Ring(RING_CAPACITY);
+        private volatile boolean running = true;
+        private volatile boolean sleeping;
+        // Null when withdrawals are not limited.
+        private volatile WithdrawalLimits limits;
+        private Thread thread;
+        // Credits and refunds that did not fit in another shard's transfer
+        // ring; kept here instead of waiting, so two full shards cannot
+        // block each other.
+        private byte[] pendingOps = new byte[16];
+        private long[] pendingAccounts = new long[16];
+        private long[] pendingTargets = new long[16];
+        private long[] pendingAmounts = new long[16];
+        private Completion[] pendingCompletions = new Completion[16];
+        private int[] pendingRows = new int[16];
+        private int pending;
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                int applied = inbox.drain(this, DRAIN_BATCH) + transfers.drain(this, DRAIN_BATCH);
+                if (pending > 0) {
+                    retryPending();
+                }
+                if (applied > 0) {
+                    idle = 0;
+                } else if (!running && pending == 0) {
+                    return;
+                } else if (++idle < SPINS) {
+                    Thread.onSpinWait();
+                } else if (idle < SPINS + YIELDS) {
+                    Thread.yield();
+                } else {
+                    sleeping = true;
+                    if (pending > 0) {
+                        LockSupport.parkNanos(this, PENDING_PARK_NANOS);
+                    } else if (running && !inbox.hasWork() && !transfers.hasWork()) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+
+        void wake() {
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        void apply(byte op, long account, long target, long amount, Completion completion, int row) {
+            switch (op) {
+                case CREATE -> {
+                    if (!balances.insert(account, amount)) {
+                        completion.complete(row, TransactionStatus.DUPLICATE_ACCOUNT, Money.INVALID);
+                        return;
+                    }
+                    events.publish(AccountManager.EVENT_CREATED, null, 0, amount, account);
+                    completion.complete(row, TransactionStatus.OK, amount);
+                }
+                case DEPOSIT, CREDIT -> {
+                    int slot = balances.find(account);
+                    TransactionStatus rejected = slot < 0 ? TransactionStatus.INVALID_ACCOUNT
+                            : amount > Long.MAX_VALUE - balances.balances[slot] ? TransactionStatus.BALANCE_OVERFLOW
+                            : null;
+                    if (rejected != null) {
+                        if (op == CREDIT) {
+                            forward(REFUND, target, rejected.ordinal(), amount, completion, row);
+                        } else {
+                            completion.complete(row, rejected, Money.INVALID);
+                        }
+                        return;
+                    }
+                    long balance = balances.balances[slot] + amount;
+                    balances.balances[slot] = balance;
+                    publish(op == CREDIT ? AccountManager.EVENT_TRANSFER_IN : AccountManager.EVENT_DEPOSIT, account,
+                            amount, balance);
+                    completion.complete(row, TransactionStatus.OK, balance);
+                }
+                case WITHDRAW -> {
+                    int slot = balances.find(account);
+                    if (slot < 0) {
+                        completion.complete(row, TransactionStatus.INVALID_ACCOUNT, Money.INVALID);
+                        return;
+                    }
+                    if (amount > balances.balances[slot]) {
+                        completion.complete(row, TransactionStatus.INSUFFICIENT_FUNDS, balances.balances[slot]);
+                        return;
+                    }
+                    WithdrawalLimits limits = this.limits;
+                    if (limits != null && limits.tryAcquire(balances.ordinals[slot], amount) >= 0) {
+                        completion.complete(row, TransactionStatus.LIMIT_EXCEEDED, balances.balances[slot]);
+                        return;
+                    }
+                    long balance = balances.balances[slot] - amount;
+                    balances.balances[slot] = balance;
+                    publish(AccountManager.EVENT_WITHDRAW, account, amount, balance);
+                    completion.complete(row, TransactionStatus.OK, balance);
+                }
+                case BALANCE -> {
+                    int slot = balances.find(account);
+                    completion.complete(row, slot < 0 ? TransactionStatus.INVALID_ACCOUNT : TransactionStatus.OK,
+                            slot < 0 ? Money.INVALID : balances.balances[slot]);
+                }
+                case TRANSFER -> applyTransfer(account, target, amount, completion, row);
+                case REFUND -> {
+                    int slot = balances.find(account);
+                    long balance = balances.balances[slot] + amount;
+                    balances.balances[slot] = balance;
+                    publish(AccountManager.EVENT_TRANSFER_IN, account, amount, balance);
+                    completion.complete(row, STATUSES[(int) target], Money.INVALID);
+                }
+                default -> throw new IllegalStateException("Unknown operation " + op);
+            }
+        }
+
+        // Runs on the source account's shard.
+        private void applyTransfer(long from, long to, long amount, Completion completion, int row) {
+            int source = balances.find(from);
+            if (source < 0) {
+                completion.complete(row, TransactionStatus.INVALID_ACCOUNT, Money.INVALID);
+                return;
+            }
+            Shard destination = shards[shardOf(to)];
+            int target = destination == this ? balances.find(to) : -1;
+            if (destination == this && target < 0) {
+                completion.complete(row, TransactionStatus.INVALID_ACCOUNT, Money.INVALID);
+                return;
+            }
+            if (amount > balances.balances[source]) {
+                completion.complete(row, TransactionStatus.INSUFFICIENT_FUNDS, Money.INVALID);
+                return;
+            }
+            if (target >= 0 && amount > Long.MAX_VALUE - balances.balances[target]) {
+                completion.complete(row, TransactionStatus.BALANCE_OVERFLOW, Money.INVALID);
+                return;
+            }
+            long fromBalance = balances.balances[source] - amount;
+            balances.balances[source] = fromBalance;
+            publish(AccountManager.EVENT_TRANSFER_OUT, from, amount, fromBalance);
+            if (destination != this) {
+                forward(CREDIT, to, from, amount, completion, row);
+                return;
+            }
+            long toBalance = balances.balances[target] + amount;
+            balances.balances[target] = toBalance;
+            publish(AccountManager.EVENT_TRANSFER_IN, to, amount, toBalance);
+            completion.complete(row, TransactionStatus.OK, Money.INVALID);
+        }
+
+        // Passes a credit or refund to the shard that owns the account,
+        // keeping it here if that shard's transfer ring is full.
+        private void forward(byte op, long account, long target, long amount, Completion completion, int row) {
+            if (pending > 0 || !tryForward(op, account, target, amount, completion, row)) {
+                if (pending == pendingOps.length) {
+                    int capacity = pending * 2;
+                    pendingOps = Arrays.copyOf(pendingOps, capacity);
+                    pendingAccounts = Arrays.copyOf(pendingAccounts, capacity);
+                    pendingTargets = Arrays.copyOf(pendingTargets, capacity);
+                    pendingAmounts = Arrays.copyOf(pendingAmounts, capacity);
+                    pendingCompletions = Arrays.copyOf(pendingCompletions, capacity);
+                    pendingRows = Arrays.copyOf(pendingRows, capacity);
+                }
+                pendingOps[pending] = op;
+                pendingAccounts[pending] = account;
+                pendingTargets[pending] = target;
+                pendingAmounts[pending] = amount;
+                pendingCompletions[pending] = completion;
+                pendingRows[pending] = row;
+                pending++;
+            }
+        }
+
+        private boolean tryForward(byte op, long account, long target, long amount, Completion completion,
+                int row) {
+            Shard owner = shards[shardOf(account)];
+            long sequence = owner.transfers.tryClaim();
+            if (sequence < 0) {
+                return false;
+            }
+            owner.transfers.put(sequence, op, account, target, amount, completion, row);
+            owner.transfers.publish(sequence);
+            owner.wake();
+            return true;
+        }
+
+        // Sends what now fits, in order, and keeps the rest.
+        private void retryPending() {
+            int kept = 0;
+            for (int i = 0; i < pending; i++) {
+                if (kept > 0 || !tryForward(pendingOps[i], pendingAccounts[i], pendingTargets[i], pendingAmounts[i],
+                        pendingCompletions[i], pendingRows[i])) {
+                    pendingOps[kept] = pendingOps[i];
+                    pendingAccounts[kept] = pendingAccounts[i];
+                    pendingTargets[kept] = pendingTargets[i];
+                    pendingAmounts[kept] = pendingAmounts[i];
+                    pendingCompletions[kept] = pendingCompletions[i];
+                    pendingRows[kept] = pendingRows[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(pendingCompletions, kept, pending, null);
+            pending = kept;
+        }
+    }
+}
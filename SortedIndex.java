@@ -0,0 +1,373 @@
+package anudip3.com;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Order-statistic B+tree: a sorted set that also knows the rank of every
+// entry. Branches record the number of entries under each child, so insert,
+// delete, seeking to the n-th entry and seeking to a key are all O(log n),
+// and leaves are linked so that reading a page of k entries costs
+// O(log n + k). Wide nodes keep the tree shallow and the comparisons within
+// a node on one array. Not thread-safe; CustomerRepository guards it with
+// its lock.
+final class SortedIndex<T> {
+    private static final int MAX = 64;
+    private static final int MIN = MAX / 2;
+
+    private abstract static class Node {
+        int count;
+    }
+
+    private static final class Leaf extends Node {
+        final Object[] items = new Object[MAX + 1];
+        Leaf next;
+    }
+
+    private static final class Branch extends Node {
+        final Node[] children = new Node[MAX + 1];
+        // keys[i] is not greater than any entry under children[i] and is
+        // greater than every entry under children[i - 1]. keys[0] holds the
+        // branch's own lower bound while it is being split off.
+        final Object[] keys = new Object[MAX + 1];
+        final int[] sizes = new int[MAX + 1];
+    }
+
+    private final Comparator<? super T> order;
+    private Node root = new Leaf();
+    private int size;
+    private boolean added;
+
+    SortedIndex(Comparator<? super T> order) {
+        this.order = order;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Returns false if an entry comparing equal is already present.
+    boolean add(T value) {
+        added = false;
+        Node split = insert(root, value);
+        if (split != null) {
+            Branch grown = new Branch();
+            grown.children[0] = root;
+            grown.sizes[0] = total(root);
+            grown.children[1] = split;
+            grown.keys[1] = lowerBound(split);
+            grown.sizes[1] = total(split);
+            grown.count = 2;
+            root = grown;
+        }
+        if (added) {
+            size++;
+        }
+        return added;
+    }
+
+    // Returns false if no entry compares equal to the value.
+    boolean remove(T value) {
+        if (!delete(root, value)) {
+            return false;
+        }
+        if (root instanceof Branch branch && branch.count == 1) {
+            root = branch.children[0];
+        }
+        size--;
+        return true;
+    }
+
+    // Up to limit entries starting at the given zero-based rank.
+    List<T> page(int offset, int limit) {
+        List<T> page = new ArrayList<>(Math.max(0, Math.min(limit, size - offset)));
+        if (offset < 0 || offset >= size) {
+            return page;
+        }
+        Node node = root;
+        int rank = offset;
+        while (node instanceof Branch branch) {
+            int i = 0;
+            while (rank >= branch.sizes[i]) {
+                rank -= branch.sizes[i];
+                i++;
+            }
+            node = branch.children[i];
+        }
+        return collect((Leaf) node, rank, limit, page);
+    }
+
+    // Up to limit entries starting at the first one not less than the key.
+    List<T> from(T key, int limit) {
+        Node node = root;
+        while (node instanceof Branch branch) {
+            node = branch.children[childIndex(branch, key)];
+        }
+        Leaf leaf = (Leaf) node;
+        int i = search(leaf, key);
+        return collect(leaf, i < 0 ? -i - 1 : i, limit, new ArrayList<>());
+    }
+
+    private Node insert(Node node, T value) {
+        if (node instanceof Leaf leaf) {
+            int i = search(leaf, value);
+            if (i >= 0) {
+                return null;
+            }
+            i = -i - 1;
+            System.arraycopy(leaf.items, i, leaf.items, i + 1, leaf.count - i);
+            leaf.items[i] = value;
+            leaf.count++;
+            added = true;
+            return leaf.count > MAX ? splitLeaf(leaf) : null;
+        }
+        Branch branch = (Branch) node;
+        int i = childIndex(branch, value);
+        Node split = insert(branch.children[i], value);
+        if (!added) {
+            return null;
+        }
+        branch.sizes[i]++;
+        if (split == null) {
+            return null;
+        }
+        int moved = total(split);
+        shiftRight(branch, i + 1);
+        branch.children[i + 1] = split;
+        branch.keys[i + 1] = lowerBound(split);
+        branch.sizes[i + 1] = moved;
+        branch.sizes[i] -= moved;
+        return branch.count > MAX ? splitBranch(branch) : null;
+    }
+
+    private static Leaf splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf();
+        int half = leaf.count / 2;
+        right.count = leaf.count - half;
+        System.arraycopy(leaf.items, half, right.items, 0, right.count);
+        Arrays.fill(leaf.items, half, leaf.count, null);
+        leaf.count = half;
+        right.next = leaf.next;
+        leaf.next = right;
+        return right;
+    }
+
+    private static Branch splitBranch(Branch branch) {
+        Branch right = new Branch();
+        int half = branch.count / 2;
+        right.count = branch.count - half;
+        System.arraycopy(branch.children, half, right.children, 0, right.count);
+        System.arraycopy(branch.keys, half, right.keys, 0, right.count);
+        System.arraycopy(branch.sizes, half, right.sizes, 0, right.count);
+        Arrays.fill(branch.children, half, branch.count, null);
+        Arrays.fill(branch.keys, half, branch.count, null);
+        Arrays.fill(branch.sizes, half, branch.count, 0);
+        branch.count = half;
+        return right;
+    }
+
+    private boolean delete(Node node, T value) {
+        if (node instanceof Leaf leaf) {
+            int i = search(leaf, value);
+            if (i < 0) {
+                return false;
+            }
+            System.arraycopy(leaf.items, i + 1, leaf.items, i, leaf.count - i - 1);
+            leaf.items[--leaf.count] = null;
+            return true;
+        }
+        Branch branch = (Branch) node;
+        int i = childIndex(branch, value);
+        if (!delete(branch.children[i], value)) {
+            return false;
+        }
+        branch.sizes[i]--;
+        if (branch.children[i].count < MIN) {
+            rebalance(branch, i);
+        }
+        return true;
+    }
+
+    // Refills an underfull child from a sibling that can spare an entry, or
+    // merges it with a sibling when neither can.
+    private static void rebalance(Branch parent, int i) {
+        if (i > 0 && parent.children[i - 1].count > MIN) {
+            borrowFromLeft(parent, i);
+        } else if (i + 1 < parent.count && parent.children[i + 1].count > MIN) {
+            borrowFromRight(parent, i);
+        } else if (i > 0) {
+            merge(parent, i - 1);
+        } else if (i + 1 < parent.count) {
+            merge(parent, i);
+        }
+    }
+
+    private static void borrowFromLeft(Branch parent, int i) {
+        Node left = parent.children[i - 1];
+        Node child = parent.children[i];
+        int moved;
+        if (child instanceof Leaf leaf) {
+            Leaf from = (Leaf) left;
+            Object item = from.items[--from.count];
+            from.items[from.count] = null;
+            System.arraycopy(leaf.items, 0, leaf.items, 1, leaf.count);
+            leaf.items[0] = item;
+            leaf.count++;
+            parent.keys[i] = item;
+            moved = 1;
+        } else {
+            Branch to = (Branch) child;
+            Branch from = (Branch) left;
+            int last = from.count - 1;
+            moved = from.sizes[last];
+            shiftRight(to, 0);
+            to.children[0] = from.children[last];
+            to.sizes[0] = moved;
+            to.keys[1] = parent.keys[i];
+            parent.keys[i] = from.keys[last];
+            from.children[last] = null;
+            from.keys[last] = null;
+            from.sizes[last] = 0;
+            from.count--;
+        }
+        parent.sizes[i - 1] -= moved;
+        parent.sizes[i] += moved;
+    }
+
+    private static void borrowFromRight(Branch parent, int i) {
+        Node child = parent.children[i];
+        Node right = parent.children[i + 1];
+        int moved;
+        if (child instanceof Leaf leaf) {
+            Leaf from = (Leaf) right;
+            leaf.items[leaf.count++] = from.items[0];
+            System.arraycopy(from.items, 1, from.items, 0, from.count - 1);
+            from.items[--from.count] = null;
+            parent.keys[i + 1] = from.items[0];
+            moved = 1;
+        } else {
+            Branch to = (Branch) child;
+            Branch from = (Branch) right;
+            moved = from.sizes[0];
+            to.children[to.count] = from.children[0];
+            to.keys[to.count] = parent.keys[i + 1];
+            to.sizes[to.count] = moved;
+            to.count++;
+            parent.keys[i + 1] = from.keys[1];
+            shiftLeft(from, 0);
+        }
+        parent.sizes[i] += moved;
+        parent.sizes[i + 1] -= moved;
+    }
+
+    // Moves everything from children[i + 1] into children[i].
+    private static void merge(Branch parent, int i) {
+        Node left = parent.children[i];
+        Node right = parent.children[i + 1];
+        if (left instanceof Leaf leaf) {
+            Leaf from = (Leaf) right;
+            System.arraycopy(from.items, 0, leaf.items, leaf.count, from.count);
+            leaf.count += from.count;
+            leaf.next = from.next;
+        } else {
+            Branch to = (Branch) left;
+            Branch from = (Branch) right;
+            System.arraycopy(from.children, 0, to.children, to.count, from.count);
+            System.arraycopy(from.keys, 0, to.keys, to.count, from.count);
+            System.arraycopy(from.sizes, 0, to.sizes, to.count, from.count);
+            to.keys[to.count] = parent.keys[i + 1];
+            to.count += from.count;
+        }
+        parent.sizes[i] += parent.sizes[i + 1];
+        shiftLeft(parent, i + 1);
+    }
+
+    // Opens a gap at index i.
+    private static void shiftRight(Branch branch, int i) {
+        int n = branch.count - i;
+        System.arraycopy(branch.children, i, branch.children, i + 1, n);
+        System.arraycopy(branch.keys, i, branch.keys, i + 1, n);
+        System.arraycopy(branch.sizes, i, branch.sizes, i + 1, n);
+        branch.count++;
+    }
+
+    // Closes the gap at index i.
+    private static void shiftLeft(Branch branch, int i) {
+        int n = branch.count - i - 1;
+        System.arraycopy(branch.children, i + 1, branch.children, i, n);
+        System.arraycopy(branch.keys, i + 1, branch.keys, i, n);
+        System.arraycopy(branch.sizes, i + 1, branch.sizes, i, n);
+        branch.count--;
+        branch.children[branch.count] = null;
+        branch.keys[branch.count] = null;
+        branch.sizes[branch.count] = 0;
+    }
+
+    private static Object lowerBound(Node node) {
+        return node instanceof Leaf leaf ? leaf.items[0] : ((Branch) node).keys[0];
+    }
+
+    private static int total(Node node) {
+        if (node instanceof Leaf) {
+            return node.count;
+        }
+        Branch branch = (Branch) node;
+        int total = 0;
+        for (int i = 0; i < branch.count; i++) {
+            total += branch.sizes[i];
+        }
+        return total;
+    }
+
+    // Index of the child whose range holds the key.
+    private int childIndex(Branch branch, T key) {
+        int low = 1;
+        int high = branch.count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(branch.keys[mid], key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low - 1;
+    }
+
+    // Index of the key in the leaf, or -(insertion point + 1) if absent.
+    private int search(Leaf leaf, T key) {
+        int low = 0;
+        int high = leaf.count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(leaf.items[mid], key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object entry, T key) {
+        return order.compare((T) entry, key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> collect(Leaf leaf, int i, int limit, List<T> out) {
+        while (leaf != null && out.size() < limit) {
+            if (i < leaf.count) {
+                out.add((T) leaf.items[i++]);
+            } else {
+                leaf = leaf.next;
+                i = 0;
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,266 @@
+package anudip1.com;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Radix trie holding the term dictionary of a {@link TitleIndex}.
+ * <p>
+ * Runs of single-child nodes are collapsed into one edge, so a term costs
+ * at most two nodes. Every node keeps an upper bound on the document
+ * frequency of the terms below it, which lets prefix completion visit the
+ * most frequent terms first and stop after the top k. Fuzzy lookup walks the
+ * trie with a Levenshtein row per character and prunes any branch that is
+ * already too far from the query term.
+ */
+final class TermTrie {
+    private static final char[] NO_CHARS = new char[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    /**
+     * Receives the terms found by a fuzzy lookup.
+     */
+    @FunctionalInterface
+    interface FuzzyMatch {
+        /**
+         * Accepts one matching term.
+         *
+         * @param postings the postings of the term
+         * @param distance the edit distance from the query term
+         */
+        void accept(TitleIndex.Postings postings, int distance);
+    }
+
+    private static final class Node {
+        char[] edge;
+        char[] firsts = NO_CHARS;
+        Node[] children = NO_NODES;
+        TitleIndex.Postings postings;
+        // Never lower than the document frequency of any term at or below this
+        // node. Raised as terms gain documents and left as is when they lose
+        // them, so it may overstate.
+        int maxDf;
+
+        Node(char[] edge) {
+            this.edge = edge;
+        }
+    }
+
+    // A subtree to expand or a term to emit, ordered by its (bound on)
+    // document frequency.
+    private record Candidate(int df, Node node, TitleIndex.Postings postings) {
+    }
+
+    private final Node root = new Node(NO_CHARS);
+
+    /**
+     * Gets the postings of a term.
+     *
+     * @param term the normalized term
+     * @return the postings, or null if the term was never added
+     */
+    TitleIndex.Postings get(String term) {
+        Node node = root;
+        int i = 0;
+        int n = term.length();
+        while (i < n) {
+            int slot = slot(node, term.charAt(i));
+            if (slot < 0) {
+                return null;
+            }
+            Node child = node.children[slot];
+            char[] edge = child.edge;
+            if (n - i < edge.length) {
+                return null;
+            }
+            for (int j = 1; j < edge.length; j++) {
+                if (edge[j] != term.charAt(i + j)) {
+                    return null;
+                }
+            }
+            i += edge.length;
+            node = child;
+        }
+        return node.postings;
+    }
+
+    /**
+     * Gets the postings of a term, adding the term if it is new.
+     *
+     * @param term the normalized term
+     * @return the postings of the term
+     */
+    TitleIndex.Postings getOrAdd(String term) {
+        Node node = root;
+        int i = 0;
+        int n = term.length();
+        while (i < n) {
+            int slot = slot(node, term.charAt(i));
+            if (slot < 0) {
+                Node leaf = new Node(term.substring(i).toCharArray());
+                insertChild(node, -slot - 1, leaf);
+                node = leaf;
+                break;
+            }
+            Node child = node.children[slot];
+            char[] edge = child.edge;
+            int j = 1;
+            while (j < edge.length && i + j < n && edge[j] == term.charAt(i + j)) {
+                j++;
+            }
+            if (j < edge.length) {
+                Node split = new Node(Arrays.copyOf(edge, j));
+                child.edge = Arrays.copyOfRange(edge, j, edge.length);
+                split.firsts = new char[] {child.edge[0]};
+                split.children = new Node[] {child};
+                split.maxDf = child.maxDf;
+                node.children[slot] = split;
+                child = split;
+            }
+            i += j;
+            node = child;
+        }
+        if (node.postings == null) {
+            node.postings = new TitleIndex.Postings(term);
+        }
+        return node.postings;
+    }
+
+    /**
+     * Records that a term's document frequency has grown, so that completion
+     * ranks it correctly.
+     *
+     * @param term the normalized term, which must already be in the trie
+     * @param df the term's new document frequency
+     */
+    void raise(String term, int df) {
+        Node node = root;
+        int i = 0;
+        while (true) {
+            if (node.maxDf < df) {
+                node.maxDf = df;
+            }
+            if (i == term.length()) {
+                return;
+            }
+            node = node.children[slot(node, term.charAt(i))];
+            i += node.edge.length;
+        }
+    }
+
+    /**
+     * Finds the most frequent terms that start with a prefix.
+     *
+     * @param prefix the normalized prefix
+     * @param limit the maximum number of terms to return
+     * @return up to {@code limit} postings in descending document frequency
+     */
+    List<TitleIndex.Postings> complete(String prefix, int limit) {
+        Node node = root;
+        int i = 0;
+        int n = prefix.length();
+        while (i < n) {
+            int slot = slot(node, prefix.charAt(i));
+            if (slot < 0) {
+                return Collections.emptyList();
+            }
+            Node child = node.children[slot];
+            char[] edge = child.edge;
+            for (int j = 1; j < edge.length && i + j < n; j++) {
+                if (edge[j] != prefix.charAt(i + j)) {
+                    return Collections.emptyList();
+                }
+            }
+            i += edge.length;
+            node = child;
+        }
+
+        List<TitleIndex.Postings> found = new ArrayList<>(Math.min(limit, 16));
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(Comparator.comparingInt(Candidate::df).reversed());
+        queue.add(new Candidate(node.maxDf, node, null));
+        while (!queue.isEmpty() && found.size() < limit) {
+            Candidate next = queue.poll();
+            if (next.postings() != null) {
+                found.add(next.postings());
+                continue;
+            }
+            Node expand = next.node();
+            if (expand.postings != null && expand.postings.df > 0) {
+                queue.add(new Candidate(expand.postings.df, null, expand.postings));
+            }
+            for (Node child : expand.children) {
+                if (child.maxDf > 0) {
+                    queue.add(new Candidate(child.maxDf, child, null));
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Finds the terms within an edit distance of a term.
+     *
+     * @param term the normalized term
+     * @param maxEdits the maximum Levenshtein distance
+     * @param match receives each term in range that has live documents
+     */
+    void fuzzy(String term, int maxEdits, FuzzyMatch match) {
+        // One distance row per trie depth. A term more than maxEdits longer
+        // than the query is never within reach, so the depth is bounded.
+        int[][] rows = new int[term.length() + maxEdits + 2][term.length() + 1];
+        for (int j = 0; j < rows[0].length; j++) {
+            rows[0][j] = j;
+        }
+        for (Node child : root.children) {
+            fuzzy(child, term, rows, 0, maxEdits, match);
+        }
+    }
+
+    private static void fuzzy(Node node, String term, int[][] rows, int depth, int maxEdits, FuzzyMatch match) {
+        int[] row = rows[depth];
+        for (char c : node.edge) {
+            int[] next = rows[++depth];
+            next[0] = row[0] + 1;
+            int best = next[0];
+            for (int j = 1; j < row.length; j++) {
+                int substitute = row[j - 1] + (term.charAt(j - 1) == c ? 0 : 1);
+                next[j] = Math.min(substitute, Math.min(row[j], next[j - 1]) + 1);
+                best = Math.min(best, next[j]);
+            }
+            if (best > maxEdits) {
+                return;
+            }
+            row = next;
+        }
+        int distance = row[row.length - 1];
+        if (node.postings != null && node.postings.df > 0 && distance <= maxEdits) {
+            match.accept(node.postings, distance);
+        }
+        for (Node child : node.children) {
+            fuzzy(child, term, rows, depth, maxEdits, match);
+        }
+    }
+
+    // Index of the child whose edge starts with c, or -(insertion point + 1).
+    private static int slot(Node node, char c) {
+        return Arrays.binarySearch(node.firsts, c);
+    }
+
+    private static void insertChild(Node node, int at, Node child) {
+        int count = node.firsts.length;
+        char[] firsts = new char[count + 1];
+        Node[] children = new Node[count + 1];
+        System.arraycopy(node.firsts, 0, firsts, 0, at);
+        System.arraycopy(node.children, 0, children, 0, at);
+        firsts[at] = child.edge[0];
+        children[at] = child;
+        System.arraycopy(node.firsts, at, firsts, at + 1, count - at);
+        System.arraycopy(node.children, at, children, at + 1, count - at);
+        node.firsts = firsts;
+        node.children = children;
+    }
+}
@@ -0,0 +1,142 @@
+package anudip1.com;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import anudip.util.RecordCursor;
+import anudip.util.RecordPipeline;
+import anudip.util.RecordWriter;
+
+/**
+ * Bulk import and export of book titles, as CSV or in a compact binary
+ * format.
+ * <p>
+ * A CSV file holds one title per row, quoted when it contains a comma, a
+ * quote or a line break; a row with more than one field is rejected. A
+ * binary file starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * one record per title: a varint length and the title's UTF-8 bytes. Files
+ * whose name ends in {@code .csv} are CSV; any other is binary.
+ * <p>
+ * An import runs in a {@link RecordPipeline}: titles are decoded and split
+ * into index terms on every core, while the calling thread adds each batch
+ * to the store and the index in file order. Blank titles are rejected.
+ */
+final class TitleFiles {
+    static final int MAGIC = 0x4154544c;
+    static final int VERSION = 1;
+
+    /**
+     * Titles parsed from one chunk, each with its index terms.
+     */
+    static final class Batch {
+        final List<String> titles = new ArrayList<>();
+        final List<List<String>> tokens = new ArrayList<>();
+        int malformed;
+
+        private void add(String title) {
+            if (title == null || title.isBlank()) {
+                malformed++;
+            } else {
+                titles.add(title);
+                tokens.add(TitleIndex.tokenize(title));
+            }
+        }
+    }
+
+    private TitleFiles() {
+    }
+
+    /**
+     * Reads every title in a file and passes them to the loader in batches.
+     *
+     * @param file the file to read
+     * @param loader adds a batch of titles, on the calling thread
+     * @param progress receives progress after every batch
+     * @return the rows read, loaded and rejected
+     * @throws IOException if the file cannot be read or is not a title file
+     */
+    static RecordPipeline.Report load(Path file, RecordPipeline.Loader<Batch> loader,
+            RecordPipeline.Progress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (isCsv(file)) {
+                return RecordPipeline.run(channel, RecordCursor.CSV_ROWS, TitleFiles::parseCsv, loader, progress);
+            }
+            RecordPipeline.readHeader(channel, MAGIC, VERSION);
+            return RecordPipeline.run(channel, RecordCursor.BINARY_RECORDS, TitleFiles::parseBinary, loader,
+                    progress);
+        }
+    }
+
+    /**
+     * Writes titles to a file in list order.
+     *
+     * @param file the file to create
+     * @param titles the titles to write
+     * @return the number of titles written
+     * @throws IOException if the file cannot be written
+     */
+    static long export(Path file, TitleStore titles) throws IOException {
+        boolean csv = isCsv(file);
+        long[] rows = new long[1];
+        try (RecordWriter out = new RecordWriter(file)) {
+            if (!csv) {
+                out.writeInt(MAGIC).writeInt(VERSION);
+            }
+            titles.forEach(title -> {
+                try {
+                    if (csv) {
+                        out.writeCsvField(title).writeByte('\n');
+                    } else {
+                        out.writeVarint(RecordWriter.utf8Length(title)).writeUtf8(title);
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return rows[0];
+    }
+
+    private static boolean isCsv(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
+
+    private static Batch parseCsv(byte[] bytes, int from, int to) {
+        Batch batch = new Batch();
+        RecordCursor cursor = new RecordCursor();
+        cursor.reset(bytes, from, to);
+        while (cursor.nextRow()) {
+            cursor.nextField();
+            if (cursor.nextField()) {
+                batch.malformed++;
+            } else {
+                batch.add(cursor.string());
+            }
+        }
+        return batch;
+    }
+
+    private static Batch parseBinary(byte[] bytes, int from, int to) {
+        Batch batch = new Batch();
+        RecordCursor cursor = new RecordCursor();
+        cursor.reset(bytes, from, to);
+        while (cursor.nextRecord()) {
+            String title = cursor.readText();
+            if (cursor.recordComplete()) {
+                batch.add(title);
+            } else {
+                batch.malformed++;
+            }
+        }
+        return batch;
+    }
+}
@@ -0,0 +1,824 @@
+package anudip1.com;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory full-text index over book titles.
+ * <p>
+ * Titles are split into terms by {@link #tokenize(String)}, which lowercases,
+ * strips accents and breaks on anything that is not a letter or digit. The
+ * documents are the distinct titles of a {@link TitleStore}, numbered by
+ * their IDs there, so the index holds no copy of the text. Each term keeps a
+ * postings list of (document, position) entries in document order, and the
+ * terms themselves live in a {@link TermTrie} for prefix and fuzzy lookup.
+ * <p>
+ * A query is a list of clauses that must all match:
+ * <ul>
+ * <li>{@code word} - the term.</li>
+ * <li>{@code "two words"} - the terms next to each other, in order.</li>
+ * <li>{@code wor*} - any term with that prefix; the most frequent
+ * {@value #MAX_EXPANSIONS} are used.</li>
+ * <li>{@code word~} or {@code word~1} - any term within two (or one) edits.
+ * Terms shorter than three characters must match exactly and terms shorter
+ * than six allow one edit.</li>
+ * </ul>
+ * Matching titles are ranked by BM25. The conjunction is driven by the
+ * clause with the fewest candidates and the others skip ahead to it, so a
+ * query costs about as much as its rarest clause.
+ * <p>
+ * Removing a title marks its document deleted, and postings lists drop
+ * deleted entries once they make up half the list. When the store compacts
+ * and renumbers its IDs, the index must be rebuilt. This class is not
+ * thread-safe.
+ */
+final class TitleIndex {
+    static final int MAX_EXPANSIONS = 64;
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int NO_MORE = Integer.MAX_VALUE;
+
+    /**
+     * Occurrences of one term, in document order and by position within a
+     * document. Entries are grouped into blocks of about {@value #BLOCK} that
+     * never split a document. Each block records its shortest title, its
+     * highest term frequency and the shortest title that repeats the term;
+     * together these bound the score of any document in the block.
+     */
+    static final class Postings {
+        static final int BLOCK = 64;
+
+        final String term;
+        int[] docs = new int[2];
+        int[] positions = new int[2];
+        int size;
+        // Live documents containing the term, and entries of deleted ones.
+        int df;
+        int dead;
+        int[] blockStart = new int[1];
+        int[] blockMinLength = new int[1];
+        int[] blockMaxTf = new int[1];
+        int[] blockRepeatLength = new int[1];
+        int blocks;
+        int minLength = Integer.MAX_VALUE;
+        int maxTf;
+        private int runTf;
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        void add(int doc, int position, int length) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            boolean newDoc = size == 0 || docs[size - 1] != doc;
+            if (newDoc && (blocks == 0 || size - blockStart[blocks - 1] >= BLOCK)) {
+                if (blocks == blockStart.length) {
+                    blockStart = Arrays.copyOf(blockStart, blocks * 2);
+                    blockMinLength = Arrays.copyOf(blockMinLength, blocks * 2);
+                    blockMaxTf = Arrays.copyOf(blockMaxTf, blocks * 2);
+                    blockRepeatLength = Arrays.copyOf(blockRepeatLength, blocks * 2);
+                }
+                blockStart[blocks] = size;
+                blockMinLength[blocks] = Integer.MAX_VALUE;
+                blockMaxTf[blocks] = 0;
+                blockRepeatLength[blocks] = Integer.MAX_VALUE;
+                blocks++;
+            }
+            runTf = newDoc ? 1 : runTf + 1;
+            int block = blocks - 1;
+            blockMinLength[block] = Math.min(blockMinLength[block], length);
+            blockMaxTf[block] = Math.max(blockMaxTf[block], runTf);
+            if (runTf == 2) {
+                blockRepeatLength[block] = Math.min(blockRepeatLength[block], length);
+            }
+            minLength = Math.min(minLength, length);
+            maxTf = Math.max(maxTf, runTf);
+            docs[size] = doc;
+            positions[size] = position;
+            size++;
+        }
+
+        int lastDoc() {
+            return size == 0 ? -1 : docs[size - 1];
+        }
+
+        // Entry index where the block after the given one starts.
+        int blockEnd(int block) {
+            return block + 1 < blocks ? blockStart[block + 1] : size;
+        }
+
+        void purge(int[] lengths) {
+            int[] oldDocs = docs;
+            int[] oldPositions = positions;
+            int oldSize = size;
+            size = 0;
+            blocks = 0;
+            minLength = Integer.MAX_VALUE;
+            maxTf = 0;
+            for (int i = 0; i < oldSize; i++) {
+                if (lengths[oldDocs[i]] >= 0) {
+                    add(oldDocs[i], oldPositions[i], lengths[oldDocs[i]]);
+                }
+            }
+            dead = 0;
+        }
+    }
+
+    private final TitleStore store;
+    private TermTrie terms = new TermTrie();
+    // Terms per document, or -1 once it is deleted.
+    private int[] lengths = new int[16];
+    private int liveDocs;
+    private long totalLength;
+
+    /**
+     * Creates an empty index over the titles of a store.
+     *
+     * @param store the store whose IDs are the documents
+     */
+    TitleIndex(TitleStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Adds a title that has just been listed in the store for the first time.
+     * Its ID must be higher than that of any document already in the index.
+     *
+     * @param doc the title's ID in the store
+     * @param title the title
+     */
+    public void add(int doc, String title) {
+        add(doc, tokenize(title));
+    }
+
+    /**
+     * Adds a title whose terms have already been split out by
+     * {@link #tokenize(String)}, for example on another thread.
+     *
+     * @param doc the title's ID in the store
+     * @param tokens the title's terms, in order
+     */
+    public void add(int doc, List<String> tokens) {
+        if (doc >= lengths.length) {
+            lengths = Arrays.copyOf(lengths, Math.max(doc + 1, lengths.length * 2));
+        }
+        lengths[doc] = tokens.size();
+        liveDocs++;
+        totalLength += tokens.size();
+        for (int position = 0; position < tokens.size(); position++) {
+            String token = tokens.get(position);
+            Postings postings = terms.getOrAdd(token);
+            if (postings.lastDoc() != doc) {
+                postings.df++;
+                terms.raise(token, postings.df);
+            }
+            postings.add(doc, position, tokens.size());
+        }
+    }
+
+    /**
+     * Deletes a title whose last listing is about to be removed from the
+     * store.
+     *
+     * @param doc the title's ID in the store
+     * @param title the title
+     */
+    public void remove(int doc, String title) {
+        liveDocs--;
+        totalLength -= lengths[doc];
+        lengths[doc] = -1;
+        List<String> tokens = tokenize(title);
+        for (int position = 0; position < tokens.size(); position++) {
+            Postings postings = terms.get(tokens.get(position));
+            if (tokens.indexOf(tokens.get(position)) == position) {
+                postings.df--;
+            }
+            postings.dead++;
+            if (postings.dead * 2 > postings.size) {
+                postings.purge(lengths);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index from the store, after the store has renumbered its
+     * IDs.
+     */
+    public void rebuild() {
+        terms = new TermTrie();
+        lengths = new int[Math.max(16, store.idLimit())];
+        liveDocs = 0;
+        totalLength = 0;
+        for (int doc = 0; doc < store.idLimit(); doc++) {
+            if (store.listed(doc)) {
+                add(doc, store.title(doc));
+            }
+        }
+    }
+
+    /**
+     * Gets the number of distinct titles in the index.
+     *
+     * @return the number of distinct titles
+     */
+    public int size() {
+        return liveDocs;
+    }
+
+    /**
+     * Finds the titles that best match a query.
+     *
+     * @param query the query, using the syntax described above
+     * @param limit the maximum number of titles to return
+     * @return up to {@code limit} titles, best match first
+     */
+    public List<String> search(String query, int limit) {
+        List<Clause> clauses = parse(query);
+        if (clauses.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        Clause lead = clauses.get(0);
+        for (Clause clause : clauses) {
+            if (clause.cost() < lead.cost()) {
+                lead = clause;
+            }
+        }
+        TopHits top = new TopHits(Math.max(1, Math.min(limit, liveDocs)));
+        float threshold = -1;
+        int doc = lead.advance(0);
+        while (doc != NO_MORE) {
+            int next = doc;
+            for (Clause clause : clauses) {
+                if (clause != lead) {
+                    next = clause.advance(doc);
+                    if (next != doc) {
+                        break;
+                    }
+                }
+            }
+            if (next != doc) {
+                doc = next == NO_MORE ? NO_MORE : lead.advance(next);
+                continue;
+            }
+            float score = 0;
+            for (Clause clause : clauses) {
+                score += clause.score();
+            }
+            top.offer(doc, score);
+            if (top.full() && top.minScore() > threshold) {
+                threshold = top.minScore();
+                raiseThreshold(clauses, threshold);
+            }
+            doc = doc == NO_MORE - 1 ? NO_MORE : lead.advance(doc + 1);
+        }
+        return top.titles(store);
+    }
+
+    // Tells each clause the lowest score it must reach for a document to
+    // still make the top hits, given the best the other clauses can add.
+    // With several clauses the sum is rounded, so leave a little slack.
+    private static void raiseThreshold(List<Clause> clauses, float threshold) {
+        float total = 0;
+        for (Clause clause : clauses) {
+            total += clause.maxScore();
+        }
+        float slack = clauses.size() > 1 ? threshold * 1e-5f : 0;
+        for (Clause clause : clauses) {
+            clause.minCompetitive(threshold - (total - clause.maxScore()) - slack);
+        }
+    }
+
+    /**
+     * Suggests index terms that complete a prefix, most frequent first.
+     *
+     * @param prefix the text typed so far
+     * @param limit the maximum number of terms to return
+     * @return up to {@code limit} terms
+     */
+    public List<String> complete(String prefix, int limit) {
+        List<String> words = tokenize(prefix);
+        List<String> found = new ArrayList<>();
+        if (words.size() != 1) {
+            return found;
+        }
+        for (Postings postings : terms.complete(words.get(0), limit)) {
+            found.add(postings.term);
+        }
+        return found;
+    }
+
+    /**
+     * Splits text into normalized terms: lowercased, with accents removed,
+     * broken at every character that is not a letter or digit.
+     *
+     * @param text the text to split
+     * @return the terms in order
+     */
+    public static List<String> tokenize(String text) {
+        String folded = text;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                folded = Normalizer.normalize(text, Normalizer.Form.NFD);
+                break;
+            }
+        }
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (token.length() > 0) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    // Query parsing. Words that normalize to several terms become several
+    // term clauses; a clause whose term is unknown makes the query match
+    // nothing.
+    private List<Clause> parse(String query) {
+        List<Clause> clauses = new ArrayList<>();
+        int i = 0;
+        int n = query.length();
+        while (i < n) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int end;
+            if (c == '"') {
+                end = query.indexOf('"', i + 1);
+                end = end < 0 ? n : end;
+                List<String> words = tokenize(query.substring(i + 1, end));
+                i = end + 1;
+                if (words.size() == 1) {
+                    addTerm(clauses, words.get(0));
+                } else if (!words.isEmpty()) {
+                    addPhrase(clauses, words);
+                }
+                continue;
+            }
+            end = i;
+            while (end < n && !Character.isWhitespace(query.charAt(end))) {
+                end++;
+            }
+            String word = query.substring(i, end);
+            i = end;
+            int tilde = word.lastIndexOf('~');
+            if (word.endsWith("*")) {
+                addPrefix(clauses, tokenize(word.substring(0, word.length() - 1)));
+            } else if (tilde > 0 && (tilde == word.length() - 1 || word.substring(tilde + 1).matches("[012]"))) {
+                int edits = tilde == word.length() - 1 ? 2 : word.charAt(tilde + 1) - '0';
+                addFuzzy(clauses, tokenize(word.substring(0, tilde)), edits);
+            } else {
+                for (String term : tokenize(word)) {
+                    addTerm(clauses, term);
+                }
+            }
+        }
+        for (Clause clause : clauses) {
+            if (clause.cost() == 0) {
+                clauses.clear();
+                break;
+            }
+        }
+        return clauses;
+    }
+
+    private void addTerm(List<Clause> clauses, String term) {
+        Postings postings = terms.get(term);
+        clauses.add(postings == null ? Expansion.EMPTY : new TermClause(postings, 1f));
+    }
+
+    private void addPhrase(List<Clause> clauses, List<String> words) {
+        TermClause[] parts = new TermClause[words.size()];
+        for (int i = 0; i < parts.length; i++) {
+            Postings postings = terms.get(words.get(i));
+            if (postings == null) {
+                clauses.add(Expansion.EMPTY);
+                return;
+            }
+            parts[i] = new TermClause(postings, 1f);
+        }
+        clauses.add(new PhraseClause(parts));
+    }
+
+    // A prefix such as "o'br*" tokenizes to several terms; all but the last
+    // must match exactly.
+    private void addPrefix(List<Clause> clauses, List<String> words) {
+        if (words.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < words.size() - 1; i++) {
+            addTerm(clauses, words.get(i));
+        }
+        List<TermClause> expansions = new ArrayList<>();
+        for (Postings postings : terms.complete(words.get(words.size() - 1), MAX_EXPANSIONS)) {
+            expansions.add(new TermClause(postings, 1f));
+        }
+        clauses.add(new Expansion(expansions));
+    }
+
+    private void addFuzzy(List<Clause> clauses, List<String> words, int edits) {
+        if (words.size() != 1) {
+            for (String word : words) {
+                addTerm(clauses, word);
+            }
+            return;
+        }
+        String term = words.get(0);
+        int allowed = Math.min(edits, term.length() < 3 ? 0 : term.length() < 6 ? 1 : 2);
+        List<TermClause> expansions = new ArrayList<>();
+        terms.fuzzy(term, allowed, (postings, distance) -> expansions.add(
+                new TermClause(postings, 1f - distance / (float) (term.length() + 1))));
+        if (expansions.size() > MAX_EXPANSIONS) {
+            expansions.sort((a, b) -> a.weight != b.weight ? Float.compare(b.weight, a.weight)
+                    : Integer.compare(b.postings.df, a.postings.df));
+            expansions.subList(MAX_EXPANSIONS, expansions.size()).clear();
+        }
+        clauses.add(new Expansion(expansions));
+    }
+
+    private float idf(int df) {
+        return (float) Math.log(1 + (liveDocs - df + 0.5) / (df + 0.5));
+    }
+
+    private float bm25(float tf, int length) {
+        float average = liveDocs == 0 ? 1 : (float) totalLength / liveDocs;
+        return tf * (K1 + 1) / (tf + K1 * (1 - B + B * length / average));
+    }
+
+    // One required part of a query. advance positions the clause on the first
+    // matching document at or after the target and returns it, or NO_MORE;
+    // score is valid for that document. maxScore bounds score for every
+    // document, and once minCompetitive is set the clause may skip documents
+    // that cannot score above it.
+    private abstract static class Clause {
+        abstract int cost();
+
+        abstract int advance(int target);
+
+        abstract float score();
+
+        abstract float maxScore();
+
+        void minCompetitive(float score) {
+        }
+    }
+
+    private final class TermClause extends Clause {
+        final Postings postings;
+        final float weight;
+        final float idf;
+        int cursor;
+        int block;
+        int doc = -1;
+        float minCompetitive = -1;
+
+        TermClause(Postings postings, float weight) {
+            this.postings = postings;
+            this.weight = weight;
+            this.idf = idf(postings.df);
+        }
+
+        @Override
+        int cost() {
+            return postings.df;
+        }
+
+        @Override
+        int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            int[] docs = postings.docs;
+            int size = postings.size;
+            // Gallop, then binary search the last step.
+            int low = cursor;
+            int step = 1;
+            int high = low;
+            while (high < size && docs[high] < target) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, size);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (docs[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            while (low < size) {
+                while (block + 1 < postings.blocks && postings.blockStart[block + 1] <= low) {
+                    block++;
+                }
+                if (bound(block) <= minCompetitive) {
+                    low = postings.blockEnd(block);
+                } else if (lengths[docs[low]] < 0) {
+                    low++;
+                } else {
+                    break;
+                }
+            }
+            cursor = low;
+            doc = low < size ? docs[low] : NO_MORE;
+            return doc;
+        }
+
+        // Number of entries for the current document, starting at cursor.
+        int frequency() {
+            int end = cursor;
+            while (end < postings.size && postings.docs[end] == doc) {
+                end++;
+            }
+            return end - cursor;
+        }
+
+        @Override
+        float score() {
+            return weight * idf * bm25(frequency(), lengths[doc]);
+        }
+
+        @Override
+        float maxScore() {
+            return weight * idf * bm25(postings.maxTf, postings.minLength);
+        }
+
+        @Override
+        void minCompetitive(float score) {
+            minCompetitive = score;
+        }
+
+        private float bound(int block) {
+            float best = bm25(1, postings.blockMinLength[block]);
+            if (postings.blockRepeatLength[block] != Integer.MAX_VALUE) {
+                best = Math.max(best, bm25(postings.blockMaxTf[block], postings.blockRepeatLength[block]));
+            }
+            return weight * idf * best;
+        }
+    }
+
+    private final class PhraseClause extends Clause {
+        final TermClause[] parts;
+        int doc = -1;
+        int matches;
+
+        PhraseClause(TermClause[] parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        int cost() {
+            int cost = Integer.MAX_VALUE;
+            for (TermClause part : parts) {
+                cost = Math.min(cost, part.cost());
+            }
+            return cost;
+        }
+
+        @Override
+        int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            while (true) {
+                int candidate = parts[0].advance(target);
+                boolean aligned = true;
+                for (int i = 1; i < parts.length && candidate != NO_MORE; i++) {
+                    int at = parts[i].advance(candidate);
+                    if (at != candidate) {
+                        target = at;
+                        aligned = false;
+                        break;
+                    }
+                }
+                if (candidate == NO_MORE || target == NO_MORE) {
+                    doc = NO_MORE;
+                    return doc;
+                }
+                if (aligned) {
+                    matches = countPhrases();
+                    if (matches > 0) {
+                        doc = candidate;
+                        return doc;
+                    }
+                    target = candidate + 1;
+                }
+            }
+        }
+
+        // Positions where every part follows the previous one.
+        private int countPhrases() {
+            TermClause first = parts[0];
+            int count = 0;
+            for (int i = first.cursor; i < first.postings.size && first.postings.docs[i] == first.doc; i++) {
+                int start = first.postings.positions[i];
+                boolean found = true;
+                for (int p = 1; p < parts.length && found; p++) {
+                    found = hasPosition(parts[p], start + p);
+                }
+                if (found) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private boolean hasPosition(TermClause part, int position) {
+            Postings postings = part.postings;
+            for (int i = part.cursor; i < postings.size && postings.docs[i] == part.doc; i++) {
+                if (postings.positions[i] == position) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        float score() {
+            float idf = 0;
+            for (TermClause part : parts) {
+                idf += part.idf;
+            }
+            return idf * bm25(matches, lengths[doc]);
+        }
+
+        @Override
+        float maxScore() {
+            float idf = 0;
+            for (TermClause part : parts) {
+                idf += part.idf;
+            }
+            return idf * (K1 + 1);
+        }
+    }
+
+    // Union of several terms, such as the expansions of a prefix or fuzzy
+    // term. A document scores by its best matching term.
+    private static final class Expansion extends Clause {
+        static final Expansion EMPTY = new Expansion(new ArrayList<>());
+
+        final List<TermClause> terms;
+        int doc = -1;
+
+        Expansion(List<TermClause> terms) {
+            this.terms = terms;
+        }
+
+        @Override
+        int cost() {
+            int cost = 0;
+            for (TermClause term : terms) {
+                cost += term.cost();
+            }
+            return cost;
+        }
+
+        @Override
+        int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            int next = NO_MORE;
+            for (TermClause term : terms) {
+                next = Math.min(next, term.advance(target));
+            }
+            doc = next;
+            return doc;
+        }
+
+        @Override
+        float score() {
+            float best = 0;
+            for (TermClause term : terms) {
+                if (term.doc == doc) {
+                    best = Math.max(best, term.score());
+                }
+            }
+            return best;
+        }
+
+        @Override
+        float maxScore() {
+            float best = 0;
+            for (TermClause term : terms) {
+                best = Math.max(best, term.maxScore());
+            }
+            return best;
+        }
+
+        // A document scores by its best term, so each term can be held to
+        // the clause's own minimum.
+        @Override
+        void minCompetitive(float score) {
+            for (TermClause term : terms) {
+                term.minCompetitive(score);
+            }
+        }
+    }
+
+    // The best hits so far, kept as a min-heap so that a better hit replaces
+    // the worst in O(log k). Documents arrive in order, so among equal scores
+    // the later document is the worse one.
+    private static final class TopHits {
+        final int[] docs;
+        final float[] scores;
+        int size;
+
+        TopHits(int limit) {
+            docs = new int[limit];
+            scores = new float[limit];
+        }
+
+        boolean full() {
+            return size == docs.length;
+        }
+
+        float minScore() {
+            return scores[0];
+        }
+
+        void offer(int doc, float score) {
+            if (size < docs.length) {
+                docs[size] = doc;
+                scores[size] = score;
+                up(size++);
+            } else if (score > scores[0]) {
+                docs[0] = doc;
+                scores[0] = score;
+                down(0);
+            }
+        }
+
+        List<String> titles(TitleStore store) {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Float.compare(scores[b], scores[a])
+                    : Integer.compare(docs[a], docs[b]));
+            List<String> found = new ArrayList<>(size);
+            for (int i : order) {
+                found.add(store.title(docs[i]));
+            }
+            return found;
+        }
+
+        private void up(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(i, parent)) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void down(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    return;
+                }
+                if (child + 1 < size && worse(child + 1, child)) {
+                    child++;
+                }
+                if (!worse(child, i)) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private boolean worse(int a, int b) {
+            return scores[a] != scores[b] ? scores[a] < scores[b] : docs[a] > docs[b];
+        }
+
+        private void swap(int a, int b) {
+            int doc = docs[a];
+            docs[a] = docs[b];
+            docs[b] = doc;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
@@ -0,0 +1,775 @@
+package anudip1.com;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import anudip.util.KeySorter;
+
+/**
+ * Compact storage for the list of book titles in a {@link LibraryUtility}.
+ * <p>
+ * Each distinct title is stored once, as bytes packed into large pages, and
+ * is known by an int ID. The bytes are CESU-8: UTF-8, except that the two
+ * halves of a surrogate pair are encoded separately, so that comparing the
+ * bytes orders titles exactly as {@link String#compareTo} does. Titles are
+ * front-coded in buckets of {@value #BUCKET}: each one stores only what
+ * differs from the title before it, and a title's address is its bucket and
+ * its index there. New titles fill buckets in the order they are added;
+ * {@link #sort()} lays them out in sorted order, where neighbours share long
+ * prefixes. The sort computes one binary key per distinct title, the title
+ * itself or its collation key, and radix-sorts the keys on every core, or
+ * hands them to a {@link KeySorter} that spills to disk when they would not
+ * fit in the heap. An open-addressing table of IDs, keyed by a hash of the bytes,
+ * finds a title and deduplicates new ones. Apart from its bytes, a title
+ * costs about 35 bytes, where a String in a list costs about 47.
+ * <p>
+ * The list itself is an array of IDs in list order. Removing a title leaves
+ * a hole, and a Fenwick tree counting the titles in each block of
+ * {@value #BLOCK} positions turns a position into a list index in
+ * O(log n + {@value #BLOCK}). {@link #compact()} reclaims holes and the bytes
+ * of removed titles once they outnumber the live ones, and renumbers the
+ * IDs. This class is not thread-safe.
+ */
+final class TitleStore {
+    static final int NONE = -1;
+
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int BUCKET_BITS = 4;
+    private static final int BUCKET = 1 << BUCKET_BITS;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MIN_COMPACT = 1024;
+    private static final int BLOCK_BITS = 6;
+    private static final int BLOCK = 1 << BLOCK_BITS;
+    private static final int INSERTION_SORT = 12;
+    private static final int PARALLEL_SORT = 1 << 13;
+    private static final int KEY_CHUNK = 1 << 12;
+
+    /**
+     * Pages of entries. An entry is the length of the prefix it shares with
+     * the entry before it in its bucket and the length of the rest, both as
+     * varints, then the rest. Entries never cross pages; a title too long for
+     * a page gets a page of its own.
+     */
+    private static final class Arena {
+        byte[][] pages = new byte[0][];
+        int used;
+        // The title read last.
+        byte[] bytes = new byte[64];
+        private int cursor;
+        // Where each bucket starts, and the last title appended.
+        private long[] buckets = new long[MIN_CAPACITY];
+        private int bucketCount;
+        private int open = BUCKET;
+        private byte[] last = new byte[64];
+        private int lastLength;
+
+        /**
+         * Appends a title to the open bucket, or to a new one if the open
+         * bucket is full or its page is.
+         *
+         * @return the title's address: its bucket, then its index there
+         */
+        int append(byte[] title, int length) {
+            int shared = 0;
+            if (open < BUCKET) {
+                int limit = Math.min(length, lastLength);
+                while (shared < limit && title[shared] == last[shared]) {
+                    shared++;
+                }
+            }
+            if (open == BUCKET || !fits(shared, length)) {
+                if (bucketCount == buckets.length) {
+                    buckets = Arrays.copyOf(buckets, bucketCount * 2);
+                }
+                buckets[bucketCount++] = write(0, title, length);
+                open = 0;
+            } else {
+                write(shared, title, length);
+            }
+            if (length > last.length) {
+                last = new byte[Math.max(length, last.length * 2)];
+            }
+            System.arraycopy(title, 0, last, 0, length);
+            lastLength = length;
+            return (bucketCount - 1) << BUCKET_BITS | open++;
+        }
+
+        /**
+         * Reads the title at an address.
+         *
+         * @param address the title's address
+         * @return the length of the title, now in {@link #bytes}
+         */
+        int read(int address) {
+            int index = address & (BUCKET - 1);
+            long location = buckets[address >>> BUCKET_BITS];
+            byte[] page = pages[(int) (location >>> PAGE_BITS)];
+            cursor = (int) (location & (PAGE_SIZE - 1));
+            int length = 0;
+            for (int k = 0; k <= index; k++) {
+                int shared = varint(page);
+                int rest = varint(page);
+                length = shared + rest;
+                if (length > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, Math.max(length, bytes.length * 2));
+                }
+                System.arraycopy(page, cursor, bytes, shared, rest);
+                cursor += rest;
+            }
+            return length;
+        }
+
+        boolean fits(int shared, int length) {
+            return pages.length > 0 && used + size(shared, length) <= pages[pages.length - 1].length;
+        }
+
+        /**
+         * Writes an entry, starting a new page if it does not fit.
+         *
+         * @return the page and offset of the entry
+         */
+        long write(int shared, byte[] title, int length) {
+            int need = size(shared, length);
+            if (!fits(shared, length)) {
+                pages = Arrays.copyOf(pages, pages.length + 1);
+                pages[pages.length - 1] = new byte[Math.max(PAGE_SIZE, need)];
+                used = 0;
+            }
+            byte[] page = pages[pages.length - 1];
+            long location = (long) (pages.length - 1) << PAGE_BITS | used;
+            used = putVarint(page, used, shared);
+            used = putVarint(page, used, length - shared);
+            System.arraycopy(title, shared, page, used, length - shared);
+            used += length - shared;
+            return location;
+        }
+
+        private int varint(byte[] page) {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = page[cursor++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private static int putVarint(byte[] page, int at, int value) {
+            while (value >= 0x80) {
+                page[at++] = (byte) (value | 0x80);
+                value >>>= 7;
+            }
+            page[at++] = (byte) value;
+            return at;
+        }
+
+        private static int size(int shared, int length) {
+            return varintSize(shared) + varintSize(length - shared) + length - shared;
+        }
+
+        static int varintSize(int value) {
+            int size = 1;
+            while (value >= 0x80) {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+    }
+
+    private Arena arena = new Arena();
+
+    // Per ID: the title's address, the hash of its bytes and the position of
+    // its first listing, or NONE once it is no longer listed.
+    private int[] addresses = new int[MIN_CAPACITY];
+    private int[] hashes = new int[MIN_CAPACITY];
+    private int[] first = new int[MIN_CAPACITY];
+    private int ids;
+    private int liveIds;
+
+    // IDs plus one, by hash; 0 marks an empty slot.
+    private int[] slots = new int[MIN_CAPACITY * 2];
+
+    // Per position: the ID, or NONE for a hole. Per block of positions: a
+    // Fenwick tree (indexed from 1) of the number of titles. A title listed
+    // more than once links each listing to the next; duplicates are rare, so
+    // the links are kept in a map.
+    private int[] order = new int[MIN_CAPACITY];
+    private int[] tree = new int[2];
+    private int end;
+    private int size;
+    private final Map<Integer, Integer> nextCopy = new HashMap<>();
+
+    // The title being looked up, encoded.
+    private byte[] key = new byte[64];
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    // All IDs are below this.
+    int idLimit() {
+        return ids;
+    }
+
+    // Whether the title with this ID is still listed.
+    boolean listed(int id) {
+        return first[id] != NONE;
+    }
+
+    // Whether the title with this ID is listed exactly once.
+    boolean listedOnce(int id) {
+        return first[id] != NONE && (nextCopy.isEmpty() || !nextCopy.containsKey(first[id]));
+    }
+
+    String title(int id) {
+        int length = arena.read(addresses[id]);
+        return decode(arena.bytes, length);
+    }
+
+    // Appends a title to the list and returns its ID. A title that is not
+    // listed yet gets a new ID, higher than any before it.
+    int add(String title) {
+        int length = encode(title);
+        int hash = hash(key, length);
+        int slot = slot(hash, length);
+        int id = slots[slot] - 1;
+        if (id == NONE) {
+            if ((liveIds + 1) * 4 > slots.length * 3) {
+                rehash(slots.length * 2);
+                slot = slot(hash, length);
+            }
+            id = newId(hash, length);
+            slots[slot] = id + 1;
+            first[id] = end;
+        } else {
+            int last = first[id];
+            for (Integer next = nextCopy.get(last); next != null; next = nextCopy.get(last)) {
+                last = next;
+            }
+            nextCopy.put(last, end);
+        }
+        append(id);
+        return id;
+    }
+
+    // The ID of a title, or NONE if it is not listed.
+    int find(String title) {
+        int length = encode(title);
+        return slots[slot(hash(key, length), length)] - 1;
+    }
+
+    // The list index of the first listing of a title, or -1.
+    int indexOf(String title) {
+        int id = find(title);
+        if (id == NONE) {
+            return -1;
+        }
+        int position = first[id];
+        int block = position >>> BLOCK_BITS;
+        int count = 0;
+        for (int i = block; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        for (int p = block << BLOCK_BITS; p < position; p++) {
+            if (order[p] != NONE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Removes the first listing of the title with this ID.
+    void removeFirst(int id) {
+        int position = first[id];
+        order[position] = NONE;
+        int blocks = blocks(end);
+        for (int i = (position >>> BLOCK_BITS) + 1; i <= blocks; i += i & -i) {
+            tree[i]--;
+        }
+        size--;
+        Integer next = nextCopy.isEmpty() ? null : nextCopy.remove(position);
+        if (next != null) {
+            first[id] = next;
+        } else {
+            unlink(id);
+            first[id] = NONE;
+            liveIds--;
+        }
+    }
+
+    void forEach(Consumer<? super String> action) {
+        for (int position = 0; position < end; position++) {
+            if (order[position] != NONE) {
+                action.accept(title(order[position]));
+            }
+        }
+    }
+
+    // Sorts the list as Collections.sort would sort the strings, or by a
+    // collator when one is given, and lays the titles out in that order so
+    // that each bucket shares prefixes. IDs do not change. Titles with equal
+    // collation keys keep the order of their first listings.
+    void sort(Collator collator) {
+        sort(collator, freeHeap() / 2);
+    }
+
+    // Sorts in memory if the keys fit in the budget, else on disk.
+    void sort(Collator collator, long memoryBudget) {
+        int[] list = new int[liveIds];
+        int n = 0;
+        int[] copies = new int[ids];
+        for (int position = 0; position < end; position++) {
+            if (order[position] != NONE) {
+                if (copies[order[position]]++ == 0) {
+                    list[n++] = order[position];
+                }
+            }
+        }
+        long text = 0;
+        for (byte[] page : arena.pages) {
+            text += page.length;
+        }
+        // Collation keys run to about three bytes per character.
+        long workspace = text * (collator == null ? 1 : 3) + n * 16L;
+        int[] sorted;
+        try {
+            sorted = workspace <= memoryBudget ? sortInMemory(list, n, collator)
+                    : sortOnDisk(list, n, collator, memoryBudget);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        arena = pack(sorted, n);
+
+        int[] sequence = new int[size];
+        int count = 0;
+        for (int id : sorted) {
+            for (int c = 0; c < copies[id]; c++) {
+                sequence[count++] = id;
+            }
+        }
+        relist(sequence, count);
+    }
+
+    private int[] sortInMemory(int[] list, int n, Collator collator) throws IOException {
+        // Lay the keys out whole, so the sort can read them in place.
+        Arena flat = new Arena();
+        long[] starts = new long[n];
+        int[] lengths = new int[n];
+        int[] items = new int[n];
+        forEachKey(list, n, collator, (i, key, length) -> {
+            starts[i] = flat.write(0, key, length) + 1 + Arena.varintSize(length);
+            lengths[i] = length;
+            items[i] = i;
+        });
+        Sorter sorter = new Sorter(flat.pages, starts, lengths);
+        ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> sorter.sort(items, 0, n, 0)));
+        int[] sorted = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = list[items[i]];
+        }
+        return sorted;
+    }
+
+    private int[] sortOnDisk(int[] list, int n, Collator collator, long memoryBudget) throws IOException {
+        int[] sorted = new int[n];
+        int[] next = {0};
+        try (KeySorter sorter = new KeySorter(memoryBudget, null)) {
+            forEachKey(list, n, collator, (i, key, length) -> sorter.add(Arrays.copyOf(key, length),
+                    new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i}));
+            sorter.finish((key, value) -> sorted[next[0]++] = list[(value[0] & 0xFF) << 24
+                    | (value[1] & 0xFF) << 16 | (value[2] & 0xFF) << 8 | value[3] & 0xFF]);
+        }
+        return sorted;
+    }
+
+    @FunctionalInterface
+    private interface KeyConsumer {
+        void accept(int i, byte[] key, int length) throws IOException;
+    }
+
+    // Passes the sort key of each listed title: its bytes, or its collation
+    // key. Collation keys are computed a chunk at a time on every core, with
+    // a copy of the collator per thread since collators are not thread-safe.
+    private void forEachKey(int[] list, int n, Collator collator, KeyConsumer consumer) throws IOException {
+        if (collator == null) {
+            for (int i = 0; i < n; i++) {
+                int length = arena.read(addresses[list[i]]);
+                consumer.accept(i, arena.bytes, length);
+            }
+            return;
+        }
+        ThreadLocal<Collator> collators = ThreadLocal.withInitial(() -> (Collator) collator.clone());
+        String[] titles = new String[Math.min(n, KEY_CHUNK)];
+        byte[][] keys = new byte[titles.length][];
+        for (int from = 0; from < n; from += KEY_CHUNK) {
+            int count = Math.min(KEY_CHUNK, n - from);
+            for (int j = 0; j < count; j++) {
+                titles[j] = title(list[from + j]);
+            }
+            Arrays.parallelSetAll(keys, j -> j < count ? collators.get().getCollationKey(titles[j]).toByteArray() : null);
+            for (int j = 0; j < count; j++) {
+                consumer.accept(from + j, keys[j], keys[j].length);
+            }
+        }
+    }
+
+    /**
+     * Reclaims holes in the list and the bytes of removed titles once they
+     * outnumber the live ones. Titles keep their order in the list and are
+     * renumbered in that order.
+     *
+     * @return true if the store was compacted, which changes every ID
+     */
+    boolean compact() {
+        if (end < MIN_COMPACT || (end - size <= size && ids - liveIds <= liveIds)) {
+            return false;
+        }
+        int[] renumber = new int[ids];
+        Arrays.fill(renumber, NONE);
+        int[] list = new int[liveIds];
+        int n = 0;
+        int[] sequence = new int[size];
+        int count = 0;
+        for (int position = 0; position < end; position++) {
+            int id = order[position];
+            if (id != NONE) {
+                if (renumber[id] == NONE) {
+                    renumber[id] = n;
+                    list[n++] = id;
+                }
+                sequence[count++] = renumber[id];
+            }
+        }
+        arena = pack(list, n);
+
+        int capacity = Math.max(MIN_CAPACITY, n + (n >> 1));
+        int[] newAddresses = new int[capacity];
+        int[] newHashes = new int[capacity];
+        for (int i = 0; i < n; i++) {
+            newAddresses[i] = addresses[list[i]];
+            newHashes[i] = hashes[list[i]];
+        }
+        addresses = newAddresses;
+        hashes = newHashes;
+        first = new int[capacity];
+        ids = n;
+        liveIds = n;
+        int table = MIN_CAPACITY * 2;
+        while (n * 4 > table * 3) {
+            table *= 2;
+        }
+        relist(sequence, count);
+        rehash(table);
+        return true;
+    }
+
+    // Writes titles into a new arena in the given order and points their
+    // addresses at it.
+    private Arena pack(int[] list, int count) {
+        Arena packed = new Arena();
+        for (int i = 0; i < count; i++) {
+            int id = list[i];
+            int length = arena.read(addresses[id]);
+            addresses[id] = packed.append(arena.bytes, length);
+        }
+        return packed;
+    }
+
+    // Replaces the list with the given IDs, without holes.
+    private void relist(int[] sequence, int count) {
+        int capacity = Math.max(MIN_CAPACITY, count + (count >> 1));
+        order = Arrays.copyOf(sequence, capacity);
+        end = count;
+        int blocks = blocks(count);
+        tree = new int[blocks(capacity) + 1];
+        for (int i = 1; i <= blocks; i++) {
+            tree[i] += Math.min(BLOCK, count - (i - 1) * BLOCK);
+            int parent = i + (i & -i);
+            if (parent <= blocks) {
+                tree[parent] += tree[i];
+            }
+        }
+        size = count;
+        nextCopy.clear();
+        Arrays.fill(first, 0, ids, NONE);
+        int[] last = new int[ids];
+        for (int position = 0; position < count; position++) {
+            int id = sequence[position];
+            if (first[id] == NONE) {
+                first[id] = position;
+            } else {
+                nextCopy.put(last[id], position);
+            }
+            last[id] = position;
+        }
+    }
+
+    private int newId(int hash, int length) {
+        if (ids == addresses.length) {
+            int capacity = ids * 2;
+            addresses = Arrays.copyOf(addresses, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            first = Arrays.copyOf(first, capacity);
+        }
+        int id = ids++;
+        addresses[id] = arena.append(key, length);
+        hashes[id] = hash;
+        liveIds++;
+        return id;
+    }
+
+    private void append(int id) {
+        if (end == order.length) {
+            order = Arrays.copyOf(order, end * 2);
+            tree = Arrays.copyOf(tree, blocks(end * 2) + 1);
+        }
+        order[end] = id;
+        int block = (end >>> BLOCK_BITS) + 1;
+        if ((end & (BLOCK - 1)) == 0) {
+            // tree[i] counts blocks (i - lowbit(i), i]: this new, empty one
+            // plus the ranges of the nodes below it.
+            int count = 0;
+            for (int child = block - 1; child > block - (block & -block); child -= child & -child) {
+                count += tree[child];
+            }
+            tree[block] = count;
+        }
+        end++;
+        for (int i = block, blocks = blocks(end); i <= blocks; i += i & -i) {
+            tree[i]++;
+        }
+        size++;
+    }
+
+    private static int blocks(int positions) {
+        return (positions + BLOCK - 1) >>> BLOCK_BITS;
+    }
+
+    // Slot holding the encoded key, or the empty slot where it belongs.
+    private int slot(int hash, int length) {
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        while (slots[i] != 0) {
+            int id = slots[i] - 1;
+            if (hashes[id] == hash && arena.read(addresses[id]) == length
+                    && Arrays.equals(arena.bytes, 0, length, key, 0, length)) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    // Backward-shift deletion, so that lookups never need tombstones.
+    private void unlink(int id) {
+        int mask = slots.length - 1;
+        int gap = hashes[id] & mask;
+        while (slots[gap] != id + 1) {
+            gap = (gap + 1) & mask;
+        }
+        int j = gap;
+        while (true) {
+            j = (j + 1) & mask;
+            if (slots[j] == 0) {
+                break;
+            }
+            int home = hashes[slots[j] - 1] & mask;
+            boolean reachable = gap <= j ? gap < home && home <= j : gap < home || home <= j;
+            if (!reachable) {
+                slots[gap] = slots[j];
+                gap = j;
+            }
+        }
+        slots[gap] = 0;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int id = 0; id < ids; id++) {
+            if (first[id] != NONE) {
+                int i = hashes[id] & mask;
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = id + 1;
+            }
+        }
+    }
+
+    private int encode(String title) {
+        int n = title.length();
+        if (n * 3 > key.length) {
+            key = new byte[Math.max(n * 3, key.length * 2)];
+        }
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            char c = title.charAt(i);
+            if (c < 0x80) {
+                key[length++] = (byte) c;
+            } else if (c < 0x800) {
+                key[length++] = (byte) (0xC0 | c >> 6);
+                key[length++] = (byte) (0x80 | c & 0x3F);
+            } else {
+                key[length++] = (byte) (0xE0 | c >> 12);
+                key[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+                key[length++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return length;
+    }
+
+    private static String decode(byte[] bytes, int length) {
+        int ascii = 0;
+        while (ascii < length && bytes[ascii] >= 0) {
+            ascii++;
+        }
+        if (ascii == length) {
+            return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+        }
+        char[] chars = new char[length];
+        int n = 0;
+        for (int i = 0; i < length;) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                chars[n++] = (char) b;
+                i++;
+            } else if (b < 0xE0) {
+                chars[n++] = (char) ((b & 0x1F) << 6 | bytes[i + 1] & 0x3F);
+                i += 2;
+            } else {
+                chars[n++] = (char) ((b & 0x0F) << 12 | (bytes[i + 1] & 0x3F) << 6 | bytes[i + 2] & 0x3F);
+                i += 3;
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    private static long freeHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    private static int hash(byte[] bytes, int length) {
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Three-way radix quicksort (Bentley and Sedgewick) of keys laid out
+    // whole: partitions on one byte at a time, so a long shared prefix is
+    // read once per partition rather than once per comparison. Large
+    // partitions are sorted in parallel. Items with equal keys end up in
+    // item order.
+    private static final class Sorter {
+        final byte[][] pages;
+        final long[] starts;
+        final int[] lengths;
+
+        Sorter(byte[][] pages, long[] starts, int[] lengths) {
+            this.pages = pages;
+            this.starts = starts;
+            this.lengths = lengths;
+        }
+
+        // The unsigned byte of an item at a depth, or -1 past its end.
+        int at(int item, int depth) {
+            if (depth >= lengths[item]) {
+                return -1;
+            }
+            long start = starts[item];
+            return pages[(int) (start >>> PAGE_BITS)][(int) (start & (PAGE_SIZE - 1)) + depth] & 0xFF;
+        }
+
+        // Sorts items [lo, hi), which agree on their first depth bytes.
+        void sort(int[] items, int lo, int hi, int depth) {
+            while (hi - lo > INSERTION_SORT) {
+                int a = at(items[lo], depth);
+                int b = at(items[(lo + hi) >>> 1], depth);
+                int c = at(items[hi - 1], depth);
+                int pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+                int lt = lo;
+                int gt = hi - 1;
+                int i = lo;
+                while (i <= gt) {
+                    int value = at(items[i], depth);
+                    if (value < pivot) {
+                        swap(items, lt++, i++);
+                    } else if (value > pivot) {
+                        swap(items, i, gt--);
+                    } else {
+                        i++;
+                    }
+                }
+                if (hi - lo >= PARALLEL_SORT) {
+                    int low = lo;
+                    int high = hi;
+                    int from = lt;
+                    int to = gt + 1;
+                    int level = depth;
+                    ForkJoinTask.invokeAll(ForkJoinTask.adapt(() -> sort(items, low, from, level)),
+                            ForkJoinTask.adapt(() -> sort(items, to, high, level)),
+                            ForkJoinTask.adapt(() -> {
+                                if (pivot < 0) {
+                                    Arrays.sort(items, from, to);
+                                } else {
+                                    sort(items, from, to, level + 1);
+                                }
+                            }));
+                    return;
+                }
+                sort(items, lo, lt, depth);
+                sort(items, gt + 1, hi, depth);
+                if (pivot < 0) {
+                    Arrays.sort(items, lt, gt + 1);
+                    return;
+                }
+                lo = lt;
+                hi = gt + 1;
+                depth++;
+            }
+            for (int i = lo + 1; i < hi; i++) {
+                for (int j = i; j > lo && compare(items[j - 1], items[j], depth) > 0; j--) {
+                    swap(items, j - 1, j);
+                }
+            }
+        }
+
+        private int compare(int a, int b, int depth) {
+            for (int d = depth;; d++) {
+                int x = at(a, d);
+                int y = at(b, d);
+                if (x != y) {
+                    return x - y;
+                }
+                if (x < 0) {
+                    return Integer.compare(a, b);
+                }
+            }
+        }
+
+        private static void swap(int[] items, int i, int j) {
+            int item = items[i];
+            items[i] = items[j];
+            items[j] = item;
+        }
+    }
+}
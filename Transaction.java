@@ -0,0 +1,64 @@
+package anudip2.com;
+
+import anudip.util.AccountNumbers;
+import anudip.util.Money;
+
+// One row of a batch: a deposit or withdrawal against one account, or a
+// transfer from that account to a target account. Account numbers are in the
+// packed form of AccountNumbers; a number that did not parse is
+// AccountNumbers.INVALID and the row is rejected as INVALID_ACCOUNT. Amounts
+// are in cents.
+final class Transaction {
+    enum Type {
+        DEPOSIT,
+        WITHDRAW,
+        TRANSFER
+    }
+
+    private final Type type;
+    private final long accountNumber;
+    private final long amount;
+    private final long targetAccountNumber;
+
+    Transaction(Type type, long accountNumber, long amount, long targetAccountNumber) {
+        this.type = type;
+        this.accountNumber = accountNumber;
+        this.amount = amount;
+        this.targetAccountNumber = targetAccountNumber;
+    }
+
+    static Transaction deposit(long accountNumber, long amount) {
+        return new Transaction(Type.DEPOSIT, accountNumber, amount, AccountNumbers.INVALID);
+    }
+
+    static Transaction withdraw(long accountNumber, long amount) {
+        return new Transaction(Type.WITHDRAW, accountNumber, amount, AccountNumbers.INVALID);
+    }
+
+    static Transaction transfer(long fromAccountNumber, long toAccountNumber, long amount) {
+        return new Transaction(Type.TRANSFER, fromAccountNumber, amount, toAccountNumber);
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    long getAccountNumber() {
+        return accountNumber;
+    }
+
+    long getAmount() {
+        return amount;
+    }
+
+    // AccountNumbers.INVALID unless this is a transfer.
+    long getTargetAccountNumber() {
+        return targetAccountNumber;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + accountNumber + " " + Money.toString(amount)
+                + (type == Type.TRANSFER ? " " + targetAccountNumber : "");
+    }
+}
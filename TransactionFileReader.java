@@ -0,0 +1,226 @@
+package anudip2.com;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import anudip.util.AccountNumbers;
+import anudip.util.Money;
+
+// Streams settlement files into an AccountService. Rows are read in chunks and
+// each chunk is applied as one batch, so memory stays bounded however large
+// the file is. Bad rows are reported to a listener and never stop the run.
+//
+// CSV rows are "type,accountNumber,amount[,targetAccountNumber]" where type is
+// DEPOSIT/WITHDRAW/TRANSFER or D/W/T (case-insensitive) and only transfers
+// have a target; blank lines and lines starting with '#' are skipped.
+// Binary rows are [byte type (0 deposit, 1 withdraw, 2 transfer)][UTF account]
+// [double amount], followed by [UTF target] for transfers; the amount stays a
+// double in dollars so existing files still read, and is rounded to cents.
+// Account numbers and CSV amounts are parsed in place with AccountNumbers and
+// Money, without a String per field; a number that is not a valid 16-digit
+// number rejects its row as INVALID_ACCOUNT, and an amount that is not a
+// decimal with at most two places rejects it as MALFORMED.
+final class TransactionFileReader {
+    static final int DEFAULT_CHUNK_ROWS = 64 * 1024;
+
+    private static final byte BINARY_DEPOSIT = 0;
+    private static final byte BINARY_WITHDRAW = 1;
+    private static final byte BINARY_TRANSFER = 2;
+
+    // Receives rows that were not applied. Row numbers start at 1.
+    interface RejectListener {
+        void rejected(long row, TransactionStatus status);
+    }
+
+    // Totals for one ingested file.
+    static final class Report {
+        private long rows;
+        private long applied;
+
+        long rows() {
+            return rows;
+        }
+
+        long applied() {
+            return applied;
+        }
+
+        long rejected() {
+            return rows - applied;
+        }
+
+        @Override
+        public String toString() {
+            return "Processed " + rows + " rows: " + applied + " applied, " + rejected() + " rejected.";
+        }
+    }
+
+    private TransactionFileReader() {
+    }
+
+    static Report ingestCsv(Path file, AccountService manager, RejectListener listener) throws IOException {
+        Report report = new Report();
+        List<Transaction> chunk = new ArrayList<>(DEFAULT_CHUNK_ROWS);
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                chunk.add(parseCsv(line));
+                if (chunk.size() == DEFAULT_CHUNK_ROWS) {
+                    flush(chunk, manager, listener, report);
+                }
+            }
+        }
+        flush(chunk, manager, listener, report);
+        return report;
+    }
+
+    static Report ingestBinary(Path file, AccountService manager, RejectListener listener) throws IOException {
+        Report report = new Report();
+        List<Transaction> chunk = new ArrayList<>(DEFAULT_CHUNK_ROWS);
+        byte[] field = new byte[AccountNumbers.DIGITS];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                try {
+                    long accountNumber = readAccountNumber(in, field);
+                    long amount = Money.fromDouble(in.readDouble());
+                    if (type == BINARY_DEPOSIT) {
+                        chunk.add(Transaction.deposit(accountNumber, amount));
+                    } else if (type == BINARY_WITHDRAW) {
+                        chunk.add(Transaction.withdraw(accountNumber, amount));
+                    } else if (type == BINARY_TRANSFER) {
+                        chunk.add(Transaction.transfer(accountNumber, readAccountNumber(in, field), amount));
+                    } else {
+                        chunk.add(null);
+                    }
+                } catch (EOFException e) {
+                    // Truncated last row.
+                    chunk.add(null);
+                    break;
+                }
+                if (chunk.size() == DEFAULT_CHUNK_ROWS) {
+                    flush(chunk, manager, listener, report);
+                }
+            }
+        }
+        flush(chunk, manager, listener, report);
+        return report;
+    }
+
+    static void writeBinary(Path file, Iterable<Transaction> transactions) throws IOException {
+        byte[] field = new byte[AccountNumbers.DIGITS];
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            for (Transaction transaction : transactions) {
+                switch (transaction.getType()) {
+                    case DEPOSIT -> out.writeByte(BINARY_DEPOSIT);
+                    case WITHDRAW -> out.writeByte(BINARY_WITHDRAW);
+                    case TRANSFER -> out.writeByte(BINARY_TRANSFER);
+                }
+                writeAccountNumber(out, transaction.getAccountNumber(), field);
+                out.writeDouble(Money.toDouble(transaction.getAmount()));
+                if (transaction.getType() == Transaction.Type.TRANSFER) {
+                    writeAccountNumber(out, transaction.getTargetAccountNumber(), field);
+                }
+            }
+        }
+    }
+
+    // Reads a field written by writeUTF. Digits are the same in modified
+    // UTF-8 as in ASCII, so a valid number parses straight from the bytes.
+    private static long readAccountNumber(DataInputStream in, byte[] field) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length != field.length) {
+            in.skipNBytes(length);
+            return AccountNumbers.INVALID;
+        }
+        in.readFully(field);
+        return AccountNumbers.parse(field, 0, length);
+    }
+
+    // Writes the same bytes as writeUTF of the digits; an invalid number as an empty field.
+    private static void writeAccountNumber(DataOutputStream out, long accountNumber, byte[] field)
+            throws IOException {
+        if (!AccountNumbers.isValid(accountNumber)) {
+            out.writeShort(0);
+            return;
+        }
+        out.writeShort(field.length);
+        AccountNumbers.format(accountNumber, field, 0);
+        out.write(field);
+    }
+
+    // Returns null for a row that cannot be parsed; the batch reports it as MALFORMED.
+    static Transaction parseCsv(String line) {
+        int first = line.indexOf(',');
+        int second = first < 0 ? -1 : line.indexOf(',', first + 1);
+        if (second < 0) {
+            return null;
+        }
+        int third = line.indexOf(',', second + 1);
+        if (third >= 0 && line.indexOf(',', third + 1) >= 0) {
+            return null;
+        }
+        String type = line.substring(0, first).trim();
+        if (isBlank(line, first + 1, second)) {
+            return null;
+        }
+        long accountNumber = AccountNumbers.parse(line, first + 1, second);
+        long amount = Money.parse(line, second + 1, third < 0 ? line.length() : third);
+        if (amount == Money.INVALID) {
+            return null;
+        }
+        if (third >= 0) {
+            boolean transfer = type.equalsIgnoreCase("T") || type.equalsIgnoreCase("TRANSFER");
+            return transfer && !isBlank(line, third + 1, line.length())
+                    ? Transaction.transfer(accountNumber, AccountNumbers.parse(line, third + 1, line.length()), amount)
+                    : null;
+        }
+        if (type.equalsIgnoreCase("D") || type.equalsIgnoreCase("DEPOSIT")) {
+            return Transaction.deposit(accountNumber, amount);
+        }
+        if (type.equalsIgnoreCase("W") || type.equalsIgnoreCase("WITHDRAW")) {
+            return Transaction.withdraw(accountNumber, amount);
+        }
+        return null;
+    }
+
+    private static boolean isBlank(String line, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void flush(List<Transaction> chunk, AccountService manager, RejectListener listener, Report report) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        BatchResult result = manager.applyBatch(chunk);
+        for (int i = 0; i < result.size(); i++) {
+            if (result.status(i) != TransactionStatus.OK) {
+                listener.rejected(report.rows + i + 1, result.status(i));
+            }
+        }
+        report.rows += result.size();
+        report.applied += result.applied();
+        chunk.clear();
+    }
+}
@@ -0,0 +1,24 @@
+package anudip2.com;
+
+// Outcome of applying one transaction. Returned instead of throwing so that
+// routine rejections cost no exception.
+enum TransactionStatus {
+    OK("OK"),
+    INVALID_ACCOUNT("Account not found."),
+    NON_POSITIVE_AMOUNT("Amount must be positive."),
+    INSUFFICIENT_FUNDS("Insufficient funds."),
+    MALFORMED("Malformed transaction."),
+    DUPLICATE_ACCOUNT("Account already exists."),
+    BALANCE_OVERFLOW("Balance would exceed the largest amount."),
+    LIMIT_EXCEEDED("Withdrawal limit exceeded.");
+
+    private final String message;
+
+    TransactionStatus(String message) {
+        this.message = message;
+    }
+
+    String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,157 @@
+package anudip.bench;
+
+import java.util.SplittableRandom;
+
+/**
+ * Chooses which keys a benchmark touches. A key is an index in
+ * {@code [0, keySpace)}; each benchmark maps it to its own account number,
+ * customer ID or title.
+ * <p>
+ * Specs accepted by {@link #parse(String)}:
+ * <ul>
+ * <li>{@code uniform} - every key equally likely.</li>
+ * <li>{@code sequential} - keys in order, wrapping around.</li>
+ * <li>{@code zipf[:theta]} - Zipfian with skew {@code theta} (default 0.99),
+ * hot keys scattered over the key space.</li>
+ * <li>{@code hotspot[:hotKeys[:hotPercent]]} - {@code hotPercent} of accesses
+ * (default 90) go to {@code hotKeys} keys (default 8).</li>
+ * </ul>
+ */
+public abstract class KeyDistribution {
+    // A prime above any int, so multiplying by it permutes [0, keySpace).
+    private static final long SCATTER = 2_654_435_761L;
+
+    private final String spec;
+
+    private KeyDistribution(String spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * Parses a distribution spec.
+     *
+     * @param spec The spec, for example {@code zipf:0.99}.
+     * @return The distribution.
+     * @throws IllegalArgumentException if the spec is not recognised.
+     */
+    public static KeyDistribution parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        switch (parts[0]) {
+            case "uniform":
+                return new KeyDistribution(spec) {
+                    @Override
+                    int next(SplittableRandom random, int keySpace, int index) {
+                        return random.nextInt(keySpace);
+                    }
+                };
+            case "sequential":
+                return new KeyDistribution(spec) {
+                    @Override
+                    int next(SplittableRandom random, int keySpace, int index) {
+                        return index % keySpace;
+                    }
+                };
+            case "zipf":
+                return new Zipf(spec, parts.length > 1 ? Double.parseDouble(parts[1]) : 0.99);
+            case "hotspot":
+                int hotKeys = parts.length > 1 ? Integer.parseInt(parts[1]) : 8;
+                int hotPercent = parts.length > 2 ? Integer.parseInt(parts[2]) : 90;
+                return new KeyDistribution(spec) {
+                    @Override
+                    int next(SplittableRandom random, int keySpace, int index) {
+                        int hot = Math.min(hotKeys, keySpace);
+                        int key = random.nextInt(100) < hotPercent ? random.nextInt(hot) : random.nextInt(keySpace);
+                        return scatter(key, keySpace);
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown key distribution: " + spec);
+        }
+    }
+
+    /**
+     * Fills an array with keys drawn from this distribution.
+     *
+     * @param keys The array to fill.
+     * @param keySpace The number of distinct keys.
+     * @param seed The random seed; each benchmark thread uses its own.
+     */
+    public void fill(int[] keys, int keySpace, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = next(random, keySpace, i);
+        }
+    }
+
+    abstract int next(SplittableRandom random, int keySpace, int index);
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    // Spreads popular ranks over the key space so that hot keys are not all
+    // neighbours in a table or list.
+    static int scatter(long rank, int keySpace) {
+        return (int) (rank * SCATTER % keySpace);
+    }
+
+    // Gray et al.'s Zipfian generator, as used by YCSB. The zeta constant is
+    // exact for the first million terms and integrated beyond that, so key
+    // spaces of 100M keys are set up quickly.
+    private static final class Zipf extends KeyDistribution {
+        private static final int EXACT_TERMS = 1 << 20;
+
+        private final double theta;
+        private int keySpace;
+        private double zetan;
+        private double alpha;
+        private double eta;
+
+        Zipf(String spec, double theta) {
+            super(spec);
+            if (!(theta > 0) || theta == 1) {
+                throw new IllegalArgumentException("Zipf theta must be positive and not 1: " + theta);
+            }
+            this.theta = theta;
+        }
+
+        @Override
+        int next(SplittableRandom random, int keySpace, int index) {
+            if (keySpace < 2) {
+                return 0;
+            }
+            if (keySpace != this.keySpace) {
+                prepare(keySpace);
+            }
+            double u = random.nextDouble();
+            double uz = u * zetan;
+            long rank;
+            if (uz < 1) {
+                rank = 0;
+            } else if (uz < 1 + Math.pow(0.5, theta)) {
+                rank = 1;
+            } else {
+                rank = Math.min(keySpace - 1, (long) (keySpace * Math.pow(eta * u - eta + 1, alpha)));
+            }
+            return scatter(rank, keySpace);
+        }
+
+        private void prepare(int n) {
+            int exact = Math.min(n, EXACT_TERMS);
+            double zeta = 0;
+            for (int i = 1; i <= exact; i++) {
+                zeta += 1 / Math.pow(i, theta);
+            }
+            if (n > exact) {
+                double p = 1 - theta;
+                zeta += (Math.pow(n + 0.5, p) - Math.pow(exact + 0.5, p)) / p;
+            }
+            double zeta2 = 1 + Math.pow(0.5, theta);
+            this.keySpace = n;
+            this.zetan = zeta;
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zeta);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package anudip.bench;
+
+/**
+ * The keys one benchmark thread touches, drawn before measurement starts so
+ * that drawing them costs nothing while it runs.
+ */
+public final class KeyStream {
+    private static final int LENGTH = 1 << 16;
+
+    private final int[] keys = new int[LENGTH];
+    private int next;
+
+    /**
+     * Draws the keys for one thread.
+     *
+     * @param spec The {@link KeyDistribution} spec, for example {@code zipf:0.99}.
+     * @param keySpace The number of distinct keys.
+     * @param thread The thread's index, which seeds its keys.
+     */
+    public KeyStream(String spec, int keySpace, int thread) {
+        // Parsed per thread: a distribution caches its constants for one key space.
+        KeyDistribution.parse(spec).fill(keys, keySpace, 0x5eed + thread);
+    }
+
+    /**
+     * Gets the next key, wrapping around at the end of the stream.
+     *
+     * @return A key in {@code [0, keySpace)}.
+     */
+    public int next() {
+        return keys[next++ & (LENGTH - 1)];
+    }
+}
@@ -0,0 +1,227 @@
+package anudip.com;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import anudip.bench.KeyStream;
+import anudip.util.LongIndex;
+import anudip.util.EventSink;
+import anudip.util.EventStream;
+
+/**
+ * Throughput of deposits, withdrawals and account lookups on an in-memory
+ * bank, for each size and key distribution; set the thread count with
+ * JMH's {@code -t}. {@code readMostly} mixes lookups with 5% deposits, and
+ * {@code totalBalance} sums the four accounts of a customer with 5%
+ * transfers between them. {@code depositPublished} publishes every deposit
+ * to an {@link EventStream} without subscribers, which measures the
+ * publisher's own cost against {@code deposit}, which publishes nowhere;
+ * {@code depositStreamed} adds one subscriber that reads in batches, whose
+ * delivery thread competes with the publishers for cores.
+ * {@code highest} reads the ten richest accounts from the bank's
+ * aggregates, which every operation above keeps up to date, and
+ * {@code scan} recomputes them in one parallel sweep. Opening balances are
+ * spread out, as real ones are, so that deposits rarely change which
+ * accounts rank highest.
+ * <p>
+ * Lookups at 100M accounts need a large heap, for example
+ * {@code -p size=100000000 -jvmArgsAppend -Xmx24g}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountBenchmark {
+    private static final long BASE = 1_000_000_000_000_000L;
+    private static final long FLOAT_CENTS = 1L << 40;
+    private static final int WRITE_PERCENT = 5;
+    private static final int ACCOUNTS_PER_CUSTOMER = 4;
+    private static final int STREAM_CAPACITY = 1 << 16;
+    private static final int STREAM_BATCH = 1024;
+    private static final long SPREAD_CENTS = 1L << 30;
+    private static final int RANKED = 10;
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"uniform", "zipf"})
+    public String keys;
+
+    private Bank bank;
+    private Account[] accounts;
+    private Account[][] customers;
+
+    @Setup
+    public void setup() {
+        bank = new Bank();
+        accounts = new Account[size];
+        for (int i = 0; i < size; i++) {
+            accounts[i] = bank.openAccount(BASE + i, "Bench");
+            bank.deposit(accounts[i], FLOAT_CENTS + Math.floorMod(LongIndex.mix(i), SPREAD_CENTS));
+        }
+        customers = new Account[Math.max(1, size / ACCOUNTS_PER_CUSTOMER)][];
+        for (int c = 0; c < customers.length; c++) {
+            customers[c] = new Account[Math.min(ACCOUNTS_PER_CUSTOMER, size)];
+            System.arraycopy(accounts, c * customers[c].length, customers[c], 0, customers[c].length);
+        }
+    }
+
+    /**
+     * The keys of one benchmark thread: accounts, and customers for
+     * {@code totalBalance}.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        KeyStream accounts;
+        KeyStream customers;
+
+        @Setup
+        public void setup(AccountBenchmark benchmark, ThreadParams thread) {
+            accounts = new KeyStream(benchmark.keys, benchmark.size, thread.getThreadIndex());
+            customers = new KeyStream(benchmark.keys, benchmark.customers.length, thread.getThreadIndex());
+        }
+    }
+
+    /**
+     * Publishes the bank's events to a stream without subscribers.
+     */
+    @State(Scope.Benchmark)
+    public static class Published {
+        EventStream stream;
+
+        @Setup
+        public void setup(AccountBenchmark benchmark) {
+            stream = new EventStream(STREAM_CAPACITY);
+            benchmark.bank.setEventSink(stream);
+        }
+
+        @TearDown
+        public void tearDown(AccountBenchmark benchmark) {
+            benchmark.bank.setEventSink(EventSink.NONE);
+            stream.close();
+        }
+    }
+
+    /**
+     * Publishes the bank's events to a stream with one batching subscriber.
+     */
+    @State(Scope.Benchmark)
+    public static class Streamed {
+        EventStream stream;
+
+        @Setup
+        public void setup(AccountBenchmark benchmark) {
+            stream = new EventStream(STREAM_CAPACITY);
+            benchmark.bank.setEventSink(stream);
+            stream.subscribe(new BatchSubscriber());
+        }
+
+        @TearDown
+        public void tearDown(AccountBenchmark benchmark) {
+            benchmark.bank.setEventSink(EventSink.NONE);
+            stream.close();
+        }
+    }
+
+    @Benchmark
+    public int deposit(Keys keys) {
+        return bank.deposit(accounts[keys.accounts.next()], 1).ordinal();
+    }
+
+    @Benchmark
+    public int depositPublished(Published published, Keys keys) {
+        return bank.deposit(accounts[keys.accounts.next()], 1).ordinal();
+    }
+
+    @Benchmark
+    public int depositStreamed(Streamed streamed, Keys keys) {
+        return bank.deposit(accounts[keys.accounts.next()], 1).ordinal();
+    }
+
+    @Benchmark
+    public int withdraw(Keys keys) {
+        return bank.withdraw(accounts[keys.accounts.next()], 1).ordinal();
+    }
+
+    @Benchmark
+    public long lookup(Keys keys) {
+        return bank.getAccount(BASE + keys.accounts.next()).getBalanceCents();
+    }
+
+    @Benchmark
+    public long readMostly(Keys keys) {
+        int key = keys.accounts.next();
+        return ThreadLocalRandom.current().nextInt(100) < WRITE_PERCENT
+                ? bank.deposit(bank.getAccount(BASE + key), 1).ordinal()
+                : bank.getAccount(BASE + key).getBalanceCents();
+    }
+
+    @Benchmark
+    public long totalBalance(Keys keys) {
+        Account[] owned = customers[keys.customers.next()];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (owned.length > 1 && random.nextInt(100) < WRITE_PERCENT) {
+            int from = random.nextInt(owned.length);
+            int to = (from + 1 + random.nextInt(owned.length - 1)) % owned.length;
+            return bank.transfer(owned[from], owned[to], 1).ordinal();
+        }
+        return Account.totalBalanceCents(owned);
+    }
+
+    @Benchmark
+    public int highest() {
+        return bank.aggregates().highest(RANKED).size();
+    }
+
+    @Benchmark
+    public long scan() {
+        return bank.aggregates().scan(RANKED).accounts();
+    }
+
+    // Reads events in batches and keeps a running total of their amounts.
+    private static final class BatchSubscriber implements Flow.Subscriber<EventStream.Event> {
+        private Flow.Subscription subscription;
+        private long received;
+        long total;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(STREAM_BATCH);
+        }
+
+        @Override
+        public void onNext(EventStream.Event event) {
+            total += event.b();
+            if (++received % STREAM_BATCH == 0) {
+                subscription.request(STREAM_BATCH);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            // An overrun subscriber stops; the benchmark only measures the publisher.
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
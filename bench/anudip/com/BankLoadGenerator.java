@@ -0,0 +1,288 @@
+package anudip.com;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Load generator for {@link BankServer}. Opens many connections, keeps a
+ * fixed number of pipelined requests in flight on each, and reports
+ * throughput and response-time percentiles. Half of the requests read a
+ * balance, a quarter deposit and a quarter withdraw, on accounts drawn
+ * uniformly. The first second is warmup and is not measured.
+ * <p>
+ * Usage: {@code BankLoadGenerator [seconds] [connections] [depth] [accounts] [host:port]}
+ * <p>
+ * Without an address it serves a bank in-process on loopback: an in-memory
+ * bank with requests run on the event loops, or, with
+ * {@code -Dbench.durable=true}, a journaled bank in a temporary directory
+ * with worker threads and a 1 ms group-commit window.
+ */
+public class BankLoadGenerator {
+    private static final long FIRST_ACCOUNT = 1_000_000_000_000_000L;
+    private static final long INITIAL_CENTS = 1_000_000_00L;
+    private static final int MAX_SAMPLES = 1 << 22;
+    private static final int OPEN_BATCH = 4096;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int depth = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int accounts = args.length > 3 ? Integer.parseInt(args[3]) : 100_000;
+        boolean durable = Boolean.getBoolean("bench.durable");
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        Path directory = null;
+        Bank bank = null;
+        BankServer server = null;
+        InetSocketAddress address;
+        if (args.length > 4) {
+            String[] hostPort = args[4].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            if (durable) {
+                directory = Files.createTempDirectory("bank-load");
+                bank = Bank.open(directory, 1, TimeUnit.MILLISECONDS);
+            } else {
+                bank = new Bank();
+            }
+            server = BankServer.start(bank, new InetSocketAddress("127.0.0.1", 0), Math.max(1, cores / 2),
+                    durable ? 64 : 0);
+            address = server.address();
+        }
+        try {
+            openAccounts(address, accounts);
+            int threads = Math.max(1, Math.min(connections, cores / 2));
+            Client[] clients = new Client[threads];
+            for (int t = 0; t < threads; t++) {
+                int share = connections / threads + (t < connections % threads ? 1 : 0);
+                clients[t] = new Client(address, share, depth, accounts, seconds, 0x5eed + t);
+            }
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                workers[t] = new Thread(clients[t], "load-" + t);
+                workers[t].start();
+            }
+            long responses = 0;
+            long errors = 0;
+            int sampleCount = 0;
+            for (int t = 0; t < threads; t++) {
+                workers[t].join();
+                if (clients[t].failure != null) {
+                    throw clients[t].failure;
+                }
+                responses += clients[t].measured;
+                errors += clients[t].errors;
+                sampleCount += clients[t].samples;
+            }
+            long[] latencies = new long[sampleCount];
+            int at = 0;
+            for (Client client : clients) {
+                System.arraycopy(client.latencies, 0, latencies, at, client.samples);
+                at += client.samples;
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%6s %6s %9s %14s %10s %10s %10s %8s%n", "conns", "depth", "durable", "ops/s", "p50(us)",
+                    "p99(us)", "p999(us)", "errors");
+            System.out.printf("%6d %6d %9s %14.1f %10.1f %10.1f %10.1f %8d%n", connections, depth,
+                    server == null ? "remote" : String.valueOf(durable), responses / (double) (seconds - 1),
+                    percentile(latencies, 0.5) / 1e3, percentile(latencies, 0.99) / 1e3,
+                    percentile(latencies, 0.999) / 1e3, errors);
+        } finally {
+            if (server != null) {
+                server.close();
+                bank.close();
+            }
+            if (directory != null) {
+                deleteRecursively(directory);
+            }
+        }
+    }
+
+    // Opens the accounts over one pipelined connection; existing ones are kept.
+    private static void openAccounts(InetSocketAddress address, int accounts) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            ByteBuffer out = ByteBuffer.allocate(OPEN_BATCH * 32);
+            ByteBuffer in = ByteBuffer.allocate(OPEN_BATCH * BankProtocol.RESPONSE_BYTES);
+            for (int from = 0; from < accounts; from += OPEN_BATCH) {
+                int count = Math.min(OPEN_BATCH, accounts - from);
+                out.clear();
+                for (int i = 0; i < count; i++) {
+                    BankProtocol.putOpen(out, FIRST_ACCOUNT + from + i, "Load");
+                    BankProtocol.putAmount(out, BankProtocol.DEPOSIT, FIRST_ACCOUNT + from + i, INITIAL_CENTS);
+                }
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                for (int pass = 0; pass < 2; pass++) {
+                    in.clear().limit(count * BankProtocol.RESPONSE_BYTES);
+                    while (in.hasRemaining()) {
+                        if (channel.read(in) < 0) {
+                            throw new IOException("Server closed the connection while opening accounts.");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Drives a share of the connections from one thread and one selector.
+    private static final class Client implements Runnable {
+        final InetSocketAddress address;
+        final int connections;
+        final int depth;
+        final int accounts;
+        final int seconds;
+        final SplittableRandom random;
+        final long[] latencies = new long[MAX_SAMPLES];
+        int samples;
+        long seen;
+        long measured;
+        long errors;
+        Exception failure;
+
+        Client(InetSocketAddress address, int connections, int depth, int accounts, int seconds, long seed) {
+            this.address = address;
+            this.connections = connections;
+            this.depth = depth;
+            this.accounts = accounts;
+            this.seconds = seconds;
+            this.random = new SplittableRandom(seed);
+        }
+
+        @Override
+        public void run() {
+            try (Selector selector = Selector.open()) {
+                Connection[] all = new Connection[connections];
+                for (int c = 0; c < connections; c++) {
+                    SocketChannel channel = SocketChannel.open(address);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    channel.configureBlocking(false);
+                    all[c] = new Connection(channel, depth);
+                    channel.register(selector, SelectionKey.OP_READ, all[c]);
+                    for (int i = 0; i < depth; i++) {
+                        send(all[c], System.nanoTime());
+                    }
+                    all[c].flush(selector);
+                }
+                long start = System.nanoTime();
+                long measureFrom = start + TimeUnit.SECONDS.toNanos(1);
+                long end = start + TimeUnit.SECONDS.toNanos(seconds);
+                while (System.nanoTime() < end) {
+                    selector.select(100);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            receive(connection, measureFrom);
+                        }
+                        connection.flush(selector);
+                    }
+                    selector.selectedKeys().clear();
+                }
+                for (Connection connection : all) {
+                    connection.channel.close();
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        private void receive(Connection connection, long measureFrom) throws IOException {
+            if (connection.channel.read(connection.in) < 0) {
+                throw new IOException("Server closed a connection.");
+            }
+            connection.in.flip();
+            long now = System.nanoTime();
+            while (connection.in.remaining() >= BankProtocol.RESPONSE_BYTES) {
+                OperationStatus status = BankProtocol.status(connection.in.get());
+                connection.in.getLong();
+                if (status != OperationStatus.OK && status != OperationStatus.INSUFFICIENT_FUNDS) {
+                    errors++;
+                }
+                long sent = connection.sentAt[connection.head];
+                connection.head = (connection.head + 1) % depth;
+                connection.inFlight--;
+                if (sent >= measureFrom) {
+                    measured++;
+                    record(now - sent);
+                }
+                send(connection, now);
+            }
+            connection.in.compact();
+        }
+
+        // Keeps every sample until the buffer is full, then a uniform sample of all of them.
+        private void record(long latency) {
+            seen++;
+            if (samples < latencies.length) {
+                latencies[samples++] = latency;
+            } else {
+                long slot = random.nextLong(seen);
+                if (slot < latencies.length) {
+                    latencies[(int) slot] = latency;
+                }
+            }
+        }
+
+        private void send(Connection connection, long now) {
+            long account = FIRST_ACCOUNT + random.nextInt(accounts);
+            int kind = random.nextInt(4);
+            if (kind < 2) {
+                BankProtocol.putBalance(connection.out, account);
+            } else {
+                BankProtocol.putAmount(connection.out, kind == 2 ? BankProtocol.DEPOSIT : BankProtocol.WITHDRAW,
+                        account, 100);
+            }
+            connection.sentAt[(connection.head + connection.inFlight) % depth] = now;
+            connection.inFlight++;
+        }
+    }
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer out;
+        final ByteBuffer in;
+        final long[] sentAt;
+        // Ring of send times of the requests still waiting for a response.
+        int head;
+        int inFlight;
+
+        Connection(SocketChannel channel, int depth) {
+            this.channel = channel;
+            this.out = ByteBuffer.allocateDirect(depth * 32);
+            this.in = ByteBuffer.allocateDirect(Math.max(4096, depth * BankProtocol.RESPONSE_BYTES * 2));
+            this.sentAt = new long[depth];
+        }
+
+        void flush(Selector selector) throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            channel.keyFor(selector).interestOps(SelectionKey.OP_READ | (out.position() > 0 ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))];
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
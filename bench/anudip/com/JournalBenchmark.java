@@ -0,0 +1,101 @@
+package anudip.com;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures durable deposits per second and acknowledgement latency for the
+ * journaled bank. One thread with a zero window is the one-fsync-per-operation
+ * baseline; more threads and wider windows show what group commit buys.
+ * <p>
+ * Usage: {@code JournalBenchmark [seconds] [accounts]}
+ */
+public class JournalBenchmark {
+    private static final int[] THREADS = {1, 8, 64};
+    private static final long[] WINDOWS_MICROS = {0, 1000};
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+
+        System.out.printf("%8s %10s %14s %10s %10s%n", "threads", "window(us)", "durable ops/s", "p50(us)", "p99(us)");
+        for (long window : WINDOWS_MICROS) {
+            for (int threads : THREADS) {
+                run(threads, window, seconds, accounts);
+            }
+        }
+    }
+
+    private static void run(int threads, long windowMicros, int seconds, int accountCount) throws Exception {
+        Path dir = Files.createTempDirectory("journal-bench");
+        try (Bank bank = Bank.open(dir, windowMicros, TimeUnit.MICROSECONDS)) {
+            long base = 1_000_000_000_000_000L;
+            for (int i = 0; i < accountCount; i++) {
+                bank.openAccount(base + i, "Bench");
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            long[][] latencies = new long[threads][];
+            int[] counts = new int[threads];
+            Thread[] workers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                workers[t] = new Thread(() -> {
+                    long[] samples = new long[1 << 16];
+                    int n = 0;
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        Account account = bank.getAccount(base + random.nextInt(accountCount));
+                        long start = System.nanoTime();
+                        bank.deposit(account, 1 + random.nextInt(10_000));
+                        long elapsed = System.nanoTime() - start;
+                        if (n == samples.length) {
+                            samples = Arrays.copyOf(samples, n * 2);
+                        }
+                        samples[n++] = elapsed;
+                    }
+                    latencies[id] = samples;
+                    counts[id] = n;
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            long[] all = new long[total];
+            int offset = 0;
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(latencies[t], 0, all, offset, counts[t]);
+                offset += counts[t];
+            }
+            Arrays.sort(all);
+            System.out.printf("%8d %10d %14.0f %10.1f %10.1f%n", threads, windowMicros, total / (double) seconds,
+                    percentile(all, 0.50) / 1000.0, percentile(all, 0.99) / 1000.0);
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.round(p * (sorted.length - 1)))];
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
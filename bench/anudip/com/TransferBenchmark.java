@@ -0,0 +1,88 @@
+package anudip.com;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention benchmark for {@link Account#transfer(Account, Account, long)}.
+ * Each thread moves random amounts between random pairs of accounts, picked
+ * either uniformly or with most traffic aimed at a few hot accounts. The total
+ * balance is checked afterwards to confirm that no money was created or lost.
+ * <p>
+ * Usage: {@code TransferBenchmark [seconds] [accounts] [hotAccounts] [hotPercent]}
+ */
+public class TransferBenchmark {
+    private static final long BASE = 1_000_000_000_000_000L;
+    private static final long INITIAL_CENTS = 1_000_000L;
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int hot = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int hotPercent = args.length > 3 ? Integer.parseInt(args[3]) : 90;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%-8s %8s %14s %12s%n", "keys", "threads", "transfers/s", "rejected");
+        for (String distribution : new String[] {"uniform", "hotspot"}) {
+            for (int threads = 1; threads <= cores * 2; threads *= 2) {
+                run(distribution.equals("hotspot") ? hot : 0, hotPercent, threads, seconds, accounts, distribution);
+            }
+        }
+    }
+
+    private static void run(int hot, int hotPercent, int threads, int seconds, int accountCount, String label)
+            throws InterruptedException {
+        Bank bank = new Bank();
+        Account[] accounts = new Account[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            accounts[i] = bank.openAccount(BASE + i, "Bench");
+            accounts[i].credit(INITIAL_CENTS);
+        }
+
+        LongAdder done = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long ops = 0;
+                long failed = 0;
+                while ((ops & 1023) != 0 || System.nanoTime() < deadline) {
+                    int from = pick(random, accountCount, hot, hotPercent);
+                    int to = pick(random, accountCount, hot, hotPercent);
+                    if (from == to) {
+                        continue;
+                    }
+                    if (bank.transfer(accounts[from], accounts[to], 1 + random.nextInt(1000)) != OperationStatus.OK) {
+                        failed++;
+                    }
+                    ops++;
+                }
+                done.add(ops);
+                rejected.add(failed);
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long total = 0;
+        for (Account account : accounts) {
+            total += account.getBalanceCents();
+        }
+        if (total != INITIAL_CENTS * accountCount) {
+            throw new IllegalStateException("Balance not conserved: " + total);
+        }
+        System.out.printf("%-8s %8d %14.0f %12d%n", label, threads, done.sum() / (double) seconds, rejected.sum());
+    }
+
+    static int pick(ThreadLocalRandom random, int accounts, int hot, int hotPercent) {
+        if (hot > 0 && random.nextInt(100) < hotPercent) {
+            return random.nextInt(hot);
+        }
+        return random.nextInt(accounts);
+    }
+}
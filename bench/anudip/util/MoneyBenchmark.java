@@ -0,0 +1,199 @@
+package anudip.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import anudip.bench.KeyStream;
+
+/**
+ * Cost of {@link Money} against the two representations it replaces:
+ * {@code double} dollars, as {@code anudip2.com} used to keep them, and
+ * {@link BigDecimal}. Each operation is run on a table of amounts of two
+ * kinds: retail amounts up to $100,000, and wide ones up to $10^15, whose
+ * interest needs the 128-bit product and whose {@code double} form no longer
+ * holds every cent.
+ * <ul>
+ * <li>{@code parse} reads an amount from a String; the double benchmark
+ * also rounds to cents, as the old ingest path did.</li>
+ * <li>{@code parseBytes} reads an amount from a buffer of ASCII bytes, as a
+ * bulk reader would; the other benchmarks have to make a String first.</li>
+ * <li>{@code format} appends an amount to a reused builder.</li>
+ * <li>{@code sum} adds {@value #SUM_ROWS} consecutive amounts.</li>
+ * <li>{@code interest} takes 4.25% of an amount, rounded half-even.</li>
+ * </ul>
+ * Each thread picks amounts uniformly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyBenchmark {
+    private static final int AMOUNTS = 1 << 16;
+    private static final int SUM_ROWS = 64;
+    private static final long RETAIL_CENTS = 10_000_000L;
+    private static final long WIDE_CENTS = 100_000_000_000_000_000L;
+    private static final long RATE = 425;
+    private static final long RATE_SCALE = 10_000;
+    private static final BigDecimal RATE_DECIMAL = BigDecimal.valueOf(RATE, 4);
+
+    @Param({"retail", "wide"})
+    public String amounts;
+
+    private long[] cents;
+    private String[] texts;
+    private double[] doubles;
+    private BigDecimal[] decimals;
+    private byte[] bytes;
+    private int[] offsets;
+
+    @Setup
+    public void setup() {
+        cents = new long[AMOUNTS];
+        texts = new String[AMOUNTS];
+        doubles = new double[AMOUNTS];
+        decimals = new BigDecimal[AMOUNTS];
+        bytes = new byte[AMOUNTS * Money.MAX_LENGTH];
+        offsets = new int[AMOUNTS + 1];
+        SplittableRandom random = new SplittableRandom(42);
+        for (int i = 0; i < AMOUNTS; i++) {
+            cents[i] = 1 + random.nextLong(amounts.equals("retail") ? RETAIL_CENTS : WIDE_CENTS);
+            texts[i] = Money.toString(cents[i]);
+            doubles[i] = Double.parseDouble(texts[i]);
+            decimals[i] = new BigDecimal(texts[i]);
+            offsets[i + 1] = Money.format(cents[i], bytes, offsets[i]);
+        }
+    }
+
+    /**
+     * The amounts one benchmark thread picks, and its reused builder.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        KeyStream amounts;
+        final StringBuilder builder = new StringBuilder(32);
+
+        @Setup
+        public void setup(ThreadParams thread) {
+            amounts = new KeyStream("uniform", AMOUNTS, thread.getThreadIndex());
+        }
+
+        StringBuilder builder() {
+            builder.setLength(0);
+            return builder;
+        }
+    }
+
+    @Benchmark
+    public long parseLong(Keys keys) {
+        return Money.parse(texts[keys.amounts.next()]);
+    }
+
+    @Benchmark
+    public long parseDouble(Keys keys) {
+        return Math.round(Double.parseDouble(texts[keys.amounts.next()]) * 100);
+    }
+
+    @Benchmark
+    public int parseBigDecimal(Keys keys) {
+        return new BigDecimal(texts[keys.amounts.next()]).scale();
+    }
+
+    @Benchmark
+    public long parseBytesLong(Keys keys) {
+        int key = keys.amounts.next();
+        return Money.parse(bytes, offsets[key], offsets[key + 1] - offsets[key]);
+    }
+
+    @Benchmark
+    public long parseBytesDouble(Keys keys) {
+        int key = keys.amounts.next();
+        return Math.round(Double.parseDouble(new String(bytes, offsets[key], offsets[key + 1] - offsets[key],
+                StandardCharsets.US_ASCII)) * 100);
+    }
+
+    @Benchmark
+    public int parseBytesBigDecimal(Keys keys) {
+        int key = keys.amounts.next();
+        return new BigDecimal(new String(bytes, offsets[key], offsets[key + 1] - offsets[key],
+                StandardCharsets.US_ASCII)).scale();
+    }
+
+    @Benchmark
+    public int formatLong(Keys keys) {
+        return Money.appendTo(keys.builder(), cents[keys.amounts.next()]).length();
+    }
+
+    @Benchmark
+    public int formatDouble(Keys keys) {
+        return keys.builder().append(doubles[keys.amounts.next()]).length();
+    }
+
+    @Benchmark
+    public int formatBigDecimal(Keys keys) {
+        return keys.builder().append(decimals[keys.amounts.next()].toPlainString()).length();
+    }
+
+    @Benchmark
+    public long sumLong(Keys keys) {
+        int key = keys.amounts.next();
+        long total = 0;
+        for (int i = 0; i < SUM_ROWS; i++) {
+            total = Money.add(total, cents[(key + i) & (AMOUNTS - 1)]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double sumDouble(Keys keys) {
+        int key = keys.amounts.next();
+        double total = 0;
+        for (int i = 0; i < SUM_ROWS; i++) {
+            total += doubles[(key + i) & (AMOUNTS - 1)];
+        }
+        return total;
+    }
+
+    @Benchmark
+    public BigDecimal sumBigDecimal(Keys keys) {
+        int key = keys.amounts.next();
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < SUM_ROWS; i++) {
+            total = total.add(decimals[(key + i) & (AMOUNTS - 1)]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long interestLong(Keys keys) {
+        return Money.scale(cents[keys.amounts.next()], RATE, RATE_SCALE);
+    }
+
+    @Benchmark
+    public long interestDouble(Keys keys) {
+        return (long) Math.rint(doubles[keys.amounts.next()] * 100 * RATE / RATE_SCALE);
+    }
+
+    @Benchmark
+    public long interestBigDecimal(Keys keys) {
+        return decimals[keys.amounts.next()].multiply(RATE_DECIMAL).setScale(Money.SCALE, RoundingMode.HALF_EVEN)
+                .unscaledValue().longValue();
+    }
+}
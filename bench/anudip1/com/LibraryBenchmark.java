@@ -0,0 +1,245 @@
+package anudip1.com;
+
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import anudip.bench.KeyStream;
+
+/**
+ * Title search, remove and sort throughput of {@link LibraryUtility}, and
+ * query latency of its title index, for each size and key distribution.
+ * Titles are two to seven words drawn from a Zipfian vocabulary, and
+ * queries are built from the words of the title picked by the key. The
+ * utility is not thread-safe, so everything runs on one thread. The sort
+ * benchmarks refill a fresh utility on every call; compare them with
+ * {@code fill} to see the cost of the sort alone. The collated sort orders
+ * by English collation keys, and spills to disk when run with a heap too
+ * small to hold the keys.
+ * <p>
+ * {@link #main(String[])} prints the heap retained per title by a filled
+ * utility and by its title store alone, next to the UTF-8 size of the text,
+ * for the sizes given as arguments. Run it in its own JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class LibraryBenchmark {
+    private static final int VOCABULARY = 100_000;
+    private static final int QUERIES = 1 << 16;
+    private static final int RESULTS = 10;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"uniform", "zipf"})
+    public String keys;
+
+    private String[] titles;
+    private LibraryUtility library;
+    private String[] term;
+    private String[] twoTerms;
+    private String[] phrase;
+    private String[] prefix;
+    private String[] fuzzy;
+    private KeyStream titleKeys;
+    private KeyStream queryKeys;
+
+    @Setup
+    public void setup() {
+        titles = titles(size);
+        library = fill(titles);
+        int queries = Math.min(size, QUERIES);
+        term = new String[queries];
+        twoTerms = new String[queries];
+        phrase = new String[queries];
+        prefix = new String[queries];
+        fuzzy = new String[queries];
+        for (int i = 0; i < queries; i++) {
+            String[] words = titles[i].split(" ");
+            String first = words[0];
+            String second = words[1];
+            term[i] = first;
+            twoTerms[i] = first + " " + words[words.length - 1];
+            phrase[i] = "\"" + first + " " + second + "\"";
+            prefix[i] = first.substring(0, Math.min(3, first.length())) + "*";
+            fuzzy[i] = (first.length() > 3 ? first.substring(0, 2) + 'q' + first.substring(3) : first) + "~";
+        }
+        titleKeys = new KeyStream(keys, size, 0);
+        queryKeys = new KeyStream(keys, queries, 0);
+    }
+
+    @Benchmark
+    public int search() {
+        return library.searchBookTitle(titles[titleKeys.next()]);
+    }
+
+    @Benchmark
+    public int remove() {
+        int key = titleKeys.next();
+        library.removeBookTitle(titles[key]);
+        library.addBookTitle(titles[key]);
+        return key;
+    }
+
+    @Benchmark
+    public int findTerm() {
+        return library.findBookTitles(term[queryKeys.next()], RESULTS).size();
+    }
+
+    @Benchmark
+    public int findTwoTerms() {
+        return library.findBookTitles(twoTerms[queryKeys.next()], RESULTS).size();
+    }
+
+    @Benchmark
+    public int findPhrase() {
+        return library.findBookTitles(phrase[queryKeys.next()], RESULTS).size();
+    }
+
+    @Benchmark
+    public int findPrefix() {
+        return library.findBookTitles(prefix[queryKeys.next()], RESULTS).size();
+    }
+
+    @Benchmark
+    public int findFuzzy() {
+        return library.findBookTitles(fuzzy[queryKeys.next()], RESULTS).size();
+    }
+
+    @Benchmark
+    public int suggest() {
+        String query = prefix[queryKeys.next()];
+        return library.suggestWords(query.substring(0, query.length() - 1), RESULTS).size();
+    }
+
+    @Benchmark
+    public LibraryUtility fill() {
+        return fill(titles);
+    }
+
+    @Benchmark
+    public LibraryUtility fillSort() {
+        LibraryUtility sorted = fill(titles);
+        sorted.sortBookTitles();
+        return sorted;
+    }
+
+    @Benchmark
+    public LibraryUtility fillSortCollated() {
+        LibraryUtility sorted = fill(titles);
+        sorted.sortBookTitles(Locale.ENGLISH);
+        return sorted;
+    }
+
+    /**
+     * Prints the footprint rows.
+     *
+     * @param args The sizes to measure (default 1000, 100000 and 1000000).
+     */
+    public static void main(String[] args) {
+        String[] sizes = args.length > 0 ? args : new String[] {"1000", "100000", "1000000"};
+        for (String size : sizes) {
+            footprint(titles(Integer.parseInt(size)));
+        }
+    }
+
+    private static String[] titles(int size) {
+        String[] vocabulary = vocabulary(new SplittableRandom(42));
+        SplittableRandom random = new SplittableRandom(size);
+        String[] titles = new String[size];
+        for (int i = 0; i < size; i++) {
+            titles[i] = title(random, vocabulary);
+        }
+        return titles;
+    }
+
+    private static String[] vocabulary(SplittableRandom random) {
+        String consonants = "bcdfghjklmnprstvwz";
+        String vowels = "aeiou";
+        String[] words = new String[VOCABULARY];
+        for (int i = 0; i < words.length; i++) {
+            StringBuilder word = new StringBuilder();
+            int syllables = 1 + random.nextInt(4);
+            for (int s = 0; s < syllables; s++) {
+                word.append(consonants.charAt(random.nextInt(consonants.length())));
+                word.append(vowels.charAt(random.nextInt(vowels.length())));
+            }
+            words[i] = word.toString();
+        }
+        return words;
+    }
+
+    private static String title(SplittableRandom random, String[] vocabulary) {
+        StringBuilder title = new StringBuilder();
+        int words = 2 + random.nextInt(6);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                title.append(' ');
+            }
+            // Roughly Zipfian: log-uniform rank.
+            int rank = (int) Math.exp(random.nextDouble() * Math.log(vocabulary.length)) - 1;
+            String word = vocabulary[rank];
+            title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length());
+        }
+        return title.toString();
+    }
+
+    private static void footprint(String[] titles) {
+        int size = titles.length;
+        long text = 0;
+        for (String title : titles) {
+            text += title.getBytes(StandardCharsets.UTF_8).length;
+        }
+        long before = usedHeap();
+        TitleStore store = new TitleStore();
+        for (String title : titles) {
+            store.add(title);
+        }
+        long stored = usedHeap();
+        LibraryUtility library = fill(titles);
+        long filled = usedHeap();
+        String params = "size=" + size;
+        System.out.printf("%-30s %-28s %10.1f B/title (text %.1f B/title)%n", "Library.footprint.store", params,
+                (stored - before) / (double) size, text / (double) size);
+        System.out.printf("%-30s %-28s %10.1f B/title%n", "Library.footprint.utility", params,
+                (filled - stored) / (double) size);
+        Reference.reachabilityFence(store);
+        Reference.reachabilityFence(library);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static LibraryUtility fill(String[] titles) {
+        LibraryUtility library = new LibraryUtility();
+        for (String title : titles) {
+            library.addBookTitle(title);
+        }
+        return library;
+    }
+}
@@ -0,0 +1,220 @@
+package anudip2.com;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import anudip.bench.KeyStream;
+import anudip.util.AccountNumbers;
+import anudip.util.WithdrawalLimits;
+
+// Throughput of AccountManager and PartitionedAccountManager deposits,
+// withdrawals and balance lookups for each size and key distribution, and
+// of batches of deposits; set the thread count with JMH's -t.
+// withdrawLimited withdraws under a daily amount limit and a per-minute
+// count limit that never refuse, so it measures the cost of checking them.
+// readMostly mixes lookups with 5% deposits. shards sets the number of
+// shards of a PartitionedAccountManager, 0 meaning the number of cores.
+// Totals sums the four accounts of a customer of an AccountManager with 5%
+// transfers between them.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountManagerBenchmark {
+    // A trillion dollars, in cents.
+    private static final long FLOAT = 100_000_000_000_000L;
+    private static final int BATCH_ROWS = 4096;
+    private static final int BATCHES = 16;
+    private static final int WRITE_PERCENT = 5;
+    private static final int ACCOUNTS_PER_CUSTOMER = 4;
+    private static final WithdrawalLimits.Rule[] LIMITS = {
+            WithdrawalLimits.Rule.amount(FLOAT, 1, TimeUnit.DAYS),
+            WithdrawalLimits.Rule.count(1_000_000_000, 1, TimeUnit.MINUTES)};
+
+    @Param({"AccountManager", "PartitionedAccountManager"})
+    public String manager;
+
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"uniform", "zipf"})
+    public String keys;
+
+    @Param("0")
+    public int shards;
+
+    private AccountService service;
+    private long[] numbers;
+    private List<List<Transaction>> batches;
+
+    @Setup
+    public void setup() {
+        numbers = numbers(size);
+        batches = batches(numbers);
+        service = manager.equals("AccountManager") ? new AccountManager()
+                : new PartitionedAccountManager(shards > 0 ? shards : Runtime.getRuntime().availableProcessors());
+        for (long number : numbers) {
+            service.createAccount(number, FLOAT);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (service instanceof PartitionedAccountManager partitioned) {
+            partitioned.close();
+        }
+    }
+
+    // The keys of one benchmark thread, and the batch it applies.
+    @State(Scope.Thread)
+    public static class Keys {
+        KeyStream accounts;
+        List<Transaction> batch;
+
+        @Setup
+        public void setup(AccountManagerBenchmark benchmark, ThreadParams thread) {
+            accounts = new KeyStream(benchmark.keys, benchmark.size, thread.getThreadIndex());
+            batch = benchmark.batches.get(thread.getThreadIndex() % BATCHES);
+        }
+    }
+
+    // Limits withdrawals for as long as the benchmark runs.
+    @State(Scope.Benchmark)
+    public static class Limited {
+        @Setup
+        public void setup(AccountManagerBenchmark benchmark) {
+            benchmark.service.setWithdrawalLimits(LIMITS);
+        }
+
+        @TearDown
+        public void tearDown(AccountManagerBenchmark benchmark) {
+            benchmark.service.setWithdrawalLimits();
+        }
+    }
+
+    @Benchmark
+    public int deposit(Keys keys) {
+        return service.deposit(numbers[keys.accounts.next()], 1).ordinal();
+    }
+
+    @Benchmark
+    public int withdraw(Keys keys) {
+        return service.withdraw(numbers[keys.accounts.next()], 1).ordinal();
+    }
+
+    @Benchmark
+    public int withdrawLimited(Limited limited, Keys keys) {
+        return service.withdraw(numbers[keys.accounts.next()], 1).ordinal();
+    }
+
+    @Benchmark
+    public long lookup(Keys keys) {
+        return service.getBalance(numbers[keys.accounts.next()]);
+    }
+
+    @Benchmark
+    public long readMostly(Keys keys) {
+        int key = keys.accounts.next();
+        return ThreadLocalRandom.current().nextInt(100) < WRITE_PERCENT
+                ? service.deposit(numbers[key], 1).ordinal()
+                : service.getBalance(numbers[key]);
+    }
+
+    // Batches of BATCH_ROWS deposits.
+    @Benchmark
+    public int applyBatch(Keys keys) {
+        return service.applyBatch(keys.batch).applied();
+    }
+
+    // Customers own ACCOUNTS_PER_CUSTOMER consecutive accounts; the key
+    // picks the customer. Only AccountManager can total a customer's
+    // accounts, so this runs apart from the benchmarks above.
+    @State(Scope.Benchmark)
+    public static class Totals {
+        @Param({"1000", "100000", "10000000"})
+        public int size;
+
+        @Param({"uniform", "zipf"})
+        public String keys;
+
+        private AccountManager manager;
+        private long[][] customers;
+
+        @Setup
+        public void setup() {
+            long[] numbers = numbers(size);
+            manager = new AccountManager();
+            for (long number : numbers) {
+                manager.createAccount(number, FLOAT);
+            }
+            customers = new long[Math.max(1, size / ACCOUNTS_PER_CUSTOMER)][];
+            for (int c = 0; c < customers.length; c++) {
+                customers[c] = new long[Math.min(ACCOUNTS_PER_CUSTOMER, size)];
+                System.arraycopy(numbers, c * customers[c].length, customers[c], 0, customers[c].length);
+            }
+        }
+
+        @State(Scope.Thread)
+        public static class Customers {
+            KeyStream customers;
+
+            @Setup
+            public void setup(Totals totals, ThreadParams thread) {
+                customers = new KeyStream(totals.keys, totals.customers.length, thread.getThreadIndex());
+            }
+        }
+
+        @Benchmark
+        public long totalBalance(Customers keys) {
+            long[] accounts = customers[keys.customers.next()];
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (accounts.length > 1 && random.nextInt(100) < WRITE_PERCENT) {
+                int from = random.nextInt(accounts.length);
+                int to = (from + 1 + random.nextInt(accounts.length - 1)) % accounts.length;
+                return manager.transfer(accounts[from], accounts[to], 1).ordinal();
+            }
+            return manager.totalBalance(accounts);
+        }
+    }
+
+    private static long[] numbers(int size) {
+        long[] numbers = new long[size];
+        for (int i = 0; i < size; i++) {
+            numbers[i] = AccountNumbers.MIN + i;
+        }
+        return numbers;
+    }
+
+    // Batches of deposits into uniformly drawn accounts.
+    private static List<List<Transaction>> batches(long[] numbers) {
+        SplittableRandom random = new SplittableRandom(42);
+        List<List<Transaction>> batches = new ArrayList<>();
+        for (int b = 0; b < BATCHES; b++) {
+            List<Transaction> batch = new ArrayList<>(BATCH_ROWS);
+            for (int i = 0; i < BATCH_ROWS; i++) {
+                batch.add(Transaction.deposit(numbers[random.nextInt(numbers.length)], 1));
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,87 @@
+package anudip2.com;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import anudip.util.AccountNumbers;
+
+// Contention benchmark for AccountManager.transfer with uniform and hot-spot
+// account selection. Checks afterwards that the total balance is unchanged.
+//
+// Usage: TransferBenchmark [seconds] [accounts] [hotAccounts] [hotPercent]
+public class TransferBenchmark {
+    // $10,000, in cents.
+    private static final long INITIAL_BALANCE = 1_000_000;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int accounts = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int hot = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        int hotPercent = args.length > 3 ? Integer.parseInt(args[3]) : 90;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%-8s %8s %14s %12s%n", "keys", "threads", "transfers/s", "rejected");
+        for (String distribution : new String[] {"uniform", "hotspot"}) {
+            for (int threads = 1; threads <= cores * 2; threads *= 2) {
+                run(distribution.equals("hotspot") ? hot : 0, hotPercent, threads, seconds, accounts, distribution);
+            }
+        }
+    }
+
+    private static void run(int hot, int hotPercent, int threads, int seconds, int accountCount, String label)
+            throws Exception {
+        AccountManager manager = new AccountManager();
+        long[] numbers = new long[accountCount];
+        for (int i = 0; i < accountCount; i++) {
+            numbers[i] = AccountNumbers.MIN + i;
+            manager.createAccount(numbers[i], INITIAL_BALANCE);
+        }
+
+        LongAdder done = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long ops = 0;
+                long failed = 0;
+                while ((ops & 1023) != 0 || System.nanoTime() < deadline) {
+                    int from = pick(random, accountCount, hot, hotPercent);
+                    int to = pick(random, accountCount, hot, hotPercent);
+                    if (from == to) {
+                        continue;
+                    }
+                    long cents = 100 * (1 + random.nextInt(10));
+                    if (manager.transfer(numbers[from], numbers[to], cents) != TransactionStatus.OK) {
+                        failed++;
+                    }
+                    ops++;
+                }
+                done.add(ops);
+                rejected.add(failed);
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long total = 0;
+        for (long number : numbers) {
+            total += manager.getBalance(number);
+        }
+        if (total != INITIAL_BALANCE * accountCount) {
+            throw new IllegalStateException("Balance not conserved: " + total);
+        }
+        System.out.printf("%-8s %8d %14.0f %12d%n", label, threads, done.sum() / (double) seconds, rejected.sum());
+    }
+
+    static int pick(ThreadLocalRandom random, int accounts, int hot, int hotPercent) {
+        if (hot > 0 && random.nextInt(100) < hotPercent) {
+            return random.nextInt(hot);
+        }
+        return random.nextInt(accounts);
+    }
+}
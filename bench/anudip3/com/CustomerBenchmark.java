@@ -0,0 +1,215 @@
+package anudip3.com;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import anudip.bench.KeyStream;
+
+// Search, remove and sort throughput of CustomerManagementSystem for each
+// size and key distribution. Emails are spread over DOMAINS domains;
+// searchByEmail looks a customer up by an email in another case, and
+// pageByEmailDomain reads 20 customers of one domain at an offset drawn
+// from the key distribution. The system is not thread-safe, so everything
+// runs on one thread. The sorted benchmarks read the whole list in name or
+// ID order, or in English collation order, which is sorted on every read;
+// the page benchmarks read 20 customers at an offset drawn from the key
+// distribution. Store runs against a CustomerStore in a temporary
+// directory: open reopens the synced store, find and remove work on the
+// mapped files, and removeSync forces every change to disk.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class CustomerBenchmark {
+    private static final int PAGE = 20;
+    private static final int DOMAINS = 100;
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"uniform", "zipf"})
+    public String keys;
+
+    private Customer[] customers;
+    private CustomerManagementSystem cms;
+    private KeyStream stream;
+
+    @Setup
+    public void setup() {
+        customers = customers(size);
+        cms = fill(customers);
+        stream = new KeyStream(keys, size, 0);
+    }
+
+    @Benchmark
+    public int search() {
+        return cms.searchCustomer(customers[stream.next()].getId()).getId();
+    }
+
+    @Benchmark
+    public boolean remove() {
+        Customer customer = customers[stream.next()];
+        boolean removed = cms.removeCustomer(customer.getId());
+        cms.addCustomer(customer);
+        return removed;
+    }
+
+    @Benchmark
+    public int searchByEmail() {
+        return cms.searchCustomer(customers[stream.next()].getEmail().toUpperCase(Locale.ROOT)).getId();
+    }
+
+    @Benchmark
+    public int pageByEmailDomain() {
+        int key = stream.next();
+        return cms.getCustomersByEmailDomain("d" + (key % DOMAINS) + ".example.com", key / DOMAINS, PAGE).size();
+    }
+
+    @Benchmark
+    public CustomerManagementSystem fill() {
+        return fill(customers);
+    }
+
+    @Benchmark
+    public int sortedByName() {
+        cms.sortCustomersByName();
+        return cms.getCustomers().size();
+    }
+
+    @Benchmark
+    public int sortedByNameCollated() {
+        cms.sortCustomersByName(Locale.ENGLISH);
+        return cms.getCustomers().size();
+    }
+
+    @Benchmark
+    public int sortedById() {
+        cms.sortCustomersById();
+        return cms.getCustomers().size();
+    }
+
+    @Benchmark
+    public int pageByName() {
+        cms.sortCustomersByName();
+        return cms.getCustomerPage(stream.next(), PAGE).size();
+    }
+
+    @Benchmark
+    public int pageById() {
+        cms.sortCustomersById();
+        return cms.getCustomerPage(stream.next(), PAGE).size();
+    }
+
+    @State(Scope.Benchmark)
+    @Threads(1)
+    public static class Store {
+        @Param({"1000", "100000", "1000000"})
+        public int size;
+
+        @Param({"uniform", "zipf"})
+        public String keys;
+
+        private Customer[] customers;
+        private Path directory;
+        private CustomerStore store;
+        private KeyStream stream;
+
+        @Setup
+        public void setup() throws IOException {
+            customers = customers(size);
+            directory = Files.createTempDirectory("customer-store-bench");
+            try (CustomerStore filled = CustomerStore.open(directory)) {
+                for (Customer customer : customers) {
+                    filled.add(customer);
+                }
+            }
+            store = CustomerStore.open(directory);
+            stream = new KeyStream(keys, size, 0);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            store.close();
+            deleteRecursively(directory);
+        }
+
+        @Benchmark
+        public int open() throws IOException {
+            try (CustomerStore reopened = CustomerStore.open(directory)) {
+                return reopened.size();
+            }
+        }
+
+        @Benchmark
+        public int find() {
+            return store.find(customers[stream.next()].getId()).getId();
+        }
+
+        @Benchmark
+        public boolean remove() {
+            Customer customer = customers[stream.next()];
+            boolean removed = store.remove(customer.getId());
+            store.add(customer);
+            return removed;
+        }
+
+        @Benchmark
+        public boolean removeSync() throws IOException {
+            Customer customer = customers[stream.next()];
+            boolean removed = store.remove(customer.getId());
+            store.add(customer);
+            store.sync();
+            return removed;
+        }
+    }
+
+    private static Customer[] customers(int size) {
+        SplittableRandom random = new SplittableRandom(size);
+        Customer[] customers = new Customer[size];
+        for (int i = 0; i < size; i++) {
+            int id = (int) ((i * 2_654_435_761L) % Integer.MAX_VALUE);
+            String name = "Customer " + Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            customers[i] = new Customer(id, name, "c" + id + "@d" + (i % DOMAINS) + ".example.com");
+        }
+        return customers;
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static CustomerManagementSystem fill(Customer[] customers) {
+        CustomerManagementSystem cms = new CustomerManagementSystem();
+        for (Customer customer : customers) {
+            cms.addCustomer(customer);
+        }
+        return cms;
+    }
+}
@@ -1,85 +1,478 @@
 package anudip.com;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import anudip.util.BalanceAggregates;
+import anudip.util.Metrics;
+import anudip.util.Money;
+import anudip.util.OperationMetrics;
+
 /**
  * Represents a bank account associated with a customer.
+ * <p>
+ * The balance is kept as a fixed-point {@code long} in cents, packed into one
+ * state word with a stamp and a held bit. A deposit or withdrawal is a single
+ * compare-and-set of that word, so concurrent ones never lose updates, the
+ * overdraft check is part of the same atomic step, and no single-account
+ * change ever waits for another. A transfer, or a read of several accounts
+ * that must be consistent, holds accounts by setting their held bit through
+ * the same compare-and-set, taken in account-number order so that opposing
+ * transfers cannot deadlock; deposits and withdrawals wait only while an
+ * account they change is held.
+ * <p>
+ * Readers never hold an account. A single balance is one volatile read, and
+ * {@link #totalBalanceCents(Account...)} reads several accounts at once by
+ * reading their state words twice, trusting the stamps to show any change in
+ * between.
  */
 public class Account {
-    private long accountNumber;
-    private double balance;
-    private Customer customer;
+    /** The largest balance an account can hold, in cents: a little over $2.8 trillion. */
+    public static final long MAX_BALANCE_CENTS = (1L << 48) - 1;
+
+    private static final VarHandle STATE;
+    private static final OperationMetrics DEPOSITS = Metrics.register("Account.deposit", OperationStatus.class);
+    private static final OperationMetrics WITHDRAWALS = Metrics.register("Account.withdraw", OperationStatus.class);
+    private static final int OPTIMISTIC_ATTEMPTS = 8;
+    // Waits for a held account spin this often, then yield.
+    private static final int SPINS = 16;
+    // The state word: the balance in the low 48 bits, a stamp in the next 15
+    // that every change of the balance bumps, and the sign bit while the
+    // account is held.
+    private static final long HELD = Long.MIN_VALUE;
+    private static final long STAMP_ONE = 1L << 48;
+    private static final long STAMPS = ~HELD & ~MAX_BALANCE_CENTS;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Account.class, "state", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long accountNumber;
+    private volatile long state;
+    private final Customer customer;
 
     /**
      * Constructor to initialize the account with an account number and associated customer.
-     * 
+     *
      * @param accountNumber The unique account number of the account.
      * @param customer The customer associated with this account.
      */
     public Account(long accountNumber, Customer customer) {
         this.accountNumber = accountNumber;
         this.customer = customer;
-        this.balance = 0.0;
+        this.state = 0L;
     }
 
     /**
      * Deposits a specified amount into the account.
-     * 
+     *
      * @param amount The amount to be deposited. Must be positive.
+     * @return {@link OperationStatus#OK}, {@link OperationStatus#INVALID_AMOUNT} if the amount is not
+     *         positive, or {@link OperationStatus#BALANCE_OVERFLOW} if the balance would pass
+     *         {@link #MAX_BALANCE_CENTS}.
      */
-    public void deposit(double amount) {
-        if (amount > 0) {
-            balance += amount;
-            System.out.println("Deposited $" + amount + " into account " + accountNumber);
-        } else {
-            System.out.println("Invalid deposit amount.");
+    public OperationStatus deposit(double amount) {
+        long start = DEPOSITS.start();
+        long cents = Money.fromDouble(amount);
+        OperationStatus status = OperationStatus.INVALID_AMOUNT;
+        if (cents > 0) {
+            status = credit(cents, null) >= 0 ? OperationStatus.OK : OperationStatus.BALANCE_OVERFLOW;
         }
+        DEPOSITS.record(start, status.ordinal());
+        return status;
     }
 
     /**
      * Withdraws a specified amount from the account.
-     * 
+     *
      * @param amount The amount to be withdrawn. Must be positive.
+     * @return {@link OperationStatus#OK}, {@link OperationStatus#INVALID_AMOUNT} if the amount is not
+     *         positive, or {@link OperationStatus#INSUFFICIENT_FUNDS} if the balance does not cover it.
+     */
+    public OperationStatus withdraw(double amount) {
+        long start = WITHDRAWALS.start();
+        long cents = Money.fromDouble(amount);
+        OperationStatus status;
+        if (cents <= 0) {
+            status = OperationStatus.INVALID_AMOUNT;
+        } else {
+            status = debit(cents) >= 0 ? OperationStatus.OK : OperationStatus.INSUFFICIENT_FUNDS;
+        }
+        WITHDRAWALS.record(start, status.ordinal());
+        return status;
+    }
+
+    /**
+     * Atomically adds an amount in cents to the balance.
+     *
+     * @param cents The amount in cents. Must be positive.
+     * @return The balance in cents after the credit.
+     * @throws ArithmeticException if the balance would pass {@link #MAX_BALANCE_CENTS}.
+     */
+    public long credit(long cents) {
+        long updated = credit(cents, null);
+        if (updated < 0) {
+            throw new ArithmeticException("Balance would overflow.");
+        }
+        return updated;
+    }
+
+    /**
+     * Atomically adds an amount in cents to the balance with one
+     * compare-and-set, and reports the deposit to aggregates once it is made.
+     * Reports of one account may therefore reach the aggregates out of order.
+     *
+     * @param cents The amount in cents. Must be positive.
+     * @param aggregates The aggregates to report to, or null.
+     * @return The balance in cents after the credit, or -1 if it would pass {@link #MAX_BALANCE_CENTS}.
+     */
+    long credit(long cents, BalanceAggregates aggregates) {
+        for (int attempt = 0;; attempt++) {
+            long s = state;
+            // A held balance may still change, so only a free one is judged.
+            if (s >= 0) {
+                long balance = s & MAX_BALANCE_CENTS;
+                // Balances are never negative, so one comparison catches overflow.
+                if (cents > MAX_BALANCE_CENTS - balance) {
+                    return -1;
+                }
+                long updated = balance + cents;
+                if (STATE.compareAndSet(this, s, stamped(s, updated))) {
+                    if (aggregates != null) {
+                        aggregates.deposited(accountNumber, cents, updated);
+                    }
+                    return updated;
+                }
+            }
+            backOff(attempt);
+        }
+    }
+
+    // The balance a credit would leave, or -1 if it would pass the maximum,
+    // for a caller that holds the account and journals the change before
+    // making it.
+    long creditedBalance(long cents) {
+        // Balances are never negative, so one comparison catches overflow.
+        long balance = getBalanceCents();
+        return cents > MAX_BALANCE_CENTS - balance ? -1 : balance + cents;
+    }
+
+    // As credit, for a caller that holds the account.
+    long creditHeld(long cents, BalanceAggregates aggregates) {
+        long updated = creditedBalance(cents);
+        if (updated < 0) {
+            return -1;
+        }
+        setHeld(updated);
+        if (aggregates != null) {
+            aggregates.deposited(accountNumber, cents, updated);
+        }
+        return updated;
+    }
+
+    /**
+     * Atomically subtracts an amount in cents from the balance if enough funds are available.
+     *
+     * @param cents The amount in cents. Must be positive.
+     * @return The balance in cents after the debit, or -1 if the balance did not cover the amount.
+     */
+    public long debit(long cents) {
+        return debit(cents, null);
+    }
+
+    /**
+     * Atomically subtracts an amount in cents from the balance with one
+     * compare-and-set if enough funds are available, and reports the
+     * withdrawal to aggregates once it is made. Reports of one account may
+     * therefore reach the aggregates out of order.
+     *
+     * @param cents The amount in cents. Must be positive.
+     * @param aggregates The aggregates to report to, or null.
+     * @return The balance in cents after the debit, or -1 if the balance did not cover the amount.
+     */
+    long debit(long cents, BalanceAggregates aggregates) {
+        for (int attempt = 0;; attempt++) {
+            long s = state;
+            if (s >= 0) {
+                long balance = s & MAX_BALANCE_CENTS;
+                if (balance < cents) {
+                    return -1;
+                }
+                if (STATE.compareAndSet(this, s, stamped(s, balance - cents))) {
+                    if (aggregates != null) {
+                        aggregates.withdrew(accountNumber, cents, balance - cents);
+                    }
+                    return balance - cents;
+                }
+            }
+            backOff(attempt);
+        }
+    }
+
+    // The balance a debit would leave, or -1 if the balance does not cover
+    // it, for a caller that holds the account.
+    long debitedBalance(long cents) {
+        long balance = getBalanceCents();
+        return balance < cents ? -1 : balance - cents;
+    }
+
+    // As debit, for a caller that holds the account.
+    long debitHeld(long cents, BalanceAggregates aggregates) {
+        long updated = debitedBalance(cents);
+        if (updated < 0) {
+            return -1;
+        }
+        setHeld(updated);
+        if (aggregates != null) {
+            aggregates.withdrew(accountNumber, cents, updated);
+        }
+        return updated;
+    }
+
+    /**
+     * Atomically moves an amount in cents between two accounts if the source
+     * covers it. Both accounts are held for the whole move, taken in
+     * account-number order so that opposing transfers cannot deadlock.
+     *
+     * @param from The account to debit.
+     * @param to The account to credit. Must differ from {@code from}.
+     * @param cents The amount in cents. Must be positive.
+     * @return true if the source covered the amount and the transfer was applied; false otherwise.
+     * @throws ArithmeticException if the target balance would pass {@link #MAX_BALANCE_CENTS}.
+     */
+    public static boolean transfer(Account from, Account to, long cents) {
+        OperationStatus status = transfer(from, to, cents, null);
+        if (status == OperationStatus.BALANCE_OVERFLOW) {
+            throw new ArithmeticException("Balance would overflow.");
+        }
+        return status == OperationStatus.OK;
+    }
+
+    /**
+     * Moves an amount in cents between two accounts as
+     * {@link #transfer(Account, Account, long)} does and reports the transfer
+     * to aggregates while both accounts are still held.
+     *
+     * @param from The account to debit.
+     * @param to The account to credit. Must differ from {@code from}.
+     * @param cents The amount in cents. Must be positive.
+     * @param aggregates The aggregates to report to, or null.
+     * @return {@link OperationStatus#OK} if the transfer was applied,
+     *         {@link OperationStatus#INSUFFICIENT_FUNDS} if the source did not cover the amount, or
+     *         {@link OperationStatus#BALANCE_OVERFLOW} if the target balance would pass
+     *         {@link #MAX_BALANCE_CENTS}.
      */
-    public void withdraw(double amount) {
+    static OperationStatus transfer(Account from, Account to, long cents, BalanceAggregates aggregates) {
+        if (from == to) {
+            throw new IllegalArgumentException("Cannot transfer to the same account.");
+        }
+        if (from.getBalanceCents() < cents) {
+            return OperationStatus.INSUFFICIENT_FUNDS;
+        }
+        lockPair(from, to);
         try {
-            if (amount <= 0) {
-                throw new IllegalArgumentException("Withdrawal amount must be positive.");
+            return transferHeld(from, to, cents, aggregates);
+        } finally {
+            unlockPair(from, to);
+        }
+    }
+
+    // Whether a transfer would apply, without making it, for a caller that
+    // holds both accounts.
+    static OperationStatus checkTransferHeld(Account from, Account to, long cents) {
+        if (from.getBalanceCents() < cents) {
+            return OperationStatus.INSUFFICIENT_FUNDS;
+        }
+        return cents > MAX_BALANCE_CENTS - to.getBalanceCents() ? OperationStatus.BALANCE_OVERFLOW
+                : OperationStatus.OK;
+    }
+
+    // As transfer, for a caller that holds both accounts.
+    static OperationStatus transferHeld(Account from, Account to, long cents, BalanceAggregates aggregates) {
+        OperationStatus status = checkTransferHeld(from, to, cents);
+        if (status != OperationStatus.OK) {
+            return status;
+        }
+        long debited = from.getBalanceCents() - cents;
+        long credited = to.getBalanceCents() + cents;
+        from.setHeld(debited);
+        to.setHeld(credited);
+        if (aggregates != null) {
+            aggregates.transferred(from.accountNumber, to.accountNumber, cents, debited, credited);
+        }
+        return OperationStatus.OK;
+    }
+
+    // Holds two different accounts, taken in account-number order so that
+    // opposing transfers cannot deadlock.
+    static void lockPair(Account a, Account b) {
+        Account first = a.accountNumber < b.accountNumber ? a : b;
+        first.lock();
+        (first == a ? b : a).lock();
+    }
+
+    static void unlockPair(Account a, Account b) {
+        Account first = a.accountNumber < b.accountNumber ? a : b;
+        (first == a ? b : a).unlock();
+        first.unlock();
+    }
+
+    /**
+     * Sums the balances of several accounts as of a single moment, such as
+     * the accounts of one customer, without holding them or stopping other
+     * accounts' writers. The state words are read twice and the balances kept
+     * only if no account was held and the words did not change in between;
+     * every change bumps its account's stamp, so comparing the sums of the
+     * words is enough and the read allocates nothing. If writers keep
+     * interfering, the accounts are held in account-number order, as a
+     * transfer holds them, while they are read.
+     *
+     * @param accounts The accounts to sum.
+     * @return The total balance in cents.
+     * @throws ArithmeticException if the total overflows.
+     */
+    public static long totalBalanceCents(Account... accounts) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long total = 0;
+            long words = 0;
+            boolean held = false;
+            boolean overflow = false;
+            for (Account account : accounts) {
+                long s = account.state;
+                held |= s < 0;
+                words += s;
+                // Wraps instead of throwing: a torn read is retried, and only
+                // a consistent total is checked for overflow.
+                total += s & MAX_BALANCE_CENTS;
+                overflow |= total < 0;
+            }
+            for (Account account : accounts) {
+                long s = account.state;
+                held |= s < 0;
+                words -= s;
+            }
+            if (!held && words == 0) {
+                if (overflow) {
+                    throw new ArithmeticException("Total balance overflow");
+                }
+                return total;
+            }
+            Thread.onSpinWait();
+        }
+
+        Account[] lockOrder = accounts.clone();
+        Arrays.sort(lockOrder, Comparator.comparingLong(Account::getAccountNumber));
+        int held = 0;
+        try {
+            for (; held < lockOrder.length; held++) {
+                if (held == 0 || lockOrder[held] != lockOrder[held - 1]) {
+                    lockOrder[held].lock();
+                }
             }
-            if (balance >= amount) {
-                balance -= amount;
-                System.out.println("Withdrew $" + amount + " from account " + accountNumber);
-            } else {
-                throw new InsufficientFundsException("Insufficient balance for withdrawal.");
+            long total = 0;
+            for (Account account : accounts) {
+                total = Money.add(total, account.getBalanceCents());
+            }
+            return total;
+        } finally {
+            for (int i = held - 1; i >= 0; i--) {
+                if (i == 0 || lockOrder[i] != lockOrder[i - 1]) {
+                    lockOrder[i].unlock();
+                }
             }
-        } catch (IllegalArgumentException | InsufficientFundsException e) {
-            System.out.println(e.getMessage());
+        }
+    }
+
+    // Waits until the account is free and this thread has set its held bit,
+    // with the same compare-and-set deposits and withdrawals use, so that
+    // none of them can slip in while it is held.
+    void lock() {
+        for (int attempt = 0;; attempt++) {
+            long s = state;
+            if (s >= 0 && STATE.compareAndSet(this, s, s | HELD)) {
+                return;
+            }
+            backOff(attempt);
+        }
+    }
+
+    // Only the holder writes a held word, so clearing the bit needs no compare-and-set.
+    void unlock() {
+        STATE.setRelease(this, state & ~HELD);
+    }
+
+    // Writes a new balance into a held word; only the holder writes it.
+    private void setHeld(long balance) {
+        state = stamped(state, balance);
+    }
+
+    // The word after a change of the balance: held bit kept, stamp bumped.
+    private static long stamped(long state, long balance) {
+        return state & HELD | (state + STAMP_ONE) & STAMPS | balance;
+    }
+
+    // Spins briefly, then yields, so a holder that was descheduled can finish
+    // instead of waiters burning its time slices.
+    private static void backOff(int attempt) {
+        if (attempt < SPINS) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
         }
     }
 
+    /**
+     * Overwrites the balance while the account is being rebuilt from persisted state.
+     *
+     * @param cents The balance in cents.
+     * @throws IllegalArgumentException if the balance is negative or above {@link #MAX_BALANCE_CENTS}.
+     */
+    void restoreBalance(long cents) {
+        if (cents < 0 || cents > MAX_BALANCE_CENTS) {
+            throw new IllegalArgumentException("Balance out of range: " + cents);
+        }
+        state = cents;
+    }
+
     /**
      * Gets the current balance of the account.
-     * 
+     *
      * @return The current balance.
      */
     public double getBalance() {
-        return balance;
+        return Money.toDouble(getBalanceCents());
+    }
+
+    /**
+     * Gets the current balance of the account in cents.
+     *
+     * @return The current balance in cents.
+     */
+    public long getBalanceCents() {
+        return state & MAX_BALANCE_CENTS;
+    }
+
+    /**
+     * Gets the account number of this account.
+     *
+     * @return The account number.
+     */
+    public long getAccountNumber() {
+        return accountNumber;
     }
 
     /**
      * Gets the customer associated with this account.
-     * 
+     *
      * @return The customer.
      */
     public Customer getCustomer() {
         return customer;
     }
 }
-
-/**
- * Custom exception class for handling insufficient funds scenarios.
- */
-class InsufficientFundsException extends Exception {
-    public InsufficientFundsException(String message) {
-        super(message);
-    }
-}
-
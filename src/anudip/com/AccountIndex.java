@@ -0,0 +1,129 @@
+package anudip.com;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+import anudip.util.LongIndex;
+
+/**
+ * Account store keyed by the primitive account number.
+ * <p>
+ * Accounts live in a {@link LongIndex}, which maps each account number to a
+ * dense slot without boxing the key or allocating a node per entry. Inserts
+ * are serialized; lookups are lock-free and may run concurrently with
+ * inserts. Account number 0 is reserved as the empty marker.
+ */
+public final class AccountIndex {
+    private final LongIndex<Account> accounts;
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an empty index.
+     */
+    public AccountIndex() {
+        this.accounts = new LongIndex<>();
+    }
+
+    /**
+     * Creates an index sized to hold the expected number of accounts without resizing.
+     *
+     * @param expectedAccounts The number of accounts expected to be stored.
+     */
+    public AccountIndex(int expectedAccounts) {
+        this.accounts = new LongIndex<>(expectedAccounts);
+    }
+
+    /**
+     * Gets the account with the given number.
+     *
+     * @param accountNumber The account number to look up.
+     * @return The account, or null if no account has that number.
+     */
+    public Account get(long accountNumber) {
+        return accounts.get(accountNumber);
+    }
+
+    /**
+     * Gets the dense slot assigned to an account number. Slots are assigned in
+     * insertion order starting at 0 and never change.
+     *
+     * @param accountNumber The account number to look up.
+     * @return The slot, or -1 if no account has that number.
+     */
+    public int slotOf(long accountNumber) {
+        return accounts.slotOf(accountNumber);
+    }
+
+    /**
+     * Gets the account stored in a slot.
+     *
+     * @param slot A slot previously returned by {@link #slotOf(long)}.
+     * @return The account in that slot.
+     */
+    public Account at(int slot) {
+        return accounts.at(slot);
+    }
+
+    /**
+     * Stores an account under its number unless one is already present.
+     *
+     * @param accountNumber The account number. Must not be 0.
+     * @param account The account to store.
+     * @return The account already stored under that number, or null if the new account was stored.
+     */
+    public Account putIfAbsent(long accountNumber, Account account) {
+        if (accountNumber == 0) {
+            throw new IllegalArgumentException("Account number 0 is reserved.");
+        }
+        if (account == null) {
+            throw new IllegalArgumentException("Account cannot be null.");
+        }
+        return accounts.putIfAbsent(accountNumber, account);
+    }
+
+    /**
+     * Gets the account with the given number, creating and storing it if it does not exist.
+     *
+     * @param accountNumber The account number. Must not be 0.
+     * @param factory Creates the account when it is missing.
+     * @return The existing or newly stored account.
+     */
+    public Account computeIfAbsent(long accountNumber, LongFunction<Account> factory) {
+        if (accountNumber == 0) {
+            throw new IllegalArgumentException("Account number 0 is reserved.");
+        }
+        return accounts.computeIfAbsent(accountNumber, factory);
+    }
+
+    /**
+     * Returns the canonical copy of a customer name so that accounts owned by
+     * the same name share one String.
+     *
+     * @param name The customer name.
+     * @return The shared instance of the name.
+     */
+    public String intern(String name) {
+        String shared = names.putIfAbsent(name, name);
+        return shared != null ? shared : name;
+    }
+
+    /**
+     * Visits every account in slot order.
+     *
+     * @param action The action to run for each account.
+     */
+    public void forEach(Consumer<? super Account> action) {
+        accounts.forEach(action);
+    }
+
+    /**
+     * Gets the number of accounts in the index.
+     *
+     * @return The number of accounts.
+     */
+    public int size() {
+        return accounts.size();
+    }
+}
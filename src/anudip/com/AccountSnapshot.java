@@ -0,0 +1,247 @@
+package anudip.com;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time image of every account, used to skip replaying the full journal on start.
+ * <p>
+ * A snapshot is tagged with the journal segment that was started just before
+ * it was taken. Balances are read while writers keep running, so the image is
+ * fuzzy, but every change made after the cut is in that segment or a later
+ * one and journal replay sets balances rather than adding to them, so loading
+ * the snapshot and replaying from its segment gives the exact state.
+ * <p>
+ * File layout: a header ({@code magic, version, segment, nameCount, accountCount}),
+ * a dictionary of distinct customer names, then one fixed-width
+ * {@code [long account][long balance][int nameId]} record per account.
+ */
+public final class AccountSnapshot {
+    private static final int MAGIC = 0x41534e50;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+    private static final int RECORD_BYTES = 8 + 8 + 4;
+    private static final int RECORDS_PER_MAP = (1 << 30) / RECORD_BYTES;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    private final Path file;
+    private final int segment;
+    private final int nameCount;
+    private final long accountCount;
+
+    private AccountSnapshot(Path file, int segment, int nameCount, long accountCount) {
+        this.file = file;
+        this.segment = segment;
+        this.nameCount = nameCount;
+        this.accountCount = accountCount;
+    }
+
+    /**
+     * Finds the newest snapshot in a directory.
+     *
+     * @param directory The data directory.
+     * @return The newest snapshot, or null if there is none.
+     * @throws IOException if the directory or the snapshot header cannot be read.
+     */
+    public static AccountSnapshot latest(Path directory) throws IOException {
+        int newest = -1;
+        for (int segment : snapshotSegments(directory)) {
+            newest = Math.max(newest, segment);
+        }
+        if (newest < 0) {
+            return null;
+        }
+        Path file = snapshotPath(directory, newest);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                // Keep reading until the header is complete.
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a valid account snapshot: " + file);
+            }
+            return new AccountSnapshot(file, header.getInt(), header.getInt(), header.getLong());
+        }
+    }
+
+    /**
+     * Writes a snapshot of every account currently in the index. The file is
+     * written under a temporary name and atomically renamed once it is on
+     * disk, and the directory is forced after the rename, so the snapshot and
+     * the journal segment it starts from survive a crash before the caller
+     * deletes what they supersede.
+     *
+     * @param directory The data directory.
+     * @param segment The journal segment started just before the snapshot.
+     * @param accounts The accounts to write.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public static void write(Path directory, int segment, AccountIndex accounts) throws IOException {
+        int count = accounts.size();
+        Map<String, Integer> nameIds = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (int slot = 0; slot < count; slot++) {
+            String name = accounts.at(slot).getCustomer().getName();
+            if (nameIds.putIfAbsent(name, names.size()) == null) {
+                names.add(name);
+            }
+        }
+
+        Path target = snapshotPath(directory, segment);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(segment).putInt(names.size()).putLong(count);
+            for (String name : names) {
+                byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+                if (buf.remaining() < 4 + utf8.length) {
+                    drain(ch, buf);
+                }
+                buf.putInt(utf8.length).put(utf8);
+            }
+            for (int slot = 0; slot < count; slot++) {
+                if (buf.remaining() < RECORD_BYTES) {
+                    drain(ch, buf);
+                }
+                Account account = accounts.at(slot);
+                buf.putLong(account.getAccountNumber())
+                        .putLong(account.getBalanceCents())
+                        .putInt(nameIds.get(account.getCustomer().getName()));
+            }
+            drain(ch, buf);
+            ch.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(directory);
+    }
+
+    // Forces the directory's entries, which a rename or a new file changes
+    // without forcing any file. Windows cannot open a directory as a channel
+    // and has no way to force one, so there the rename is left to the file
+    // system.
+    private static void syncDirectory(Path directory) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (AccessDeniedException e) {
+            return;
+        }
+        try (ch) {
+            ch.force(true);
+        }
+    }
+
+    /**
+     * Deletes every snapshot older than the given one.
+     *
+     * @param directory The data directory.
+     * @param segment The segment of the snapshot to keep.
+     * @throws IOException if a snapshot cannot be deleted.
+     */
+    public static void deleteOlder(Path directory, int segment) throws IOException {
+        for (int s : snapshotSegments(directory)) {
+            if (s < segment) {
+                Files.deleteIfExists(snapshotPath(directory, s));
+            }
+        }
+    }
+
+    /**
+     * Loads every account in the snapshot into an index, reading the file through memory maps.
+     *
+     * @param accounts The index to fill.
+     * @throws IOException if the snapshot cannot be read.
+     */
+    public void loadInto(AccountIndex accounts) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), Integer.MAX_VALUE));
+            head.position(HEADER_BYTES);
+            String[] names = new String[nameCount];
+            for (int i = 0; i < nameCount; i++) {
+                byte[] utf8 = new byte[head.getInt()];
+                head.get(utf8);
+                names[i] = accounts.intern(new String(utf8, StandardCharsets.UTF_8));
+            }
+
+            long offset = head.position();
+            long remaining = accountCount;
+            while (remaining > 0) {
+                int batch = (int) Math.min(remaining, RECORDS_PER_MAP);
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, offset, (long) batch * RECORD_BYTES);
+                for (int i = 0; i < batch; i++) {
+                    long accountNumber = map.getLong();
+                    long balance = map.getLong();
+                    Account account = new Account(accountNumber, new Customer(names[map.getInt()], accountNumber));
+                    account.restoreBalance(balance);
+                    accounts.putIfAbsent(accountNumber, account);
+                }
+                offset += (long) batch * RECORD_BYTES;
+                remaining -= batch;
+            }
+        }
+    }
+
+    /**
+     * Gets the first journal segment that must be replayed after loading this snapshot.
+     *
+     * @return The segment number.
+     */
+    public int segment() {
+        return segment;
+    }
+
+    /**
+     * Gets the number of accounts in the snapshot.
+     *
+     * @return The account count.
+     */
+    public long accountCount() {
+        return accountCount;
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    private static List<Integer> snapshotSegments(Path directory) throws IOException {
+        List<Integer> result = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return result;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    result.add(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a snapshot written by this class.
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Path snapshotPath(Path directory, int segment) {
+        return directory.resolve(String.format("%s%08d%s", PREFIX, segment, SUFFIX));
+    }
+}
@@ -0,0 +1,670 @@
+package anudip.com;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import anudip.util.AsyncEventLog;
+import anudip.util.BalanceAggregates;
+import anudip.util.EventSink;
+import anudip.util.EventStream;
+import anudip.util.LongIndex;
+import anudip.util.Metrics;
+import anudip.util.Money;
+import anudip.util.OperationMetrics;
+import anudip.util.WithdrawalLimits;
+
+/**
+ * Banking engine behind the menu: owns the account store and, when opened on
+ * a data directory, journals every change and waits for it to be durable
+ * before acknowledging it. A change is journaled before it is applied, so
+ * once the journal fails to write, every change throws
+ * {@link java.io.UncheckedIOException} and no balance moves ahead of the
+ * journal. A persistent bank starts from its newest snapshot and replays
+ * only the journal written after it. The latency and outcome of every
+ * operation are recorded in {@link Metrics}.
+ * <p>
+ * Totals, the balance distribution and the richest and poorest accounts are
+ * kept in {@link BalanceAggregates}, updated by every operation as it makes
+ * its change, and each customer name keeps its own accounts, so none of them
+ * needs a sweep over every account.
+ */
+public class Bank implements Closeable {
+    /** Event for an opened account: subject is the customer name, {@code a} the account number. */
+    public static final int EVENT_OPEN = 1;
+    /** Event for a deposit: {@code a} account number, {@code b} amount in cents, {@code c} balance in cents. */
+    public static final int EVENT_DEPOSIT = 2;
+    /** Event for a withdrawal: {@code a} account number, {@code b} amount in cents, {@code c} balance in cents. */
+    public static final int EVENT_WITHDRAW = 3;
+    /** Event for a transfer: {@code a} source account, {@code b} destination account, {@code c} amount in cents. */
+    public static final int EVENT_TRANSFER = 4;
+
+    /**
+     * Formats bank events as one line of text each.
+     */
+    public static final AsyncEventLog.Formatter EVENT_FORMATTER = (out, type, subject, a, b, c) -> {
+        switch (type) {
+            case EVENT_OPEN -> out.append("Opened account ").append(a).append(" for ").append(subject);
+            case EVENT_DEPOSIT -> {
+                out.append("Deposited ");
+                Money.appendTo(out.append('$'), b);
+                out.append(" into account ").append(a).append(", balance ");
+                Money.appendTo(out.append('$'), c);
+            }
+            case EVENT_WITHDRAW -> {
+                out.append("Withdrew ");
+                Money.appendTo(out.append('$'), b);
+                out.append(" from account ").append(a).append(", balance ");
+                Money.appendTo(out.append('$'), c);
+            }
+            case EVENT_TRANSFER -> {
+                out.append("Transferred ");
+                Money.appendTo(out.append('$'), c);
+                out.append(" from account ").append(a).append(" to account ").append(b);
+            }
+            default -> out.append("Unknown event ").append(type);
+        }
+        out.append(System.lineSeparator());
+    };
+
+    private static final OperationMetrics OPENS = Metrics.register("Bank.openAccount", OperationStatus.class);
+    private static final OperationMetrics DEPOSITS = Metrics.register("Bank.deposit", OperationStatus.class);
+    private static final OperationMetrics WITHDRAWALS = Metrics.register("Bank.withdraw", OperationStatus.class);
+    private static final OperationMetrics TRANSFERS = Metrics.register("Bank.transfer", OperationStatus.class);
+
+    /** The number of richest and of poorest accounts the aggregates rank. */
+    public static final int RANKED_ACCOUNTS = 100;
+
+    /**
+     * The accounts opened under one customer name. They are collected as
+     * accounts open, so operations pay nothing to keep the totals, and a
+     * total balance only reads the customer's own accounts.
+     */
+    public static final class CustomerTotals {
+        private volatile Account[] owned = new Account[1];
+        private volatile int count;
+
+        // Appends under the monitor; the count is published after the slot.
+        private synchronized void add(Account account) {
+            if (count == owned.length) {
+                owned = Arrays.copyOf(owned, count * 2);
+            }
+            owned[count] = account;
+            count = count + 1;
+        }
+
+        /**
+         * Gets the number of accounts.
+         *
+         * @return The number of accounts.
+         */
+        public int accounts() {
+            return count;
+        }
+
+        /**
+         * Sums the accounts' balances as of a single moment, see
+         * {@link Account#totalBalanceCents(Account...)}.
+         *
+         * @return The total balance in cents.
+         */
+        public long balanceCents() {
+            int n = count;
+            return Account.totalBalanceCents(Arrays.copyOf(owned, n));
+        }
+    }
+
+    private final AccountIndex accounts;
+    private final BalanceAggregates aggregates;
+    private final Map<String, CustomerTotals> customers = new ConcurrentHashMap<>();
+    private final TransactionJournal journal;
+    private final Path directory;
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotter;
+    private volatile EventSink events = EventSink.NONE;
+    private volatile WithdrawalLimits limits;
+    // Highest journal position written by the current thread's runBatch, if any.
+    private final ThreadLocal<long[]> batchEnd = new ThreadLocal<>();
+
+    /**
+     * Creates an in-memory bank with no persistence.
+     */
+    public Bank() {
+        this(new AccountIndex(), null, null);
+    }
+
+    private Bank(AccountIndex accounts, TransactionJournal journal, Path directory) {
+        this.accounts = accounts;
+        this.journal = journal;
+        this.directory = directory;
+        this.aggregates = new BalanceAggregates(new BalanceAggregates.Source() {
+            @Override
+            public int size() {
+                return accounts.size();
+            }
+
+            @Override
+            public long keyAt(int slot) {
+                return accounts.at(slot).getAccountNumber();
+            }
+
+            @Override
+            public long balanceAt(int slot) {
+                return accounts.at(slot).getBalanceCents();
+            }
+
+            @Override
+            public long balanceOf(long key) {
+                return accounts.get(key).getBalanceCents();
+            }
+        }, RANKED_ACCOUNTS);
+        // Loaded and replayed accounts were not reported as they changed.
+        aggregates.reset();
+        accounts.forEach(account -> totalsOf(account).add(account));
+    }
+
+    /**
+     * Opens a persistent bank, loading the newest snapshot in the directory
+     * and replaying the journal segments written after it.
+     *
+     * @param directory The data directory.
+     * @param durabilityWindow How long a group commit may wait for more operations.
+     * @param unit The unit of the durability window.
+     * @return The opened bank.
+     * @throws IOException if the journal cannot be read or opened.
+     */
+    public static Bank open(Path directory, long durabilityWindow, TimeUnit unit) throws IOException {
+        AccountSnapshot snapshot = AccountSnapshot.latest(directory);
+        AccountIndex accounts;
+        int fromSegment = 0;
+        if (snapshot != null) {
+            accounts = new AccountIndex((int) Math.min(LongIndex.MAX_ENTRIES, snapshot.accountCount()));
+            snapshot.loadInto(accounts);
+            fromSegment = snapshot.segment();
+        } else {
+            accounts = new AccountIndex();
+        }
+        TransactionJournal journal = TransactionJournal.open(directory, fromSegment, durabilityWindow, unit,
+                new TransactionJournal.Replayer() {
+                    @Override
+                    public void onOpen(long accountNumber, String name) {
+                        accounts.putIfAbsent(accountNumber,
+                                new Account(accountNumber, new Customer(accounts.intern(name), accountNumber)));
+                    }
+
+                    @Override
+                    public void onBalance(long accountNumber, long deltaCents, long balanceCents) {
+                        Account account = accounts.get(accountNumber);
+                        if (account != null) {
+                            account.restoreBalance(balanceCents);
+                        }
+                    }
+                });
+        return new Bank(accounts, journal, directory);
+    }
+
+    /**
+     * Writes a snapshot of all accounts without stopping writers, then drops
+     * the journal segments and older snapshots it supersedes.
+     *
+     * @throws IOException if the snapshot cannot be written.
+     * @throws IllegalStateException if the bank is not persistent.
+     */
+    public void snapshot() throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("An in-memory bank has nothing to snapshot.");
+        }
+        synchronized (snapshotLock) {
+            int segment = journal.rollover();
+            AccountSnapshot.write(directory, segment, accounts);
+            journal.deleteSegmentsBefore(segment);
+            AccountSnapshot.deleteOlder(directory, segment);
+        }
+    }
+
+    /**
+     * Takes a snapshot in the background at a fixed interval. A snapshot that
+     * fails, for example on a full disk, is reported on standard error and
+     * the next one is still taken, so the journal does not grow unbounded.
+     *
+     * @param interval The time between snapshots.
+     * @param unit The unit of the interval.
+     */
+    public synchronized void scheduleSnapshots(long interval, TimeUnit unit) {
+        if (snapshotter != null) {
+            throw new IllegalStateException("Snapshots are already scheduled.");
+        }
+        snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bank-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotter.scheduleWithFixedDelay(() -> {
+            // An exception escaping the task would cancel every later run.
+            try {
+                snapshot();
+            } catch (IOException | RuntimeException e) {
+                // Closing the bank interrupts a snapshot in progress.
+                if (!snapshotter.isShutdown()) {
+                    System.err.println("Snapshot failed: " + e);
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Opens a new account.
+     *
+     * @param accountNumber The account number.
+     * @param name The customer name.
+     * @return The new account, or null if an account with that number already exists.
+     */
+    public Account openAccount(long accountNumber, String name) {
+        long start = OPENS.start();
+        Account account = open(accountNumber, name);
+        OPENS.record(start, (account != null ? OperationStatus.OK : OperationStatus.DUPLICATE_ACCOUNT).ordinal());
+        return account;
+    }
+
+    private Account open(long accountNumber, String name) {
+        Account account = new Account(accountNumber, new Customer(accounts.intern(name), accountNumber));
+        if (journal == null) {
+            if (store(account, name) < 0) {
+                return null;
+            }
+        } else {
+            long position = store(account, name);
+            if (position < 0) {
+                return null;
+            }
+            awaitDurable(position);
+        }
+        totalsOf(account).add(account);
+        return account;
+    }
+
+    // Holds the new account while it is stored, counted, journaled and
+    // published, so that the aggregates see it opened, the journal records
+    // the opening, and subscribers get its event, before any operation on
+    // it. Returns the journal position, 0 for an in-memory bank, or -1 if
+    // the number is taken.
+    private long store(Account account, String name) {
+        account.lock();
+        try {
+            if (accounts.putIfAbsent(account.getAccountNumber(), account) != null) {
+                return -1;
+            }
+            aggregates.opened(account.getAccountNumber(), account.getBalanceCents());
+            long position = journal == null ? 0 : journal.appendOpen(account.getAccountNumber(), name);
+            events.publish(EVENT_OPEN, account.getCustomer().getName(), account.getAccountNumber(), 0, 0);
+            return position;
+        } finally {
+            account.unlock();
+        }
+    }
+
+    private CustomerTotals totalsOf(Account account) {
+        return customers.computeIfAbsent(account.getCustomer().getName(), name -> new CustomerTotals());
+    }
+
+    /**
+     * Gets an account by number.
+     *
+     * @param accountNumber The account number.
+     * @return The account, or null if it does not exist.
+     */
+    public Account getAccount(long accountNumber) {
+        return accounts.get(accountNumber);
+    }
+
+    /**
+     * Sums the balances of several accounts as of a single moment, without
+     * stopping writers of other accounts. See {@link Account#totalBalanceCents(Account...)}.
+     *
+     * @param accountNumbers The account numbers, such as the accounts of one customer.
+     * @return The total balance in cents, or -1 if one of the accounts does not exist.
+     */
+    public long totalBalanceCents(long... accountNumbers) {
+        Account[] selected = new Account[accountNumbers.length];
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = accounts.get(accountNumbers[i]);
+            if (selected[i] == null) {
+                return -1;
+            }
+        }
+        return Account.totalBalanceCents(selected);
+    }
+
+    /**
+     * Deposits an amount in cents.
+     *
+     * @param account The account to deposit into.
+     * @param cents The amount in cents.
+     * @return {@link OperationStatus#OK}, {@link OperationStatus#INVALID_AMOUNT} if the amount is not
+     *         positive, or {@link OperationStatus#BALANCE_OVERFLOW} if the balance would overflow.
+     */
+    public OperationStatus deposit(Account account, long cents) {
+        long start = DEPOSITS.start();
+        OperationStatus status = applyDeposit(account, cents);
+        DEPOSITS.record(start, status.ordinal());
+        return status;
+    }
+
+    private OperationStatus applyDeposit(Account account, long cents) {
+        if (cents <= 0) {
+            return OperationStatus.INVALID_AMOUNT;
+        }
+        EventSink events = this.events;
+        if (journal == null && events == EventSink.NONE) {
+            // Nothing to journal or publish, so the deposit is one compare-and-set.
+            return account.credit(cents, aggregates) < 0 ? OperationStatus.BALANCE_OVERFLOW : OperationStatus.OK;
+        }
+        long position = 0;
+        account.lock();
+        try {
+            long balance = account.creditedBalance(cents);
+            if (balance < 0) {
+                return OperationStatus.BALANCE_OVERFLOW;
+            }
+            if (journal != null) {
+                position = journal.appendBalance(TransactionJournal.DEPOSIT, account.getAccountNumber(), cents,
+                        balance);
+            }
+            account.creditHeld(cents, aggregates);
+            events.publish(EVENT_DEPOSIT, null, account.getAccountNumber(), cents, balance);
+        } finally {
+            account.unlock();
+        }
+        if (journal != null) {
+            awaitDurable(position);
+        }
+        return OperationStatus.OK;
+    }
+
+    /**
+     * Withdraws an amount in cents.
+     *
+     * @param account The account to withdraw from.
+     * @param cents The amount in cents.
+     * @return {@link OperationStatus#OK}, {@link OperationStatus#INVALID_AMOUNT} if the amount is not
+     *         positive, {@link OperationStatus#LIMIT_EXCEEDED} if a withdrawal limit refuses it, or
+     *         {@link OperationStatus#INSUFFICIENT_FUNDS} if the balance does not cover it.
+     */
+    public OperationStatus withdraw(Account account, long cents) {
+        long start = WITHDRAWALS.start();
+        OperationStatus status = applyWithdraw(account, cents);
+        WITHDRAWALS.record(start, status.ordinal());
+        return status;
+    }
+
+    private OperationStatus applyWithdraw(Account account, long cents) {
+        if (cents <= 0) {
+            return OperationStatus.INVALID_AMOUNT;
+        }
+        WithdrawalLimits limits = this.limits;
+        // The caller has just looked the account up, so its slot is a cache hit.
+        int slot = limits == null ? -1 : accounts.slotOf(account.getAccountNumber());
+        if (slot < 0) {
+            return debit(account, cents);
+        }
+        if (limits.tryAcquire(slot, cents) >= 0) {
+            return OperationStatus.LIMIT_EXCEEDED;
+        }
+        OperationStatus status = debit(account, cents);
+        if (status != OperationStatus.OK) {
+            limits.refund(slot, cents);
+        }
+        return status;
+    }
+
+    private OperationStatus debit(Account account, long cents) {
+        EventSink events = this.events;
+        if (journal == null && events == EventSink.NONE) {
+            return account.debit(cents, aggregates) < 0 ? OperationStatus.INSUFFICIENT_FUNDS : OperationStatus.OK;
+        }
+        long position = 0;
+        account.lock();
+        try {
+            long balance = account.debitedBalance(cents);
+            if (balance < 0) {
+                return OperationStatus.INSUFFICIENT_FUNDS;
+            }
+            if (journal != null) {
+                position = journal.appendBalance(TransactionJournal.WITHDRAW, account.getAccountNumber(), cents,
+                        balance);
+            }
+            account.debitHeld(cents, aggregates);
+            events.publish(EVENT_WITHDRAW, null, account.getAccountNumber(), cents, balance);
+        } finally {
+            account.unlock();
+        }
+        if (journal != null) {
+            awaitDurable(position);
+        }
+        return OperationStatus.OK;
+    }
+
+    /**
+     * Atomically moves an amount in cents between two accounts.
+     *
+     * @param from The account to debit.
+     * @param to The account to credit.
+     * @param cents The amount in cents.
+     * @return {@link OperationStatus#OK}, {@link OperationStatus#SAME_ACCOUNT},
+     *         {@link OperationStatus#INVALID_AMOUNT}, {@link OperationStatus#INSUFFICIENT_FUNDS} or
+     *         {@link OperationStatus#BALANCE_OVERFLOW} if the target balance would overflow.
+     */
+    public OperationStatus transfer(Account from, Account to, long cents) {
+        long start = TRANSFERS.start();
+        OperationStatus status = applyTransfer(from, to, cents);
+        TRANSFERS.record(start, status.ordinal());
+        return status;
+    }
+
+    private OperationStatus applyTransfer(Account from, Account to, long cents) {
+        OperationStatus status = checkTransfer(from, to, cents);
+        if (status != OperationStatus.OK) {
+            return status;
+        }
+        long position = 0;
+        Account.lockPair(from, to);
+        try {
+            status = Account.checkTransferHeld(from, to, cents);
+            if (status != OperationStatus.OK) {
+                return status;
+            }
+            if (journal != null) {
+                position = appendTransfer(from, to, cents);
+            }
+            Account.transferHeld(from, to, cents, aggregates);
+            events.publish(EVENT_TRANSFER, null, from.getAccountNumber(), to.getAccountNumber(), cents);
+        } finally {
+            Account.unlockPair(from, to);
+        }
+        if (journal != null) {
+            awaitDurable(position);
+        }
+        return OperationStatus.OK;
+    }
+
+    /**
+     * Applies transfers in order and acknowledges them together, so a
+     * persistent bank pays for one durable flush per batch instead of one per transfer.
+     *
+     * @param from The accounts to debit.
+     * @param to The accounts to credit.
+     * @param cents The amounts in cents.
+     * @return The outcome of each transfer, as for {@link #transfer(Account, Account, long)}.
+     */
+    public OperationStatus[] transferBatch(Account[] from, Account[] to, long[] cents) {
+        if (from.length != to.length || from.length != cents.length) {
+            throw new IllegalArgumentException("Transfer batch arrays must have the same length.");
+        }
+        OperationStatus[] statuses = new OperationStatus[from.length];
+        if (journal == null) {
+            for (int i = 0; i < from.length; i++) {
+                statuses[i] = transfer(from[i], to[i], cents[i]);
+            }
+            return statuses;
+        }
+        long position = 0;
+        for (int i = 0; i < from.length; i++) {
+            statuses[i] = checkTransfer(from[i], to[i], cents[i]);
+            if (statuses[i] != OperationStatus.OK) {
+                continue;
+            }
+            Account.lockPair(from[i], to[i]);
+            try {
+                statuses[i] = Account.checkTransferHeld(from[i], to[i], cents[i]);
+                if (statuses[i] == OperationStatus.OK) {
+                    position = appendTransfer(from[i], to[i], cents[i]);
+                    Account.transferHeld(from[i], to[i], cents[i], aggregates);
+                    events.publish(EVENT_TRANSFER, null, from[i].getAccountNumber(), to[i].getAccountNumber(),
+                            cents[i]);
+                }
+            } finally {
+                Account.unlockPair(from[i], to[i]);
+            }
+        }
+        awaitDurable(position);
+        return statuses;
+    }
+
+    /**
+     * Runs several operations on this thread and waits once, at the end, for
+     * all of their changes to be durable, so that the batch pays for one
+     * flush instead of one per operation. Inside the batch, operations return
+     * before their changes are durable; nested batches join the outer one.
+     *
+     * @param operations Calls to this bank's operations.
+     */
+    public void runBatch(Runnable operations) {
+        if (journal == null || batchEnd.get() != null) {
+            operations.run();
+            return;
+        }
+        long[] end = new long[1];
+        batchEnd.set(end);
+        try {
+            operations.run();
+        } finally {
+            batchEnd.remove();
+        }
+        journal.awaitDurable(end[0]);
+    }
+
+    /**
+     * Routes operation events to a sink, for example an {@link AsyncEventLog}
+     * built with {@link #EVENT_FORMATTER}, or an {@link EventStream} that
+     * subscribers read with backpressure; {@link EventSink#andThen} feeds both.
+     * Each event is published while the operation still holds its accounts,
+     * so the events of one account arrive in the order its changes were made.
+     * On a persistent bank that is once the change is journaled but before it
+     * is durable, so a subscriber may see a change that a crash then loses.
+     *
+     * @param sink The sink; {@link EventSink#NONE} to discard events.
+     */
+    public void setEventSink(EventSink sink) {
+        this.events = sink;
+    }
+
+    /**
+     * Sets the limits every withdrawal must pass, such as a daily amount and
+     * a number of withdrawals per minute, per account. Transfers are not
+     * limited. Buckets start empty, so setting the rules again forgets what
+     * earlier withdrawals used up.
+     *
+     * @param rules The rules; none to remove the limits.
+     */
+    public void setWithdrawalLimits(WithdrawalLimits.Rule... rules) {
+        this.limits = rules.length == 0 ? null : new WithdrawalLimits(rules);
+    }
+
+    /**
+     * Gets the aggregates of every account: counts and totals of balances
+     * and operations, the balance distribution and the richest and poorest
+     * {@value #RANKED_ACCOUNTS} accounts. Reading them does not visit the
+     * accounts; {@link BalanceAggregates#scan(int)} recomputes them in one
+     * parallel sweep.
+     *
+     * @return The aggregates, keyed by account number and in cents.
+     */
+    public BalanceAggregates aggregates() {
+        return aggregates;
+    }
+
+    /**
+     * Gets the account count and total balance of the accounts opened under a customer name.
+     *
+     * @param name The customer name.
+     * @return The totals, or null if no account was opened under that name.
+     */
+    public CustomerTotals customerTotals(String name) {
+        return customers.get(name);
+    }
+
+    /**
+     * Gets the names that accounts were opened under, with their totals.
+     *
+     * @return A live, unmodifiable view of the totals by customer name.
+     */
+    public Map<String, CustomerTotals> customerTotals() {
+        return Collections.unmodifiableMap(customers);
+    }
+
+    private static OperationStatus checkTransfer(Account from, Account to, long cents) {
+        if (from == to) {
+            return OperationStatus.SAME_ACCOUNT;
+        }
+        return cents <= 0 ? OperationStatus.INVALID_AMOUNT : OperationStatus.OK;
+    }
+
+    private void awaitDurable(long position) {
+        long[] end = batchEnd.get();
+        if (end != null) {
+            end[0] = Math.max(end[0], position);
+        } else {
+            journal.awaitDurable(position);
+        }
+    }
+
+    // Caller holds both accounts and has checked the transfer, which is
+    // journaled with the balances it will produce before it is made.
+    private long appendTransfer(Account from, Account to, long cents) {
+        return journal.appendTransfer(from.getAccountNumber(), to.getAccountNumber(), cents,
+                from.getBalanceCents() - cents, to.getBalanceCents() + cents);
+    }
+
+    /**
+     * Gets the account store.
+     *
+     * @return The account index.
+     */
+    public AccountIndex accounts() {
+        return accounts;
+    }
+
+    /**
+     * Flushes and closes the journal, if any.
+     *
+     * @throws IOException if the final flush fails.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (snapshotter != null) {
+                snapshotter.shutdownNow();
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+}
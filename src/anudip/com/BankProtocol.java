@@ -0,0 +1,145 @@
+package anudip.com;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary wire format of {@link BankServer}.
+ * <p>
+ * A client may send requests back to back without waiting for answers; the
+ * server answers each with a fixed-size response, in request order, so one
+ * connection can keep many requests in flight. Numbers are big-endian and
+ * amounts are in cents.
+ * <ul>
+ * <li>{@link #OPEN}: {@code [byte op][long account][short nameLength][name, UTF-8]}</li>
+ * <li>{@link #DEPOSIT}, {@link #WITHDRAW}: {@code [byte op][long account][long cents]}</li>
+ * <li>{@link #BALANCE}: {@code [byte op][long account]}</li>
+ * <li>{@link #TRANSFER}: {@code [byte op][long from][long to][long cents]}</li>
+ * </ul>
+ * A response is {@code [byte status][long balance]}: the ordinal of the
+ * {@link OperationStatus} and the balance of the account, or of the source
+ * account of a transfer, after the request; 0 if the account does not exist.
+ * A request with an unknown op or a name longer than {@value #MAX_NAME_BYTES}
+ * bytes closes the connection.
+ */
+public final class BankProtocol {
+    /** Opens an account. */
+    public static final byte OPEN = 1;
+    /** Deposits into an account. */
+    public static final byte DEPOSIT = 2;
+    /** Withdraws from an account. */
+    public static final byte WITHDRAW = 3;
+    /** Reads an account's balance. */
+    public static final byte BALANCE = 4;
+    /** Moves money between two accounts. */
+    public static final byte TRANSFER = 5;
+
+    /** Size of every response, in bytes. */
+    public static final int RESPONSE_BYTES = 1 + 8;
+    /** Size of the smallest request, in bytes. */
+    public static final int MIN_REQUEST_BYTES = 1 + 8;
+    /** Longest customer name accepted, in UTF-8 bytes. */
+    public static final int MAX_NAME_BYTES = 1024;
+    /** Size of the largest request, in bytes. */
+    public static final int MAX_REQUEST_BYTES = 1 + 8 + 2 + MAX_NAME_BYTES;
+
+    private static final OperationStatus[] STATUSES = OperationStatus.values();
+
+    private BankProtocol() {
+    }
+
+    /**
+     * Gets the length of the request at a position.
+     *
+     * @param buffer The received bytes.
+     * @param position Where the request starts.
+     * @param limit Where the received bytes end.
+     * @return The request's length, 0 if too few bytes have arrived to tell, or -1 if the request is malformed.
+     */
+    static int requestLength(ByteBuffer buffer, int position, int limit) {
+        switch (buffer.get(position)) {
+            case OPEN -> {
+                if (limit - position < 1 + 8 + 2) {
+                    return 0;
+                }
+                int name = buffer.getShort(position + 1 + 8);
+                return name < 0 || name > MAX_NAME_BYTES ? -1 : 1 + 8 + 2 + name;
+            }
+            case DEPOSIT, WITHDRAW -> {
+                return 1 + 8 + 8;
+            }
+            case BALANCE -> {
+                return 1 + 8;
+            }
+            case TRANSFER -> {
+                return 1 + 8 + 8 + 8;
+            }
+            default -> {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Writes an open request.
+     *
+     * @param buffer The buffer to write to.
+     * @param accountNumber The account number.
+     * @param name The customer name, at most {@value #MAX_NAME_BYTES} bytes in UTF-8.
+     * @return The buffer.
+     */
+    public static ByteBuffer putOpen(ByteBuffer buffer, long accountNumber, String name) {
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        if (utf8.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Name longer than " + MAX_NAME_BYTES + " bytes.");
+        }
+        return buffer.put(OPEN).putLong(accountNumber).putShort((short) utf8.length).put(utf8);
+    }
+
+    /**
+     * Writes a deposit or withdrawal request.
+     *
+     * @param buffer The buffer to write to.
+     * @param op {@link #DEPOSIT} or {@link #WITHDRAW}.
+     * @param accountNumber The account number.
+     * @param cents The amount in cents.
+     * @return The buffer.
+     */
+    public static ByteBuffer putAmount(ByteBuffer buffer, byte op, long accountNumber, long cents) {
+        return buffer.put(op).putLong(accountNumber).putLong(cents);
+    }
+
+    /**
+     * Writes a balance request.
+     *
+     * @param buffer The buffer to write to.
+     * @param accountNumber The account number.
+     * @return The buffer.
+     */
+    public static ByteBuffer putBalance(ByteBuffer buffer, long accountNumber) {
+        return buffer.put(BALANCE).putLong(accountNumber);
+    }
+
+    /**
+     * Writes a transfer request.
+     *
+     * @param buffer The buffer to write to.
+     * @param from The source account number.
+     * @param to The destination account number.
+     * @param cents The amount in cents.
+     * @return The buffer.
+     */
+    public static ByteBuffer putTransfer(ByteBuffer buffer, long from, long to, long cents) {
+        return buffer.put(TRANSFER).putLong(from).putLong(to).putLong(cents);
+    }
+
+    /**
+     * Decodes the status byte of a response.
+     *
+     * @param status The first byte of a response.
+     * @return The status.
+     */
+    public static OperationStatus status(byte status) {
+        return STATUSES[status];
+    }
+}
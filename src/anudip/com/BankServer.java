@@ -0,0 +1,456 @@
+package anudip.com;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a {@link Bank} to many concurrent clients over TCP, speaking
+ * {@link BankProtocol}.
+ * <p>
+ * A few event loops, each a thread with its own {@link Selector}, own the
+ * connections; the first loop also accepts them and deals them out in turn.
+ * A loop reads whatever has arrived and cuts it into whole requests. Without
+ * worker threads it runs them itself, which suits an in-memory bank. With
+ * workers, it queues them for the connection's worker task, so that a
+ * persistent bank's durability waits never stall a loop. The requests of
+ * one batch run inside {@link Bank#runBatch}, so a pipelining client pays
+ * for one journal flush per batch, and concurrent connections share flushes
+ * through the journal's group commit. A connection's requests run one at a
+ * time, in order, and the responses go out in the same order.
+ * <p>
+ * A connection is not read while more than {@value #HIGH_WATER} bytes of its
+ * requests or responses are waiting, so a client that sends faster than it
+ * reads cannot make the server buffer without bound.
+ */
+public final class BankServer implements Closeable {
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+    private static final int HIGH_WATER = 256 * 1024;
+    private static final int BACKLOG = 1024;
+
+    private final Bank bank;
+    private final ServerSocketChannel acceptor;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private int nextLoop;
+    private volatile boolean closed;
+
+    private BankServer(Bank bank, ServerSocketChannel acceptor, int loopCount, ExecutorService workers)
+            throws IOException {
+        this.bank = bank;
+        this.acceptor = acceptor;
+        this.workers = workers;
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i);
+        }
+    }
+
+    /**
+     * Starts serving a bank.
+     *
+     * @param bank The bank to serve.
+     * @param address The address to listen on; port 0 picks a free port.
+     * @param loops The number of event loop threads.
+     * @param workers The number of threads that run requests, or 0 to run them on the event loops.
+     * @return The running server.
+     * @throws IOException if the address cannot be bound.
+     */
+    public static BankServer start(Bank bank, InetSocketAddress address, int loops, int workers) throws IOException {
+        if (loops < 1 || workers < 0) {
+            throw new IllegalArgumentException("Need at least one event loop and no negative worker count.");
+        }
+        ServerSocketChannel acceptor = ServerSocketChannel.open();
+        try {
+            acceptor.bind(address, BACKLOG);
+            acceptor.configureBlocking(false);
+        } catch (IOException e) {
+            acceptor.close();
+            throw e;
+        }
+        ExecutorService pool = null;
+        if (workers > 0) {
+            AtomicInteger count = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(workers, r -> {
+                Thread thread = new Thread(r, "bank-worker-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        BankServer server = new BankServer(bank, acceptor, loops, pool);
+        acceptor.register(server.loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : server.loops) {
+            loop.thread.start();
+        }
+        return server;
+    }
+
+    /**
+     * Gets the address the server listens on.
+     *
+     * @return The bound address, with the actual port.
+     * @throws IOException if the address cannot be read.
+     */
+    public InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) acceptor.getLocalAddress();
+    }
+
+    /**
+     * Stops accepting, closes every connection and waits for running requests to finish.
+     *
+     * @throws IOException if the listening socket cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            try {
+                loop.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        acceptor.close();
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "bank-server-" + index);
+        }
+
+        // Runs a task on this loop's thread.
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select();
+                    for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                        task.run();
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            connection.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Event loop failed.", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection connection) {
+                        connection.close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // Nothing left to release.
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            for (SocketChannel channel = acceptor.accept(); channel != null; channel = acceptor.accept()) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                EventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                SocketChannel accepted = channel;
+                if (loop == this) {
+                    register(accepted);
+                } else {
+                    loop.execute(() -> loop.register(accepted));
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new Connection(this, channel, key));
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private final class Connection {
+        final EventLoop loop;
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        // Guarded by this: responses waiting to be written and, with workers,
+        // requests waiting to run.
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        ByteBuffer queued;
+        ByteBuffer spare;
+        boolean scheduled;
+        // Owned by the running worker task.
+        ByteBuffer replies;
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            int end = wholeRequests();
+            if (end < 0) {
+                close();
+                return;
+            }
+            ByteBuffer requests = in.duplicate().limit(end);
+            synchronized (this) {
+                if (workers == null) {
+                    // A response is never longer than its request.
+                    out = reserve(out, requests.remaining());
+                    handle(requests, out);
+                } else if (requests.hasRemaining()) {
+                    queued = reserve(queued, requests.remaining());
+                    queued.put(requests);
+                    if (!scheduled) {
+                        scheduled = true;
+                        workers.execute(this::drain);
+                    }
+                }
+            }
+            in.position(end);
+            in.compact();
+            flush();
+        }
+
+        // End of the last whole request in the input, or -1 if one is malformed.
+        private int wholeRequests() {
+            int position = in.position();
+            while (position < in.limit()) {
+                int length = BankProtocol.requestLength(in, position, in.limit());
+                if (length < 0) {
+                    return -1;
+                }
+                if (length == 0 || in.limit() - position < length) {
+                    break;
+                }
+                position += length;
+            }
+            return position;
+        }
+
+        // Runs queued requests until none are left; on a worker thread.
+        private void drain() {
+            while (true) {
+                ByteBuffer batch;
+                synchronized (this) {
+                    if (queued == null || queued.position() == 0) {
+                        scheduled = false;
+                        return;
+                    }
+                    batch = queued;
+                    queued = spare;
+                    spare = null;
+                }
+                batch.flip();
+                replies = reserve(replies, batch.remaining());
+                try {
+                    handle(batch, replies);
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        scheduled = false;
+                    }
+                    loop.execute(this::close);
+                    throw e;
+                }
+                replies.flip();
+                synchronized (this) {
+                    out = reserve(out, replies.remaining());
+                    out.put(replies);
+                    spare = batch.clear();
+                }
+                replies.clear();
+                loop.execute(() -> {
+                    try {
+                        flush();
+                    } catch (IOException e) {
+                        close();
+                    }
+                });
+            }
+        }
+
+        // Writes what the socket takes, then reads only while the backlog is
+        // under the high-water mark; on the loop thread.
+        void flush() throws IOException {
+            if (!key.isValid()) {
+                return;
+            }
+            int backlog;
+            boolean pending;
+            synchronized (this) {
+                out.flip();
+                while (out.hasRemaining() && channel.write(out) > 0) {
+                    // Keep writing until the socket buffer is full.
+                }
+                out.compact();
+                pending = out.position() > 0;
+                backlog = out.position() + (queued == null ? 0 : queued.position());
+            }
+            int ops = (pending ? SelectionKey.OP_WRITE : 0) | (backlog < HIGH_WATER ? SelectionKey.OP_READ : 0);
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        void close() {
+            key.cancel();
+            closeQuietly(channel);
+        }
+    }
+
+    // Runs whole requests as one batch and appends a response for each.
+    private void handle(ByteBuffer requests, ByteBuffer responses) {
+        bank.runBatch(() -> {
+            while (requests.hasRemaining()) {
+                execute(requests, responses);
+            }
+        });
+    }
+
+    private void execute(ByteBuffer requests, ByteBuffer responses) {
+        byte op = requests.get();
+        long number = requests.getLong();
+        switch (op) {
+            case BankProtocol.OPEN -> {
+                byte[] utf8 = new byte[requests.getShort()];
+                requests.get(utf8);
+                String name = new String(utf8, StandardCharsets.UTF_8);
+                OperationStatus status;
+                if (!Main.isValidAccountNumber(number)) {
+                    status = OperationStatus.INVALID_ACCOUNT_NUMBER;
+                } else if (!Main.isValidName(name)) {
+                    status = OperationStatus.INVALID_NAME;
+                } else {
+                    status = bank.openAccount(number, name) != null ? OperationStatus.OK
+                            : OperationStatus.DUPLICATE_ACCOUNT;
+                }
+                Account account = bank.getAccount(number);
+                respond(responses, status, account == null ? 0 : account.getBalanceCents());
+            }
+            case BankProtocol.DEPOSIT, BankProtocol.WITHDRAW -> {
+                long cents = requests.getLong();
+                Account account = bank.getAccount(number);
+                if (account == null) {
+                    respond(responses, OperationStatus.ACCOUNT_NOT_FOUND, 0);
+                    return;
+                }
+                OperationStatus status = op == BankProtocol.DEPOSIT ? bank.deposit(account, cents)
+                        : bank.withdraw(account, cents);
+                respond(responses, status, account.getBalanceCents());
+            }
+            case BankProtocol.BALANCE -> {
+                Account account = bank.getAccount(number);
+                if (account == null) {
+                    respond(responses, OperationStatus.ACCOUNT_NOT_FOUND, 0);
+                } else {
+                    respond(responses, OperationStatus.OK, account.getBalanceCents());
+                }
+            }
+            case BankProtocol.TRANSFER -> {
+                Account to = bank.getAccount(requests.getLong());
+                long cents = requests.getLong();
+                Account from = bank.getAccount(number);
+                if (from == null || to == null) {
+                    respond(responses, OperationStatus.ACCOUNT_NOT_FOUND, from == null ? 0 : from.getBalanceCents());
+                    return;
+                }
+                OperationStatus status = bank.transfer(from, to, cents);
+                respond(responses, status, from.getBalanceCents());
+            }
+            default -> throw new IllegalStateException("Unchecked request op " + op);
+        }
+    }
+
+    private static void respond(ByteBuffer responses, OperationStatus status, long balanceCents) {
+        responses.put((byte) status.ordinal()).putLong(balanceCents);
+    }
+
+    // A buffer with room for extra more bytes: this one, or a larger copy.
+    private static ByteBuffer reserve(ByteBuffer buffer, int extra) {
+        if (buffer == null) {
+            return ByteBuffer.allocate(Math.max(1024, extra));
+        }
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+        buffer.flip();
+        return grown.put(buffer);
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // The connection is gone either way.
+        }
+    }
+}
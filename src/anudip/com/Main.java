@@ -1,18 +1,75 @@
 package anudip.com;
 
-import java.util.HashMap;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.InputMismatchException;
-import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import anudip.util.AccountNumbers;
+import anudip.util.AsyncEventLog;
+import anudip.util.BalanceAggregates;
+import anudip.util.Metrics;
+import anudip.util.Money;
+import anudip.util.WithdrawalLimits;
 
 /**
  * Main class for managing the banking system operations.
+ * <p>
+ * Accounts are journaled to the directory named by the {@code anudip.data.dir}
+ * system property (default {@code bank-data}) and rebuilt from it on start.
+ * The group-commit window is set with {@code anudip.journal.windowMillis} and
+ * the background snapshot interval with {@code anudip.snapshot.intervalSeconds}
+ * (0 disables periodic snapshots). Setting {@code anudip.eventlog} to a file
+ * path writes every operation to that file through an asynchronous event log,
+ * and setting {@code anudip.metrics.file} appends the operation metrics to a
+ * file periodically, as described in {@link Metrics}. Setting
+ * {@code anudip.accounts.checkDigit} to {@code true} requires account numbers
+ * to end in a Luhn check digit (see {@link AccountNumbers}), and
+ * {@code anudip.limits.daily} and {@code anudip.limits.perMinute} limit the
+ * withdrawals from each account (see {@link WithdrawalLimits}).
+ * <p>
+ * Setting {@code anudip.server.port} serves the bank over TCP with
+ * {@link BankServer} instead of showing the menu, until the process is
+ * stopped. {@code anudip.server.loops} sets the number of event loops
+ * (default: the number of cores) and {@code anudip.server.workers} the
+ * number of threads that run requests (default 64).
  */
 public class Main {
-    private static final Map<Long, Account> accounts = new HashMap<>();
     private static final Scanner scanner = new Scanner(System.in);
+    private static Bank bank;
+
+    public static void main(String[] args) throws IOException {
+        Path dataDir = Path.of(System.getProperty("anudip.data.dir", "bank-data"));
+        long windowMillis = Long.getLong("anudip.journal.windowMillis", 2L);
+        long snapshotSeconds = Long.getLong("anudip.snapshot.intervalSeconds", 300L);
+        bank = Bank.open(dataDir, windowMillis, TimeUnit.MILLISECONDS);
+        if (snapshotSeconds > 0) {
+            bank.scheduleSnapshots(snapshotSeconds, TimeUnit.SECONDS);
+        }
+        String eventLogPath = System.getProperty("anudip.eventlog");
+        Writer eventWriter = null;
+        AsyncEventLog eventLog = null;
+        if (eventLogPath != null) {
+            eventWriter = Files.newBufferedWriter(Path.of(eventLogPath), StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+            eventLog = new AsyncEventLog(1 << 16, Bank.EVENT_FORMATTER, eventWriter);
+            bank.setEventSink(eventLog);
+        }
+        bank.setWithdrawalLimits(WithdrawalLimits.rulesFromProperties());
+        Closeable metricsDump = Metrics.dumpFromProperties();
+        System.out.println("Loaded " + bank.accounts().size() + " account(s) from " + dataDir);
+        String serverPort = System.getProperty("anudip.server.port");
+        if (serverPort != null) {
+            serve(Integer.parseInt(serverPort), eventLog, eventWriter, metricsDump);
+            return;
+        }
 
-    public static void main(String[] args) {
         boolean exit = false;
         while (!exit) {
             System.out.println("\nBanking System Menu:");
@@ -20,7 +77,11 @@ public class Main {
             System.out.println("2. Deposit Money");
             System.out.println("3. Withdraw Money");
             System.out.println("4. Check Balance");
-            System.out.println("5. Exit");
+            System.out.println("5. Transfer Money");
+            System.out.println("6. Check Total Balance");
+            System.out.println("7. Show Account Statistics");
+            System.out.println("8. Check Customer Totals");
+            System.out.println("9. Exit");
             System.out.print("Choose an option: ");
 
             try {
@@ -32,7 +93,11 @@ public class Main {
                     case 2 -> depositMoney();
                     case 3 -> withdrawMoney();
                     case 4 -> checkBalance();
-                    case 5 -> exit = true;
+                    case 5 -> transferMoney();
+                    case 6 -> checkTotalBalance();
+                    case 7 -> showStatistics();
+                    case 8 -> checkCustomerTotals();
+                    case 9 -> exit = true;
                     default -> System.out.println("Invalid option. Please try again.");
                 }
             } catch (InputMismatchException e) {
@@ -43,6 +108,44 @@ public class Main {
             }
         }
         scanner.close();
+        bank.close();
+        if (eventLog != null) {
+            eventLog.close();
+            eventWriter.close();
+        }
+        metricsDump.close();
+    }
+
+    /**
+     * Serves the bank over TCP. The server threads keep the process running;
+     * a shutdown hook closes the server, then the bank, the event log and the
+     * metrics dump.
+     *
+     * @param port The port to listen on.
+     * @param eventLog The event log, or null.
+     * @param eventWriter The event log's writer, or null.
+     * @param metricsDump The periodic metrics dump.
+     * @throws IOException if the port cannot be bound.
+     */
+    private static void serve(int port, AsyncEventLog eventLog, Writer eventWriter, Closeable metricsDump)
+            throws IOException {
+        int loops = Integer.getInteger("anudip.server.loops", Runtime.getRuntime().availableProcessors());
+        int workers = Integer.getInteger("anudip.server.workers", 64);
+        BankServer server = BankServer.start(bank, new InetSocketAddress(port), loops, workers);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                bank.close();
+                if (eventLog != null) {
+                    eventLog.close();
+                    eventWriter.close();
+                }
+                metricsDump.close();
+            } catch (IOException e) {
+                System.err.println("Shutdown failed: " + e.getMessage());
+            }
+        }, "bank-shutdown"));
+        System.out.println("Serving on " + server.address() + "; stop the process to shut down.");
     }
 
     /**
@@ -67,15 +170,11 @@ public class Main {
                 return;
             }
 
-            if (accounts.containsKey(accountNumber)) {
+            if (bank.openAccount(accountNumber, name) == null) {
                 System.out.println("Account with this number already exists.");
                 return;
             }
 
-            Customer customer = new Customer(name, accountNumber);
-            Account account = new Account(accountNumber, customer);
-            accounts.put(accountNumber, account);
-
             System.out.println("Account successfully created for " + name + " with account number " + accountNumber);
         } catch (InputMismatchException e) {
             System.out.println("Invalid input. Account number should be a 16-digit number.");
@@ -96,11 +195,16 @@ public class Main {
                 return;
             }
 
-            Account account = accounts.get(accountNumber);
+            Account account = bank.getAccount(accountNumber);
             if (account != null) {
                 System.out.print("Enter deposit amount: ");
-                double amount = scanner.nextDouble();
-                account.deposit(amount);
+                long amount = Money.parse(scanner.next());
+                switch (bank.deposit(account, amount)) {
+                    case OK -> System.out.println(
+                            "Deposited $" + Money.toString(amount) + " into account " + accountNumber);
+                    case BALANCE_OVERFLOW -> System.out.println(OperationStatus.BALANCE_OVERFLOW.getMessage());
+                    default -> System.out.println("Invalid deposit amount.");
+                }
             } else {
                 System.out.println("Account not found.");
             }
@@ -123,11 +227,17 @@ public class Main {
                 return;
             }
 
-            Account account = accounts.get(accountNumber);
+            Account account = bank.getAccount(accountNumber);
             if (account != null) {
                 System.out.print("Enter withdrawal amount: ");
-                double amount = scanner.nextDouble();
-                account.withdraw(amount);
+                long amount = Money.parse(scanner.next());
+                switch (bank.withdraw(account, amount)) {
+                    case OK -> System.out.println(
+                            "Withdrew $" + Money.toString(amount) + " from account " + accountNumber);
+                    case INVALID_AMOUNT -> System.out.println("Withdrawal amount must be positive.");
+                    case LIMIT_EXCEEDED -> System.out.println("Withdrawal limit exceeded for account " + accountNumber);
+                    default -> System.out.println("Insufficient balance for withdrawal.");
+                }
             } else {
                 System.out.println("Account not found.");
             }
@@ -137,6 +247,44 @@ public class Main {
         }
     }
 
+    /**
+     * Transfers money between two existing accounts.
+     */
+    private static void transferMoney() {
+        try {
+            System.out.print("Enter 16-digit source account number: ");
+            long fromNumber = scanner.nextLong();
+            System.out.print("Enter 16-digit destination account number: ");
+            long toNumber = scanner.nextLong();
+
+            if (!isValidAccountNumber(fromNumber) || !isValidAccountNumber(toNumber)) {
+                System.out.println("Invalid account number. It must be 16 digits.");
+                return;
+            }
+            Account from = bank.getAccount(fromNumber);
+            Account to = bank.getAccount(toNumber);
+            if (from == null || to == null) {
+                System.out.println("Account not found.");
+                return;
+            }
+
+            System.out.print("Enter transfer amount: ");
+            long amount = Money.parse(scanner.next());
+            OperationStatus status = bank.transfer(from, to, amount);
+            switch (status) {
+                case OK -> System.out.println(
+                        "Transferred $" + Money.toString(amount) + " from account " + fromNumber + " to account "
+                                + toNumber);
+                case INVALID_AMOUNT -> System.out.println("Transfer amount must be positive.");
+                case INSUFFICIENT_FUNDS -> System.out.println("Insufficient balance for transfer.");
+                default -> System.out.println(status.getMessage());
+            }
+        } catch (InputMismatchException e) {
+            System.out.println("Invalid input. Please enter valid numbers.");
+            scanner.nextLine(); // Clear the buffer
+        }
+    }
+
     /**
      * Checks the balance of an existing account.
      */
@@ -150,9 +298,10 @@ public class Main {
                 return;
             }
 
-            Account account = accounts.get(accountNumber);
+            Account account = bank.getAccount(accountNumber);
             if (account != null) {
-                System.out.println("The balance for account " + accountNumber + " is $" + account.getBalance());
+                System.out.println("The balance for account " + accountNumber + " is $"
+                        + Money.toString(account.getBalanceCents()));
             } else {
                 System.out.println("Account not found.");
             }
@@ -163,13 +312,77 @@ public class Main {
     }
 
     /**
-     * Validates if the account number is exactly 16 digits.
+     * Checks the combined balance of several accounts, such as all of one
+     * customer's accounts, as of a single moment.
+     */
+    private static void checkTotalBalance() {
+        System.out.print("Enter 16-digit account numbers separated by spaces: ");
+        String[] fields = scanner.nextLine().trim().split("\\s+");
+        long[] accountNumbers = new long[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            accountNumbers[i] = AccountNumbers.parse(fields[i]);
+            if (accountNumbers[i] == AccountNumbers.INVALID) {
+                System.out.println("Invalid account number. It must be 16 digits.");
+                return;
+            }
+        }
+
+        long totalCents = bank.totalBalanceCents(accountNumbers);
+        if (totalCents < 0) {
+            System.out.println("Account not found.");
+        } else {
+            System.out.println("The total balance of " + accountNumbers.length + " account(s) is $"
+                    + Money.toString(totalCents));
+        }
+    }
+
+    /**
+     * Shows totals over all accounts and the richest accounts, read from the
+     * bank's aggregates instead of visiting every account.
+     */
+    private static void showStatistics() {
+        BalanceAggregates aggregates = bank.aggregates();
+        System.out.println("Accounts: " + aggregates.accounts());
+        System.out.println("Total balance: $" + Money.toString(aggregates.totalBalance()));
+        System.out.println("Deposits: " + aggregates.deposits() + " totalling $"
+                + Money.toString(aggregates.totalDeposited()));
+        System.out.println("Withdrawals: " + aggregates.withdrawals() + " totalling $"
+                + Money.toString(aggregates.totalWithdrawn()));
+        System.out.println("Transfers: " + aggregates.transfers() + " totalling $"
+                + Money.toString(aggregates.totalTransferred()));
+        System.out.println("Highest balance: $" + Money.toString(aggregates.maxBalance()));
+        System.out.println("Lowest balance: $" + Money.toString(aggregates.minBalance()));
+        System.out.println("Richest accounts:");
+        for (BalanceAggregates.Ranked ranked : aggregates.highest(5)) {
+            System.out.println("  " + ranked.key() + ": $" + Money.toString(ranked.balance()));
+        }
+    }
+
+    /**
+     * Shows the number of accounts and the total balance of one customer.
+     */
+    private static void checkCustomerTotals() {
+        System.out.print("Enter customer name: ");
+        String name = scanner.nextLine();
+        Bank.CustomerTotals totals = bank.customerTotals(name);
+        if (totals == null) {
+            System.out.println("No accounts found for " + name + ".");
+        } else {
+            System.out.println(name + " has " + totals.accounts() + " account(s) with a total balance of $"
+                    + Money.toString(totals.balanceCents()));
+        }
+    }
+
+    /**
+     * Validates that the account number has exactly 16 digits and, when
+     * required, a valid check digit. Allocates nothing, so the server can
+     * check every request.
      * 
      * @param accountNumber The account number to be validated.
      * @return true if the account number is valid; false otherwise.
      */
-    private static boolean isValidAccountNumber(long accountNumber) {
-        return String.valueOf(accountNumber).length() == 16;
+    static boolean isValidAccountNumber(long accountNumber) {
+        return AccountNumbers.isValid(accountNumber);
     }
 
     /**
@@ -178,7 +391,7 @@ public class Main {
      * @param name The name to be validated.
      * @return true if the name is valid; false otherwise.
      */
-    private static boolean isValidName(String name) {
+    static boolean isValidName(String name) {
         return name != null && !name.trim().isEmpty() && name.matches("[a-zA-Z ]+");
     }
 }
@@ -0,0 +1,33 @@
+package anudip.com;
+
+/**
+ * Outcome of a banking operation. Returned instead of throwing so that
+ * routine rejections cost no exception and no allocation.
+ */
+public enum OperationStatus {
+    OK("OK"),
+    INVALID_AMOUNT("Amount must be positive."),
+    INSUFFICIENT_FUNDS("Insufficient balance."),
+    ACCOUNT_NOT_FOUND("Account not found."),
+    DUPLICATE_ACCOUNT("Account with this number already exists."),
+    SAME_ACCOUNT("Source and destination accounts must differ."),
+    INVALID_ACCOUNT_NUMBER("Invalid account number. It must be 16 digits."),
+    INVALID_NAME("Invalid name. Name cannot be empty or contain invalid characters."),
+    LIMIT_EXCEEDED("Withdrawal limit exceeded."),
+    BALANCE_OVERFLOW("Balance would exceed the largest amount.");
+
+    private final String message;
+
+    OperationStatus(String message) {
+        this.message = message;
+    }
+
+    /**
+     * Gets a short description of the outcome.
+     *
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+}
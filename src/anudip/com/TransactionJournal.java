@@ -0,0 +1,503 @@
+package anudip.com;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of account openings and balance changes.
+ * <p>
+ * Appends only copy the record into an in-memory batch. A background flusher
+ * writes each batch with a single {@code force}, so many operations share one
+ * fsync (group commit). {@link #awaitDurable(long)} blocks until a given
+ * append is on disk; the durability window bounds how long a batch is held
+ * open to collect more records. Once a write fails the journal is done:
+ * every later append and rollover throws, so callers that append before
+ * they apply a change never apply one that cannot be made durable.
+ * <p>
+ * Every balance record carries the balance after the change, which makes
+ * replay idempotent. Only the order of each account's records matters, so
+ * callers append while they still hold the accounts they changed, and
+ * changes to different accounts never wait on each other.
+ * <p>
+ * Records are framed as {@code [int length][int crc32c][payload]} so that a
+ * torn write at the end of the last segment is detected and truncated on open.
+ * <p>
+ * The journal is split into numbered segments. {@link #rollover()} starts a
+ * new segment at the current append position, which gives snapshots a cut
+ * point; segments wholly covered by a snapshot are removed with
+ * {@link #deleteSegmentsBefore(int)}.
+ */
+public final class TransactionJournal implements Closeable {
+    static final byte OPEN = 1;
+    static final byte DEPOSIT = 2;
+    static final byte WITHDRAW = 3;
+    static final byte TRANSFER = 4;
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 8;
+    private static final int BALANCE_PAYLOAD_BYTES = 1 + 8 + 8 + 8;
+    private static final int TRANSFER_PAYLOAD_BYTES = 1 + 8 + 8 + 8 + 8 + 8;
+    private static final int INITIAL_BATCH_BYTES = 64 * 1024;
+    private static final int EARLY_FLUSH_BYTES = 1024 * 1024;
+    // Segments have no size cap, so replay maps them a window at a time.
+    private static final int REPLAY_WINDOW_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * Receives journal records in the order they were appended.
+     */
+    public interface Replayer {
+        /**
+         * Called for an account opening.
+         *
+         * @param accountNumber The account number.
+         * @param name The customer name.
+         */
+        void onOpen(long accountNumber, String name);
+
+        /**
+         * Called for a deposit or withdrawal, and once for each side of a transfer.
+         *
+         * @param accountNumber The account number.
+         * @param deltaCents The signed change in cents.
+         * @param balanceCents The balance in cents after the change.
+         */
+        void onBalance(long accountNumber, long deltaCents, long balanceCents);
+    }
+
+    private final Path directory;
+    private final long windowNanos;
+    private final CRC32C crc = new CRC32C();
+    private final Object durableLock = new Object();
+    private final Thread flusher;
+
+    private FileChannel channel;
+    private int segment;
+    private FileChannel nextChannel;
+    private int rollOffset = -1;
+    private ByteBuffer pending = ByteBuffer.allocateDirect(INITIAL_BATCH_BYTES);
+    private ByteBuffer spare = ByteBuffer.allocateDirect(INITIAL_BATCH_BYTES);
+    private long appended;
+    private boolean closed;
+
+    private long durable;
+    // Set once by the flusher; appends and rollovers read it without the lock.
+    private volatile IOException failure;
+
+    private TransactionJournal(Path directory, int segment, FileChannel channel, long windowNanos) {
+        this.directory = directory;
+        this.segment = segment;
+        this.channel = channel;
+        this.windowNanos = windowNanos;
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Opens the journal in a directory, replaying every existing record first.
+     *
+     * @param directory The directory that holds the journal segments. Created if missing.
+     * @param durabilityWindow How long a batch may wait for more records before it is forced to disk.
+     * @param unit The unit of the durability window.
+     * @param replayer Receives the existing records.
+     * @return The opened journal, positioned after the last complete record.
+     * @throws IOException if the journal cannot be read or opened.
+     */
+    public static TransactionJournal open(Path directory, long durabilityWindow, TimeUnit unit, Replayer replayer)
+            throws IOException {
+        return open(directory, 0, durabilityWindow, unit, replayer);
+    }
+
+    /**
+     * Opens the journal in a directory, replaying the records from a given segment onwards.
+     *
+     * @param directory The directory that holds the journal segments. Created if missing.
+     * @param fromSegment The first segment to replay; earlier segments are ignored.
+     * @param durabilityWindow How long a batch may wait for more records before it is forced to disk.
+     * @param unit The unit of the durability window.
+     * @param replayer Receives the replayed records.
+     * @return The opened journal, positioned after the last complete record.
+     * @throws IOException if the journal cannot be read or opened.
+     */
+    public static TransactionJournal open(Path directory, int fromSegment, long durabilityWindow, TimeUnit unit,
+            Replayer replayer) throws IOException {
+        Files.createDirectories(directory);
+        List<Integer> segments = segments(directory);
+        segments.removeIf(s -> s < fromSegment);
+        int last = segments.isEmpty() ? fromSegment : segments.get(segments.size() - 1);
+        for (int s : segments) {
+            long valid = replaySegment(segmentPath(directory, s), replayer);
+            if (s == last) {
+                try (FileChannel ch = FileChannel.open(segmentPath(directory, s), StandardOpenOption.WRITE)) {
+                    if (ch.size() > valid) {
+                        ch.truncate(valid);
+                        ch.force(true);
+                    }
+                }
+            }
+        }
+        FileChannel channel = openSegment(directory, last);
+        TransactionJournal journal = new TransactionJournal(directory, last, channel, unit.toNanos(durabilityWindow));
+        journal.flusher.start();
+        return journal;
+    }
+
+    /**
+     * Appends an account opening.
+     *
+     * @param accountNumber The account number.
+     * @param name The customer name.
+     * @return The position to pass to {@link #awaitDurable(long)}.     * @throws UncheckedIOException if an earlier write failed; nothing is appended.
+     */
+    synchronized long appendOpen(long accountNumber, String name) {
+        byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = reserve(HEADER_BYTES + 1 + 8 + 4 + utf8.length);
+        int start = buf.position();
+        buf.position(start + HEADER_BYTES);
+        buf.put(OPEN).putLong(accountNumber).putInt(utf8.length).put(utf8);
+        return seal(buf, start);
+    }
+
+    /**
+     * Appends a deposit or withdrawal.
+     *
+     * @param type {@link #DEPOSIT} or {@link #WITHDRAW}.
+     * @param accountNumber The account number.
+     * @param amountCents The amount moved, in cents.
+     * @param balanceCents The balance in cents after the change.
+     * @return The position to pass to {@link #awaitDurable(long)}.     * @throws UncheckedIOException if an earlier write failed; nothing is appended.
+     */
+    synchronized long appendBalance(byte type, long accountNumber, long amountCents, long balanceCents) {
+        ByteBuffer buf = reserve(HEADER_BYTES + BALANCE_PAYLOAD_BYTES);
+        int start = buf.position();
+        buf.position(start + HEADER_BYTES);
+        buf.put(type).putLong(accountNumber).putLong(amountCents).putLong(balanceCents);
+        return seal(buf, start);
+    }
+
+    /**
+     * Appends a transfer as one record, so a torn write can never keep only one side of it.
+     *
+     * @param from The debited account number.
+     * @param to The credited account number.
+     * @param amountCents The amount moved, in cents.
+     * @param fromBalanceCents The debited account's balance in cents after the transfer.
+     * @param toBalanceCents The credited account's balance in cents after the transfer.
+     * @return The position to pass to {@link #awaitDurable(long)}.     * @throws UncheckedIOException if an earlier write failed; nothing is appended.
+     */
+    synchronized long appendTransfer(long from, long to, long amountCents, long fromBalanceCents, long toBalanceCents) {
+        ByteBuffer buf = reserve(HEADER_BYTES + TRANSFER_PAYLOAD_BYTES);
+        int start = buf.position();
+        buf.position(start + HEADER_BYTES);
+        buf.put(TRANSFER).putLong(from).putLong(to).putLong(amountCents).putLong(fromBalanceCents)
+                .putLong(toBalanceCents);
+        return seal(buf, start);
+    }
+
+    /**
+     * Starts a new segment. Every record appended before this call stays in
+     * the earlier segments and every record appended after it goes to the new one.
+     *
+     * @return The number of the new segment.
+     * @throws IOException if an earlier write failed or the new segment file cannot be created.
+     */
+    public synchronized int rollover() throws IOException {
+        while (rollOffset >= 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the previous rollover.", e);
+            }
+        }
+        if (closed) {
+            throw new IllegalStateException("Journal is closed.");
+        }
+        // Records that never reached the disk must not reach a snapshot either.
+        if (failure != null) {
+            throw new IOException("Journal write failed.", failure);
+        }
+        nextChannel = openSegment(directory, segment + 1);
+        rollOffset = pending.position();
+        segment++;
+        if (rollOffset == 0) {
+            notifyAll();
+        }
+        return segment;
+    }
+
+    /**
+     * Deletes every segment numbered below the given one.
+     *
+     * @param firstKept The lowest segment number to keep.
+     * @throws IOException if a segment cannot be deleted.
+     */
+    public void deleteSegmentsBefore(int firstKept) throws IOException {
+        for (int s : segments(directory)) {
+            if (s < firstKept) {
+                Files.deleteIfExists(segmentPath(directory, s));
+            }
+        }
+    }
+
+    /**
+     * Blocks until every record up to the given position has been forced to disk.
+     *
+     * @param position A position returned by an append.
+     * @throws UncheckedIOException if the flusher failed to write the journal.
+     */
+    public void awaitDurable(long position) {
+        synchronized (durableLock) {
+            boolean interrupted = false;
+            while (durable < position) {
+                if (failure != null) {
+                    throw new UncheckedIOException("Journal write failed.", failure);
+                }
+                try {
+                    durableLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Flushes every pending record and closes the journal.
+     *
+     * @throws IOException if the final flush fails.
+     */
+    @Override
+    public void close() throws IOException {
+        long last;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            last = appended;
+            notifyAll();
+        }
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (durableLock) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        awaitDurable(last);
+        channel.close();
+    }
+
+    private ByteBuffer reserve(int bytes) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed.");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("Journal write failed.", failure);
+        }
+        if (pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        return pending;
+    }
+
+    private long seal(ByteBuffer buf, int start) {
+        int end = buf.position();
+        int payload = end - start - HEADER_BYTES;
+        crc.reset();
+        crc.update(buf.duplicate().position(start + HEADER_BYTES).limit(end));
+        buf.putInt(start, payload);
+        buf.putInt(start + 4, (int) crc.getValue());
+        appended += end - start;
+        if (start == 0) {
+            notifyAll();
+        } else if (end >= EARLY_FLUSH_BYTES) {
+            LockSupport.unpark(flusher);
+        }
+        return appended;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteBuffer batch;
+            long end;
+            boolean last;
+            synchronized (this) {
+                while (pending.position() == 0 && rollOffset < 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            if (windowNanos > 0) {
+                LockSupport.parkNanos(windowNanos);
+            }
+            int roll;
+            FileChannel next;
+            synchronized (this) {
+                batch = pending;
+                pending = spare;
+                spare = null;
+                end = appended;
+                last = closed;
+                roll = rollOffset;
+                next = nextChannel;
+                rollOffset = -1;
+                nextChannel = null;
+                notifyAll();
+            }
+            try {
+                batch.flip();
+                if (roll >= 0) {
+                    write(batch.duplicate().limit(roll));
+                    channel.force(false);
+                    channel.close();
+                    channel = next;
+                    batch.position(roll);
+                }
+                write(batch);
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (durableLock) {
+                    failure = e;
+                    durableLock.notifyAll();
+                }
+                return;
+            }
+            batch.clear();
+            synchronized (this) {
+                spare = batch;
+            }
+            synchronized (durableLock) {
+                durable = end;
+                durableLock.notifyAll();
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    private void write(ByteBuffer batch) throws IOException {
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+    }
+
+    // Returns the length of the valid prefix. A record that crosses the end
+    // of a window is read again from the start of the next one, which is
+    // made large enough to hold it.
+    private static long replaySegment(Path file, Replayer replayer) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            CRC32C check = new CRC32C();
+            long base = 0;
+            int window = REPLAY_WINDOW_BYTES;
+            while (size - base >= HEADER_BYTES) {
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size - base, window));
+                window = REPLAY_WINDOW_BYTES;
+                int pos = 0;
+                while (map.limit() - pos >= HEADER_BYTES) {
+                    int length = map.getInt(pos);
+                    int expected = map.getInt(pos + 4);
+                    if (length <= 0 || length > Integer.MAX_VALUE - HEADER_BYTES
+                            || size - base - pos - HEADER_BYTES < length) {
+                        return base + pos;
+                    }
+                    if (map.limit() - pos - HEADER_BYTES < length) {
+                        if (pos == 0) {
+                            window = HEADER_BYTES + length;
+                        }
+                        break;
+                    }
+                    ByteBuffer payload = map.duplicate().position(pos + HEADER_BYTES)
+                            .limit(pos + HEADER_BYTES + length);
+                    check.reset();
+                    check.update(payload.duplicate());
+                    if ((int) check.getValue() != expected) {
+                        return base + pos;
+                    }
+                    dispatch(payload, replayer);
+                    pos += HEADER_BYTES + length;
+                }
+                base += pos;
+            }
+            return base;
+        }
+    }
+
+    private static void dispatch(ByteBuffer payload, Replayer replayer) {
+        byte type = payload.get();
+        long accountNumber = payload.getLong();
+        switch (type) {
+            case OPEN -> {
+                byte[] utf8 = new byte[payload.getInt()];
+                payload.get(utf8);
+                replayer.onOpen(accountNumber, new String(utf8, StandardCharsets.UTF_8));
+            }
+            case DEPOSIT -> replayer.onBalance(accountNumber, payload.getLong(), payload.getLong());
+            case WITHDRAW -> replayer.onBalance(accountNumber, -payload.getLong(), payload.getLong());
+            case TRANSFER -> {
+                long to = payload.getLong();
+                long amount = payload.getLong();
+                replayer.onBalance(accountNumber, -amount, payload.getLong());
+                replayer.onBalance(to, amount, payload.getLong());
+            }
+            default -> throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    private static List<Integer> segments(Path directory) throws IOException {
+        List<Integer> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String digits = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                try {
+                    result.add(Integer.parseInt(digits));
+                } catch (NumberFormatException e) {
+                    // Not a segment written by this class.
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static Path segmentPath(Path directory, int segment) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static FileChannel openSegment(Path directory, int segment) throws IOException {
+        return FileChannel.open(segmentPath(directory, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
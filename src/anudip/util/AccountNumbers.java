@@ -0,0 +1,181 @@
+package anudip.util;
+
+/**
+ * Codec for account numbers, shared by both banking implementations.
+ * <p>
+ * The canonical form of an account number is a {@code long} holding its 16
+ * decimal digits, from {@value #MIN} to {@value #MAX}; the first digit is
+ * never 0, so every valid number has exactly one text form and no valid
+ * number is 0. Validation, parsing and formatting work on primitives and
+ * caller-supplied buffers and allocate nothing.
+ * <p>
+ * When the {@code anudip.accounts.checkDigit} system property is
+ * {@code true}, the last digit must also be the Luhn check digit of the
+ * first 15, which catches any single mistyped digit and most swaps of
+ * adjacent digits.
+ */
+public final class AccountNumbers {
+    /** Number of decimal digits in an account number. */
+    public static final int DIGITS = 16;
+    /** Smallest valid account number. */
+    public static final long MIN = 1_000_000_000_000_000L;
+    /** Largest valid account number. */
+    public static final long MAX = 9_999_999_999_999_999L;
+    /** Returned by the parse methods for text that is not a valid account number. */
+    public static final long INVALID = -1L;
+    /** Whether account numbers must end in a Luhn check digit. */
+    public static final boolean CHECK_DIGIT_REQUIRED = Boolean.getBoolean("anudip.accounts.checkDigit");
+
+    private AccountNumbers() {
+    }
+
+    /**
+     * Checks that a number is a valid account number.
+     *
+     * @param accountNumber The number to check.
+     * @return true if it has 16 digits and, when required, a correct check digit.
+     */
+    public static boolean isValid(long accountNumber) {
+        return accountNumber >= MIN && accountNumber <= MAX
+                && (!CHECK_DIGIT_REQUIRED || hasValidCheckDigit(accountNumber));
+    }
+
+    /**
+     * Checks the Luhn check digit, the last digit of the number.
+     *
+     * @param accountNumber The number to check. Must not be negative.
+     * @return true if the last digit is the check digit of the ones before it.
+     */
+    public static boolean hasValidCheckDigit(long accountNumber) {
+        return checkDigit(accountNumber / 10) == accountNumber % 10;
+    }
+
+    /**
+     * Computes the Luhn check digit of a number.
+     *
+     * @param payload The digits to protect, such as the first 15 digits of an account number.
+     * @return The digit to append.
+     */
+    public static int checkDigit(long payload) {
+        int sum = 0;
+        boolean doubled = true;
+        for (long rest = payload; rest > 0; rest /= 10) {
+            int digit = (int) (rest % 10);
+            if (doubled) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubled = !doubled;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Appends the Luhn check digit to a 15-digit payload.
+     *
+     * @param payload The first 15 digits, from 100000000000000 to 999999999999999.
+     * @return The 16-digit account number.
+     * @throws IllegalArgumentException if the payload does not have 15 digits.
+     */
+    public static long withCheckDigit(long payload) {
+        if (payload < MIN / 10 || payload > MAX / 10) {
+            throw new IllegalArgumentException("Payload must have 15 digits: " + payload);
+        }
+        return payload * 10 + checkDigit(payload);
+    }
+
+    /**
+     * Parses an account number.
+     *
+     * @param text The text; surrounding whitespace is ignored. May be null.
+     * @return The account number, or {@link #INVALID} if the text is not a valid account number.
+     */
+    public static long parse(CharSequence text) {
+        return text == null ? INVALID : parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses an account number from part of a line, without copying it.
+     *
+     * @param text The text holding the number.
+     * @param from The index of the first character.
+     * @param to The index after the last character.
+     * @return The account number, or {@link #INVALID} if the range, ignoring
+     *         surrounding whitespace, is not a valid account number.
+     */
+    public static long parse(CharSequence text, int from, int to) {
+        while (from < to && Character.isWhitespace(text.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(text.charAt(to - 1))) {
+            to--;
+        }
+        if (to - from != DIGITS) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return isValid(value) ? value : INVALID;
+    }
+
+    /**
+     * Parses an account number from ASCII bytes, such as a field of a file
+     * read into a buffer.
+     *
+     * @param bytes The buffer.
+     * @param offset The index of the first digit.
+     * @param length The number of bytes; must be {@value #DIGITS} for a valid number.
+     * @return The account number, or {@link #INVALID} if the bytes are not a valid account number.
+     */
+    public static long parse(byte[] bytes, int offset, int length) {
+        if (length != DIGITS) {
+            return INVALID;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return isValid(value) ? value : INVALID;
+    }
+
+    /**
+     * Writes the digits of an account number as ASCII bytes.
+     *
+     * @param accountNumber A valid account number.
+     * @param bytes The buffer.
+     * @param offset Where the first of the {@value #DIGITS} digits goes.
+     * @return The index after the last digit.
+     */
+    public static int format(long accountNumber, byte[] bytes, int offset) {
+        long rest = accountNumber;
+        for (int i = offset + DIGITS - 1; i >= offset; i--) {
+            bytes[i] = (byte) ('0' + rest % 10);
+            rest /= 10;
+        }
+        return offset + DIGITS;
+    }
+
+    /**
+     * Formats an account number as text. Appending the {@code long} to a
+     * {@link StringBuilder} gives the same digits without a String.
+     *
+     * @param accountNumber A valid account number.
+     * @return The {@value #DIGITS} digits.
+     */
+    public static String toString(long accountNumber) {
+        return Long.toString(accountNumber);
+    }
+}
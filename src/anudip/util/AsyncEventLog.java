@@ -0,0 +1,161 @@
+package anudip.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Event sink that formats and writes events on a background thread.
+ * <p>
+ * Publishers claim a slot in a bounded ring with one compare-and-set and copy
+ * the event fields into preallocated arrays, so publishing never allocates or
+ * blocks. When the ring is full the event is dropped and counted. The writer
+ * thread drains whatever is available, formats it into one buffer and writes
+ * it with a single call, so output cost is paid once per batch.
+ */
+public final class AsyncEventLog implements EventSink, Closeable {
+    private static final VarHandle STAMPS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long IDLE_PARK_NANOS = 100_000L;
+
+    /**
+     * Turns one event into text on the writer thread.
+     */
+    @FunctionalInterface
+    public interface Formatter {
+        /**
+         * Appends the text for one event, including its line separator.
+         *
+         * @param out The buffer to append to.
+         * @param type The event type.
+         * @param subject The event subject, possibly null.
+         * @param a First numeric field.
+         * @param b Second numeric field.
+         * @param c Third numeric field.
+         */
+        void format(StringBuilder out, int type, Object subject, long a, long b, long c);
+    }
+
+    private final int mask;
+    private final long[] stamps;
+    private final int[] types;
+    private final Object[] subjects;
+    private final long[] as;
+    private final long[] bs;
+    private final long[] cs;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Formatter formatter;
+    private final Appendable out;
+    private final Thread writer;
+    private volatile long head;
+    private volatile boolean closed;
+
+    /**
+     * Creates a log and starts its writer thread.
+     *
+     * @param capacity The number of events the ring holds; rounded up to a power of two.
+     * @param formatter Turns events into text.
+     * @param out Receives the formatted text; flushed after each batch if it is {@link Flushable}.
+     */
+    public AsyncEventLog(int capacity, Formatter formatter, Appendable out) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.stamps = new long[size];
+        this.types = new int[size];
+        this.subjects = new Object[size];
+        this.as = new long[size];
+        this.bs = new long[size];
+        this.cs = new long[size];
+        for (int i = 0; i < size; i++) {
+            stamps[i] = -1;
+        }
+        this.formatter = formatter;
+        this.out = out;
+        this.writer = new Thread(this::drainLoop, "event-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public boolean publish(int type, Object subject, long a, long b, long c) {
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head > mask || closed) {
+                dropped.increment();
+                return false;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+        int i = (int) seq & mask;
+        types[i] = type;
+        subjects[i] = subject;
+        as[i] = a;
+        bs[i] = b;
+        cs[i] = c;
+        STAMPS.setRelease(stamps, i, seq);
+        return true;
+    }
+
+    /**
+     * Gets the number of events dropped because the ring was full.
+     *
+     * @return The dropped event count.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writes every event published so far and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder(8192);
+        while (true) {
+            boolean stopping = closed;
+            long next = head;
+            while ((long) STAMPS.getAcquire(stamps, (int) next & mask) == next) {
+                int i = (int) next & mask;
+                formatter.format(batch, types[i], subjects[i], as[i], bs[i], cs[i]);
+                subjects[i] = null;
+                next++;
+                head = next;
+            }
+            if (batch.length() > 0) {
+                write(batch);
+                batch.setLength(0);
+            }
+            if (stopping && next == tail.get()) {
+                return;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private void write(CharSequence text) {
+        try {
+            out.append(text);
+            if (out instanceof Flushable) {
+                ((Flushable) out).flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
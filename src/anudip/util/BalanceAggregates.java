@@ -0,0 +1,801 @@
+package anudip.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Aggregates over a set of account balances, kept up to date on every change
+ * instead of recomputed by iterating over the accounts.
+ * <p>
+ * Counts and sums live in one cell of counters per thread, which only that
+ * thread writes, so counting a change costs no atomic instruction and
+ * writers never contend; readers add the cells up. The balance distribution
+ * is a histogram of power-of-two buckets that a change only touches when it
+ * moves an account to another bucket, and the total balance is derived from
+ * the opening balances and the amounts deposited and withdrawn.
+ * <p>
+ * The highest and lowest balances are ranked by tracking twice as many
+ * accounts as can be asked for behind a floor: a change that starts and ends
+ * below the floor, as almost all do, costs one volatile read. Equal balances
+ * are ranked by account key, so a ranking full of empty accounts does not
+ * send every opening and first deposit past the floor. The tracked set
+ * also remembers the highest balance it has let go of, so a query can tell
+ * whether its answer is exact. When withdrawals from the tracked accounts
+ * leave it unable to tell, the query rebuilds the set with a parallel scan of
+ * the accounts; changes made during the scan are logged and applied on top.
+ * <p>
+ * Callers report each change once it is made, with exact before and after
+ * balances, but the changes of one account may arrive out of order when they
+ * are made with a compare-and-set rather than under a lock. Counts, sums and
+ * the histogram only add and subtract, so the order does not matter to them;
+ * a ranking that has to record a balance reads the account's current one
+ * from the source instead of trusting the report. Counts and sums read while
+ * writers are active may include part of a change in flight.
+ * {@link #scan(Source, int)} computes the same aggregates in one fork-join
+ * sweep over the accounts.
+ */
+public final class BalanceAggregates {
+    /** Number of buckets in a distribution; see {@link #bucketOf(long)}. */
+    public static final int BUCKETS = 65;
+
+    private static final VarHandle COUNTERS = MethodHandles.arrayElementVarHandle(long[].class);
+    // Slots per fork-join leaf when scanning.
+    private static final int SCAN_LEAF = 1 << 14;
+    // Counter positions in a cell. Counters start a cache line into the cell
+    // and end a cache line before its end, so cells of different threads
+    // never share a line.
+    private static final int OPENED = 8;
+    private static final int OPENING = 9;
+    private static final int DEPOSITS = 10;
+    private static final int DEPOSITED = 11;
+    private static final int WITHDRAWALS = 12;
+    private static final int WITHDRAWN = 13;
+    private static final int TRANSFERS = 14;
+    private static final int TRANSFERRED = 15;
+    private static final int BUCKET = 16;
+    private static final int CELL_LENGTH = BUCKET + BUCKETS + 8;
+
+    /**
+     * The accounts behind the aggregates, visited by dense slot when they are
+     * scanned.
+     */
+    public interface Source {
+        /**
+         * Gets the number of slots.
+         *
+         * @return The number of accounts.
+         */
+        int size();
+
+        /**
+         * Gets the key of the account in a slot.
+         *
+         * @param slot The slot, from 0 to {@code size() - 1}.
+         * @return The account key, such as its account number.
+         */
+        long keyAt(int slot);
+
+        /**
+         * Gets the current balance of the account in a slot. The read must be
+         * a volatile read of the balance, or of a version word that writers
+         * update around it as a seqlock reader does, so that a change being
+         * reported is either seen or has not yet read the state of the
+         * aggregates.
+         *
+         * @param slot The slot, from 0 to {@code size() - 1}.
+         * @return The balance in minor units, such as cents.
+         */
+        long balanceAt(int slot);
+
+        /**
+         * Gets the current balance of a reported account, read as
+         * {@link #balanceAt(int)} reads it. It is called while a ranking's
+         * monitor is held, so it must not wait for a writer of the account.
+         *
+         * @param key The account key.
+         * @return The balance in minor units, such as cents.
+         */
+        long balanceOf(long key);
+    }
+
+    /**
+     * An account and its balance, as ranked by {@link #highest(int)} and {@link #lowest(int)}.
+     *
+     * @param key The account key.
+     * @param balance The balance in minor units.
+     */
+    public record Ranked(long key, long balance) {
+    }
+
+    /**
+     * Aggregates computed by one scan of every account.
+     *
+     * @param accounts The number of accounts.
+     * @param totalBalance The sum of their balances.
+     * @param distribution The number of accounts in each bucket of {@link #bucketOf(long)}.
+     * @param highest The accounts with the highest balances, highest first.
+     * @param lowest The accounts with the lowest balances, lowest first.
+     */
+    public record Summary(long accounts, long totalBalance, long[] distribution, List<Ranked> highest,
+            List<Ranked> lowest) {
+    }
+
+    private final Source source;
+    private final int ranked;
+    private final ThreadLocal<long[]> cell = ThreadLocal.withInitial(this::register);
+    private final List<WeakReference<Thread>> owners = new ArrayList<>();
+    private volatile long[][] cells = new long[0][];
+    private final Ranking highest;
+    private final Ranking lowest;
+
+    /**
+     * Creates empty aggregates.
+     *
+     * @param source The accounts, scanned when a ranking must be rebuilt.
+     * @param ranked The largest number of accounts {@link #highest(int)} and {@link #lowest(int)} return.
+     */
+    public BalanceAggregates(Source source, int ranked) {
+        if (ranked < 1) {
+            throw new IllegalArgumentException("At least one account must be ranked.");
+        }
+        this.source = source;
+        this.ranked = ranked;
+        this.highest = new Ranking(2 * ranked, false);
+        this.lowest = new Ranking(2 * ranked, true);
+    }
+
+    /**
+     * Gets the distribution bucket of a balance: 0 for a balance of zero or
+     * less, otherwise the number of bits the balance needs, so that bucket
+     * {@code b} holds the balances from {@code 2^(b-1)} to {@code 2^b - 1}.
+     *
+     * @param balance The balance.
+     * @return The bucket, from 0 to {@code BUCKETS - 1}.
+     */
+    public static int bucketOf(long balance) {
+        return balance <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(balance);
+    }
+
+    /**
+     * Counts a new account. Call it before any other change of it is made.
+     *
+     * @param key The account key.
+     * @param balance The opening balance.
+     */
+    public void opened(long key, long balance) {
+        long[] counters = cell.get();
+        add(counters, OPENED, 1);
+        add(counters, OPENING, balance);
+        add(counters, BUCKET + bucketOf(balance), 1);
+        highest.update(key, Long.MIN_VALUE, balance);
+        lowest.update(key, Long.MIN_VALUE, -balance);
+    }
+
+    /**
+     * Counts a deposit. Call it once the deposit is made.
+     *
+     * @param key The account key.
+     * @param amount The amount deposited.
+     * @param balance The balance after the deposit.
+     */
+    public void deposited(long key, long amount, long balance) {
+        long[] counters = cell.get();
+        add(counters, DEPOSITS, 1);
+        add(counters, DEPOSITED, amount);
+        changed(counters, key, balance - amount, balance);
+    }
+
+    /**
+     * Counts a withdrawal. Call it once the withdrawal is made.
+     *
+     * @param key The account key.
+     * @param amount The amount withdrawn.
+     * @param balance The balance after the withdrawal.
+     */
+    public void withdrew(long key, long amount, long balance) {
+        long[] counters = cell.get();
+        add(counters, WITHDRAWALS, 1);
+        add(counters, WITHDRAWN, amount);
+        changed(counters, key, balance + amount, balance);
+    }
+
+    /**
+     * Counts a transfer. Call it once the transfer is made.
+     *
+     * @param from The key of the debited account.
+     * @param to The key of the credited account.
+     * @param amount The amount moved.
+     * @param fromBalance The debited account's balance after the transfer.
+     * @param toBalance The credited account's balance after the transfer.
+     */
+    public void transferred(long from, long to, long amount, long fromBalance, long toBalance) {
+        long[] counters = cell.get();
+        add(counters, TRANSFERS, 1);
+        add(counters, TRANSFERRED, amount);
+        changed(counters, from, fromBalance + amount, fromBalance);
+        changed(counters, to, toBalance - amount, toBalance);
+    }
+
+    /**
+     * Recomputes the balance aggregates from the accounts with a parallel
+     * scan, for example after they were loaded from disk without being
+     * reported. The operation counts restart from zero. Balances must not
+     * change during the reset.
+     */
+    public void reset() {
+        Summary summary = scan(source, 2 * ranked + 1);
+        long[] counters = cell.get();
+        for (long[] other : cells) {
+            for (int i = OPENED; i < BUCKET + BUCKETS; i++) {
+                COUNTERS.setOpaque(other, i, 0L);
+            }
+        }
+        add(counters, OPENED, summary.accounts());
+        add(counters, OPENING, summary.totalBalance());
+        for (int i = 0; i < BUCKETS; i++) {
+            add(counters, BUCKET + i, summary.distribution()[i]);
+        }
+        highest.load(summary.highest());
+        lowest.load(summary.lowest());
+    }
+
+    /**
+     * Gets the number of accounts.
+     *
+     * @return The number of accounts.
+     */
+    public long accounts() {
+        return sum(OPENED);
+    }
+
+    /**
+     * Gets the sum of every balance.
+     *
+     * @return The total balance in minor units.
+     */
+    public long totalBalance() {
+        return sum(OPENING) + sum(DEPOSITED) - sum(WITHDRAWN);
+    }
+
+    /**
+     * Gets the number of deposits since the aggregates were created or reset.
+     *
+     * @return The number of deposits.
+     */
+    public long deposits() {
+        return sum(DEPOSITS);
+    }
+
+    /**
+     * Gets the sum of the deposits since the aggregates were created or reset.
+     *
+     * @return The amount deposited in minor units.
+     */
+    public long totalDeposited() {
+        return sum(DEPOSITED);
+    }
+
+    /**
+     * Gets the number of withdrawals since the aggregates were created or reset.
+     *
+     * @return The number of withdrawals.
+     */
+    public long withdrawals() {
+        return sum(WITHDRAWALS);
+    }
+
+    /**
+     * Gets the sum of the withdrawals since the aggregates were created or reset.
+     *
+     * @return The amount withdrawn in minor units.
+     */
+    public long totalWithdrawn() {
+        return sum(WITHDRAWN);
+    }
+
+    /**
+     * Gets the number of transfers since the aggregates were created or reset.
+     *
+     * @return The number of transfers.
+     */
+    public long transfers() {
+        return sum(TRANSFERS);
+    }
+
+    /**
+     * Gets the sum of the transfers since the aggregates were created or reset.
+     *
+     * @return The amount transferred in minor units.
+     */
+    public long totalTransferred() {
+        return sum(TRANSFERRED);
+    }
+
+    /**
+     * Gets the number of accounts in each bucket of {@link #bucketOf(long)}.
+     *
+     * @return A new array of {@link #BUCKETS} counts.
+     */
+    public long[] distribution() {
+        long[] counts = new long[BUCKETS];
+        for (long[] counters : cells) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += (long) COUNTERS.getOpaque(counters, BUCKET + i);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the accounts with the highest balances.
+     *
+     * @param n The number of accounts, at most the number ranked.
+     * @return Up to {@code n} accounts, highest balance first.
+     */
+    public List<Ranked> highest(int n) {
+        return highest.top(Math.min(n, ranked));
+    }
+
+    /**
+     * Gets the accounts with the lowest balances.
+     *
+     * @param n The number of accounts, at most the number ranked.
+     * @return Up to {@code n} accounts, lowest balance first.
+     */
+    public List<Ranked> lowest(int n) {
+        return lowest.top(Math.min(n, ranked));
+    }
+
+    /**
+     * Gets the highest balance.
+     *
+     * @return The highest balance, or 0 if there are no accounts.
+     */
+    public long maxBalance() {
+        List<Ranked> top = highest(1);
+        return top.isEmpty() ? 0 : top.get(0).balance();
+    }
+
+    /**
+     * Gets the lowest balance.
+     *
+     * @return The lowest balance, or 0 if there are no accounts.
+     */
+    public long minBalance() {
+        List<Ranked> bottom = lowest(1);
+        return bottom.isEmpty() ? 0 : bottom.get(0).balance();
+    }
+
+    /**
+     * Computes the balance aggregates in one parallel sweep over the
+     * accounts, see {@link #scan(Source, int)}.
+     *
+     * @param ranked The number of highest and of lowest accounts to return.
+     * @return The aggregates.
+     */
+    public Summary scan(int ranked) {
+        return scan(source, ranked);
+    }
+
+    /**
+     * Computes every balance aggregate in one sweep over the accounts, split
+     * across the common fork-join pool. Balances changed during the sweep
+     * may be counted before or after the change.
+     *
+     * @param source The accounts.
+     * @param ranked The number of highest and of lowest accounts to return.
+     * @return The aggregates.
+     */
+    public static Summary scan(Source source, int ranked) {
+        Partial partial = ForkJoinPool.commonPool().invoke(new ScanTask(source, ranked, 0, source.size()));
+        return new Summary(partial.accounts, partial.totalBalance, partial.distribution,
+                partial.highest.sorted(false), partial.lowest.sorted(true));
+    }
+
+    private void changed(long[] counters, long key, long before, long after) {
+        int from = bucketOf(before);
+        int to = bucketOf(after);
+        if (from != to) {
+            add(counters, BUCKET + from, -1);
+            add(counters, BUCKET + to, 1);
+        }
+        highest.update(key, before, after);
+        lowest.update(key, -before, -after);
+    }
+
+    // Only the owning thread writes its cell; the opaque write keeps readers
+    // from seeing a torn or stale-forever value.
+    private static void add(long[] counters, int index, long delta) {
+        COUNTERS.setOpaque(counters, index, counters[index] + delta);
+    }
+
+    private long sum(int index) {
+        long sum = 0;
+        for (long[] counters : cells) {
+            sum += (long) COUNTERS.getOpaque(counters, index);
+        }
+        return sum;
+    }
+
+    // Gives the calling thread a cell: the cell of a thread that has ended,
+    // whose counts stay in it, or a new one.
+    private synchronized long[] register() {
+        long[][] current = cells;
+        for (int i = 0; i < owners.size(); i++) {
+            Thread owner = owners.get(i).get();
+            if (owner == null || !owner.isAlive()) {
+                owners.set(i, new WeakReference<>(Thread.currentThread()));
+                return current[i];
+            }
+        }
+        long[] counters = new long[CELL_LENGTH];
+        owners.add(new WeakReference<>(Thread.currentThread()));
+        long[][] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = counters;
+        cells = grown;
+        return counters;
+    }
+
+    // The accounts with the highest values, out of those reported to it; the
+    // lowest ranking is fed negated balances. Equal values rank the smaller
+    // key first. Every account ranked above the floor, the lowest tracked
+    // account, is tracked; ceiling bounds the value of every account that is
+    // not, so the tracked values at or above it are the true top.
+    private final class Ranking {
+        private final int capacity;
+        private final boolean negated;
+        private final long[] keys;
+        private final long[] values;
+        // Slots by descending value as of the last query; kept between
+        // queries because it rarely needs more than a pass to fix.
+        private final int[] order;
+        private int size;
+        private long ceiling = Long.MIN_VALUE;
+        private volatile Floor floor = Floor.NONE;
+        // Accounts changed while a rebuild scans; null otherwise.
+        private Set<Long> pending;
+        private final Object rebuild = new Object();
+
+        Ranking(int capacity, boolean negated) {
+            this.capacity = capacity;
+            this.negated = negated;
+            this.keys = new long[capacity];
+            this.values = new long[capacity];
+            this.order = new int[capacity];
+        }
+
+        // A tracked account ranks at or above every floor its own changes
+        // can read, so a change that stays below it is untracked. Reports
+        // of one account may arrive out of order, so the value recorded is
+        // the account's current one, not the reported one.
+        void update(long key, long before, long after) {
+            Floor f = floor;
+            if (f.above(before, key) && f.above(after, key)) {
+                return;
+            }
+            synchronized (this) {
+                if (pending != null) {
+                    pending.add(key);
+                    return;
+                }
+                track(key);
+            }
+        }
+
+        // Records an account's current value and publishes the floor. A
+        // change made after the read may have judged itself against the old
+        // floor and skipped the ranking, so the value is read again once the
+        // floor is published: any later change reads the new floor.
+        private void track(long key) {
+            long value = value(source.balanceOf(key));
+            while (true) {
+                apply(key, value);
+                publishFloor();
+                long current = value(source.balanceOf(key));
+                if (current == value) {
+                    return;
+                }
+                value = current;
+            }
+        }
+
+        List<Ranked> top(int n) {
+            while (true) {
+                synchronized (this) {
+                    List<Ranked> top = exactTop(n);
+                    if (top != null) {
+                        return top;
+                    }
+                }
+                synchronized (rebuild) {
+                    synchronized (this) {
+                        List<Ranked> top = exactTop(n);
+                        if (top != null) {
+                            return top;
+                        }
+                        // Sends every change to the log until the scan is applied.
+                        pending = new HashSet<>();
+                        floor = Floor.NONE;
+                    }
+                    Summary summary = scan(source, capacity + 1);
+                    synchronized (this) {
+                        loadLocked(negated ? summary.lowest() : summary.highest());
+                        Set<Long> changed = pending;
+                        pending = null;
+                        for (long key : changed) {
+                            track(key);
+                        }
+                        publishFloor();
+                    }
+                }
+            }
+        }
+
+        synchronized void load(List<Ranked> accounts) {
+            loadLocked(accounts);
+            publishFloor();
+        }
+
+        private void apply(long key, long value) {
+            int i = indexOf(key);
+            if (i >= 0) {
+                values[i] = value;
+            } else if (size < capacity) {
+                keys[size] = key;
+                values[size] = value;
+                order[size] = size;
+                size++;
+            } else {
+                int min = minIndex();
+                if (ranksAbove(value, key, values[min], keys[min])) {
+                    ceiling = Math.max(ceiling, values[min]);
+                    keys[min] = key;
+                    values[min] = value;
+                } else {
+                    ceiling = Math.max(ceiling, value);
+                }
+            }
+        }
+
+        // Takes the first capacity accounts of a ranked list; the next one,
+        // if any, bounds the rest.
+        private void loadLocked(List<Ranked> accounts) {
+            size = Math.min(capacity, accounts.size());
+            for (int i = 0; i < size; i++) {
+                keys[i] = accounts.get(i).key();
+                values[i] = value(accounts.get(i).balance());
+                order[i] = i;
+            }
+            ceiling = accounts.size() > capacity ? value(accounts.get(capacity).balance()) : Long.MIN_VALUE;
+        }
+
+        // The top n, or null if an untracked account might belong in it.
+        private List<Ranked> exactTop(int n) {
+            for (int i = 1; i < size; i++) {
+                int slot = order[i];
+                int j = i;
+                for (; j > 0 && values[order[j - 1]] < values[slot]; j--) {
+                    order[j] = order[j - 1];
+                }
+                order[j] = slot;
+            }
+            int count = Math.min(n, size);
+            if (count < n ? ceiling != Long.MIN_VALUE : count > 0 && values[order[count - 1]] < ceiling) {
+                return null;
+            }
+            List<Ranked> top = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                top.add(new Ranked(keys[order[i]], value(values[order[i]])));
+            }
+            return Collections.unmodifiableList(top);
+        }
+
+        private void publishFloor() {
+            if (size < capacity) {
+                floor = Floor.NONE;
+                return;
+            }
+            int min = minIndex();
+            ceiling = Math.max(ceiling, values[min]);
+            Floor current = floor;
+            if (current.value != values[min] || current.key != keys[min]) {
+                floor = new Floor(values[min], keys[min]);
+            }
+        }
+
+        private int indexOf(long key) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int minIndex() {
+            int min = 0;
+            for (int i = 1; i < size; i++) {
+                if (ranksAbove(values[min], keys[min], values[i], keys[i])) {
+                    min = i;
+                }
+            }
+            return min;
+        }
+
+        // Converts between balances and ranked values; negation is its own inverse.
+        private long value(long balance) {
+            return negated ? -balance : balance;
+        }
+    }
+
+    // Whether an account ranks above another: a higher value, or an equal
+    // value and a smaller key.
+    private static boolean ranksAbove(long value, long key, long otherValue, long otherKey) {
+        return value > otherValue || value == otherValue && key < otherKey;
+    }
+
+    // A ranking's lowest tracked account, published as one reference. NONE
+    // has every account ranked above it.
+    private record Floor(long value, long key) {
+        static final Floor NONE = new Floor(Long.MIN_VALUE, Long.MAX_VALUE);
+
+        boolean above(long otherValue, long otherKey) {
+            return ranksAbove(value, key, otherValue, otherKey);
+        }
+    }
+
+    // The highest values seen, kept in a min-heap of at most limit entries.
+    private static final class Top {
+        private final int limit;
+        private final long[] keys;
+        private final long[] values;
+        private int size;
+
+        Top(int limit) {
+            this.limit = limit;
+            this.keys = new long[limit];
+            this.values = new long[limit];
+        }
+
+        void offer(long key, long value) {
+            if (size < limit) {
+                keys[size] = key;
+                values[size] = value;
+                siftUp(size++);
+            } else if (limit > 0 && value > values[0]) {
+                keys[0] = key;
+                values[0] = value;
+                siftDown(0);
+            }
+        }
+
+        void addAll(Top other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.keys[i], other.values[i]);
+            }
+        }
+
+        // Highest value first, as balances; negated values are turned back.
+        List<Ranked> sorted(boolean negated) {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (x, y) -> Long.compare(values[y], values[x]));
+            List<Ranked> sorted = new ArrayList<>(size);
+            for (Integer i : order) {
+                sorted.add(new Ranked(keys[i], negated ? -values[i] : values[i]));
+            }
+            return Collections.unmodifiableList(sorted);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (values[parent] <= values[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    return;
+                }
+                if (child + 1 < size && values[child + 1] < values[child]) {
+                    child++;
+                }
+                if (values[i] <= values[child]) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            long key = keys[i];
+            long value = values[i];
+            keys[i] = keys[j];
+            values[i] = values[j];
+            keys[j] = key;
+            values[j] = value;
+        }
+    }
+
+    // Aggregates of one range of slots.
+    private static final class Partial {
+        long accounts;
+        long totalBalance;
+        final long[] distribution = new long[BUCKETS];
+        final Top highest;
+        final Top lowest;
+
+        Partial(int ranked) {
+            this.highest = new Top(ranked);
+            this.lowest = new Top(ranked);
+        }
+
+        void merge(Partial other) {
+            accounts += other.accounts;
+            totalBalance += other.totalBalance;
+            for (int i = 0; i < BUCKETS; i++) {
+                distribution[i] += other.distribution[i];
+            }
+            highest.addAll(other.highest);
+            lowest.addAll(other.lowest);
+        }
+    }
+
+    private static final class ScanTask extends RecursiveTask<Partial> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Source source;
+        private final int ranked;
+        private final int from;
+        private final int to;
+
+        ScanTask(Source source, int ranked, int from, int to) {
+            this.source = source;
+            this.ranked = ranked;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from > SCAN_LEAF) {
+                int middle = (from + to) >>> 1;
+                ScanTask right = new ScanTask(source, ranked, middle, to);
+                right.fork();
+                Partial partial = new ScanTask(source, ranked, from, middle).compute();
+                partial.merge(right.join());
+                return partial;
+            }
+            Partial partial = new Partial(ranked);
+            for (int slot = from; slot < to; slot++) {
+                long key = source.keyAt(slot);
+                long balance = source.balanceAt(slot);
+                partial.accounts++;
+                partial.totalBalance += balance;
+                partial.distribution[bucketOf(balance)]++;
+                partial.highest.offer(key, balance);
+                partial.lowest.offer(key, -balance);
+            }
+            return partial;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package anudip.util;
+
+/**
+ * Receives operation events from a hot path. Events are passed as primitives
+ * plus one optional reference so that publishing never allocates.
+ */
+@FunctionalInterface
+public interface EventSink {
+    /**
+     * A sink that discards every event.
+     */
+    EventSink NONE = (type, subject, a, b, c) -> true;
+
+    /**
+     * Publishes one event. Implementations must not block the caller.
+     *
+     * @param type An application-defined event type.
+     * @param subject An optional object the event is about, such as an account key; may be null.
+     * @param a First numeric field.
+     * @param b Second numeric field.
+     * @param c Third numeric field.
+     * @return true if the event was accepted; false if it was dropped.
+     */
+    boolean publish(int type, Object subject, long a, long b, long c);
+
+    /**
+     * Returns a sink that publishes every event to this sink and then to another.
+     *
+     * @param other The second sink.
+     * @return A sink that accepts an event if either sink accepted it.
+     */
+    default EventSink andThen(EventSink other) {
+        return (type, subject, a, b, c) -> publish(type, subject, a, b, c) | other.publish(type, subject, a, b, c);
+    }
+}
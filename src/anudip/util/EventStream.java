@@ -0,0 +1,298 @@
+package anudip.util;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Event sink that broadcasts events to any number of subscribers through the
+ * {@link Flow} API.
+ * <p>
+ * Publishers claim a sequence number with one atomic increment and copy the
+ * event fields into a bounded ring of preallocated slots, one cache line
+ * each, but never look at the subscribers: the ring is
+ * overwritten in order whether or not everyone has read it, so a slow
+ * subscriber can never block or slow down the thread that publishes. A
+ * publisher takes its slot with a compare-and-set from the stamp the
+ * previous round left there, so two publishers a ring apart never write one
+ * slot at once; the later one waits only if the earlier one is still
+ * writing, which takes a whole ring of events published meanwhile. Each
+ * subscription has its own delivery thread and read position, and delivers
+ * events only while the subscriber has outstanding demand from
+ * {@link Flow.Subscription#request(long)}. Slots are read the way a seqlock
+ * reader does, so a slot overwritten mid-read is detected rather than
+ * delivered torn. A subscriber that falls a whole ring behind has missed
+ * events; it receives {@link Overrun} through {@code onError}, with the
+ * first sequence number it missed, and may subscribe again.
+ * <p>
+ * While nobody is subscribed, publishing returns at once without claiming a
+ * slot, so a stream that no one reads costs the publisher a single read.
+ * New subscribers receive the events published after they subscribe. Closing
+ * the stream completes every subscriber once it has received the events
+ * published before the close. A subscriber that throws is cancelled and
+ * receives what it threw through {@code onError}.
+ */
+public final class EventStream implements EventSink, Flow.Publisher<EventStream.Event>, Closeable {
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long IDLE_PARK_NANOS = 100_000L;
+    // A publisher waiting for its slot spins this often, then yields.
+    private static final int SPINS = 16;
+    private static final AtomicInteger SUBSCRIPTIONS = new AtomicInteger();
+    // Longs per slot: the stamp, the type and the three fields, padded to a
+    // cache line so that publishers on different slots never share one.
+    private static final int SLOT_SHIFT = 3;
+    private static final int STAMP = 0;
+    private static final int TYPE = 1;
+    private static final int A = 2;
+    private static final int B = 3;
+    private static final int C = 4;
+
+    /**
+     * One published event, as delivered to subscribers.
+     *
+     * @param sequence The event's position in the stream, counting from 0.
+     * @param type The event type.
+     * @param subject The event subject, possibly null.
+     * @param a First numeric field.
+     * @param b Second numeric field.
+     * @param c Third numeric field.
+     */
+    public record Event(long sequence, int type, Object subject, long a, long b, long c) {
+    }
+
+    /**
+     * Signals a subscriber that fell so far behind that the events it had not
+     * read yet were overwritten.
+     */
+    public static final class Overrun extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final long missedFrom;
+
+        Overrun(long missedFrom) {
+            super("Subscriber fell behind; events from sequence " + missedFrom + " were overwritten.");
+            this.missedFrom = missedFrom;
+        }
+
+        /**
+         * Gets the sequence number of the first event the subscriber missed.
+         *
+         * @return The sequence number.
+         */
+        public long missedFrom() {
+            return missedFrom;
+        }
+    }
+
+    private final int mask;
+    // A slot's stamp is written(seq) while the event with sequence number seq
+    // is copied in and published(seq) once it is, so a slot's stamps only
+    // grow. Slot i starts as if it held sequence number i - size.
+    private final long[] slots;
+    private final Object[] subjects;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Creates a stream.
+     *
+     * @param capacity The number of events a subscriber may fall behind before it is overrun;
+     *        rounded up to a power of two.
+     */
+    public EventStream(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.slots = new long[size << SLOT_SHIFT];
+        this.subjects = new Object[size];
+        for (int i = 0; i < size; i++) {
+            slots[(i << SLOT_SHIFT) + STAMP] = published(i - size);
+        }
+    }
+
+    @Override
+    public boolean publish(int type, Object subject, long a, long b, long c) {
+        if (closed) {
+            return false;
+        }
+        if (subscribers.get() == 0) {
+            // No one to deliver to; discarded as EventSink.NONE would.
+            return true;
+        }
+        long seq = tail.getAndIncrement();
+        int i = (int) seq & mask;
+        int slot = i << SLOT_SHIFT;
+        long previous = published(seq - mask - 1);
+        for (int attempt = 0; !SLOTS.compareAndSet(slots, slot + STAMP, previous, written(seq)); attempt++) {
+            // The publisher a ring ahead has not finished this slot yet.
+            if (attempt < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+        slots[slot + TYPE] = type;
+        slots[slot + A] = a;
+        slots[slot + B] = b;
+        slots[slot + C] = c;
+        // Most events have no subject; skipping the store skips its GC barrier.
+        if (subject != null || subjects[i] != null) {
+            subjects[i] = subject;
+        }
+        SLOTS.setRelease(slots, slot + STAMP, published(seq));
+        return true;
+    }
+
+    private static long written(long seq) {
+        return published(seq) | 1;
+    }
+
+    private static long published(long seq) {
+        return (seq + 1) << 1;
+    }
+
+    // The sequence number a stamp holds or is being written with.
+    private static long sequenceOf(long stamp) {
+        return (stamp >> 1) - 1;
+    }
+
+    /**
+     * Subscribes to the events published from now on. The subscriber is
+     * called on a delivery thread of its own.
+     *
+     * @param subscriber The subscriber.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Event> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        // Counted before the start position is read, so that no event after
+        // it is skipped for want of a subscriber.
+        subscribers.incrementAndGet();
+        Delivery delivery = new Delivery(subscriber, tail.get());
+        Thread thread = new Thread(delivery, "event-stream-" + SUBSCRIPTIONS.incrementAndGet());
+        thread.setDaemon(true);
+        delivery.thread = thread;
+        thread.start();
+    }
+
+    /**
+     * Gets the number of events published so far while someone was
+     * subscribed.
+     *
+     * @return The event count.
+     */
+    public long published() {
+        return tail.get();
+    }
+
+    /**
+     * Stops accepting events. Subscribers complete once they have received
+     * the events published before the close.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    // One subscriber's read position, demand and delivery thread.
+    private final class Delivery implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Event> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private long next;
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        volatile Thread thread;
+
+        Delivery(Flow.Subscriber<? super Event> subscriber, long from) {
+            this.subscriber = subscriber;
+            this.next = from;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Request must be positive: " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            try {
+                subscriber.onSubscribe(this);
+                while (!cancelled) {
+                    if (invalidRequest != null) {
+                        cancelled = true;
+                        subscriber.onError(invalidRequest);
+                        return;
+                    }
+                    boolean stopping = closed;
+                    int delivered = deliver();
+                    if (delivered < 0) {
+                        return;
+                    }
+                    if (delivered == 0) {
+                        if (stopping && next >= tail.get()) {
+                            cancelled = true;
+                            subscriber.onComplete();
+                            return;
+                        }
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                }
+            } catch (RuntimeException e) {
+                cancelled = true;
+                subscriber.onError(e);
+            } finally {
+                subscribers.decrementAndGet();
+            }
+        }
+
+        // Delivers what is published and demanded; returns the number of
+        // events delivered, or -1 if the subscriber was overrun.
+        private int deliver() {
+            int delivered = 0;
+            while (!cancelled && demand.get() > 0) {
+                int i = (int) next & mask;
+                int slot = i << SLOT_SHIFT;
+                long stamp = (long) SLOTS.getAcquire(slots, slot + STAMP);
+                if (sequenceOf(stamp) > next) {
+                    return overrun();
+                }
+                if (stamp != published(next)) {
+                    break;
+                }
+                Event event = new Event(next, (int) slots[slot + TYPE], subjects[i], slots[slot + A],
+                        slots[slot + B], slots[slot + C]);
+                VarHandle.loadLoadFence();
+                if ((long) SLOTS.getOpaque(slots, slot + STAMP) != published(next)) {
+                    return overrun();
+                }
+                next++;
+                demand.decrementAndGet();
+                subscriber.onNext(event);
+                delivered++;
+            }
+            return delivered;
+        }
+
+        private int overrun() {
+            cancelled = true;
+            subscriber.onError(new Overrun(next));
+            return -1;
+        }
+    }
+}
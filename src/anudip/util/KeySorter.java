@@ -0,0 +1,425 @@
+package anudip.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+/**
+ * Sorts records by binary key on every core, spilling to disk when they do
+ * not fit in memory.
+ * <p>
+ * A record is a key and a value, both byte arrays. Keys compare as unsigned
+ * bytes, so each key is computed once, up front: the bytes of a
+ * {@link java.text.CollationKey} for locale order, or a big-endian encoding
+ * for numbers. No comparison calls back into user code. The first eight
+ * bytes of every key are also packed into a long, so most comparisons are a
+ * single unsigned long comparison.
+ * <p>
+ * Records are buffered until they reach the memory budget. The buffer is
+ * then sorted with {@link Arrays#parallelSort} and written to a temporary
+ * file as a sorted run. {@link #finish} merges the runs k ways through
+ * buffered file channels, in several passes if there are more than
+ * {@value #MAX_FAN_IN}. If nothing was spilled, the buffer is sorted and
+ * delivered from memory. The sort is stable: records with equal keys come
+ * out in the order they were added. Instances are not thread-safe.
+ */
+public final class KeySorter implements Closeable {
+    private static final int MAX_FAN_IN = 64;
+    private static final int MIN_BUFFER = 64 * 1024;
+    private static final int MAX_BUFFER = 1024 * 1024;
+    // Heap used by one buffered record besides its key and value bytes.
+    private static final int RECORD_OVERHEAD = 72;
+
+    /**
+     * Receives sorted records.
+     */
+    @FunctionalInterface
+    public interface RecordSink {
+        /**
+         * Accepts the next record in key order.
+         *
+         * @param key The record's key.
+         * @param value The record's value.
+         * @throws IOException if the sink cannot accept the record.
+         */
+        void accept(byte[] key, byte[] value) throws IOException;
+    }
+
+    private record Entry(long prefix, byte[] key, byte[] value) {
+    }
+
+    private static final Comparator<Entry> ORDER = (a, b) -> {
+        int c = Long.compareUnsigned(a.prefix, b.prefix);
+        return c != 0 ? c : Arrays.compareUnsigned(a.key, b.key);
+    };
+
+    private final long memoryBudget;
+    private final Path directory;
+    private final List<Path> runs = new ArrayList<>();
+    private Entry[] buffer = new Entry[1024];
+    private int count;
+    private long buffered;
+    private boolean finished;
+
+    /**
+     * Creates a sorter.
+     *
+     * @param memoryBudget The heap the buffered records may take before they are spilled, in bytes.
+     * @param directory The directory for run files, or null for the default temporary directory.
+     */
+    public KeySorter(long memoryBudget, Path directory) {
+        this.memoryBudget = Math.max(memoryBudget, MIN_BUFFER);
+        this.directory = directory;
+    }
+
+    /**
+     * Sorts items in place by a binary key computed once per item. Keys are
+     * computed in parallel, so the key function must be thread-safe. The
+     * sort spills to disk if the keys would take more than a quarter of the
+     * free heap.
+     *
+     * @param <T> The item type.
+     * @param items The items to sort.
+     * @param keyOf Computes an item's key.
+     * @throws UncheckedIOException if a spill fails.
+     */
+    public static <T> void sort(T[] items, Function<? super T, byte[]> keyOf) {
+        Entry[] entries = new Entry[items.length];
+        Arrays.parallelSetAll(entries, i -> entry(keyOf.apply(items[i]), index(i)));
+        T[] copy = items.clone();
+        long size = 0;
+        for (Entry entry : entries) {
+            size += RECORD_OVERHEAD + entry.key.length + entry.value.length;
+        }
+        if (size <= freeHeap() / 4) {
+            Arrays.parallelSort(entries, ORDER);
+            for (int i = 0; i < entries.length; i++) {
+                items[i] = copy[toIndex(entries[i].value)];
+            }
+            return;
+        }
+        int[] next = {0};
+        try (KeySorter sorter = new KeySorter(freeHeap() / 4, null)) {
+            for (int i = 0; i < entries.length; i++) {
+                sorter.add(entries[i].key, entries[i].value);
+                entries[i] = null;
+            }
+            sorter.finish((key, value) -> items[next[0]++] = copy[toIndex(value)]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Adds a record, spilling the buffer to a run file if it is over budget.
+     *
+     * @param key The record's sort key; not copied, so it must not change.
+     * @param value The record's value; not copied either.
+     * @throws IOException if a spill fails.
+     */
+    public void add(byte[] key, byte[] value) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Sorter already finished.");
+        }
+        if (count == buffer.length) {
+            buffer = Arrays.copyOf(buffer, count * 2);
+        }
+        buffer[count++] = entry(key, value);
+        buffered += RECORD_OVERHEAD + key.length + value.length;
+        if (buffered >= memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * Gets the number of sorted runs written to disk so far.
+     *
+     * @return The number of runs.
+     */
+    public int spilledRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Delivers every record in key order. May only be called once.
+     *
+     * @param sink Receives the records.
+     * @throws IOException if reading or merging runs fails, or the sink fails.
+     */
+    public void finish(RecordSink sink) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("Sorter already finished.");
+        }
+        finished = true;
+        if (runs.isEmpty()) {
+            Arrays.parallelSort(buffer, 0, count, ORDER);
+            for (int i = 0; i < count; i++) {
+                sink.accept(buffer[i].key, buffer[i].value);
+            }
+            buffer = null;
+            return;
+        }
+        if (count > 0) {
+            spill();
+        }
+        buffer = null;
+        // Merge level by level, keeping groups in run order, so that ties
+        // still go to the record added first.
+        while (runs.size() > MAX_FAN_IN) {
+            List<Path> merged = new ArrayList<>();
+            try {
+                for (int from = 0; from < runs.size(); from += MAX_FAN_IN) {
+                    List<Path> group = runs.subList(from, Math.min(from + MAX_FAN_IN, runs.size()));
+                    Path run = newRun();
+                    merged.add(run);
+                    try (RunWriter writer = new RunWriter(run, bufferSize(1))) {
+                        merge(group, writer::write);
+                    }
+                    for (Path done : group) {
+                        Files.deleteIfExists(done);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                for (Path run : merged) {
+                    Files.deleteIfExists(run);
+                }
+                throw e;
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+        merge(runs, sink);
+    }
+
+    /**
+     * Deletes any run files.
+     *
+     * @throws IOException if a file cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        Arrays.parallelSort(buffer, 0, count, ORDER);
+        Path run = newRun();
+        runs.add(run);
+        try (RunWriter writer = new RunWriter(run, bufferSize(1))) {
+            for (int i = 0; i < count; i++) {
+                writer.write(buffer[i].key, buffer[i].value);
+                buffer[i] = null;
+            }
+        }
+        count = 0;
+        buffered = 0;
+    }
+
+    // Merges runs in key order; ties go to the earlier run, which keeps the
+    // sort stable.
+    private void merge(List<Path> group, RecordSink sink) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        int size = bufferSize(group.size());
+        try {
+            PriorityQueue<RunReader> heads = new PriorityQueue<>(Math.max(1, group.size()), (a, b) -> {
+                int c = ORDER.compare(a.head, b.head);
+                return c != 0 ? c : Integer.compare(a.order, b.order);
+            });
+            for (Path run : group) {
+                RunReader reader = new RunReader(run, size, readers.size());
+                readers.add(reader);
+                if (reader.next()) {
+                    heads.add(reader);
+                }
+            }
+            while (!heads.isEmpty()) {
+                RunReader reader = heads.poll();
+                sink.accept(reader.head.key, reader.head.value);
+                if (reader.next()) {
+                    heads.add(reader);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    private int bufferSize(int streams) {
+        long share = memoryBudget / (streams + 1);
+        return (int) Math.max(MIN_BUFFER, Math.min(MAX_BUFFER, share));
+    }
+
+    private Path newRun() throws IOException {
+        return directory == null ? Files.createTempFile("sort-run", ".tmp")
+                : Files.createTempFile(directory, "sort-run", ".tmp");
+    }
+
+    private static Entry entry(byte[] key, byte[] value) {
+        long prefix = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            prefix = prefix << 8 | (i < key.length ? key[i] & 0xFF : 0);
+        }
+        return new Entry(prefix, key, value);
+    }
+
+    private static byte[] index(int i) {
+        return new byte[] {(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+    }
+
+    private static int toIndex(byte[] value) {
+        return (value[0] & 0xFF) << 24 | (value[1] & 0xFF) << 16 | (value[2] & 0xFF) << 8 | value[3] & 0xFF;
+    }
+
+    private static long freeHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    // Writes records as varint key length, varint value length, key, value.
+    private static final class RunWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer out;
+
+        RunWriter(Path path, int bufferSize) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        void write(byte[] key, byte[] value) throws IOException {
+            putVarint(key.length);
+            putVarint(value.length);
+            put(key);
+            put(value);
+        }
+
+        private void putVarint(int value) throws IOException {
+            if (out.remaining() < 5) {
+                drain();
+            }
+            while (value >= 0x80) {
+                out.put((byte) (value | 0x80));
+                value >>>= 7;
+            }
+            out.put((byte) value);
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!out.hasRemaining()) {
+                    drain();
+                }
+                int n = Math.min(out.remaining(), bytes.length - offset);
+                out.put(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        private void drain() throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final class RunReader implements Closeable {
+        final int order;
+        Entry head;
+        private final FileChannel channel;
+        private final ByteBuffer in;
+        private boolean eof;
+
+        RunReader(Path path, int bufferSize, int order) throws IOException {
+            this.order = order;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.in = ByteBuffer.allocateDirect(bufferSize);
+            in.flip();
+        }
+
+        // Reads the next record into head; false at the end of the run.
+        boolean next() throws IOException {
+            if (!in.hasRemaining() && !fill()) {
+                head = null;
+                return false;
+            }
+            byte[] key = new byte[varint()];
+            byte[] value = new byte[varint()];
+            get(key);
+            get(value);
+            head = entry(key, value);
+            return true;
+        }
+
+        private int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0;; shift += 7) {
+                if (!in.hasRemaining() && !fill()) {
+                    throw new IOException("Truncated sort run.");
+                }
+                byte b = in.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        private void get(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!in.hasRemaining() && !fill()) {
+                    throw new IOException("Truncated sort run.");
+                }
+                int n = Math.min(in.remaining(), bytes.length - offset);
+                in.get(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        private boolean fill() throws IOException {
+            if (eof) {
+                return false;
+            }
+            in.compact();
+            int n = channel.read(in);
+            in.flip();
+            if (n < 0) {
+                eof = true;
+            }
+            return in.hasRemaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
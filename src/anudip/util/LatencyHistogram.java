@@ -0,0 +1,164 @@
+package anudip.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds with bounded relative
+ * error, in the style of HdrHistogram.
+ * <p>
+ * Values below {@value #SUB_BUCKETS} fall in buckets of their own; above
+ * that each power of two is split into {@value #SUB_BUCKETS} equal buckets,
+ * so a value is known to within about 3%. Values from 2^{@value #MAX_EXPONENT}
+ * nanoseconds, about 18 minutes, up share the last bucket. Recording finds
+ * the bucket with one leading-zero count and a shift, and adds one to it in
+ * a stripe chosen by thread, so threads rarely contend and nothing is
+ * allocated. Reads sum the stripes, so a snapshot taken while threads record
+ * may be off by the few values in flight.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) << SUB_BITS;
+    private static final int MAX_STRIPES = 8;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    /**
+     * Creates an empty histogram with a stripe per core, up to {@value #MAX_STRIPES}.
+     */
+    public LatencyHistogram() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int count = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, cores * 2 - 1)));
+        this.stripes = new AtomicLongArray[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos The latency in nanoseconds; negative values count as 0.
+     */
+    public void record(long nanos) {
+        stripes[(int) Thread.currentThread().getId() & stripeMask].getAndIncrement(indexOf(nanos));
+    }
+
+    /**
+     * Takes a snapshot of the counts recorded so far.
+     *
+     * @return The snapshot.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        return new Snapshot(counts);
+    }
+
+    static int indexOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((nanos >>> shift) - SUB_BUCKETS);
+    }
+
+    // Smallest value that falls in a bucket.
+    static long lowestOf(int index) {
+        int block = index >>> SUB_BITS;
+        return block == 0 ? index : (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << (block - 1);
+    }
+
+    // Largest value that falls in a bucket.
+    static long highestOf(int index) {
+        int block = index >>> SUB_BITS;
+        return block == 0 ? index : lowestOf(index) + (1L << (block - 1)) - 1;
+    }
+
+    /**
+     * Counts of a {@link LatencyHistogram} at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long total;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long count : counts) {
+                sum += count;
+            }
+            this.total = sum;
+        }
+
+        /**
+         * Gets the number of recorded values.
+         *
+         * @return The count.
+         */
+        public long count() {
+            return total;
+        }
+
+        /**
+         * Gets the value below which a given fraction of the recorded values fall.
+         *
+         * @param fraction The fraction, from 0 to 1; 0.99 is the 99th percentile.
+         * @return The largest value in the bucket that holds that fraction, or 0 if nothing was recorded.
+         */
+        public long percentile(double fraction) {
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestOf(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Gets the largest recorded value, to within its bucket.
+         *
+         * @return The largest value in the highest non-empty bucket, or 0 if nothing was recorded.
+         */
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestOf(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Gets the mean of the recorded values, taking each at its bucket's midpoint.
+         *
+         * @return The mean, or 0 if nothing was recorded.
+         */
+        public double mean() {
+            if (total == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    sum += counts[i] * ((lowestOf(i) + highestOf(i)) / 2.0);
+                }
+            }
+            return sum / total;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package anudip.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+/**
+ * Map from a primitive {@code long} key to a value, for keys such as account
+ * numbers.
+ * <p>
+ * Keys live in an open-addressing {@code long[]} table that maps each key to
+ * a dense slot, and values are kept in a slot-ordered array, so a lookup
+ * never boxes the key and an entry costs no node object. Inserts are
+ * serialized; lookups are lock-free and may run concurrently with inserts.
+ * Entries are never removed. Key 0 is reserved as the empty marker.
+ *
+ * @param <V> The type of the values.
+ */
+public final class LongIndex<V> {
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long EMPTY = 0L;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    /** The largest number of entries an index can hold; the table is kept at most half full. */
+    public static final int MAX_ENTRIES = MAX_CAPACITY / 2;
+
+    /**
+     * One generation of the hash table. Once published, a key cell is written at most once.
+     */
+    private static final class Table {
+        final long[] keys;
+        final int[] slots;
+        final int mask;
+
+        Table(int capacity) {
+            this.keys = new long[capacity];
+            this.slots = new int[capacity];
+            this.mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table;
+    private volatile Object[] values;
+    private volatile int size;
+
+    /**
+     * Creates an empty index.
+     */
+    public LongIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates an index sized to hold the expected number of entries without resizing.
+     *
+     * @param expectedEntries The number of entries expected to be stored.
+     * @throws IllegalArgumentException If more than {@link #MAX_ENTRIES} entries are expected.
+     */
+    public LongIndex(int expectedEntries) {
+        int capacity = tableCapacityFor(Math.max(expectedEntries, MIN_CAPACITY));
+        this.table = new Table(capacity);
+        this.values = new Object[Math.max(expectedEntries, MIN_CAPACITY)];
+    }
+
+    /**
+     * Gets the value stored under a key.
+     *
+     * @param key The key to look up.
+     * @return The value, or null if the key is not present.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = slotOf(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Gets the dense slot assigned to a key. Slots are assigned in insertion
+     * order starting at 0 and never change.
+     *
+     * @param key The key to look up.
+     * @return The slot, or -1 if the key is not present.
+     */
+    public int slotOf(long key) {
+        if (key == EMPTY) {
+            return -1;
+        }
+        Table t = table;
+        int i = mix(key) & t.mask;
+        while (true) {
+            long k = (long) KEYS.getAcquire(t.keys, i);
+            if (k == key) {
+                return t.slots[i];
+            }
+            if (k == EMPTY) {
+                return -1;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Gets the value stored in a slot.
+     *
+     * @param slot A slot previously returned by {@link #slotOf(long)}.
+     * @return The value in that slot.
+     */
+    @SuppressWarnings("unchecked")
+    public V at(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("Slot " + slot + " out of range.");
+        }
+        return (V) values[slot];
+    }
+
+    /**
+     * Stores a value under a key unless one is already present.
+     *
+     * @param key The key. Must not be 0.
+     * @param value The value to store.
+     * @return The value already stored under that key, or null if the new value was stored.
+     * @throws IllegalStateException If the index already holds {@link #MAX_ENTRIES} entries.
+     */
+    public V putIfAbsent(long key, V value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key 0 is reserved.");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null.");
+        }
+        synchronized (this) {
+            return insert(key, value);
+        }
+    }
+
+    /**
+     * Gets the value stored under a key, creating and storing it if it is missing.
+     *
+     * @param key The key. Must not be 0.
+     * @param factory Creates the value when it is missing.
+     * @return The existing or newly stored value.
+     * @throws IllegalStateException If the index already holds {@link #MAX_ENTRIES} entries.
+     */
+    public V computeIfAbsent(long key, LongFunction<? extends V> factory) {
+        V existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key 0 is reserved.");
+        }
+        synchronized (this) {
+            existing = get(key);
+            if (existing != null) {
+                return existing;
+            }
+            V created = factory.apply(key);
+            insert(key, created);
+            return created;
+        }
+    }
+
+    /**
+     * Visits every value in slot order.
+     *
+     * @param action The action to run for each value.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> action) {
+        Object[] snapshot = values;
+        int count = Math.min(size, snapshot.length);
+        for (int slot = 0; slot < count; slot++) {
+            action.accept((V) snapshot[slot]);
+        }
+    }
+
+    /**
+     * Gets the number of entries in the index.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    // Caller holds the monitor. Probes once and returns the value already
+    // stored under the key, or stores the new one and returns null.
+    // Publication order matters: the value, its slot and the new size are
+    // all written before the key is released to lock-free readers, so a
+    // reader that finds the key can pass its slot to at().
+    @SuppressWarnings("unchecked")
+    private V insert(long key, V value) {
+        int slot = size;
+        Table t = table;
+        if ((slot + 1) * 2 > t.keys.length) {
+            if (t.keys.length == MAX_CAPACITY) {
+                throw new IllegalStateException("Index is full.");
+            }
+            t = rehash(t, t.keys.length * 2);
+            table = t;
+        }
+        int i = mix(key) & t.mask;
+        long k;
+        while ((k = t.keys[i]) != EMPTY) {
+            if (k == key) {
+                return (V) values[t.slots[i]];
+            }
+            i = (i + 1) & t.mask;
+        }
+
+        Object[] current = values;
+        if (slot == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+            values = current;
+        }
+        current[slot] = value;
+        t.slots[i] = slot;
+        size = slot + 1;
+        KEYS.setRelease(t.keys, i, key);
+        return null;
+    }
+
+    private static Table rehash(Table old, int capacity) {
+        Table t = new Table(capacity);
+        for (int j = 0; j < old.keys.length; j++) {
+            long key = old.keys[j];
+            if (key != EMPTY) {
+                int i = mix(key) & t.mask;
+                while (t.keys[i] != EMPTY) {
+                    i = (i + 1) & t.mask;
+                }
+                t.keys[i] = key;
+                t.slots[i] = old.slots[j];
+            }
+        }
+        return t;
+    }
+
+    private static int tableCapacityFor(int entries) {
+        if (entries > MAX_ENTRIES) {
+            throw new IllegalArgumentException("Cannot hold more than " + MAX_ENTRIES + " entries.");
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity < entries * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Spreads a key's bits, for callers that partition by key.
+     *
+     * @param key The key.
+     * @return A well-mixed hash of the key.
+     */
+    public static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
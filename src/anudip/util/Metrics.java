@@ -0,0 +1,234 @@
+package anudip.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide registry of {@link OperationMetrics}.
+ * <p>
+ * Instrumented classes register their operations once, in static fields,
+ * and record into them on every call. The registry can be read in process
+ * with {@link #all()} or written as text or JSON, once or periodically.
+ * Latencies are written in microseconds.
+ * <p>
+ * The applications start a periodic dump with {@link #dumpFromProperties()}:
+ * {@code anudip.metrics.file} names the file to append to,
+ * {@code anudip.metrics.format} is {@code text} (the default) or
+ * {@code json}, one object per line, and
+ * {@code anudip.metrics.intervalSeconds} sets the interval (default 60).
+ */
+public final class Metrics {
+    /**
+     * Output formats of {@link #write} and {@link #dumpEvery}.
+     */
+    public enum Format {
+        /** One aligned line per operation. */
+        TEXT,
+        /** One JSON object holding every operation. */
+        JSON
+    }
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+    private static final Map<String, OperationMetrics> REGISTRY = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Registers an operation whose outcomes are the constants of an enum,
+     * so that a status's ordinal can be passed to {@link OperationMetrics#record}.
+     *
+     * @param name The operation's name, such as {@code Bank.deposit}.
+     * @param outcomes The enum of outcomes.
+     * @return The operation's metrics; the existing ones if the name is already registered.
+     */
+    public static OperationMetrics register(String name, Class<? extends Enum<?>> outcomes) {
+        Enum<?>[] constants = outcomes.getEnumConstants();
+        String[] names = new String[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            names[i] = constants[i].name();
+        }
+        return register(name, names);
+    }
+
+    /**
+     * Registers an operation.
+     *
+     * @param name The operation's name, such as {@code Bank.deposit}.
+     * @param outcomes The names of the outcomes, by index.
+     * @return The operation's metrics; the existing ones if the name is already registered.
+     */
+    public static synchronized OperationMetrics register(String name, String... outcomes) {
+        return REGISTRY.computeIfAbsent(name, n -> new OperationMetrics(n, outcomes));
+    }
+
+    /**
+     * Gets every registered operation.
+     *
+     * @return The operations, in registration order.
+     */
+    public static synchronized List<OperationMetrics> all() {
+        return new ArrayList<>(REGISTRY.values());
+    }
+
+    /**
+     * Writes every registered operation that has been recorded at least once.
+     *
+     * @param out Receives the text; flushed afterwards if it is {@link Flushable}.
+     * @param format The output format.
+     * @throws IOException if writing fails.
+     */
+    public static void write(Appendable out, Format format) throws IOException {
+        StringBuilder text = new StringBuilder();
+        List<OperationMetrics> recorded = new ArrayList<>();
+        for (OperationMetrics operation : all()) {
+            if (operation.count() > 0) {
+                recorded.add(operation);
+            }
+        }
+        if (format == Format.JSON) {
+            appendJson(text, recorded);
+        } else {
+            appendText(text, recorded);
+        }
+        out.append(text);
+        if (out instanceof Flushable flushable) {
+            flushable.flush();
+        }
+    }
+
+    /**
+     * Writes the metrics at a fixed interval on a background thread.
+     *
+     * @param interval The time between dumps.
+     * @param unit The unit of the interval.
+     * @param out Receives the text.
+     * @param format The output format.
+     * @return A handle whose {@code close} stops the dumps.
+     */
+    public static Closeable dumpEvery(long interval, TimeUnit unit, Appendable out, Format format) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                write(out, format);
+            } catch (IOException e) {
+                dumper.shutdown();
+            }
+        }, interval, interval, unit);
+        return () -> {
+            dumper.shutdown();
+            try {
+                dumper.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    /**
+     * Starts the periodic dump configured by the {@code anudip.metrics.*}
+     * system properties, if {@code anudip.metrics.file} is set.
+     *
+     * @return A handle whose {@code close} stops the dumps, writes a final one and closes the file.
+     * @throws IOException if the file cannot be opened.
+     */
+    public static Closeable dumpFromProperties() throws IOException {
+        String path = System.getProperty("anudip.metrics.file");
+        if (path == null) {
+            return () -> {
+            };
+        }
+        Format format = Format.valueOf(System.getProperty("anudip.metrics.format", "text").toUpperCase(Locale.ROOT));
+        long seconds = Long.getLong("anudip.metrics.intervalSeconds", 60L);
+        Writer writer = Files.newBufferedWriter(Path.of(path), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        Closeable dumps = dumpEvery(seconds, TimeUnit.SECONDS, writer, format);
+        return () -> {
+            try (writer) {
+                dumps.close();
+                write(writer, format);
+            }
+        };
+    }
+
+    private static void appendText(StringBuilder text, List<OperationMetrics> operations) {
+        text.append(String.format("%-40s %12s", "operation", "count"));
+        for (String name : PERCENTILE_NAMES) {
+            text.append(String.format(" %10s", name + "(us)"));
+        }
+        text.append(String.format(" %10s  %s%n", "max(us)", "outcomes"));
+        for (OperationMetrics operation : operations) {
+            LatencyHistogram.Snapshot latency = operation.latency().snapshot();
+            text.append(String.format("%-40s %12d", operation.name(), operation.count()));
+            for (double percentile : PERCENTILES) {
+                text.append(String.format(" %10.2f", latency.percentile(percentile) / 1e3));
+            }
+            text.append(String.format(" %10.2f ", latency.max() / 1e3));
+            String[] outcomes = operation.outcomes();
+            for (int i = 0; i < outcomes.length; i++) {
+                long count = operation.count(i);
+                if (count > 0) {
+                    text.append(' ').append(outcomes[i]).append('=').append(count);
+                }
+            }
+            text.append(System.lineSeparator());
+        }
+    }
+
+    private static void appendJson(StringBuilder text, List<OperationMetrics> operations) {
+        text.append("{\"operations\":[");
+        for (int o = 0; o < operations.size(); o++) {
+            OperationMetrics operation = operations.get(o);
+            LatencyHistogram.Snapshot latency = operation.latency().snapshot();
+            text.append(o == 0 ? "" : ",").append("{\"name\":");
+            appendString(text, operation.name());
+            text.append(",\"count\":").append(operation.count()).append(",\"latencyMicros\":{");
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                text.append('"').append(PERCENTILE_NAMES[i]).append("\":").append(latency.percentile(PERCENTILES[i]) / 1e3)
+                        .append(',');
+            }
+            text.append("\"max\":").append(latency.max() / 1e3).append(",\"mean\":").append(latency.mean() / 1e3)
+                    .append("},\"outcomes\":{");
+            String[] outcomes = operation.outcomes();
+            for (int i = 0; i < outcomes.length; i++) {
+                text.append(i == 0 ? "" : ",");
+                appendString(text, outcomes[i]);
+                text.append(':').append(operation.count(i));
+            }
+            text.append("}}");
+        }
+        text.append("]}").append(System.lineSeparator());
+    }
+
+    private static void appendString(StringBuilder text, String value) {
+        text.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                text.append('\\').append(c);
+            } else if (c < 0x20) {
+                text.append(String.format("\\u%04x", (int) c));
+            } else {
+                text.append(c);
+            }
+        }
+        text.append('"');
+    }
+}
@@ -0,0 +1,375 @@
+package anudip.util;
+
+/**
+ * Money arithmetic on amounts held as a {@code long} count of cents, shared
+ * by both banking implementations.
+ * <p>
+ * Every value from {@code -Long.MAX_VALUE} to {@code Long.MAX_VALUE} cents is
+ * an amount and is exact: there is no binary fraction to round, so sums of
+ * deposits and withdrawals never drift the way {@code double} dollars do, and
+ * nothing is boxed the way {@link java.math.BigDecimal} is. Addition and
+ * subtraction throw {@link ArithmeticException} rather than wrap, and
+ * {@link #scale(long, long, long)} forms its product in 128 bits, so a rate
+ * applied to a large balance rounds once, half-even, instead of overflowing.
+ * <p>
+ * Parsing and formatting work on primitives, {@link CharSequence} ranges,
+ * {@link StringBuilder}s and caller-supplied byte buffers and allocate
+ * nothing, so they can sit on the console and bulk file paths. Text has an
+ * optional sign, decimal digits and at most {@value #SCALE} digits after a
+ * point: {@code 12}, {@code -0.5} and {@code 1234.56} parse, while
+ * {@code 1e3}, {@code 1,000} and {@code 0.001} do not.
+ */
+public final class Money {
+    /** Number of decimal places an amount holds. */
+    public static final int SCALE = 2;
+    /** Cents in one unit of currency. */
+    public static final long CENTS_PER_UNIT = 100;
+    /** Returned by the parse and conversion methods for text or values that are not an amount. */
+    public static final long INVALID = Long.MIN_VALUE;
+    /** The most characters or bytes {@link #format(long, byte[], int)} writes. */
+    public static final int MAX_LENGTH = 21;
+
+    private static final long DIGIT_MASK = 0xFFFF_FFFFL;
+    // Any digit can follow a value this small without overflowing.
+    private static final long SAFE_DIGITS = (Long.MAX_VALUE - 9) / 10;
+
+    private Money() {
+    }
+
+    /**
+     * Adds two amounts.
+     *
+     * @param a An amount in cents.
+     * @param b An amount in cents.
+     * @return The sum in cents.
+     * @throws ArithmeticException if the sum is not an amount.
+     */
+    public static long add(long a, long b) {
+        long sum = a + b;
+        // Overflow, or a sum of exactly INVALID.
+        if (((a ^ sum) & (b ^ sum)) < 0 || sum == INVALID) {
+            throw new ArithmeticException("Amount overflow: " + a + " + " + b);
+        }
+        return sum;
+    }
+
+    /**
+     * Subtracts one amount from another.
+     *
+     * @param a An amount in cents.
+     * @param b The amount in cents to take away.
+     * @return The difference in cents.
+     * @throws ArithmeticException if the difference is not an amount.
+     */
+    public static long subtract(long a, long b) {
+        long difference = a - b;
+        if (((a ^ b) & (a ^ difference)) < 0 || difference == INVALID) {
+            throw new ArithmeticException("Amount overflow: " + a + " - " + b);
+        }
+        return difference;
+    }
+
+    /**
+     * Multiplies an amount by a whole number, such as a count of items.
+     *
+     * @param cents An amount in cents.
+     * @param factor The multiplier.
+     * @return The product in cents.
+     * @throws ArithmeticException if the product is not an amount.
+     */
+    public static long multiply(long cents, long factor) {
+        long product = cents * factor;
+        if (Math.multiplyHigh(cents, factor) != product >> 63 || product == INVALID) {
+            throw new ArithmeticException("Amount overflow: " + cents + " * " + factor);
+        }
+        return product;
+    }
+
+    /**
+     * Multiplies an amount by a fraction and rounds to the nearest cent, ties
+     * to the even cent. The product is formed in 128 bits, so only the
+     * result, not {@code cents * numerator}, has to fit: {@code scale(b, 425, 10_000)}
+     * is 4.25% of any balance {@code b}.
+     *
+     * @param cents An amount in cents.
+     * @param numerator The numerator of the fraction.
+     * @param denominator The denominator of the fraction; must be positive.
+     * @return The rounded product in cents.
+     * @throws ArithmeticException if the denominator is not positive or the result is not an amount.
+     */
+    public static long scale(long cents, long numerator, long denominator) {
+        if (denominator <= 0) {
+            throw new ArithmeticException("Denominator must be positive: " + denominator);
+        }
+        boolean negative = (cents < 0) != (numerator < 0);
+        // Magnitudes as unsigned values; the magnitude of Long.MIN_VALUE is 2^63.
+        long x = cents < 0 ? -cents : cents;
+        long y = numerator < 0 ? -numerator : numerator;
+        long low = x * y;
+        long high = Math.multiplyHigh(x, y) + ((x >> 63) & y) + ((y >> 63) & x);
+        if (Long.compareUnsigned(high, denominator) >= 0) {
+            throw new ArithmeticException("Amount overflow: " + cents + " * " + numerator + " / " + denominator);
+        }
+        long quotient = high == 0 ? Long.divideUnsigned(low, denominator) : divide(high, low, denominator);
+        // The true remainder is below 2^63, so the product may wrap and still give it.
+        long remainder = low - quotient * denominator;
+        // remainder < denominator < 2^63, so doubling it cannot wrap.
+        int half = Long.compareUnsigned(remainder << 1, denominator);
+        if (half > 0 || half == 0 && (quotient & 1) != 0) {
+            quotient++;
+        }
+        if (quotient < 0) {
+            throw new ArithmeticException("Amount overflow: " + cents + " * " + numerator + " / " + denominator);
+        }
+        return negative ? -quotient : quotient;
+    }
+
+    // Divides the 128-bit value high:low by a divisor above high, by long
+    // division in base 2^32 (Knuth's algorithm D, as laid out in Hacker's
+    // Delight): the divisor is shifted until its top bit is set, so each
+    // estimated quotient digit is at most two too large.
+    private static long divide(long high, long low, long divisor) {
+        // divisor is positive, so the shift is at least 1.
+        int shift = Long.numberOfLeadingZeros(divisor);
+        long d = divisor << shift;
+        long top = high << shift | low >>> (64 - shift);
+        long bottom = low << shift;
+        long d1 = d >>> 32;
+        long d0 = d & DIGIT_MASK;
+        long n1 = bottom >>> 32;
+        long n0 = bottom & DIGIT_MASK;
+
+        long q1 = Long.divideUnsigned(top, d1);
+        long r = top - q1 * d1;
+        while (q1 > DIGIT_MASK || Long.compareUnsigned(q1 * d0, r << 32 | n1) > 0) {
+            q1--;
+            r += d1;
+            if (r > DIGIT_MASK) {
+                break;
+            }
+        }
+        long middle = (top << 32 | n1) - q1 * d;
+
+        long q0 = Long.divideUnsigned(middle, d1);
+        r = middle - q0 * d1;
+        while (q0 > DIGIT_MASK || Long.compareUnsigned(q0 * d0, r << 32 | n0) > 0) {
+            q0--;
+            r += d1;
+            if (r > DIGIT_MASK) {
+                break;
+            }
+        }
+        return q1 << 32 | q0;
+    }
+
+    /**
+     * Converts a {@code double} number of currency units, rounding to the
+     * nearest cent. For reading values stored as doubles; text should go
+     * through {@link #parse(CharSequence)}, which never rounds.
+     *
+     * @param amount The amount in currency units.
+     * @return The amount in cents, or {@link #INVALID} if it is not finite or out of range.
+     */
+    public static long fromDouble(double amount) {
+        double cents = amount * CENTS_PER_UNIT;
+        // Long.MAX_VALUE as a double is 2^63, which is already out of range.
+        if (!(Math.abs(cents) < 0x1p63)) {
+            return INVALID;
+        }
+        return Math.round(cents);
+    }
+
+    /**
+     * Converts an amount to the nearest {@code double} number of currency
+     * units, for display or for interfaces that still take doubles.
+     *
+     * @param cents An amount in cents.
+     * @return The amount in currency units.
+     */
+    public static double toDouble(long cents) {
+        return cents / (double) CENTS_PER_UNIT;
+    }
+
+    /**
+     * Parses an amount.
+     *
+     * @param text The text; surrounding whitespace is ignored. May be null.
+     * @return The amount in cents, or {@link #INVALID} if the text is not an amount.
+     */
+    public static long parse(CharSequence text) {
+        return text == null ? INVALID : parse(text, 0, text.length());
+    }
+
+    /**
+     * Parses an amount from part of a line, without copying it.
+     *
+     * @param text The text holding the amount.
+     * @param from The index of the first character.
+     * @param to The index after the last character.
+     * @return The amount in cents, or {@link #INVALID} if the range, ignoring
+     *         surrounding whitespace, is not an amount.
+     */
+    public static long parse(CharSequence text, int from, int to) {
+        while (from < to && Character.isWhitespace(text.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(text.charAt(to - 1))) {
+            to--;
+        }
+        if (from == to) {
+            return INVALID;
+        }
+        char first = text.charAt(from);
+        boolean negative = first == '-';
+        if (negative || first == '+') {
+            from++;
+        }
+        long cents = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '.' && fraction < 0) {
+                fraction = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9 || fraction == SCALE || cents > SAFE_DIGITS && overflows(cents, digit)) {
+                return INVALID;
+            }
+            cents = cents * 10 + digit;
+            digits++;
+            if (fraction >= 0) {
+                fraction++;
+            }
+        }
+        return finish(cents, digits, fraction, negative);
+    }
+
+    /**
+     * Parses an amount from ASCII bytes, such as a field of a file read into
+     * a buffer. Unlike the text forms, whitespace is not skipped.
+     *
+     * @param bytes The buffer.
+     * @param offset The index of the first byte.
+     * @param length The number of bytes.
+     * @return The amount in cents, or {@link #INVALID} if the bytes are not an amount.
+     */
+    public static long parse(byte[] bytes, int offset, int length) {
+        int from = offset;
+        int to = offset + length;
+        if (from == to) {
+            return INVALID;
+        }
+        boolean negative = bytes[from] == '-';
+        if (negative || bytes[from] == '+') {
+            from++;
+        }
+        long cents = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b == '.' && fraction < 0) {
+                fraction = 0;
+                continue;
+            }
+            int digit = b - '0';
+            if (digit < 0 || digit > 9 || fraction == SCALE || cents > SAFE_DIGITS && overflows(cents, digit)) {
+                return INVALID;
+            }
+            cents = cents * 10 + digit;
+            digits++;
+            if (fraction >= 0) {
+                fraction++;
+            }
+        }
+        return finish(cents, digits, fraction, negative);
+    }
+
+    // Whether cents * 10 + digit is past Long.MAX_VALUE; only called past
+    // SAFE_DIGITS, so the common case costs no division.
+    private static boolean overflows(long cents, int digit) {
+        return cents > (Long.MAX_VALUE - digit) / 10;
+    }
+
+    // Pads the digits read to SCALE decimal places.
+    private static long finish(long cents, int digits, int fraction, boolean negative) {
+        if (digits == 0) {
+            return INVALID;
+        }
+        for (int i = Math.max(fraction, 0); i < SCALE; i++) {
+            if (cents > Long.MAX_VALUE / 10) {
+                return INVALID;
+            }
+            cents *= 10;
+        }
+        return negative ? -cents : cents;
+    }
+
+    /**
+     * Appends an amount as {@code [-]units.cc}, such as {@code 1234.50}.
+     *
+     * @param out The builder to append to.
+     * @param cents An amount in cents.
+     * @return The builder.
+     */
+    public static StringBuilder appendTo(StringBuilder out, long cents) {
+        if (cents < 0) {
+            out.append('-');
+        }
+        // Negated remainders keep Long.MIN_VALUE from overflowing.
+        long units = cents / CENTS_PER_UNIT;
+        int fraction = (int) (cents % CENTS_PER_UNIT);
+        if (cents < 0) {
+            units = -units;
+            fraction = -fraction;
+        }
+        return out.append(units).append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+
+    /**
+     * Writes an amount as the ASCII bytes of {@code [-]units.cc}.
+     *
+     * @param cents An amount in cents.
+     * @param bytes The buffer; at most {@value #MAX_LENGTH} bytes are written.
+     * @param offset Where the first byte goes.
+     * @return The index after the last byte.
+     */
+    public static int format(long cents, byte[] bytes, int offset) {
+        int at = offset;
+        if (cents < 0) {
+            bytes[at++] = '-';
+        }
+        long units = cents / CENTS_PER_UNIT;
+        int fraction = (int) (cents % CENTS_PER_UNIT);
+        if (cents < 0) {
+            units = -units;
+            fraction = -fraction;
+        }
+        int length = 1;
+        for (long rest = units / 10; rest != 0; rest /= 10) {
+            length++;
+        }
+        int end = at + length;
+        for (int i = end - 1; i >= at; i--) {
+            bytes[i] = (byte) ('0' + units % 10);
+            units /= 10;
+        }
+        bytes[end] = '.';
+        bytes[end + 1] = (byte) ('0' + fraction / 10);
+        bytes[end + 2] = (byte) ('0' + fraction % 10);
+        return end + 3;
+    }
+
+    /**
+     * Formats an amount as text. {@link #appendTo(StringBuilder, long)} gives
+     * the same characters without a String.
+     *
+     * @param cents An amount in cents.
+     * @return The amount as {@code [-]units.cc}.
+     */
+    public static String toString(long cents) {
+        return appendTo(new StringBuilder(MAX_LENGTH), cents).toString();
+    }
+}
@@ -0,0 +1,109 @@
+package anudip.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram and outcome counters of one operation.
+ * <p>
+ * Take {@link #start()} before the operation and pass it to
+ * {@link #record(long, int)} with the ordinal of the outcome afterwards.
+ * Every operation adds one to its outcome's {@link LongAdder}, so counts are
+ * exact. Reading the clock costs more than the fastest operations
+ * themselves, so only a random one in {@code anudip.metrics.sampleEvery}
+ * (a power of two, default 16; 1 times every operation) is timed into the
+ * {@link LatencyHistogram}, which keeps the percentiles unbiased. Nothing on
+ * this path locks or allocates. Instances are created with
+ * {@link Metrics#register}.
+ */
+public final class OperationMetrics {
+    private static final int SAMPLE_MASK = Integer.highestOneBit(
+            Math.max(1, Integer.getInteger("anudip.metrics.sampleEvery", 16))) - 1;
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private final String name;
+    private final String[] outcomes;
+    private final LongAdder[] counts;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    OperationMetrics(String name, String[] outcomes) {
+        this.name = name;
+        this.outcomes = outcomes.clone();
+        this.counts = new LongAdder[outcomes.length];
+        for (int i = 0; i < outcomes.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Marks the start of an operation, reading the clock if it is sampled.
+     *
+     * @return The value to pass to {@link #record(long, int)}.
+     */
+    public long start() {
+        return (ThreadLocalRandom.current().nextInt() & SAMPLE_MASK) == 0 ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records a finished operation.
+     *
+     * @param start The value {@link #start()} returned before the operation.
+     * @param outcome The index of the outcome, such as the ordinal of a status enum.
+     */
+    public void record(long start, int outcome) {
+        counts[outcome].increment();
+        if (start != NOT_TIMED) {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Gets the operation's name.
+     *
+     * @return The name.
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Gets the names of the outcomes, by index.
+     *
+     * @return A copy of the outcome names.
+     */
+    public String[] outcomes() {
+        return outcomes.clone();
+    }
+
+    /**
+     * Gets how often an outcome was recorded.
+     *
+     * @param outcome The index of the outcome.
+     * @return The count.
+     */
+    public long count(int outcome) {
+        return counts[outcome].sum();
+    }
+
+    /**
+     * Gets how many operations were recorded.
+     *
+     * @return The count over all outcomes.
+     */
+    public long count() {
+        long total = 0;
+        for (LongAdder count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Gets the latency histogram.
+     *
+     * @return The histogram of the sampled operations, in nanoseconds.
+     */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+}
@@ -0,0 +1,343 @@
+package anudip.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads fields from a range of bytes without a String per line.
+ * <p>
+ * CSV rows end at {@code \n} or {@code \r\n} and hold fields separated by
+ * commas. A field that starts with a quote runs to the next lone quote, may
+ * hold commas and line breaks, and writes a quote as {@code ""}, as in
+ * RFC 4180. Binary records are a varint length followed by that many bytes
+ * of big-endian ints and of strings, each a varint length and UTF-8 bytes.
+ * Only the fields a caller turns into Strings allocate, and a cursor can be
+ * reused for every chunk a parser sees.
+ * <p>
+ * {@link #CSV_ROWS} and {@link #BINARY_RECORDS} find the record boundaries
+ * of the two formats for a {@link RecordPipeline}, and {@link RecordWriter}
+ * writes them.
+ */
+public final class RecordCursor {
+    /** Returned by {@link #intValue()} for a field that is not an int. */
+    public static final long NOT_AN_INT = Long.MIN_VALUE;
+
+    /** Finds the end of the last complete CSV row, honouring quoted line breaks. */
+    public static final RecordPipeline.Splitter CSV_ROWS = (bytes, from, to) -> {
+        int last = from;
+        boolean fieldStart = true;
+        boolean quoted = false;
+        boolean closed = false;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (quoted) {
+                if (b == '"') {
+                    quoted = false;
+                    closed = true;
+                }
+                continue;
+            }
+            if (b == '"' && (fieldStart || closed)) {
+                // An opening quote, or the second half of an escaped one.
+                quoted = true;
+                fieldStart = false;
+                closed = false;
+                continue;
+            }
+            closed = false;
+            fieldStart = b == ',' || b == '\n';
+            if (b == '\n') {
+                last = i + 1;
+            }
+        }
+        return last;
+    };
+
+    /** Finds the end of the last complete binary record. */
+    public static final RecordPipeline.Splitter BINARY_RECORDS = (bytes, from, to) -> {
+        int last = from;
+        while (true) {
+            int length = 0;
+            int i = last;
+            for (int shift = 0;; shift += 7) {
+                if (i == to || shift > 28) {
+                    return last;
+                }
+                byte b = bytes[i++];
+                length |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            if (length < 0 || length > to - i) {
+                return last;
+            }
+            last = i + length;
+        }
+    };
+
+    private byte[] bytes;
+    private int position;
+    private int end;
+    private boolean rowOpen;
+    // The current CSV field; in scratch if it had escaped quotes.
+    private byte[] field;
+    private int fieldStart;
+    private int fieldEnd;
+    private byte[] scratch = new byte[64];
+    private int recordEnd;
+    private boolean malformed;
+
+    /**
+     * Points the cursor at a range of bytes.
+     *
+     * @param bytes The buffer.
+     * @param from The start of the first record.
+     * @param to The end of the range.
+     */
+    public void reset(byte[] bytes, int from, int to) {
+        this.bytes = bytes;
+        this.position = from;
+        this.end = to;
+        this.rowOpen = false;
+        this.recordEnd = from;
+    }
+
+    /**
+     * Moves to the start of the next CSV row, skipping what is left of the current one.
+     *
+     * @return false if there are no more rows.
+     */
+    public boolean nextRow() {
+        while (nextField()) {
+            // Skip the rest of the row.
+        }
+        rowOpen = position < end;
+        return rowOpen;
+    }
+
+    /**
+     * Reads the next field of the current CSV row.
+     *
+     * @return false if the row has no more fields.
+     */
+    public boolean nextField() {
+        if (!rowOpen) {
+            return false;
+        }
+        int i = position;
+        if (i < end && bytes[i] == '"') {
+            field = bytes;
+            fieldStart = i + 1;
+            boolean escaped = false;
+            for (i++; i < end; i++) {
+                if (bytes[i] == '"') {
+                    if (i + 1 < end && bytes[i + 1] == '"') {
+                        escaped = true;
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            fieldEnd = Math.min(i, end);
+            if (escaped) {
+                unescape();
+            }
+            // Anything between the closing quote and the separator is dropped.
+            while (i < end && bytes[i] != ',' && bytes[i] != '\n') {
+                i++;
+            }
+        } else {
+            field = bytes;
+            fieldStart = i;
+            while (i < end && bytes[i] != ',' && bytes[i] != '\n') {
+                i++;
+            }
+            fieldEnd = i > fieldStart && bytes[i - 1] == '\r' && (i == end || bytes[i] == '\n') ? i - 1 : i;
+        }
+        if (i < end && bytes[i] == ',') {
+            position = i + 1;
+        } else {
+            position = Math.min(i + 1, end);
+            rowOpen = false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the current CSV field is empty or only whitespace.
+     *
+     * @return true if the field is blank.
+     */
+    public boolean isBlank() {
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            if (field[i] != ' ' && field[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the current CSV field.
+     *
+     * @return The field as text.
+     */
+    public String string() {
+        return new String(field, fieldStart, fieldEnd - fieldStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses the current CSV field as a decimal int, ignoring surrounding spaces.
+     *
+     * @return The value, or {@link #NOT_AN_INT} if the field is not an int.
+     */
+    public long intValue() {
+        int from = fieldStart;
+        int to = fieldEnd;
+        while (from < to && field[from] == ' ') {
+            from++;
+        }
+        while (to > from && field[to - 1] == ' ') {
+            to--;
+        }
+        boolean negative = from < to && field[from] == '-';
+        if (negative || from < to && field[from] == '+') {
+            from++;
+        }
+        if (from == to || to - from > 10) {
+            return NOT_AN_INT;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = field[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_AN_INT;
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? NOT_AN_INT : value;
+    }
+
+    /**
+     * Moves to the next binary record, skipping what is left of the current one.
+     *
+     * @return false if there are no more records.
+     */
+    public boolean nextRecord() {
+        position = Math.max(position, recordEnd);
+        malformed = false;
+        if (position >= end) {
+            return false;
+        }
+        recordEnd = end;
+        int length = readVarint();
+        if (malformed || length > end - position) {
+            // A truncated last record: the reads below report it as malformed.
+            malformed = true;
+            return true;
+        }
+        recordEnd = position + length;
+        return true;
+    }
+
+    /**
+     * Reads a big-endian int from the current binary record.
+     *
+     * @return The value, or 0 if the record is too short.
+     */
+    public int readInt() {
+        if (recordEnd - position < 4) {
+            malformed = true;
+            position = recordEnd;
+            return 0;
+        }
+        int value = (bytes[position] & 0xff) << 24 | (bytes[position + 1] & 0xff) << 16
+                | (bytes[position + 2] & 0xff) << 8 | bytes[position + 3] & 0xff;
+        position += 4;
+        return value;
+    }
+
+    /**
+     * Reads an unsigned varint from the current binary record.
+     *
+     * @return The value, or 0 if the record is too short or the varint is too long.
+     */
+    public int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            if (position >= recordEnd) {
+                break;
+            }
+            byte b = bytes[position++];
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                if (value >= 0) {
+                    return value;
+                }
+                break;
+            }
+        }
+        malformed = true;
+        position = recordEnd;
+        return 0;
+    }
+
+    /**
+     * Reads a string, a varint length and UTF-8 bytes, from the current binary record.
+     *
+     * @return The string, or null if the record is too short.
+     */
+    public String readString() {
+        int length = readVarint();
+        if (malformed || length > recordEnd - position) {
+            malformed = true;
+            position = recordEnd;
+            return null;
+        }
+        String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Reads the rest of the current binary record as UTF-8 text.
+     *
+     * @return The text.
+     */
+    public String readText() {
+        String value = new String(bytes, position, recordEnd - position, StandardCharsets.UTF_8);
+        position = recordEnd;
+        return value;
+    }
+
+    /**
+     * Checks whether the current binary record has been read exactly: no
+     * read ran past its end and no bytes are left over.
+     *
+     * @return true if the record was well formed.
+     */
+    public boolean recordComplete() {
+        return !malformed && position == recordEnd;
+    }
+
+    // Copies the quoted field into scratch with each "" turned into ".
+    private void unescape() {
+        int length = fieldEnd - fieldStart;
+        if (scratch.length < length) {
+            scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+        }
+        int out = 0;
+        for (int i = fieldStart; i < fieldEnd; i++) {
+            scratch[out++] = bytes[i];
+            if (bytes[i] == '"') {
+                i++;
+            }
+        }
+        field = scratch;
+        fieldStart = 0;
+        fieldEnd = out;
+    }
+}
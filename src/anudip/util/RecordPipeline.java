@@ -0,0 +1,309 @@
+package anudip.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Loads a file of records in three overlapping stages.
+ * <p>
+ * A reader thread fills chunks of about {@value #CHUNK} bytes from a
+ * channel, each ending on a record boundary found by a {@link Splitter};
+ * parser tasks on the common fork-join pool turn chunks into batches in
+ * parallel; and the calling thread hands the batches to a {@link Loader} in
+ * file order. A bounded queue of chunks in flight keeps the reader from
+ * running ahead of the loader, so memory use does not depend on the size of
+ * the file. The caller's data structures are only touched by the loader, on
+ * the calling thread, so they need not be thread-safe.
+ */
+public final class RecordPipeline {
+    /** Target size of a chunk, in bytes. A longer record gets a chunk of its own. */
+    public static final int CHUNK = 1 << 20;
+
+    /**
+     * Finds record boundaries.
+     */
+    @FunctionalInterface
+    public interface Splitter {
+        /**
+         * Finds where the last complete record in a range ends.
+         *
+         * @param bytes The buffer.
+         * @param from The start of the first record in the range.
+         * @param to The end of the range.
+         * @return The index after the last complete record, or {@code from} if no record is complete.
+         */
+        int lastRecordEnd(byte[] bytes, int from, int to);
+    }
+
+    /**
+     * Turns a chunk of whole records into a batch. Runs concurrently with
+     * other parsers, so it must only use state of its own.
+     *
+     * @param <T> The type of batch.
+     */
+    @FunctionalInterface
+    public interface Parser<T> {
+        /**
+         * Parses the records in a range. The range ends on a record boundary,
+         * except at the end of a file whose last record is incomplete.
+         *
+         * @param bytes The buffer, which no other parser uses.
+         * @param from The start of the first record.
+         * @param to The end of the last record.
+         * @return The batch.
+         */
+        T parse(byte[] bytes, int from, int to);
+    }
+
+    /**
+     * Loads batches, in file order, on the thread that started the pipeline.
+     *
+     * @param <T> The type of batch.
+     */
+    @FunctionalInterface
+    public interface Loader<T> {
+        /**
+         * Loads one batch and counts its rows in the report.
+         *
+         * @param batch The batch.
+         * @param report Receives the number of rows loaded and rejected.
+         */
+        void load(T batch, Report report);
+    }
+
+    /**
+     * Receives progress after every batch.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        /** Discards progress. */
+        Progress NONE = (report, totalBytes) -> {
+        };
+
+        /**
+         * Reports progress.
+         *
+         * @param report The rows and bytes processed so far.
+         * @param totalBytes The number of bytes to process in all.
+         */
+        void update(Report report, long totalBytes);
+
+        /**
+         * Creates a progress that rewrites one console line with the rows
+         * processed and the share of the file done.
+         *
+         * @param out The console.
+         * @return The progress.
+         */
+        static Progress printTo(PrintStream out) {
+            return (report, totalBytes) -> out.printf("\r%,d rows, %d%% done", report.rows(),
+                    totalBytes == 0 ? 100 : report.bytes() * 100 / totalBytes);
+        }
+    }
+
+    /**
+     * Totals for one file.
+     */
+    public static final class Report {
+        private long rows;
+        private long loaded;
+        private long bytes;
+
+        /**
+         * Counts rows that were loaded.
+         *
+         * @param count The number of rows.
+         */
+        public void loaded(int count) {
+            rows += count;
+            loaded += count;
+        }
+
+        /**
+         * Counts rows that were malformed or refused.
+         *
+         * @param count The number of rows.
+         */
+        public void rejected(int count) {
+            rows += count;
+        }
+
+        /**
+         * Gets the number of rows processed.
+         *
+         * @return The number of rows.
+         */
+        public long rows() {
+            return rows;
+        }
+
+        /**
+         * Gets the number of rows loaded.
+         *
+         * @return The number of rows.
+         */
+        public long loaded() {
+            return loaded;
+        }
+
+        /**
+         * Gets the number of rows that were malformed or refused.
+         *
+         * @return The number of rows.
+         */
+        public long rejected() {
+            return rows - loaded;
+        }
+
+        /**
+         * Gets the number of bytes processed.
+         *
+         * @return The number of bytes.
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Processed " + rows + " rows: " + loaded + " loaded, " + rejected() + " rejected.";
+        }
+    }
+
+    // A parsed or parsing chunk, and the file offset where it ends.
+    private record Chunk<T>(CompletableFuture<T> batch, long end) {
+    }
+
+    private static final Chunk<Object> END = new Chunk<>(null, -1);
+
+    private RecordPipeline() {
+    }
+
+    /**
+     * Loads every record from the channel's position to its end.
+     *
+     * @param <T> The type of batch.
+     * @param channel The file, positioned at the first record.
+     * @param splitter Finds record boundaries.
+     * @param parser Turns chunks into batches.
+     * @param loader Loads the batches, on the calling thread.
+     * @param progress Receives progress after every batch.
+     * @return The totals.
+     * @throws IOException if the file cannot be read.
+     */
+    public static <T> Report run(FileChannel channel, Splitter splitter, Parser<T> parser, Loader<T> loader,
+            Progress progress) throws IOException {
+        long start = channel.position();
+        long totalBytes = channel.size() - start;
+        int inFlight = 2 * ForkJoinPool.getCommonPoolParallelism() + 2;
+        BlockingQueue<Chunk<?>> chunks = new ArrayBlockingQueue<>(inFlight);
+        Thread reader = new Thread(() -> read(channel, splitter, parser, chunks), "record-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        Report report = new Report();
+        try {
+            while (true) {
+                Chunk<?> chunk = chunks.take();
+                if (chunk == END) {
+                    break;
+                }
+                @SuppressWarnings("unchecked")
+                T batch = (T) chunk.batch().join();
+                loader.load(batch, report);
+                report.bytes = chunk.end() - start;
+                progress.update(report, totalBytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading records.");
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw e;
+        } finally {
+            reader.interrupt();
+        }
+        return report;
+    }
+
+    /**
+     * Reads the header of a binary file, a magic number and a version as
+     * big-endian ints, and leaves the channel at the first record.
+     *
+     * @param channel The file, positioned at its start.
+     * @param magic The magic number the file must start with.
+     * @param version The version the file must have.
+     * @throws IOException if the file cannot be read or has another header.
+     */
+    public static void readHeader(FileChannel channel, int magic, int version) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+            // Keep reading until the header is complete or the file ends.
+        }
+        if (header.hasRemaining() || header.getInt(0) != magic) {
+            throw new IOException("Not a file of the expected type.");
+        }
+        if (header.getInt(4) != version) {
+            throw new IOException("Unsupported file version " + header.getInt(4) + ".");
+        }
+    }
+
+    // Reader thread: cuts the file into chunks and starts a parser on each.
+    // A read error is passed on as a failed chunk.
+    private static <T> void read(FileChannel channel, Splitter splitter, Parser<T> parser,
+            BlockingQueue<Chunk<?>> chunks) {
+        try {
+            byte[] buffer = new byte[CHUNK];
+            int filled = 0;
+            long offset = channel.position();
+            boolean eof = false;
+            while (!eof || filled > 0) {
+                int read = eof ? -1 : channel.read(ByteBuffer.wrap(buffer, filled, buffer.length - filled));
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    filled += read;
+                }
+                int end = eof ? filled : splitter.lastRecordEnd(buffer, 0, filled);
+                if (end == 0) {
+                    if (filled == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    }
+                    continue;
+                }
+                byte[] next = new byte[Math.max(CHUNK, filled - end)];
+                System.arraycopy(buffer, end, next, 0, filled - end);
+                byte[] full = buffer;
+                offset += end;
+                chunks.put(new Chunk<>(CompletableFuture.supplyAsync(() -> parser.parse(full, 0, end),
+                        ForkJoinPool.commonPool()), offset));
+                buffer = next;
+                filled -= end;
+            }
+            chunks.put(END);
+        } catch (IOException e) {
+            try {
+                chunks.put(new Chunk<>(CompletableFuture.failedFuture(new UncheckedIOException(e)), -1));
+            } catch (InterruptedException stopped) {
+                // The loader stopped early.
+            }
+        } catch (InterruptedException e) {
+            // The loader stopped early.
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package anudip.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes records through a buffered file channel, in the formats that
+ * {@link RecordCursor} reads: CSV fields, quoted only when they need it, and
+ * binary records of big-endian ints, varints and length-prefixed UTF-8
+ * strings. Text is encoded straight into the buffer, so writing a field
+ * allocates nothing. Not thread-safe.
+ */
+public final class RecordWriter implements Closeable {
+    private static final int BUFFER = 1 << 20;
+
+    private final FileChannel channel;
+    private final byte[] buffer = new byte[BUFFER];
+    private int used;
+    private long flushed;
+
+    /**
+     * Creates a file, replacing any file of that name.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file cannot be created.
+     */
+    public RecordWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Writes one byte.
+     *
+     * @param value The byte.
+     * @return This writer.
+     * @throws IOException if writing fails.
+     */
+    public RecordWriter writeByte(int value) throws IOException {
+        ensure(1);
+        buffer[used++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Writes a big-endian int.
+     *
+     * @param value The value.
+     * @return This writer.
+     * @throws IOException if writing fails.
+     */
+    public RecordWriter writeInt(int value) throws IOException {
+        ensure(4);
+        buffer[used] = (byte) (value >>> 24);
+        buffer[used + 1] = (byte) (value >>> 16);
+        buffer[used + 2] = (byte) (value >>> 8);
+        buffer[used + 3] = (byte) value;
+        used += 4;
+        return this;
+    }
+
+    /**
+     * Writes an unsigned varint: seven bits per byte, low bits first.
+     *
+     * @param value The value. Must not be negative.
+     * @return This writer.
+     * @throws IOException if writing fails.
+     */
+    public RecordWriter writeVarint(int value) throws IOException {
+        ensure(5);
+        while ((value & ~0x7f) != 0) {
+            buffer[used++] = (byte) (value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        buffer[used++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * Writes a number in decimal.
+     *
+     * @param value The value.
+     * @return This writer.
+     * @throws IOException if writing fails.
+     */
+    public RecordWriter writeDecimal(long value) throws IOException {
+        ensure(20);
+        if (value < 0) {
+            buffer[used++] = '-';
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        long rest = value;
+        for (int i = used + digits - 1; i >= used; i--) {
+            buffer[i] = (byte) ('0' + Math.abs(rest % 10));
+            rest /= 10;
+        }
+        used += digits;
+        return this;
+    }
+
+    /**
+     * Writes text as UTF-8, with nothing around it.
+     *
+     * @param text The text.
+     * @return This writer.
+     * @throws IOException if writing fails.
+     */
+    public RecordWriter writeUtf8(CharSequence text) throws IOException {
+        return encode(text, 0, text.length());
+    }
+
+    private RecordWriter encode(CharSequence text, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            if (used + 4 > buffer.length) {
+                flush();
+            }
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[used++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[used++] = (byte) (0xc0 | c >> 6);
+                buffer[used++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, text.charAt(++i));
+                buffer[used++] = (byte) (0xf0 | code >> 18);
+                buffer[used++] = (byte) (0x80 | code >> 12 & 0x3f);
+                buffer[used++] = (byte) (0x80 | code >> 6 & 0x3f);
+                buffer[used++] = (byte) (0x80 | code & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                buffer[used++] = '?';
+            } else {
+                buffer[used++] = (byte) (0xe0 | c >> 12);
+                buffer[used++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[used++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes a string as a varint byte length and UTF-8 bytes.
+     *
+     * @param text The text.
+     * @return This writer.
+     * @throws IOException if writing fails.
+     */
+    public RecordWriter writeString(CharSequence text) throws IOException {
+        return writeVarint(utf8Length(text)).writeUtf8(text);
+    }
+
+    /**
+     * Writes a CSV field, quoted if it holds a comma, a quote or a line break.
+     *
+     * @param text The field.
+     * @return This writer.
+     * @throws IOException if writing fails.
+     */
+    public RecordWriter writeCsvField(CharSequence text) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return writeUtf8(text);
+        }
+        writeByte('"');
+        int from = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                encode(text, from, i + 1).writeByte('"');
+                from = i + 1;
+            }
+        }
+        return encode(text, from, text.length()).writeByte('"');
+    }
+
+    /**
+     * Gets the number of bytes written so far.
+     *
+     * @return The number of bytes.
+     */
+    public long size() {
+        return flushed + used;
+    }
+
+    /**
+     * Writes out the buffer and closes the file.
+     *
+     * @throws IOException if writing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            flush();
+        }
+    }
+
+    /**
+     * Gets the number of bytes {@link #writeUtf8} writes for some text.
+     *
+     * @param text The text.
+     * @return The number of bytes.
+     */
+    public static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Gets the number of bytes {@link #writeVarint} writes for a value.
+     *
+     * @param value The value. Must not be negative.
+     * @return The number of bytes, 1 to 5.
+     */
+    public static int varintSize(int value) {
+        return (31 - Integer.numberOfLeadingZeros(value | 1)) / 7 + 1;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (used + bytes > buffer.length) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        ByteBuffer pending = ByteBuffer.wrap(buffer, 0, used);
+        while (pending.hasRemaining()) {
+            channel.write(pending);
+        }
+        flushed += used;
+        used = 0;
+    }
+}
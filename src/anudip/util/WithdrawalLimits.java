@@ -0,0 +1,296 @@
+package anudip.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Per-account withdrawal limits, shared by both banking implementations:
+ * caps on the amount withdrawn per period, such as a daily limit, and on
+ * the number of withdrawals per period, such as a velocity rule of five a
+ * minute.
+ * <p>
+ * Each {@link Rule} is a token bucket that holds a period's worth of its
+ * limit and refills continuously over the period, kept in the form of the
+ * generic cell rate algorithm: one {@code long} per account, the time at
+ * which the account's bucket will be full again. A withdrawal moves that
+ * time forward by its cost and is allowed if it stays within one period of
+ * now. Updates are a single compare-and-set, so no lock is taken and
+ * withdrawals from different accounts never touch the same word.
+ * <p>
+ * Accounts are addressed by the dense slot their store assigns, such as
+ * {@link LongIndex#slotOf(long)}. The times of all rules for one account sit
+ * next to each other in pages of primitive arrays, so a check costs one
+ * cache miss and no per-account object, and pages are allocated as slots
+ * are first used: 8 bytes per rule per account.
+ * <p>
+ * Withdrawals read the time from a clock that a daemon thread, started with
+ * the first limits, advances every millisecond. Reading
+ * {@link System#nanoTime()} on every withdrawal would cost more than the rest
+ * of the check on machines where it waits for earlier loads to finish. A
+ * clock up to a tick behind can only undercount the refill, so a rule that
+ * refuses a withdrawal is checked again against the exact time.
+ */
+public final class WithdrawalLimits {
+    private static final VarHandle TIMES = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle PAGES = MethodHandles.arrayElementVarHandle(long[][].class);
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long ORIGIN = System.nanoTime();
+
+    // Nanoseconds since ORIGIN as of the last tick.
+    private static volatile long clock;
+    private static Thread ticker;
+
+    /**
+     * One limit: at most a number of cents, or a number of withdrawals, in any period.
+     */
+    public static final class Rule {
+        private final boolean amount;
+        private final long limit;
+        private final long period;
+        private final TimeUnit unit;
+        private final long periodNanos;
+        // Nanoseconds one withdrawal uses up, for count rules.
+        private final long interval;
+
+        private Rule(boolean amount, long limit, long period, TimeUnit unit) {
+            if (limit <= 0 || period <= 0) {
+                throw new IllegalArgumentException("Limit and period must be positive.");
+            }
+            this.amount = amount;
+            this.limit = limit;
+            this.period = period;
+            this.unit = unit;
+            this.periodNanos = unit.toNanos(period);
+            this.interval = periodNanos / limit;
+            if (!amount && interval == 0) {
+                throw new IllegalArgumentException("More than one withdrawal per nanosecond: " + this);
+            }
+        }
+
+        /**
+         * Limits the total withdrawn per period.
+         *
+         * @param limitCents The most that may be withdrawn in one period, in cents.
+         * @param period The length of the period.
+         * @param unit The unit of the period.
+         * @return The rule.
+         * @throws IllegalArgumentException if the limit or period is not positive.
+         */
+        public static Rule amount(long limitCents, long period, TimeUnit unit) {
+            return new Rule(true, limitCents, period, unit);
+        }
+
+        /**
+         * Limits the number of withdrawals per period.
+         *
+         * @param limit The most withdrawals allowed in one period.
+         * @param period The length of the period.
+         * @param unit The unit of the period.
+         * @return The rule.
+         * @throws IllegalArgumentException if the limit or period is not positive, or the
+         *         limit is more than one withdrawal per nanosecond.
+         */
+        public static Rule count(long limit, long period, TimeUnit unit) {
+            return new Rule(false, limit, period, unit);
+        }
+
+        // Nanoseconds of the period that a withdrawal uses up; the caller
+        // has checked that cents does not exceed an amount rule's limit.
+        long cost(long cents) {
+            return amount ? Money.scale(cents, periodNanos, limit) : interval;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            if (amount) {
+                Money.appendTo(text.append('$'), limit);
+            } else {
+                text.append(limit).append(limit == 1 ? " withdrawal" : " withdrawals");
+            }
+            String units = unit.name().toLowerCase(Locale.ROOT);
+            text.append(" per ");
+            if (period == 1) {
+                text.append(units, 0, units.length() - 1);
+            } else {
+                text.append(period).append(' ').append(units);
+            }
+            return text.toString();
+        }
+    }
+
+    private final Rule[] rules;
+    private volatile long[][] pages = new long[16][];
+
+    /**
+     * Creates limits with empty buckets for every account.
+     *
+     * @param rules The rules every withdrawal must pass; at least one.
+     * @throws IllegalArgumentException if there are no rules.
+     */
+    public WithdrawalLimits(Rule... rules) {
+        if (rules.length == 0) {
+            throw new IllegalArgumentException("At least one rule is needed.");
+        }
+        this.rules = rules.clone();
+        startClock();
+    }
+
+    /**
+     * Reads the rules configured by system properties:
+     * {@code anudip.limits.daily}, an amount such as {@code 1000.00} that
+     * may be withdrawn from one account per day, and
+     * {@code anudip.limits.perMinute}, the number of withdrawals one account
+     * may make per minute.
+     *
+     * @return The rules, or an empty array if neither property is set.
+     * @throws IllegalArgumentException if the daily limit is not an amount or a limit is not positive.
+     */
+    public static Rule[] rulesFromProperties() {
+        List<Rule> rules = new ArrayList<>();
+        String daily = System.getProperty("anudip.limits.daily");
+        if (daily != null) {
+            long cents = Money.parse(daily);
+            if (cents == Money.INVALID) {
+                throw new IllegalArgumentException("anudip.limits.daily is not an amount: " + daily);
+            }
+            rules.add(Rule.amount(cents, 1, TimeUnit.DAYS));
+        }
+        Long perMinute = Long.getLong("anudip.limits.perMinute");
+        if (perMinute != null) {
+            rules.add(Rule.count(perMinute, 1, TimeUnit.MINUTES));
+        }
+        return rules.toArray(new Rule[0]);
+    }
+
+    /**
+     * Gets the rules.
+     *
+     * @return A copy of the rules, in the order they are checked.
+     */
+    public Rule[] rules() {
+        return rules.clone();
+    }
+
+    /**
+     * Counts a withdrawal against every rule if all of them allow it. A
+     * withdrawal that then fails for another reason, such as insufficient
+     * funds, should be given back with {@link #refund(int, long)}.
+     *
+     * @param slot The account's slot.
+     * @param cents The amount in cents; must be positive.
+     * @return -1 if the withdrawal is allowed and counted, or the index of the
+     *         first rule that refuses it, in which case nothing is counted.
+     */
+    public int tryAcquire(int slot, long cents) {
+        long now = clock;
+        boolean exact = false;
+        long[] page = page(slot);
+        int base = (slot & PAGE_MASK) * rules.length;
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = rules[i];
+            // An amount above the limit is refused before its cost is worked out.
+            boolean allowed = !(rule.amount && cents > rule.limit);
+            if (allowed) {
+                long cost = rule.cost(cents);
+                allowed = take(page, base + i, rule.periodNanos, cost, now);
+                if (!allowed && !exact) {
+                    now = System.nanoTime() - ORIGIN;
+                    exact = true;
+                    allowed = take(page, base + i, rule.periodNanos, cost, now);
+                }
+            }
+            if (!allowed) {
+                for (int j = 0; j < i; j++) {
+                    TIMES.getAndAdd(page, base + j, -rules[j].cost(cents));
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gives back a withdrawal counted by {@link #tryAcquire(int, long)}.
+     *
+     * @param slot The account's slot.
+     * @param cents The amount that was counted.
+     */
+    public void refund(int slot, long cents) {
+        long[] page = page(slot);
+        int base = (slot & PAGE_MASK) * rules.length;
+        for (int i = 0; i < rules.length; i++) {
+            TIMES.getAndAdd(page, base + i, -rules[i].cost(cents));
+        }
+    }
+
+    // Moves the time the bucket is full again forward by the cost, unless
+    // that puts it more than a period ahead of now, that is, unless the
+    // bucket holds less than the cost.
+    private static boolean take(long[] page, int index, long periodNanos, long cost, long now) {
+        while (true) {
+            long full = (long) TIMES.getVolatile(page, index);
+            long next = Math.max(full, now) + cost;
+            if (next - now > periodNanos) {
+                return false;
+            }
+            if (TIMES.compareAndSet(page, index, full, next)) {
+                return true;
+            }
+        }
+    }
+
+    // One clock serves every instance, so replacing the limits does not leave
+    // threads behind.
+    private static synchronized void startClock() {
+        if (ticker != null) {
+            return;
+        }
+        clock = System.nanoTime() - ORIGIN;
+        ticker = new Thread(() -> {
+            while (true) {
+                LockSupport.parkNanos(TICK_NANOS);
+                clock = System.nanoTime() - ORIGIN;
+            }
+        }, "withdrawal-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private long[] page(int slot) {
+        int index = slot >>> PAGE_BITS;
+        long[][] current = pages;
+        if (index < current.length) {
+            long[] page = (long[]) PAGES.getAcquire(current, index);
+            if (page != null) {
+                return page;
+            }
+        }
+        return allocate(index);
+    }
+
+    // Pages are shared by every copy of the directory, so a writer holding
+    // an old directory still updates the live times.
+    private synchronized long[] allocate(int index) {
+        long[][] current = pages;
+        if (index >= current.length) {
+            long[][] grown = new long[Math.max(current.length * 2, index + 1)][];
+            System.arraycopy(current, 0, grown, 0, current.length);
+            pages = grown;
+            current = grown;
+        }
+        long[] page = current[index];
+        if (page == null) {
+            page = new long[rules.length << PAGE_BITS];
+            PAGES.setRelease(current, index, page);
+        }
+        return page;
+    }
+}